@@ -0,0 +1,98 @@
+package madlang.parse;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * ByteScanner that classifies a whole vector of bytes (32 or 64) per step
+ * with jdk.incubator.vector, and finds the end of a run as the first lane
+ * outside the class.
+ *
+ * The Lexer only hands it runs that are longer than a few bytes (most names
+ * and indents are shorter, and a vector step costs more than testing them
+ * one by one). The end of the source, past the last whole vector, is scanned
+ * one byte at a time.
+ *
+ * Build with make vector; running needs --add-modules jdk.incubator.vector.
+ */
+public final class VectorByteScanner implements ByteScanner {
+
+    private final VectorSpecies<Byte> species;
+
+    /** A scanner for the widest vectors this machine has. */
+    public VectorByteScanner() {
+        this(ByteVector.SPECIES_PREFERRED);
+    }
+
+    /** @param bits vector width: 128, 256 or 512 */
+    public VectorByteScanner(int bits) {
+        this(switch (bits) {
+            case 128 -> ByteVector.SPECIES_128;
+            case 256 -> ByteVector.SPECIES_256;
+            case 512 -> ByteVector.SPECIES_512;
+            default -> throw new IllegalArgumentException("vector width " + bits);
+        });
+    }
+
+    private VectorByteScanner(VectorSpecies<Byte> species) {
+        this.species = species;
+    }
+
+    @Override
+    public int identEnd(byte[] src, int from, int limit) {
+        int step = species.length();
+        for (; from + step <= limit; from += step) {
+            ByteVector v = ByteVector.fromArray(species, src, from);
+            // Setting bit 5 lower-cases letters; no other byte lands in a-z
+            ByteVector lower = v.or((byte) 0x20);
+            VectorMask<Byte> in = lower.compare(VectorOperators.GE, (byte) 'a')
+                .and(lower.compare(VectorOperators.LE, (byte) 'z'))
+                .or(digits(v))
+                .or(v.compare(VectorOperators.EQ, (byte) '_'));
+            if (!in.allTrue()) return from + in.not().firstTrue();
+        }
+        return SCALAR.identEnd(src, from, limit);
+    }
+
+    @Override
+    public int digitsEnd(byte[] src, int from, int limit) {
+        int step = species.length();
+        for (; from + step <= limit; from += step) {
+            VectorMask<Byte> in = digits(ByteVector.fromArray(species, src, from));
+            if (!in.allTrue()) return from + in.not().firstTrue();
+        }
+        return SCALAR.digitsEnd(src, from, limit);
+    }
+
+    @Override
+    public int blanksEnd(byte[] src, int from, int limit) {
+        int step = species.length();
+        for (; from + step <= limit; from += step) {
+            ByteVector v = ByteVector.fromArray(species, src, from);
+            VectorMask<Byte> in = v.compare(VectorOperators.EQ, (byte) ' ')
+                .or(v.compare(VectorOperators.EQ, (byte) '\t'))
+                .or(v.compare(VectorOperators.EQ, (byte) '\r'));
+            if (!in.allTrue()) return from + in.not().firstTrue();
+        }
+        return SCALAR.blanksEnd(src, from, limit);
+    }
+
+    @Override
+    public int newlineAt(byte[] src, int from, int limit) {
+        int step = species.length();
+        for (; from + step <= limit; from += step) {
+            VectorMask<Byte> newline = ByteVector.fromArray(species, src, from).compare(VectorOperators.EQ, (byte) '\n');
+            if (newline.anyTrue()) return from + newline.firstTrue();
+        }
+        return SCALAR.newlineAt(src, from, limit);
+    }
+
+    private static VectorMask<Byte> digits(ByteVector v) {
+        return v.compare(VectorOperators.GE, (byte) '0').and(v.compare(VectorOperators.LE, (byte) '9'));
+    }
+
+    @Override
+    public String toString() { return "vector-" + species.vectorBitSize(); }
+}
@@ -0,0 +1,706 @@
+package madlang;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import madlang.analysis.Symbol;
+import madlang.analysis.TypeChecker;
+import madlang.ast.Ast;
+import madlang.ast.Expr;
+import madlang.ast.Stmt;
+import madlang.interp.CompileException;
+
+/**
+ * Translates a MadLang program into one C file, to measure how fast the same
+ * program runs as native code.
+ *
+ * Ints and bools are int32_t (bools 0/1) and the output has to be compiled
+ * with -fwrapv so that arithmetic wraps as in the interpreter:
+ *
+ *   gcc -O2 -fwrapv -o prog prog.c
+ *
+ * Every function, nested ones included, becomes a static C function. The
+ * variables of a function that nested functions use live in an environment
+ * struct (struct env_NAME) local to that function, and a nested function gets
+ * pointers to the environments of the functions enclosing it as its first
+ * parameters (e0 for the top-level one, e1 for the next, ...). Everything else
+ * is a plain C local.
+ *
+ * Expressions keep their MadLang shape, parenthesized like PrettyPrinter does,
+ * except that operators on literals alone are folded to their value.
+ * Where C leaves the order of evaluation open and it matters, because one
+ * operand calls a function or may fail and the other could see that, the
+ * earlier operands go through temporaries with the comma operator. Division
+ * and remainder go through helpers that report division by zero.
+ *
+ * A self call in return position restarts the function with goto, so tail
+ * recursion runs in constant stack as in the interpreter. Other calls use the
+ * C stack, which is not checked: very deep recursion crashes instead of
+ * reporting "call stack overflow".
+ */
+public final class CEmitter implements Stmt.Visitor<Boolean>, Expr.Visitor<Void> {
+
+    private static final String INDENT = "    ";
+
+    private final TypeChecker.Result checked;
+    private final StringBuilder out = new StringBuilder();
+
+    // C name of every function
+    private final IdentityHashMap<Ast.FunDecl, String> names = new IdentityHashMap<>();
+
+    // Captured variables: field of their owner's environment struct
+    private final IdentityHashMap<Symbol, String> envFields = new IdentityHashMap<>();
+
+    // Function being emitted, its C locals, its temporaries and the indentation depth
+    private Ast.FunDecl currentFn = null;
+    private boolean hasSelfTailCall = false;
+    private final IdentityHashMap<Symbol, String> locals = new IdentityHashMap<>();
+    private int temps = 0;
+    private int depth = 0;
+
+    private CEmitter(TypeChecker.Result checked) {
+        this.checked = checked;
+    }
+
+    /**
+     * @param program the AST of a whole MadLang program with a main()
+     * @return C source of a program that behaves like it
+     * @throws CompileException if the program has resolution or type errors
+     */
+    public static String emit(Ast.Program program) {
+        TypeChecker.Result checked = TypeChecker.check(program);
+        if (checked.hasErrors()) throw new CompileException(checked.errors);
+        CEmitter e = new CEmitter(checked);
+        e.prepare();
+        e.emitProgram();
+        return e.out.toString();
+    }
+
+    /** Names functions and lays out the environments. */
+    private void prepare() {
+        for (Ast.FunDecl f : checked.resolution.functions) {
+            Symbol sym = checked.resolution.symbol(f);
+            String name = sym.owner == null ? "f_" + f.name : names.get(sym.owner) + "_" + f.name;
+            // Nested functions of the same name in different blocks, or names that happen to meet
+            if (names.containsValue(name)) name += "_" + names.size();
+            names.put(f, name);
+            for (Ast.Param p : f.params) {
+                Symbol s = checked.resolution.symbol(p);
+                if (s.isCaptured()) envFields.put(s, s.name + "_" + envFields.size());
+            }
+            for (Stmt.VarDef d : varDefs(f)) {
+                Symbol s = checked.resolution.symbol(d);
+                if (s.isCaptured()) envFields.put(s, s.name + "_" + envFields.size());
+            }
+        }
+    }
+
+    /** @return the VarDefs of a function body, not looking into nested functions */
+    private static List<Stmt.VarDef> varDefs(Ast.FunDecl f) {
+        List<Stmt.VarDef> defs = new ArrayList<>();
+        collectVarDefs(f.body, defs);
+        return defs;
+    }
+
+    private static void collectVarDefs(Stmt s, List<Stmt.VarDef> defs) {
+        if (s instanceof Stmt.Block b) {
+            for (Stmt inner : b.stmts) collectVarDefs(inner, defs);
+        } else if (s instanceof Stmt.VarDef d) {
+            defs.add(d);
+        } else if (s instanceof Stmt.If i) {
+            collectVarDefs(i.thenBranch, defs);
+            if (i.elseBranchOrNull != null) collectVarDefs(i.elseBranchOrNull, defs);
+        } else if (s instanceof Stmt.While w) {
+            collectVarDefs(w.body, defs);
+        }
+    }
+
+    /** @return the captured variables of f, in environment order */
+    private List<Symbol> envOf(Ast.FunDecl f) {
+        List<Symbol> vars = new ArrayList<>();
+        for (Ast.Param p : f.params) {
+            Symbol s = checked.resolution.symbol(p);
+            if (s.isCaptured()) vars.add(s);
+        }
+        for (Stmt.VarDef d : varDefs(f)) {
+            Symbol s = checked.resolution.symbol(d);
+            if (s.isCaptured()) vars.add(s);
+        }
+        return vars;
+    }
+
+    /** @return the functions enclosing f, outermost first, that have an environment */
+    private List<Ast.FunDecl> enclosingEnvs(Ast.FunDecl f) {
+        List<Ast.FunDecl> result = new ArrayList<>();
+        for (Ast.FunDecl a = checked.resolution.symbol(f).owner; a != null; a = checked.resolution.symbol(a).owner) {
+            if (!envOf(a).isEmpty()) result.add(0, a);
+        }
+        return result;
+    }
+
+    private boolean hasSelfTailCall(Stmt s) {
+        if (s instanceof Stmt.Block b) {
+            for (Stmt inner : b.stmts) if (hasSelfTailCall(inner)) return true;
+            return false;
+        }
+        if (s instanceof Stmt.If i) {
+            return hasSelfTailCall(i.thenBranch) || i.elseBranchOrNull != null && hasSelfTailCall(i.elseBranchOrNull);
+        }
+        if (s instanceof Stmt.While w) return hasSelfTailCall(w.body);
+        return s instanceof Stmt.Return r && isSelfCall(r.value);
+    }
+
+    private boolean isSelfCall(Expr e) {
+        return e instanceof Expr.Call c && checked.resolution.symbol(c).decl == currentFn;
+    }
+
+    /////////////////////////
+    /// PROGRAM STRUCTURE ///
+    /////////////////////////
+
+    private void emitProgram() {
+        Ast.FunDecl main = null;
+        for (Ast.Decl decl : checked.resolution.program.decls) {
+            if (decl instanceof Ast.FunDecl f && f.name.equals("main")) main = f;
+        }
+        if (main == null) throw new IllegalArgumentException("program has no main function");
+        if (!main.params.isEmpty()) throw new IllegalArgumentException("main must not take parameters");
+
+        line("/* Generated from a MadLang program by madlang.CEmitter; do not edit.");
+        line(" * Build with: gcc -O2 -fwrapv -o prog prog.c */");
+        emitRuntime();
+
+        for (Symbol g : checked.resolution.globals) line("static int32_t g_" + g.name + ";");
+        line("");
+        for (Ast.FunDecl f : checked.resolution.functions) {
+            List<Symbol> env = envOf(f);
+            if (env.isEmpty()) continue;
+            line("struct env_" + names.get(f) + " {");
+            for (Symbol s : env) line(INDENT + "int32_t " + envFields.get(s) + ";");
+            line("};");
+            line("");
+        }
+        for (Ast.FunDecl f : checked.resolution.functions) line(signature(f) + ";");
+
+        for (Ast.FunDecl f : checked.resolution.functions) {
+            line("");
+            emitFunction(f);
+        }
+
+        line("");
+        line("int main(void) {");
+        depth++;
+        currentFn = null;
+        locals.clear();
+        temps = 0;
+        int bodyStart = out.length();
+        for (Ast.Decl decl : checked.resolution.program.decls) {
+            if (decl instanceof Ast.GlobalVarDecl g && g.initOrNull != null) {
+                indent();
+                out.append("g_").append(g.name).append(" = ");
+                g.initOrNull.accept(this);
+                out.append(";\n");
+            }
+        }
+        line(names.get(main) + "();");
+        line("ml_flush();");
+        line("return 0;");
+        declareTemps(bodyStart);
+        depth--;
+        line("}");
+    }
+
+    /** Output, input and error reporting, with the semantics of the interpreter's Machine. */
+    private void emitRuntime() {
+        String[] runtime = {
+            "#include <errno.h>",
+            "#include <inttypes.h>",
+            "#include <stdint.h>",
+            "#include <stdio.h>",
+            "#include <stdlib.h>",
+            "#include <string.h>",
+            "",
+            "static void ml_flush(void) {",
+            "    if (fflush(stdout) != 0) {",
+            "        fprintf(stderr, \"runtime error: output failed: %s\\n\", strerror(errno));",
+            "        exit(1);",
+            "    }",
+            "}",
+            "",
+            "static void ml_fail(const char *message) {",
+            "    ml_flush();",
+            "    fprintf(stderr, \"runtime error: %s\\n\", message);",
+            "    exit(1);",
+            "}",
+            "",
+            "static inline int32_t ml_div(int32_t a, int32_t b) {",
+            "    if (b == 0) ml_fail(\"division by zero\");",
+            "    return b == -1 ? -a : a / b;",
+            "}",
+            "",
+            "static inline int32_t ml_mod(int32_t a, int32_t b) {",
+            "    if (b == 0) ml_fail(\"division by zero\");",
+            "    return b == -1 ? 0 : a % b;",
+            "}",
+            "",
+            "static inline int32_t ml_output(int32_t value) {",
+            "    printf(\"%\" PRId32 \"\\n\", value);",
+            "    return 0;",
+            "}",
+            "",
+            "static inline int32_t ml_output_bool(int32_t value) {",
+            "    fputs(value ? \"true\\n\" : \"false\\n\", stdout);",
+            "    return 0;",
+            "}",
+            "",
+            "static inline int32_t ml_input(void) {",
+            "    static char line[4096];",
+            "    char message[4200];",
+            "    char *start, *end, *rest;",
+            "    long value;",
+            "    ml_flush();",
+            "    do {",
+            "        if (fgets(line, sizeof line, stdin) == NULL) {",
+            "            if (ferror(stdin)) ml_fail(\"input failed\");",
+            "            return 0;",
+            "        }",
+            "        start = line;",
+            "        while (*start != '\\0' && (unsigned char) *start <= ' ') start++;",
+            "        end = start + strlen(start);",
+            "        while (end > start && (unsigned char) end[-1] <= ' ') *--end = '\\0';",
+            "    } while (*start == '\\0');",
+            "    errno = 0;",
+            "    value = strtol(start, &rest, 10);",
+            "    if (*rest != '\\0' || errno != 0 || value < INT32_MIN || value > INT32_MAX) {",
+            "        snprintf(message, sizeof message, \"input is not an int: For input string: \\\"%s\\\"\", start);",
+            "        ml_fail(message);",
+            "    }",
+            "    return (int32_t) value;",
+            "}",
+            "",
+        };
+        for (String l : runtime) line(l);
+    }
+
+    private String signature(Ast.FunDecl f) {
+        StringBuilder params = new StringBuilder();
+        List<Ast.FunDecl> envs = enclosingEnvs(f);
+        for (Ast.FunDecl a : envs) {
+            if (params.length() > 0) params.append(", ");
+            params.append("struct env_").append(names.get(a)).append(" *e").append(checked.resolution.symbol(a).level);
+        }
+        for (Ast.Param p : f.params) {
+            if (params.length() > 0) params.append(", ");
+            params.append("int32_t p_").append(p.name);
+        }
+        return "static int32_t " + names.get(f) + "(" + (params.length() == 0 ? "void" : params) + ")";
+    }
+
+    private void emitFunction(Ast.FunDecl f) {
+        currentFn = f;
+        locals.clear();
+        temps = 0;
+        for (Ast.Param p : f.params) locals.put(checked.resolution.symbol(p), "p_" + p.name);
+
+        line(signature(f) + " {");
+        depth++;
+        if (!envOf(f).isEmpty()) line("struct env_" + names.get(f) + " env;");
+        for (Stmt.VarDef d : varDefs(f)) {
+            Symbol s = checked.resolution.symbol(d);
+            if (!s.isCaptured()) line("int32_t " + localName(s) + " = 0;");
+        }
+        int bodyStart = out.length();
+
+        hasSelfTailCall = hasSelfTailCall(f.body);
+        if (hasSelfTailCall) line("top:;");
+        // Captured parameters move into the environment, on every restart too
+        for (Ast.Param p : f.params) {
+            Symbol s = checked.resolution.symbol(p);
+            if (s.isCaptured()) line(variable(s) + " = p_" + p.name + ";");
+        }
+        if (block(f.body.stmts)) {
+            line("ml_fail(\"function '" + f.name + "' ended without returning\");");
+            line("return 0;");
+        }
+        declareTemps(bodyStart);
+        depth--;
+        line("}");
+    }
+
+    /** Declares the temporaries used since start, at start. */
+    private void declareTemps(int start) {
+        if (temps == 0) return;
+        StringBuilder decl = new StringBuilder();
+        for (int i = 0; i < depth; i++) decl.append(INDENT);
+        decl.append("int32_t");
+        for (int i = 0; i < temps; i++) decl.append(i == 0 ? " t" : ", t").append(i);
+        out.insert(start, decl.append(";\n"));
+    }
+
+    /** @return the C local of an uncaptured local variable */
+    private String localName(Symbol s) {
+        String name = locals.get(s);
+        if (name == null) {
+            name = "v_" + s.name + "_" + locals.size();
+            locals.put(s, name);
+        }
+        return name;
+    }
+
+    /** @return a C lvalue for a variable */
+    private String variable(Symbol s) {
+        if (s.kind == Symbol.Kind.GLOBAL) return "g_" + s.name;
+        String field = envFields.get(s);
+        if (field == null) return localName(s);
+        return s.owner == currentFn ? "env." + field : "e" + s.level + "->" + field;
+    }
+
+    //////////////////
+    /// STATEMENTS ///
+    //////////////////
+
+    /**
+     * Emits statements up to the first one that cannot complete normally; the
+     * ones after it never run.
+     *
+     * @return true if the last emitted statement can complete normally
+     */
+    private boolean block(List<Stmt> stmts) {
+        for (Stmt s : stmts) {
+            if (!s.accept(this)) return false;
+        }
+        return true;
+    }
+
+    /** Emits the body of an if or while one level deeper, without extra braces for a block. */
+    private boolean branch(Stmt s) {
+        depth++;
+        boolean completes = s instanceof Stmt.Block b ? block(b.stmts) : s.accept(this);
+        depth--;
+        return completes;
+    }
+
+    @Override
+    public Boolean visitBlockStmt(Stmt.Block s) {
+        line("{");
+        boolean completes = branch(s);
+        line("}");
+        return completes;
+    }
+
+    @Override
+    public Boolean visitVarDefStmt(Stmt.VarDef s) {
+        // Uninitialized variables start at 0 (false), also when a loop re-enters their block
+        indent();
+        out.append(variable(checked.resolution.symbol(s))).append(" = ");
+        if (s.initOrNull == null) out.append("0");
+        else s.initOrNull.accept(this);
+        out.append(";\n");
+        return true;
+    }
+
+    @Override
+    public Boolean visitFunDefStmt(Stmt.FunDef s) {
+        return true;
+    }
+
+    @Override
+    public Boolean visitAssignStmt(Stmt.Assign s) {
+        indent();
+        out.append(variable(checked.resolution.symbol(s))).append(" = ");
+        s.rhs.accept(this);
+        out.append(";\n");
+        return true;
+    }
+
+    @Override
+    public Boolean visitIfStmt(Stmt.If s) {
+        indent();
+        out.append("if (");
+        s.cond.accept(this);
+        out.append(") {\n");
+        boolean thenCompletes = branch(s.thenBranch);
+        if (s.elseBranchOrNull == null) {
+            line("}");
+            return true;
+        }
+        line("} else {");
+        boolean elseCompletes = branch(s.elseBranchOrNull);
+        line("}");
+        return thenCompletes || elseCompletes;
+    }
+
+    @Override
+    public Boolean visitWhileStmt(Stmt.While s) {
+        indent();
+        out.append("while (");
+        s.cond.accept(this);
+        out.append(") {\n");
+        branch(s.body);
+        line("}");
+        return true;
+    }
+
+    @Override
+    public Boolean visitReturnStmt(Stmt.Return s) {
+        if (hasSelfTailCall && isSelfCall(s.value)) {
+            Expr.Call c = (Expr.Call) s.value;
+            // Evaluate all arguments before any parameter changes
+            int first = temps;
+            for (Expr arg : c.args) {
+                indent();
+                out.append("t").append(temps++).append(" = ");
+                arg.accept(this);
+                out.append(";\n");
+            }
+            for (int i = 0; i < c.args.size(); i++) line("p_" + currentFn.params.get(i).name + " = t" + (first + i) + ";");
+            line("goto top;");
+            return false;
+        }
+        indent();
+        out.append("return ");
+        s.value.accept(this);
+        out.append(";\n");
+        return false;
+    }
+
+    @Override
+    public Boolean visitExprStmt(Stmt.ExprStmt s) {
+        indent();
+        // Keeps gcc quiet about statements without effect
+        if (!(s.expr instanceof Expr.Call)) out.append("(void) ");
+        printExpr(s.expr, Expr.UnOp.NEG.precedence(), false);
+        out.append(";\n");
+        return true;
+    }
+
+    ////////////////////////
+    /// EVALUATION ORDER ///
+    ////////////////////////
+
+    /** @return true if evaluating e may call a function or fail */
+    private static boolean hasEffects(Expr e) {
+        if (e instanceof Expr.Call) return true;
+        if (e instanceof Expr.Unary u) return hasEffects(u.expr);
+        if (e instanceof Expr.Binary b) {
+            return b.op == Expr.BinOp.DIV || b.op == Expr.BinOp.MOD || hasEffects(b.left) || hasEffects(b.right);
+        }
+        return false;
+    }
+
+    /** @return true if e has no effects and reads nothing a call could change */
+    private boolean isStable(Expr e) {
+        if (e instanceof Expr.Var v) {
+            Symbol s = checked.resolution.symbol(v);
+            return s.kind != Symbol.Kind.GLOBAL && !s.isCaptured();
+        }
+        if (e instanceof Expr.Unary u) return isStable(u.expr);
+        if (e instanceof Expr.Binary b) return !hasEffects(b) && isStable(b.left) && isStable(b.right);
+        return e instanceof Expr.IntLit || e instanceof Expr.BoolLit;
+    }
+
+    /** @return true if the result could depend on whether a or b is evaluated first */
+    private boolean orderMatters(Expr a, Expr b) {
+        return hasEffects(a) && !isStable(b) || hasEffects(b) && !isStable(a);
+    }
+
+    private boolean isSequenced(Expr.Binary e) {
+        return e.op != Expr.BinOp.LAND && e.op != Expr.BinOp.LOR && orderMatters(e.left, e.right);
+    }
+
+    /** @return true if a call's arguments have to be evaluated one at a time */
+    private boolean isSequenced(Expr.Call e) {
+        for (int i = 0; i < e.args.size(); i++) {
+            for (int j = i + 1; j < e.args.size(); j++) {
+                if (orderMatters(e.args.get(i), e.args.get(j))) return true;
+            }
+        }
+        return false;
+    }
+
+    ///////////////////
+    /// EXPRESSIONS ///
+    ///////////////////
+
+    /**
+     * Prints a child expression like PrettyPrinter.printExpr. Expressions that
+     * come out as a call or a parenthesized comma expression need no parentheses.
+     */
+    private void printExpr(Expr e, int parentPrec, boolean isRightChild) {
+        boolean primary = e instanceof Expr.Binary b
+            && (b.op == Expr.BinOp.DIV || b.op == Expr.BinOp.MOD || isSequenced(b) || constant(b) != null);
+        if (!primary && PrettyPrinter.needsParens(e, parentPrec, isRightChild)) {
+            out.append("(");
+            e.accept(this);
+            out.append(")");
+        } else {
+            e.accept(this);
+        }
+    }
+
+    /**
+     * @return the value of an expression of literals and operators only, bools
+     *         as 0/1, computed with Java's wrap-around like the interpreter; or
+     *         null if it reads a variable, calls, or divides by zero
+     */
+    private static Integer constant(Expr e) {
+        if (e instanceof Expr.IntLit i) return i.value;
+        if (e instanceof Expr.BoolLit b) return b.value ? 1 : 0;
+        if (e instanceof Expr.Unary u) {
+            Integer v = constant(u.expr);
+            if (v == null) return null;
+            return u.op == Expr.UnOp.NEG ? -v : v == 0 ? 1 : 0;
+        }
+        if (!(e instanceof Expr.Binary b)) return null;
+        Integer left = constant(b.left);
+        Integer right = left == null ? null : constant(b.right);
+        if (right == null) return null;
+        int x = left, y = right;
+        switch (b.op) {
+            case MUL: return x * y;
+            case DIV: return y == 0 ? null : x / y;
+            case MOD: return y == 0 ? null : x % y;
+            case ADD: return x + y;
+            case SUB: return x - y;
+            case LT: return x < y ? 1 : 0;
+            case LE: return x <= y ? 1 : 0;
+            case GT: return x > y ? 1 : 0;
+            case GE: return x >= y ? 1 : 0;
+            case EQ: return x == y ? 1 : 0;
+            case NE: return x != y ? 1 : 0;
+            case LAND: return x != 0 && y != 0 ? 1 : 0;
+            case LOR: return x != 0 || y != 0 ? 1 : 0;
+            default: throw new IllegalStateException("Unknown binary operator: " + b.op);
+        }
+    }
+
+    /** Appends an int literal; negative ones are parenthesized, as in x - (-1). */
+    private void literal(int value) {
+        if (value == Integer.MIN_VALUE) out.append("INT32_MIN");
+        else if (value < 0) out.append("(").append(value).append(")");
+        else out.append(value);
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary e) {
+        Integer value = constant(e);
+        if (value != null) {
+            literal(value);
+            return null;
+        }
+        out.append(e.op.toSource());
+        // "- -x" must not become the decrement "--x"
+        if (e.op == Expr.UnOp.NEG && e.expr instanceof Expr.Unary u && u.op == Expr.UnOp.NEG) out.append(" ");
+        printExpr(e.expr, e.op.precedence(), false);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary e) {
+        // gcc warns about constant expressions that overflow, though -fwrapv makes them wrap
+        Integer value = constant(e);
+        if (value != null) {
+            literal(value);
+            return null;
+        }
+        String left = null;
+        if (isSequenced(e)) {
+            left = "t" + temps++;
+            out.append("(").append(left).append(" = ");
+            e.left.accept(this);
+            out.append(", ");
+        }
+        if (e.op == Expr.BinOp.DIV || e.op == Expr.BinOp.MOD) {
+            out.append(e.op == Expr.BinOp.DIV ? "ml_div(" : "ml_mod(");
+            if (left != null) out.append(left);
+            else e.left.accept(this);
+            out.append(", ");
+            e.right.accept(this);
+            out.append(")");
+        } else {
+            int parentPrec = e.op.precedence();
+            if (left != null) out.append(left);
+            else printExpr(e.left, parentPrec, false);
+            out.append(" ").append(e.op.toSource()).append(" ");
+            printExpr(e.right, parentPrec, true);
+        }
+        if (left != null) out.append(")");
+        return null;
+    }
+
+    @Override
+    public Void visitIntLitExpr(Expr.IntLit e) {
+        literal(e.value);
+        return null;
+    }
+
+    @Override
+    public Void visitBoolLitExpr(Expr.BoolLit e) {
+        out.append(e.value ? "1" : "0");
+        return null;
+    }
+
+    @Override
+    public Void visitVarExpr(Expr.Var e) {
+        out.append(variable(checked.resolution.symbol(e)));
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call e) {
+        Symbol sym = checked.resolution.symbol(e);
+        if (sym == Symbol.OUTPUT) {
+            Expr arg = e.args.get(0);
+            out.append(checked.typeOf(arg) == Ast.Type.BOOL ? "ml_output_bool(" : "ml_output(");
+            arg.accept(this);
+            out.append(")");
+            return null;
+        }
+        if (sym == Symbol.INPUT) {
+            out.append("ml_input()");
+            return null;
+        }
+
+        // All but the last argument go through temporaries when their order matters
+        String[] values = new String[e.args.size()];
+        boolean sequenced = isSequenced(e);
+        if (sequenced) {
+            out.append("(");
+            for (int i = 0; i < values.length - 1; i++) {
+                values[i] = "t" + temps++;
+                out.append(values[i]).append(" = ");
+                e.args.get(i).accept(this);
+                out.append(", ");
+            }
+        }
+
+        // The callee's enclosing functions enclose this one too, or are this one
+        Ast.FunDecl callee = (Ast.FunDecl) sym.decl;
+        out.append(names.get(callee)).append("(");
+        boolean first = true;
+        for (Ast.FunDecl a : enclosingEnvs(callee)) {
+            if (!first) out.append(", ");
+            first = false;
+            out.append(a == currentFn ? "&env" : "e" + checked.resolution.symbol(a).level);
+        }
+        for (int i = 0; i < values.length; i++) {
+            if (!first) out.append(", ");
+            first = false;
+            if (values[i] != null) out.append(values[i]);
+            else e.args.get(i).accept(this);
+        }
+        out.append(")");
+        if (sequenced) out.append(")");
+        return null;
+    }
+
+    private void indent() {
+        for (int i = 0; i < depth; i++) out.append(INDENT);
+    }
+
+    private void line(String text) {
+        if (!text.isEmpty()) indent();
+        out.append(text).append('\n');
+    }
+}
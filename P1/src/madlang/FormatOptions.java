@@ -0,0 +1,108 @@
+package madlang;
+
+import java.util.Objects;
+
+import madlang.ast.Expr;
+
+/**
+ * Formatting style for the pretty printer.
+ *
+ * Options are immutable; start from DEFAULT and derive variants with the
+ * with* methods, e.g. FormatOptions.DEFAULT.withIndentWidth(4).withBraceStyle(BraceStyle.NEXT_LINE).
+ *
+ * Every fixed text fragment that depends on the style (indent strings, operator
+ * text, brace and else separators) is built once in the constructor, so the
+ * printer only ever appends precomputed strings.
+ */
+public final class FormatOptions {
+
+    /** Where the opening brace of a block goes. */
+    public enum BraceStyle {
+        SAME_LINE, // if (x) {
+        NEXT_LINE  // if (x)\n{
+    }
+
+    /** The style the printer has always used: 2 spaces, K&R braces, else on its own line. */
+    public static final FormatOptions DEFAULT = new FormatOptions(2, false, BraceStyle.SAME_LINE, true, 0, true);
+
+    // Indent strings for this many levels are prebuilt; deeper levels are rare
+    // and get composed from the deepest prebuilt one
+    static final int PREBUILT_LEVELS = 32;
+
+    public final int indentWidth;
+    public final boolean useTabs;
+    public final BraceStyle braceStyle;
+    public final boolean elseOnNewLine;
+    public final int blankLinesBetweenFunctions;
+    public final boolean spaceAroundOperators;
+
+    // Precomputed emit tables
+    final String[] indents;     // indents[level] = whitespace for that level
+    final String[] openBraces;  // text between a header like "if (x)" and the block body, per level
+    final String[] closeBraces; // indented "}" per level, without the newline
+    final String[] binOps;      // indexed by Expr.BinOp.ordinal(), spacing included
+    final String blankLines;    // separator between top-level functions
+
+    private FormatOptions(int indentWidth, boolean useTabs, BraceStyle braceStyle,
+                          boolean elseOnNewLine, int blankLinesBetweenFunctions,
+                          boolean spaceAroundOperators) {
+        if (indentWidth < 0) throw new IllegalArgumentException("indentWidth < 0: " + indentWidth);
+        if (blankLinesBetweenFunctions < 0) {
+            throw new IllegalArgumentException("blankLinesBetweenFunctions < 0: " + blankLinesBetweenFunctions);
+        }
+        this.indentWidth = indentWidth;
+        this.useTabs = useTabs;
+        this.braceStyle = Objects.requireNonNull(braceStyle);
+        this.elseOnNewLine = elseOnNewLine;
+        this.blankLinesBetweenFunctions = blankLinesBetweenFunctions;
+        this.spaceAroundOperators = spaceAroundOperators;
+
+        String unit = useTabs ? "\t" : " ".repeat(indentWidth);
+        this.indents = new String[PREBUILT_LEVELS + 1];
+        this.openBraces = new String[PREBUILT_LEVELS + 1];
+        this.closeBraces = new String[PREBUILT_LEVELS + 1];
+        for (int level = 0; level <= PREBUILT_LEVELS; level++) {
+            indents[level] = unit.repeat(level);
+            openBraces[level] = braceStyle == BraceStyle.SAME_LINE ? " {\n" : "\n" + indents[level] + "{\n";
+            closeBraces[level] = indents[level] + "}";
+        }
+
+        Expr.BinOp[] ops = Expr.BinOp.values();
+        this.binOps = new String[ops.length];
+        for (Expr.BinOp op : ops) {
+            binOps[op.ordinal()] = spaceAroundOperators ? " " + op.toSource() + " " : op.toSource();
+        }
+
+        this.blankLines = "\n".repeat(blankLinesBetweenFunctions);
+    }
+
+    /** Spaces per indentation level (ignored when tabs are on). */
+    public FormatOptions withIndentWidth(int width) {
+        return new FormatOptions(width, useTabs, braceStyle, elseOnNewLine, blankLinesBetweenFunctions, spaceAroundOperators);
+    }
+
+    /** Indent with one tab per level instead of indentWidth spaces. */
+    public FormatOptions withTabs(boolean tabs) {
+        return new FormatOptions(indentWidth, tabs, braceStyle, elseOnNewLine, blankLinesBetweenFunctions, spaceAroundOperators);
+    }
+
+    /** Opening braces on the header line (K&R) or on a line of their own (Allman). */
+    public FormatOptions withBraceStyle(BraceStyle style) {
+        return new FormatOptions(indentWidth, useTabs, style, elseOnNewLine, blankLinesBetweenFunctions, spaceAroundOperators);
+    }
+
+    /** true: "}\nelse {", false: "} else {" (only applies when the then-branch is a block). */
+    public FormatOptions withElseOnNewLine(boolean newLine) {
+        return new FormatOptions(indentWidth, useTabs, braceStyle, newLine, blankLinesBetweenFunctions, spaceAroundOperators);
+    }
+
+    /** Blank lines between adjacent top-level declarations when either one is a function. */
+    public FormatOptions withBlankLinesBetweenFunctions(int lines) {
+        return new FormatOptions(indentWidth, useTabs, braceStyle, elseOnNewLine, lines, spaceAroundOperators);
+    }
+
+    /** true: "a + b", false: "a+b". */
+    public FormatOptions withSpaceAroundOperators(boolean spaces) {
+        return new FormatOptions(indentWidth, useTabs, braceStyle, elseOnNewLine, blankLinesBetweenFunctions, spaces);
+    }
+}
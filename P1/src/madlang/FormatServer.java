@@ -0,0 +1,266 @@
+package madlang;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import madlang.parse.ParseException;
+import madlang.parse.Parser;
+
+/**
+ * Pretty-prints MadLang source sent over a Unix-domain socket, so that
+ * formatting a file costs a connection instead of starting a JVM, and runs
+ * on a parser and PrettyPrinter the JIT has already compiled.
+ *
+ * One request per connection: the client writes the source and shuts down
+ * its output, and the server answers with a header line and a body, then
+ * closes the connection:
+ *
+ *   ok\n                     followed by the formatted program
+ *   syntax-error LINE COL\n  followed by the parser's message
+ *   error\n                  followed by a message (e.g. source too large)
+ *
+ * so a client can be as small as nc -U -N SOCKET < FILE; format() is one in
+ * Java. Requests are served concurrently by a fixed pool of threads; they
+ * share nothing but the immutable FormatOptions.
+ *
+ * A client must send all of its source within the read timeout, or its input
+ * is shut and it gets an error reply; so a client that stalls holds a thread
+ * of the pool for that long at most.
+ *
+ * The socket file is created by start() and deleted by close(). A socket file
+ * left behind by a server that died is replaced; one that a live server
+ * answers on is not.
+ */
+public final class FormatServer implements AutoCloseable {
+
+    /** Largest source accepted, in bytes. */
+    public static final int MAX_SOURCE = 64 << 20;
+
+    /** How long a client has to send its source, unless start is given another timeout. */
+    public static final Duration DEFAULT_READ_TIMEOUT = Duration.ofSeconds(10);
+
+    // How long close() waits for requests being served
+    private static final long CLOSE_SECONDS = 10;
+
+    private final Path socket;
+    private final ServerSocketChannel server;
+    private final FormatOptions options;
+    private final Duration readTimeout;
+    private final ExecutorService workers;
+    // Shuts the input of connections whose read timeout ran out
+    private final ScheduledExecutorService deadlines;
+    private final Thread acceptor;
+
+    private FormatServer(Path socket, ServerSocketChannel server, FormatOptions options, int threads, Duration readTimeout) {
+        this.socket = socket;
+        this.server = server;
+        this.options = options;
+        this.readTimeout = readTimeout;
+        AtomicInteger count = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(threads, task -> {
+            Thread t = new Thread(task, "madlang-format-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.deadlines = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread t = new Thread(task, "madlang-format-deadlines");
+            t.setDaemon(true);
+            return t;
+        });
+        this.acceptor = new Thread(this::accept, "madlang-format-accept");
+    }
+
+    /** Serves on socket with one thread per available processor and the default format. */
+    public static FormatServer start(Path socket) throws IOException {
+        return start(socket, Runtime.getRuntime().availableProcessors(), FormatOptions.DEFAULT);
+    }
+
+    /** Like start(socket, threads, options, readTimeout), with the default read timeout. */
+    public static FormatServer start(Path socket, int threads, FormatOptions options) throws IOException {
+        return start(socket, threads, options, DEFAULT_READ_TIMEOUT);
+    }
+
+    /**
+     * Binds socket and starts serving on a background thread.
+     *
+     * @param threads number of requests formatted at the same time
+     * @param readTimeout how long each client has to send its source
+     * @throws IllegalStateException if another server already answers on socket,
+     *         or socket is an ordinary file
+     */
+    public static FormatServer start(Path socket, int threads, FormatOptions options, Duration readTimeout)
+            throws IOException {
+        if (threads < 1) throw new IllegalArgumentException("threads < 1: " + threads);
+        if (readTimeout.isNegative() || readTimeout.isZero()) throw new IllegalArgumentException("readTimeout not positive: " + readTimeout);
+        if (Files.isRegularFile(socket)) throw new IllegalStateException(socket + " is a file, not a socket");
+        if (Files.exists(socket)) {
+            boolean answered;
+            try {
+                SocketChannel.open(UnixDomainSocketAddress.of(socket)).close();
+                answered = true;
+            } catch (IOException stale) {
+                answered = false;
+            }
+            if (answered) throw new IllegalStateException("a server is already listening on " + socket);
+            Files.delete(socket);
+        }
+        ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            server.bind(UnixDomainSocketAddress.of(socket));
+        } catch (IOException e) {
+            server.close();
+            throw e;
+        }
+        FormatServer s = new FormatServer(socket, server, options, threads, readTimeout);
+        s.acceptor.start();
+        return s;
+    }
+
+    /** Waits until the server is closed. */
+    public void await() throws InterruptedException {
+        acceptor.join();
+    }
+
+    /**
+     * Stops accepting, lets requests being served finish, and deletes the
+     * socket file. A request still running after CLOSE_SECONDS (a client that
+     * never finishes sending, say) is interrupted, which closes its connection.
+     */
+    @Override
+    public void close() throws IOException {
+        server.close();
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(CLOSE_SECONDS, TimeUnit.SECONDS)) workers.shutdownNow();
+        } catch (InterruptedException e) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        deadlines.shutdownNow();
+        Files.deleteIfExists(socket);
+    }
+
+    private void accept() {
+        try {
+            while (true) {
+                SocketChannel client = server.accept();
+                try {
+                    workers.execute(() -> serve(client));
+                } catch (RejectedExecutionException e) {
+                    // Accepted just as close() shut the workers down
+                    client.close();
+                }
+            }
+        } catch (AsynchronousCloseException e) {
+            // closed
+        } catch (IOException e) {
+            System.err.println("format server: " + e.getMessage());
+        }
+    }
+
+    private void serve(SocketChannel client) {
+        try (client) {
+            // Shutting the input ends a read that is still waiting, as if the client had sent all
+            AtomicBoolean late = new AtomicBoolean();
+            ScheduledFuture<?> deadline = deadlines.schedule(() -> {
+                late.set(true);
+                try {
+                    client.shutdownInput();
+                } catch (IOException e) {
+                    // closed already
+                }
+            }, readTimeout.toNanos(), TimeUnit.NANOSECONDS);
+            byte[] source;
+            try {
+                source = Channels.newInputStream(client).readNBytes(MAX_SOURCE + 1);
+            } finally {
+                deadline.cancel(false);
+            }
+            String header;
+            String body;
+            if (late.get()) {
+                header = "error";
+                body = "source not sent within " + readTimeout.toMillis() + " ms";
+            } else if (source.length > MAX_SOURCE) {
+                header = "error";
+                body = "source larger than " + MAX_SOURCE + " bytes";
+            } else {
+                try {
+                    body = PrettyPrinter.pretty(Parser.parse(source), options);
+                    header = "ok";
+                } catch (ParseException e) {
+                    header = "syntax-error " + e.line + " " + e.col;
+                    body = message(e);
+                } catch (RuntimeException | StackOverflowError | OutOfMemoryError e) {
+                    // A bug or a source too big for the heap: the client still gets an answer
+                    System.err.println("format server: " + e);
+                    header = "error";
+                    body = "cannot format: " + e;
+                }
+            }
+            OutputStream out = Channels.newOutputStream(client);
+            out.write((header + "\n" + body).getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        } catch (IOException e) {
+            // The client went away; nothing to answer
+        }
+    }
+
+    /** @return e's message without the line:col prefix ParseException adds */
+    private static String message(ParseException e) {
+        String prefix = e.line + ":" + e.col + ": ";
+        String m = e.getMessage();
+        return m.startsWith(prefix) ? m.substring(prefix.length()) : m;
+    }
+
+    //////////////
+    /// CLIENT ///
+    //////////////
+
+    /**
+     * Has the server on socket format source.
+     *
+     * @return the formatted program
+     * @throws ParseException if source is not a program, as Parser.parse would
+     * @throws IllegalStateException if the server could not format it
+     */
+    public static String format(Path socket, byte[] source) throws IOException {
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+            OutputStream out = Channels.newOutputStream(channel);
+            out.write(source);
+            out.flush();
+            channel.shutdownOutput();
+            InputStream in = Channels.newInputStream(channel);
+            String reply = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            int newline = reply.indexOf('\n');
+            if (newline < 0) throw new IllegalStateException("malformed reply from " + socket);
+            String header = reply.substring(0, newline);
+            String body = reply.substring(newline + 1);
+            if (header.equals("ok")) return body;
+            if (header.startsWith("syntax-error ")) {
+                String[] at = header.split(" ");
+                throw new ParseException(Integer.parseInt(at[1]), Integer.parseInt(at[2]), body);
+            }
+            throw new IllegalStateException(body);
+        }
+    }
+}
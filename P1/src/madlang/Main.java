@@ -1,14 +1,115 @@
 package madlang;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import madlang.aot.AotCompiler;
+import madlang.ast.Ast;
+import madlang.interp.CompileException;
+import madlang.interp.Interpreter;
+import madlang.interp.OutputSink;
+import madlang.interp.RuntimeError;
+import madlang.parse.ParseException;
+import madlang.parse.Parser;
 import madlang.test.TestPrograms;
 
+/**
+ * Usage:
+ *   java madlang.Main                       pretty-prints the test programs
+ *   java madlang.Main FILE.madl             parses FILE.madl and pretty-prints it
+ *   java madlang.Main --stream FILE.madl    the same, one declaration at a time (- reads stdin)
+ *   java madlang.Main --serve SOCKET        pretty-prints files sent to a Unix-domain socket (see FormatServer)
+ *   java madlang.Main --format SOCKET FILE  has the server on SOCKET pretty-print FILE (- reads stdin)
+ *   java madlang.Main --run NAME            interprets test program NAME (test1 ... test8)
+ *   java madlang.Main --jar NAME FILE.jar   compiles NAME ahead of time into a runnable jar
+ *   java madlang.Main --c NAME FILE.c       translates NAME to C (build with gcc -O2 -fwrapv)
+ *
+ * NAME may also be the path of a .madl file.
+ */
 public final class Main {
-  public static void main(String[] args) {
+  public static void main(String[] args) throws IOException {
+    try {
+      if (args.length == 2 && args[0].equals("--run")) {
+        Interpreter program = Interpreter.compile(program(args[1]));
+        program.run(OutputSink.stdout(), new BufferedReader(new InputStreamReader(System.in)));
+        return;
+      }
+      if (args.length == 3 && args[0].equals("--jar")) {
+        Path jar = Path.of(args[2]);
+        String className = jar.getFileName().toString().replaceFirst("\\.jar$", "");
+        AotCompiler.writeJar(program(args[1]), className, jar);
+        return;
+      }
+      if (args.length == 3 && args[0].equals("--c")) {
+        Files.writeString(Path.of(args[2]), CEmitter.emit(program(args[1])));
+        return;
+      }
+      if (args.length == 2 && args[0].equals("--stream")) {
+        Reader in = args[1].equals("-")
+          ? new InputStreamReader(System.in, StandardCharsets.UTF_8)
+          : Files.newBufferedReader(Path.of(args[1]));
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+        try (in) {
+          StreamingPipeline.run(in, out);
+        } finally {
+          out.flush();
+        }
+        return;
+      }
+      if (args.length == 2 && args[0].equals("--serve")) {
+        FormatServer server = FormatServer.start(Path.of(args[1]));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+          try {
+            server.close();
+          } catch (IOException e) {
+            // exiting anyway
+          }
+        }));
+        System.err.println("serving on " + args[1]);
+        try {
+          server.await();
+        } catch (InterruptedException e) {
+          server.close();
+        }
+        return;
+      }
+      if (args.length == 3 && args[0].equals("--format")) {
+        byte[] source = args[2].equals("-") ? System.in.readAllBytes() : Files.readAllBytes(Path.of(args[2]));
+        System.out.print(FormatServer.format(Path.of(args[1]), source));
+        return;
+      }
+      if (args.length == 1) {
+        System.out.print(PrettyPrinter.pretty(Parser.parse(Files.readAllBytes(Path.of(args[0])))));
+        return;
+      }
+    } catch (ParseException e) {
+      System.err.println("syntax error: " + e.getMessage());
+      System.exit(1);
+    } catch (RuntimeError e) {
+      System.err.println("runtime error: " + e.getMessage());
+      System.exit(1);
+    } catch (CompileException | IllegalArgumentException | IllegalStateException e) {
+      System.err.println("error: " + e.getMessage());
+      System.exit(1);
+    }
     if (args.length > 0) {
-      System.err.println(
-        "Warning: parser not implemented, ignoring the input file."
-      );
+      System.err.println("Warning: unrecognized arguments, ignoring them.");
     }
     TestPrograms.runAll();
   }
+
+  private static Ast.Program program(String name) throws IOException {
+    if (name.endsWith(".madl")) return Parser.parse(Files.readAllBytes(Path.of(name)));
+    Ast.Program p = TestPrograms.byName(name);
+    if (p == null) throw new IllegalArgumentException("no test program named " + name);
+    return p;
+  }
 }
@@ -0,0 +1,56 @@
+package madlang;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event emitted once per PrettyPrinter.pretty call.
+ *
+ * Enable it in a recording with e.g.
+ *   java -XX:StartFlightRecording:filename=pp.jfr,settings=profile madlang.Main
+ * and look for "madlang.PrettyPrint". While the event is disabled the printer
+ * does not collect any statistics for it.
+ */
+@Name("madlang.PrettyPrint")
+@Label("Pretty Print")
+@Category("MadLang")
+@Description("One pretty-printer run over a whole program")
+final class PrettyPrintEvent extends Event {
+
+    @Label("Expression Nodes")
+    long exprNodes;
+
+    @Label("Statement Nodes")
+    long stmtNodes;
+
+    @Label("Max Block Depth")
+    int maxBlockDepth;
+
+    @Label("Max Expression Depth")
+    int maxExprDepth;
+
+    @Label("Parentheses Inserted")
+    long parensInserted;
+
+    @Label("Bytes Emitted")
+    @DataAmount
+    long bytesEmitted;
+
+    @Label("Allocated")
+    @DataAmount
+    long allocatedBytes;
+
+    void fill(PrintStats stats) {
+        exprNodes = stats.exprNodes();
+        stmtNodes = stats.stmtNodes();
+        maxBlockDepth = stats.maxBlockDepth();
+        maxExprDepth = stats.maxExprDepth();
+        parensInserted = stats.parensInserted();
+        bytesEmitted = stats.bytesEmitted();
+        allocatedBytes = stats.allocatedBytes();
+    }
+}
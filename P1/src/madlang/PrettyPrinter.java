@@ -1,5 +1,10 @@
 package madlang;
 
+import java.io.IOException;
+import java.util.Objects;
+
+import jdk.jfr.FlightRecorder;
+
 import madlang.ast.Ast;
 import madlang.ast.Expr;
 import madlang.ast.Stmt;
@@ -19,18 +24,182 @@ public final class PrettyPrinter implements Expr.Visitor<String>, Stmt.Visitor<S
     // decremented according to the current scope
     private int indent = 0;
 
-    private PrettyPrinter() {}
+    // Formatting style; all style-dependent text comes from its precomputed tables
+    private final FormatOptions options;
+
+    // Optional metrics sink; null when nobody asked for statistics, in which case
+    // every bookkeeping helper below returns immediately
+    private final PrintStats stats;
+
+    // Current expression nesting depth, only maintained when stats != null
+    private int exprDepth = 0;
+
+    // Optional output-range recorder; null unless the caller asked for a source map
+    private final SourceMap sourceMap;
+
+    private PrettyPrinter(FormatOptions options, PrintStats stats, SourceMap sourceMap) {
+        this.options = options;
+        this.stats = stats;
+        this.sourceMap = sourceMap;
+    }
 
     /**
      * Pretty-print a MadLang program AST into a canonical source string.
      *
+     * If the madlang.PrettyPrint JFR event is enabled, statistics are collected
+     * and committed with the event; otherwise no metrics are gathered.
+     *
      * @param program the AST of a whole MadLang program
      * @return the pretty-printed program as a string
      */
     public static String pretty(Ast.Program program) {
-        PrettyPrinter p = new PrettyPrinter();
+        return pretty(program, FormatOptions.DEFAULT, null, null);
+    }
+
+    /**
+     * Pretty-print a MadLang program AST using the given formatting style.
+     *
+     * @param program the AST of a whole MadLang program
+     * @param options the formatting style
+     * @return the pretty-printed program as a string
+     */
+    public static String pretty(Ast.Program program, FormatOptions options) {
+        return pretty(program, options, null, null);
+    }
+
+    /**
+     * Pretty-print a MadLang program AST and record metrics about the run.
+     *
+     * @param program the AST of a whole MadLang program
+     * @param stats receives node counts, depths, output size, timings and allocation
+     * @return the pretty-printed program as a string
+     */
+    public static String pretty(Ast.Program program, PrintStats stats) {
+        return pretty(program, FormatOptions.DEFAULT, Objects.requireNonNull(stats), null);
+    }
+
+    /**
+     * Pretty-print a MadLang program AST using the given formatting style and
+     * record metrics about the run.
+     *
+     * @param program the AST of a whole MadLang program
+     * @param options the formatting style
+     * @param stats receives node counts, depths, output size, timings and allocation
+     * @return the pretty-printed program as a string
+     */
+    public static String pretty(Ast.Program program, FormatOptions options, PrintStats stats) {
+        return pretty(program, options, Objects.requireNonNull(stats), null);
+    }
+
+    /**
+     * Pretty-print a MadLang program AST and record which node produced which
+     * range of the output.
+     *
+     * @param program the AST of a whole MadLang program
+     * @param sourceMap cleared, then filled with one entry per printed node
+     * @return the pretty-printed program as a string
+     */
+    public static String pretty(Ast.Program program, SourceMap sourceMap) {
+        return pretty(program, FormatOptions.DEFAULT, null, Objects.requireNonNull(sourceMap));
+    }
+
+    /**
+     * Pretty-print a MadLang program AST with every optional output.
+     *
+     * @param program the AST of a whole MadLang program
+     * @param options the formatting style
+     * @param stats receives metrics about the run, or null
+     * @param sourceMap receives output ranges of every printed node, or null
+     * @return the pretty-printed program as a string
+     */
+    public static String pretty(Ast.Program program, FormatOptions options, PrintStats stats, SourceMap sourceMap) {
+        Objects.requireNonNull(options);
+        // Loading the event class starts up JFR's event machinery, a few hundred
+        // ms that a short run would otherwise spend before its first output
+        if (stats == null && !FlightRecorder.isInitialized()) {
+            return run(program, options, null, sourceMap);
+        }
+        PrettyPrintEvent event = new PrettyPrintEvent();
+        if (stats == null) {
+            if (!event.isEnabled()) {
+                return run(program, options, null, sourceMap);
+            }
+            stats = new PrintStats();
+        }
+        event.begin();
+        String result = run(program, options, stats, sourceMap);
+        event.end();
+        if (event.shouldCommit()) {
+            event.fill(stats);
+            event.commit();
+        }
+        return result;
+    }
+
+    /**
+     * Prints declarations one at a time, for programs that are never held
+     * whole (see StreamingPipeline). The text of all of them is what pretty()
+     * gives for a program of the same declarations, and only one
+     * declaration's text is buffered at a time.
+     */
+    public static final class DeclPrinter {
+        private final PrettyPrinter printer;
+        private final Appendable out;
+        private boolean first = true;
+        private boolean previousWasFun = false;
+
+        public DeclPrinter(Appendable out, FormatOptions options) {
+            this.printer = new PrettyPrinter(Objects.requireNonNull(options), null, null);
+            this.out = Objects.requireNonNull(out);
+        }
+
+        /** Prints the next declaration of the program and appends its text to the output. */
+        public void print(Ast.Decl decl) throws IOException {
+            boolean isFun = decl instanceof Ast.FunDecl;
+            StringBuilder text = printer.out;
+            // Same rule as printProgram for blank lines
+            if (!first && (isFun || previousWasFun)) text.append(printer.options.blankLines);
+            printer.printDecl(decl);
+            out.append(text);
+            text.setLength(0);
+            first = false;
+            previousWasFun = isFun;
+        }
+    }
+
+    /**
+     * Runs the printer over the program, timing each phase when stats are requested.
+     *
+     * @param program the AST of a whole MadLang program
+     * @param options the formatting style
+     * @param stats metrics sink, or null to skip all bookkeeping
+     * @param sourceMap output range sink, or null to skip recording
+     * @return the pretty-printed program as a string
+     */
+    private static String run(Ast.Program program, FormatOptions options, PrintStats stats, SourceMap sourceMap) {
+        if (sourceMap != null) sourceMap.clear();
+        PrettyPrinter p = new PrettyPrinter(options, stats, sourceMap);
+        if (stats == null) {
+            p.printProgram(program);
+            if (sourceMap != null) sourceMap.trim();
+            return p.out.toString();
+        }
+
+        stats.reset();
+        long alloc0 = PrintStats.threadAllocatedBytes();
+        long t0 = System.nanoTime();
         p.printProgram(program);
-        return p.out.toString();
+        long t1 = System.nanoTime();
+        String result = p.out.toString();
+        long t2 = System.nanoTime();
+        long alloc1 = PrintStats.threadAllocatedBytes();
+
+        stats.traverseNanos = t1 - t0;
+        stats.materializeNanos = t2 - t1;
+        if (alloc0 >= 0 && alloc1 >= 0) stats.allocatedBytes = alloc1 - alloc0;
+        stats.countBytes(p.out);
+        if (sourceMap != null) sourceMap.trim();
+        return result;
     }
 
     /**
@@ -41,7 +210,12 @@ public final class PrettyPrinter implements Expr.Visitor<String>, Stmt.Visitor<S
     private void printProgram(Ast.Program program) {
         // Program = Collection of declarations
         for (int i = 0; i < program.decls.size(); i++) {
-            printDecl(program.decls.get(i));
+            Ast.Decl decl = program.decls.get(i);
+            // Blank lines go between two declarations when either is a function
+            if (i > 0 && (decl instanceof Ast.FunDecl || program.decls.get(i - 1) instanceof Ast.FunDecl)) {
+                out.append(options.blankLines);
+            }
+            printDecl(decl);
         }
     }
 
@@ -55,18 +229,24 @@ public final class PrettyPrinter implements Expr.Visitor<String>, Stmt.Visitor<S
         // Check what type of declaration decl is since the Ast class
         // does not have a visitor interface
         if (decl instanceof Ast.GlobalVarDecl globalDecl) {
+            count(PrintStats.NodeKind.GLOBAL_VAR_DECL);
             printIndent();
+            int entry = mark(globalDecl);
 
             // name: type 
             out.append(globalDecl.name).append(": ").append(globalDecl.type.toSource());
             if (globalDecl.initOrNull != null) {
                 // name: type = expr
-                out.append(" = ").append(globalDecl.initOrNull.accept(this));
+                out.append(" = ");
+                globalDecl.initOrNull.accept(this);
             }
 
             out.append(";\n");
+            done(entry);
         }
         else if (decl instanceof Ast.FunDecl funDecl) {
+            count(PrintStats.NodeKind.FUN_DECL);
+            printIndent();
             printFunDecl(funDecl);
         }
         else {
@@ -77,51 +257,131 @@ public final class PrettyPrinter implements Expr.Visitor<String>, Stmt.Visitor<S
     /**
      * Handles the printing of a function declaration. This is done through 
      * this helper method as there is no visitor interface in the Ast class.
+     * The caller prints the leading indent and counts the node.
      * 
      * @param funDecl The function declaration being printed.
      */
     private void printFunDecl(Ast.FunDecl funDecl) {
-        printIndent();
+        int entry = mark(funDecl);
 
         // fn name(
         out.append("fn ").append(funDecl.name).append("(");
         for (int i = 0; i < funDecl.params.size(); i++) {
             // fn name(params
             Ast.Param param = funDecl.params.get(i);
+            int paramEntry = mark(param);
             out.append(param.name).append(": ").append(param.type.toSource());
+            done(paramEntry);
             if (i < funDecl.params.size() - 1) out.append(", ");
         }
 
-        // fn name(params): {
-        out.append("): ").append(funDecl.returnType.toSource()).append(" ");
-        printBlock(funDecl.body, false);
+        // fn name(params): type {
+        out.append("): ").append(funDecl.returnType.toSource());
+        printBlock(funDecl.body, false, false);
+        done(entry);
     }
 
     /**
-     * Helper method to print the correct number of spaces based on
-     * the current indentation level
+     * Helper method to print the indentation for the current level. The
+     * whitespace comes prebuilt from the options, so this is a single append
+     * for any realistic nesting depth.
      */
     private void printIndent() {
-        for (int i = 0; i < indent; i++) out.append("  ");
+        if (indent <= FormatOptions.PREBUILT_LEVELS) {
+            out.append(options.indents[indent]);
+            return;
+        }
+        out.append(options.indents[FormatOptions.PREBUILT_LEVELS]);
+        for (int i = FormatOptions.PREBUILT_LEVELS; i < indent; i++) out.append(options.indents[1]);
+    }
+
+    ///////////////////
+    /// STATS HOOKS ///
+    ///////////////////
+
+    // Each hook is a single null check when statistics are disabled.
+
+    private void count(PrintStats.NodeKind kind) {
+        if (stats != null) stats.counts[kind.ordinal()]++;
+    }
+
+    private void enterIndent() {
+        indent++;
+        if (stats != null) stats.enterBlock(indent);
+    }
+
+    private void enterExpr(PrintStats.NodeKind kind) {
+        if (stats == null) return;
+        stats.counts[kind.ordinal()]++;
+        stats.enterExpr(++exprDepth);
+    }
+
+    private void exitExpr() {
+        if (stats != null) exprDepth--;
+    }
+
+    ////////////////////////
+    /// SOURCE MAP HOOKS ///
+    ////////////////////////
+
+    // Like the stats hooks, these are a single null check when no source map was requested.
+
+    /**
+     * Opens a source map entry for a node whose text starts at the current output position.
+     *
+     * @param node The node about to be printed.
+     * @return The entry to pass to done, or -1 when no source map is being built.
+     */
+    private int mark(Object node) {
+        return sourceMap == null ? -1 : sourceMap.open(node, out.length());
+    }
+
+    /**
+     * Closes a source map entry at the current output position.
+     *
+     * @param entry The value returned by mark.
+     */
+    private void done(int entry) {
+        if (entry >= 0) sourceMap.close(entry, out.length());
     }
 
     /**
      * Helper method that pretty-prints a block of statements. A leading indent is added
      * based on the flag passed in, which is true for standalone blocks in the visitBlockStmt
-     * visitor. Otherwise, in other visitors with in-line blocks (ex. If), there is no leading
-     * indent.
+     * visitor. Otherwise, in other visitors with in-line blocks (ex. If), the block follows
+     * a header on the current line and the brace is placed according to the brace style.
      * 
      * @param b The block statement being pretty-printed.
      * @param leadingIndent Boolean indicating whether to have an indent before the first brace.
+     * @param holdNewline True to leave the line open after the closing brace (for "} else").
      */
-    private void printBlock(Stmt.Block b, boolean leadingIndent) {
-        if (leadingIndent) printIndent();
-        out.append("{\n");
-        indent++;
+    private void printBlock(Stmt.Block b, boolean leadingIndent, boolean holdNewline) {
+        if (leadingIndent) {
+            printIndent();
+            out.append("{\n");
+        } else if (indent <= FormatOptions.PREBUILT_LEVELS) {
+            out.append(options.openBraces[indent]);
+        } else if (options.braceStyle == FormatOptions.BraceStyle.NEXT_LINE) {
+            out.append("\n");
+            printIndent();
+            out.append("{\n");
+        } else {
+            out.append(" {\n");
+        }
+        // Every brace fragment ends in "{\n", so the block's text starts two characters back
+        int entry = sourceMap == null ? -1 : sourceMap.open(b, out.length() - 2);
+
+        enterIndent();
         for (Stmt s : b.stmts) s.accept(this);
         indent--;
-        printIndent();
-        out.append("}\n");
+        if (indent <= FormatOptions.PREBUILT_LEVELS) {
+            out.append(options.closeBraces[indent]);
+        } else {
+            printIndent();
+            out.append("}");
+        }
+        done(entry);
+        if (!holdNewline) out.append("\n");
     }
 
     /**
@@ -131,14 +391,15 @@ public final class PrettyPrinter implements Expr.Visitor<String>, Stmt.Visitor<S
      * visitor.
      * 
      * @param body The statement being pretty-printed
+     * @param holdNewline True to leave the line open after a block's closing brace.
      */
-    private void printBody(Stmt body) {
+    private void printBody(Stmt body, boolean holdNewline) {
         if (body instanceof Stmt.Block b) {
             // In-line block statement
-            printBlock(b, false);
+            printBlock(b, false, holdNewline);
         } else {
             out.append("\n");
-            indent++;
+            enterIndent();
             body.accept(this);
             indent--;
         }
@@ -160,7 +421,8 @@ public final class PrettyPrinter implements Expr.Visitor<String>, Stmt.Visitor<S
      */
     @Override
     public String visitBlockStmt(Stmt.Block s) {
-        printBlock(s, true);
+        count(PrintStats.NodeKind.BLOCK);
+        printBlock(s, true, false);
         return null;
     }
 
@@ -172,9 +434,15 @@ public final class PrettyPrinter implements Expr.Visitor<String>, Stmt.Visitor<S
      */
     @Override
     public String visitReturnStmt(Stmt.Return s) {
+        count(PrintStats.NodeKind.RETURN);
         printIndent();
+        int entry = mark(s);
         // return <expr>;\n
-        out.append("return ").append(s.value.accept(this)).append(";\n");
+        out.append("return ");
+        s.value.accept(this);
+        out.append(";");
+        done(entry);
+        out.append("\n");
         return null;
     }
 
@@ -186,12 +454,17 @@ public final class PrettyPrinter implements Expr.Visitor<String>, Stmt.Visitor<S
      */
     @Override 
     public String visitVarDefStmt(Stmt.VarDef s) { 
+        count(PrintStats.NodeKind.VAR_DEF);
         printIndent();
+        int entry = mark(s);
         out.append(s.name).append(": ").append(s.type.toSource());
         if (s.initOrNull != null) {
-            out.append(" = ").append(s.initOrNull.accept(this));
+            out.append(" = ");
+            s.initOrNull.accept(this);
         }
-        out.append(";\n");
+        out.append(";");
+        done(entry);
+        out.append("\n");
         return null;
     }
 
@@ -203,7 +476,12 @@ public final class PrettyPrinter implements Expr.Visitor<String>, Stmt.Visitor<S
      */
     @Override 
     public String visitFunDefStmt(Stmt.FunDef s) { 
+        count(PrintStats.NodeKind.FUN_DEF);
+        printIndent();
+        // The FunDef and its FunDecl cover the same text; the FunDecl is the inner entry
+        int entry = mark(s);
         printFunDecl(s.fun);
+        done(entry);
         return null;
     }
 
@@ -215,12 +493,15 @@ public final class PrettyPrinter implements Expr.Visitor<String>, Stmt.Visitor<S
      */
     @Override 
     public String visitAssignStmt(Stmt.Assign s) { 
+        count(PrintStats.NodeKind.ASSIGN);
         printIndent();
+        int entry = mark(s);
         // LHS = RHS;\n
-        out.append(s.name)
-           .append(" = ")
-           .append(s.rhs.accept(this))
-           .append(";\n");
+        out.append(s.name).append(" = ");
+        s.rhs.accept(this);
+        out.append(";");
+        done(entry);
+        out.append("\n");
         return null;
     }
 
@@ -232,8 +513,13 @@ public final class PrettyPrinter implements Expr.Visitor<String>, Stmt.Visitor<S
      */
     @Override
     public String visitExprStmt(Stmt.ExprStmt s) {
+        count(PrintStats.NodeKind.EXPR_STMT);
         printIndent();
-        out.append(s.expr.accept(this)).append(";\n");
+        int entry = mark(s);
+        s.expr.accept(this);
+        out.append(";");
+        done(entry);
+        out.append("\n");
         return null;
     }
 
@@ -245,15 +531,28 @@ public final class PrettyPrinter implements Expr.Visitor<String>, Stmt.Visitor<S
      */
     @Override
     public String visitIfStmt(Stmt.If s) { 
+        count(PrintStats.NodeKind.IF);
         printIndent();
-        out.append("if (").append(s.cond.accept(this)).append(") ");
-        printBody(s.thenBranch);
+        int entry = mark(s);
+        out.append("if (");
+        s.cond.accept(this);
+        out.append(")");
+
+        // "} else" shares a line only when the then-branch ends in a brace
+        boolean joinElse = s.elseBranchOrNull != null && !options.elseOnNewLine
+            && s.thenBranch instanceof Stmt.Block;
+        printBody(s.thenBranch, joinElse);
 
         if (s.elseBranchOrNull != null) {
-            printIndent();
-            out.append("else ");
-            printBody(s.elseBranchOrNull);
+            if (joinElse) {
+                out.append(" else");
+            } else {
+                printIndent();
+                out.append("else");
+            }
+            printBody(s.elseBranchOrNull, false);
         }
+        done(entry);
         return null;
     }
 
@@ -265,9 +564,14 @@ public final class PrettyPrinter implements Expr.Visitor<String>, Stmt.Visitor<S
      */
     @Override
     public String visitWhileStmt(Stmt.While s)   { 
+        count(PrintStats.NodeKind.WHILE);
         printIndent();
-        out.append("while (").append(s.cond.accept(this)).append(") ");
-        printBody(s.body);
+        int entry = mark(s);
+        out.append("while (");
+        s.cond.accept(this);
+        out.append(")");
+        printBody(s.body, false);
+        done(entry);
         return null;
     }
 
@@ -290,10 +594,10 @@ public final class PrettyPrinter implements Expr.Visitor<String>, Stmt.Visitor<S
     }
 
     /**
-     * Helper method that first gets the correct String for the passed-in child expression
-     * by recursively calling the visitor, and then inserting parentheses around the child
+     * Helper method that decides whether the passed-in child expression needs parentheses
      * based on its precedence. The 2 cases for inserting parentheses are outlined below.
-     * 
+     * CEmitter uses it too, since C's operators have the same precedences.
+     *
      * "Parent" - Expression that "contains" the one passed in (parent node in the AST).
      * 
      * Case 1: Insert a parentheses around the child when it has LOWER precedence than the parent, because
@@ -307,32 +611,61 @@ public final class PrettyPrinter implements Expr.Visitor<String>, Stmt.Visitor<S
      * @param e The "child" expression passed in that is being determined for parentheses-wrapping
      * @param parentPrec The precedence of the "parent" expression, as defined above.
      * @param isRightChild Boolean indicating whether e is on the right of the parent expression, needed for case 2.
-     * @return The final pretty-printed string of the child expression with or without parentheses based on precedence.
+     * @return True if the child must be wrapped in parentheses.
      */
-    private String printExpr(Expr e, int parentPrec, boolean isRightChild) {
-        // Recursively build parentheses based on precedence
-        String childString = e.accept(this);
+    static boolean needsParens(Expr e, int parentPrec, boolean isRightChild) {
         // childPrec = Precedence of expression passed in
         int childPrec = precedenceOf(e);
 
         // Case 1: Insert parentheses when expression passed in has lower precedence than its parent
-        boolean needParens = childPrec < parentPrec;
+        if (childPrec < parentPrec) return true;
 
         // Case 2: If the child is a binary expression at the SAME precedence, and it's on the right of its
         // parent expression, parentheses are needed to ensure this expression is evaluated first as in the AST.
-        if (!needParens && isRightChild && (e instanceof Expr.Binary) && childPrec == parentPrec) {
-            needParens = true;
+        return isRightChild && (e instanceof Expr.Binary) && childPrec == parentPrec;
+    }
+
+    /**
+     * Helper method that prints the passed-in child expression by recursively calling the
+     * visitor, wrapped in parentheses when needsParens says so.
+     * 
+     * @param e The "child" expression being printed
+     * @param parentPrec The precedence of the "parent" expression.
+     * @param isRightChild Boolean indicating whether e is on the right of the parent expression.
+     */
+    private void printExpr(Expr e, int parentPrec, boolean isRightChild) {
+        if (needsParens(e, parentPrec, isRightChild)) {
+            if (stats != null) stats.parensInserted++;
+            out.append("(");
+            e.accept(this);
+            out.append(")");
+        } else {
+            e.accept(this);
         }
+    }
 
-        return needParens ? "(" + childString + ")" : childString;
+    /**
+     * Helper method that tells whether the printed text of an unparenthesized expression
+     * starts with a minus sign, by following its leftmost operands.
+     * 
+     * @param e The expression to inspect.
+     * @return True if the expression's text begins with '-'.
+     */
+    private static boolean startsWithMinus(Expr e) {
+        while (e instanceof Expr.Binary bin) {
+            if (needsParens(bin.left, bin.op.precedence(), false)) return false;
+            e = bin.left;
+        }
+        if (e instanceof Expr.Unary un) return un.op == Expr.UnOp.NEG;
+        return e instanceof Expr.IntLit lit && lit.value < 0;
     }
 
     /////////////////////
     /// EXPR VISITORS ///
     /////////////////////
 
-    // Expression visitors return strings so they can be appended on in the statement
-    // visitors, as statements contain expressions.
+    // Expression visitors also append directly to the out stringbuilder, so no
+    // intermediate strings are built; they all return null.
 
     /**
      * Pretty-print visitor for the Expr.Unary type.
@@ -340,14 +673,19 @@ public final class PrettyPrinter implements Expr.Visitor<String>, Stmt.Visitor<S
      * Inserts parentheses around the unary based on its precedence.
      * 
      * @param e The Expr.Unary being visited.
-     * @return The pretty-printed expression.
+     * @return null
      */
     @Override
     public String visitUnaryExpr(Expr.Unary e) {
+        enterExpr(PrintStats.NodeKind.UNARY);
+        int entry = mark(e);
+        out.append(e.op.toSource());
         // Unary binds tighter than all binary ops, so parenthesize when the 
         // expression for the operator has a lower precedence (Ex. -(a + b))
-        String inner = printExpr(e.expr, e.op.precedence(), false);
-        return e.op.toSource() + inner;
+        printExpr(e.expr, e.op.precedence(), false);
+        done(entry);
+        exitExpr();
+        return null;
     }
 
     /**
@@ -357,78 +695,104 @@ public final class PrettyPrinter implements Expr.Visitor<String>, Stmt.Visitor<S
      * the binary statement, and then joins the two halves together.
      * 
      * @param e The Expr.Binary being visited.
-     * @return The pretty-printed expression.
+     * @return null
      */
     @Override
     public String visitBinaryExpr(Expr.Binary e) {
+        enterExpr(PrintStats.NodeKind.BINARY);
+        int entry = mark(e);
 
         // "Parent" precedence that will be passed in for each left and right subtree
         int parentPrec = e.op.precedence();
 
         // Left child: parentheses only if lower precedence than parent
-        String l = printExpr(e.left, parentPrec, false);
+        printExpr(e.left, parentPrec, false);
 
-        // Right child: parentheses if lower precedence than parent OR same precedence
-        String r = printExpr(e.right, parentPrec, true);
-
-        // Recursive join for final binary expression
         // No parentheses are added around the root expression
-        return l + " " + e.op.toSource() + " " + r;
+        out.append(options.binOps[e.op.ordinal()]);
+        // Without operator spacing, "a - -b" must not collapse into "a--b"
+        if (!options.spaceAroundOperators && e.op == Expr.BinOp.SUB
+                && !needsParens(e.right, parentPrec, true) && startsWithMinus(e.right)) {
+            out.append(" ");
+        }
+
+        // Right child: parentheses if lower precedence than parent OR same precedence
+        printExpr(e.right, parentPrec, true);
+        done(entry);
+        exitExpr();
+        return null;
     }
 
     /**
      * Pretty-print visitor for the Expr.IntLit type.
      * 
      * @param e The Expr.IntLit being visited.
-     * @return The pretty-printed expression.
+     * @return null
      */
     @Override
     public String visitIntLitExpr(Expr.IntLit e) {
-        return Integer.toString(e.value);
+        enterExpr(PrintStats.NodeKind.INT_LIT);
+        int entry = mark(e);
+        out.append(e.value);
+        done(entry);
+        exitExpr();
+        return null;
     }
 
     /**
      * Pretty-print visitor for the Expr.Var type.
      * 
      * @param e The Expr.Var being visited.
-     * @return The pretty-printed expression.
+     * @return null
      */
     @Override
     public String visitVarExpr(Expr.Var e) {
-        return e.name;
+        enterExpr(PrintStats.NodeKind.VAR);
+        int entry = mark(e);
+        out.append(e.name);
+        done(entry);
+        exitExpr();
+        return null;
     }
 
     /**
      * Pretty-print visitor for the Expr.BoolLit type.
      * 
      * @param e The Expr.BoolLit being visited.
-     * @return The pretty-printed expression.
+     * @return null
      */
     @Override 
     public String visitBoolLitExpr(Expr.BoolLit e) {
-        return Boolean.toString(e.value);
+        enterExpr(PrintStats.NodeKind.BOOL_LIT);
+        int entry = mark(e);
+        out.append(e.value);
+        done(entry);
+        exitExpr();
+        return null;
     }
 
     /**
      * Pretty-print visitor for the Expr.Call type.
      * 
      * @param e The Expr.Call being visited.
-     * @return The pretty-printed expression.
+     * @return null
      */
     @Override
     public String visitCallExpr(Expr.Call e) {
-        StringBuilder sb = new StringBuilder();
+        enterExpr(PrintStats.NodeKind.CALL);
+        int entry = mark(e);
 
         // Calling function name
-        sb.append(e.callee).append("(");
+        out.append(e.callee).append("(");
         for (int i = 0; i < e.args.size(); i++) {
             // Add on arguments if they are there
-            if (i > 0) sb.append(", ");
-            sb.append(e.args.get(i).accept(this));
+            if (i > 0) out.append(", ");
+            e.args.get(i).accept(this);
         }
     
-        sb.append(")");
-
-        return sb.toString();
+        out.append(")");
+        done(entry);
+        exitExpr();
+        return null;
     }
 }
@@ -0,0 +1,155 @@
+package madlang;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+
+/**
+ * Metrics collected by one run of the pretty printer.
+ *
+ * A PrintStats object is filled in by PrettyPrinter.pretty(program, stats). When no
+ * stats object is passed, the printer skips all bookkeeping, so the plain
+ * PrettyPrinter.pretty(program) entry point pays nothing for it. Passing the
+ * same object to another run clears it first: it always describes the last run.
+ */
+public final class PrintStats {
+
+    /** Every AST node kind the printer visits. */
+    public enum NodeKind {
+        // Top-level declarations (nested functions are FUN_DEF statements)
+        GLOBAL_VAR_DECL, FUN_DECL,
+        // Statements
+        BLOCK, VAR_DEF, FUN_DEF, ASSIGN, IF, WHILE, RETURN, EXPR_STMT,
+        // Expressions
+        BINARY, UNARY, INT_LIT, BOOL_LIT, VAR, CALL
+    }
+
+    private static final NodeKind[] KINDS = NodeKind.values();
+
+    // Node counts, indexed by NodeKind.ordinal()
+    final long[] counts = new long[KINDS.length];
+
+    // Deepest block nesting (indentation level) and deepest expression nesting seen
+    int maxBlockDepth;
+    int maxExprDepth;
+
+    long parensInserted;
+    long bytesEmitted;
+
+    // Per-phase timers: walking the AST, and turning the buffer into the result String
+    long traverseNanos;
+    long materializeNanos;
+
+    // -1 when the JVM does not support per-thread allocation accounting
+    long allocatedBytes = -1;
+
+    public PrintStats() {}
+
+    /** @return how many nodes of the given kind were printed */
+    public long count(NodeKind kind) {
+        return counts[kind.ordinal()];
+    }
+
+    /** @return total number of expression nodes printed */
+    public long exprNodes() {
+        long n = 0;
+        for (int k = NodeKind.BINARY.ordinal(); k < KINDS.length; k++) n += counts[k];
+        return n;
+    }
+
+    /** @return total number of statement nodes printed (nested FunDecls included) */
+    public long stmtNodes() {
+        long n = 0;
+        for (int k = NodeKind.BLOCK.ordinal(); k < NodeKind.BINARY.ordinal(); k++) n += counts[k];
+        return n;
+    }
+
+    public int maxBlockDepth() { return maxBlockDepth; }
+    public int maxExprDepth() { return maxExprDepth; }
+
+    /** @return parentheses pairs added by PrettyPrinter.printExpr */
+    public long parensInserted() { return parensInserted; }
+
+    /** @return size of the output in UTF-8 bytes */
+    public long bytesEmitted() { return bytesEmitted; }
+
+    public long traverseNanos() { return traverseNanos; }
+    public long materializeNanos() { return materializeNanos; }
+    public long totalNanos() { return traverseNanos + materializeNanos; }
+
+    /** @return bytes allocated by the printing thread, or -1 if unsupported */
+    public long allocatedBytes() { return allocatedBytes; }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("nodes:");
+        for (NodeKind k : KINDS) {
+            if (counts[k.ordinal()] != 0) sb.append(' ').append(k).append('=').append(counts[k.ordinal()]);
+        }
+        sb.append("\nmaxBlockDepth=").append(maxBlockDepth)
+          .append(" maxExprDepth=").append(maxExprDepth)
+          .append(" parens=").append(parensInserted)
+          .append(" bytes=").append(bytesEmitted)
+          .append("\ntraverse=").append(traverseNanos / 1000).append("us")
+          .append(" materialize=").append(materializeNanos / 1000).append("us")
+          .append(" allocated=").append(allocatedBytes).append('\n');
+        return sb.toString();
+    }
+
+    //////////////////////////
+    /// COLLECTION HELPERS ///
+    //////////////////////////
+
+    // Called by PrettyPrinter; none of these are reached when stats are disabled.
+
+    /** Clears what an earlier run left, so that every field describes the same run. */
+    void reset() {
+        Arrays.fill(counts, 0);
+        maxBlockDepth = 0;
+        maxExprDepth = 0;
+        parensInserted = 0;
+        bytesEmitted = 0;
+        traverseNanos = 0;
+        materializeNanos = 0;
+        allocatedBytes = -1;
+    }
+
+    void enterBlock(int depth) {
+        if (depth > maxBlockDepth) maxBlockDepth = depth;
+    }
+
+    void enterExpr(int depth) {
+        if (depth > maxExprDepth) maxExprDepth = depth;
+    }
+
+    /**
+     * Counts the UTF-8 size of the printed program. Identifiers are usually
+     * ASCII, so this is one pass over the buffer with no allocation.
+     */
+    void countBytes(CharSequence out) {
+        long n = 0;
+        for (int i = 0; i < out.length(); i++) {
+            char c = out.charAt(i);
+            if (c < 0x80) n += 1;
+            else if (c < 0x800) n += 2;
+            else if (Character.isHighSurrogate(c)) { n += 4; i++; }
+            else n += 3;
+        }
+        bytesEmitted = n;
+    }
+
+    /**
+     * @return bytes allocated so far by the current thread, or -1 if the JVM
+     *         cannot report it
+     */
+    static long threadAllocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean sunBean
+                && sunBean.isThreadAllocatedMemorySupported()
+                && sunBean.isThreadAllocatedMemoryEnabled()) {
+            return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
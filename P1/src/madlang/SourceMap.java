@@ -0,0 +1,132 @@
+package madlang;
+
+import java.util.Arrays;
+
+/**
+ * Maps offsets in pretty-printed output back to the AST nodes that produced them.
+ *
+ * The printer fills a SourceMap while it emits text: one entry per printed node
+ * (Ast.Decl, Ast.Param, Stmt or Expr) holding the node and the half-open range
+ * [start, end) of output characters it covers, plus the index of its enclosing
+ * entry. Entries are appended in pre-order, so starts are already sorted and a
+ * caret lookup is a binary search followed by a short walk up the parents.
+ *
+ * Parentheses inserted by the printer belong to the enclosing node, not to the
+ * parenthesized child.
+ */
+public final class SourceMap {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    // Parallel arrays, one slot per entry, in emission (pre-order) order
+    private int[] starts = new int[INITIAL_CAPACITY];
+    private int[] ends = new int[INITIAL_CAPACITY];
+    private int[] parents = new int[INITIAL_CAPACITY];
+    private Object[] nodes = new Object[INITIAL_CAPACITY];
+    private int size = 0;
+
+    // Entry currently being printed, or -1 at top level
+    private int open = -1;
+
+    public SourceMap() {}
+
+    /** @return number of entries */
+    public int size() { return size; }
+
+    public Object node(int entry) { checkEntry(entry); return nodes[entry]; }
+    public int start(int entry) { checkEntry(entry); return starts[entry]; }
+    public int end(int entry) { checkEntry(entry); return ends[entry]; }
+
+    /** @return the enclosing entry, or -1 for top-level declarations */
+    public int parent(int entry) { checkEntry(entry); return parents[entry]; }
+
+    /**
+     * Finds the innermost node whose output range contains the offset.
+     *
+     * @param offset a character offset into the printed program
+     * @return the entry index, or -1 if the offset is outside every node
+     *         (e.g. blank lines between top-level declarations)
+     */
+    public int entryAt(int offset) {
+        // Last entry starting at or before the offset; later entries with an
+        // equal start are deeper, so ties resolve to the innermost node
+        int lo = 0, hi = size - 1, found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (starts[mid] <= offset) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        // That entry may already have ended (e.g. the left operand when the
+        // caret is on the operator); its ancestors are the only other candidates
+        while (found >= 0 && ends[found] <= offset) found = parents[found];
+        return found;
+    }
+
+    /**
+     * @param offset a character offset into the printed program
+     * @return the innermost AST node printed at that offset, or null
+     */
+    public Object nodeAt(int offset) {
+        int entry = entryAt(offset);
+        return entry < 0 ? null : nodes[entry];
+    }
+
+    ////////////////////////
+    /// BUILDING HELPERS ///
+    ////////////////////////
+
+    // Called by PrettyPrinter while it emits text.
+
+    /** Resets the map so a printer run can refill it. */
+    void clear() {
+        Arrays.fill(nodes, 0, size, null);
+        size = 0;
+        open = -1;
+    }
+
+    /**
+     * Opens an entry for a node whose text starts at the given offset.
+     *
+     * @return the entry index, to be passed to close
+     */
+    int open(Object node, int offset) {
+        if (size == starts.length) grow();
+        starts[size] = offset;
+        ends[size] = offset;
+        parents[size] = open;
+        nodes[size] = node;
+        open = size;
+        return size++;
+    }
+
+    /** Closes an entry opened by open; the node's text ends before the given offset. */
+    void close(int entry, int offset) {
+        ends[entry] = offset;
+        open = parents[entry];
+    }
+
+    /** Drops the spare capacity left over from doubling once printing is done. */
+    void trim() {
+        if (size == starts.length) return;
+        starts = Arrays.copyOf(starts, size);
+        ends = Arrays.copyOf(ends, size);
+        parents = Arrays.copyOf(parents, size);
+        nodes = Arrays.copyOf(nodes, size);
+    }
+
+    private void grow() {
+        int capacity = Math.max(INITIAL_CAPACITY, starts.length * 2);
+        starts = Arrays.copyOf(starts, capacity);
+        ends = Arrays.copyOf(ends, capacity);
+        parents = Arrays.copyOf(parents, capacity);
+        nodes = Arrays.copyOf(nodes, capacity);
+    }
+
+    private void checkEntry(int entry) {
+        if (entry < 0 || entry >= size) throw new IndexOutOfBoundsException("entry " + entry + ", size " + size);
+    }
+}
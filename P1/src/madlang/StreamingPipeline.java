@@ -0,0 +1,124 @@
+package madlang;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+
+import madlang.ast.Ast;
+import madlang.parse.DeclReader;
+
+/**
+ * Parse, transform and print a program one top-level declaration at a time,
+ * without ever building the whole Ast.Program.
+ *
+ * The stages run on their own threads, connected by bounded queues: a parser
+ * (DeclReader) reads declarations from the input, each pass maps one
+ * declaration to another, and the calling thread prints them with
+ * PrettyPrinter.DeclPrinter. A declaration is garbage once it is printed, so
+ * memory stays proportional to the largest declaration times the queue
+ * capacity, however long the input.
+ *
+ * Passes see one declaration at a time, so only per-declaration transforms
+ * fit (e.g. Rewriter::rewrite); whole-program ones like PartialEvaluator do
+ * not. The output is what pretty() gives for the parsed and transformed
+ * program.
+ *
+ * A failure in any stage (syntax error, exception in a pass, write error)
+ * stops all of them and is thrown from run; output printed before it stays.
+ * After a failure in printing, the parser thread may still be blocked reading
+ * in until in is closed.
+ */
+public final class StreamingPipeline {
+
+    /** Declarations each queue holds before its producer waits. */
+    public static final int DEFAULT_CAPACITY = 64;
+
+    // Sent down the queues after the last declaration
+    private static final Object END = new Object();
+
+    private StreamingPipeline() {}
+
+    /** Parses in and prints it to out in the default format. */
+    public static void run(Reader in, Appendable out) throws IOException {
+        run(in, List.of(), FormatOptions.DEFAULT, out, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param passes applied to every declaration in order; must not return null
+     * @throws madlang.parse.ParseException if in is not a program
+     */
+    public static void run(Reader in, List<? extends UnaryOperator<Ast.Decl>> passes, FormatOptions options,
+                           Appendable out, int capacity) throws IOException {
+        Objects.requireNonNull(in);
+        PrettyPrinter.DeclPrinter printer = new PrettyPrinter.DeclPrinter(out, options);
+        if (capacity < 1) throw new IllegalArgumentException("capacity < 1: " + capacity);
+
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        BlockingQueue<Object> parsed = new ArrayBlockingQueue<>(capacity);
+        threads.add(stage("madlang-stream-parse", parsed, failure, () -> {
+            DeclReader reader = new DeclReader(in);
+            for (Ast.Decl d = reader.next(); d != null; d = reader.next()) parsed.put(d);
+        }));
+        BlockingQueue<Object> last = parsed;
+        for (int i = 0; i < passes.size(); i++) {
+            UnaryOperator<Ast.Decl> pass = Objects.requireNonNull(passes.get(i));
+            BlockingQueue<Object> from = last;
+            BlockingQueue<Object> to = new ArrayBlockingQueue<>(capacity);
+            threads.add(stage("madlang-stream-pass-" + (i + 1), to, failure, () -> {
+                for (Object d = from.take(); d != END; d = from.take()) {
+                    to.put(Objects.requireNonNull(pass.apply((Ast.Decl) d), "pass returned null"));
+                }
+            }));
+            last = to;
+        }
+
+        try {
+            for (Thread t : threads) t.start();
+            for (Object d = last.take(); d != END; d = last.take()) printer.print((Ast.Decl) d);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while streaming");
+        } finally {
+            // Stages still running after a failure are blocked on a queue nobody reads
+            // any more, or the parser on in; they are daemons and exit when interrupted
+            for (Thread t : threads) t.interrupt();
+        }
+        Throwable t = failure.get();
+        if (t instanceof IOException e) throw e;
+        if (t instanceof RuntimeException e) throw e;
+        if (t instanceof Error e) throw e;
+        if (t != null) throw new IllegalStateException("stage failed", t);
+    }
+
+    private interface Body {
+        void run() throws IOException, InterruptedException;
+    }
+
+    /** A thread that runs body and then sends END to out, after recording any failure. */
+    private static Thread stage(String name, BlockingQueue<Object> out, AtomicReference<Throwable> failure, Body body) {
+        Thread t = new Thread(() -> {
+            try {
+                body.run();
+            } catch (InterruptedException e) {
+                return; // the pipeline is being torn down
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            }
+            try {
+                out.put(END);
+            } catch (InterruptedException e) {
+                // torn down before anyone read it
+            }
+        }, name);
+        t.setDaemon(true);
+        return t;
+    }
+}
@@ -0,0 +1,134 @@
+package madlang.analysis;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Function;
+
+import madlang.ast.Ast;
+
+/**
+ * Runs a per-function analysis over a CallGraph on a ForkJoinPool.
+ *
+ * run() goes bottom-up: a strongly connected component is analyzed once the
+ * components it calls are done, as one task that sees their results. Every
+ * component keeps a count of callee components still running, decremented
+ * atomically as each finishes; the task that takes it to zero forks the
+ * component, so idle workers steal ready components and no thread ever waits
+ * for a lock. Results go to a FunctionTable, one slot per function.
+ *
+ * runEach() is for analyses that need no other function's result; it runs
+ * all functions at once, in batches.
+ *
+ * The first exception thrown by the analysis stops the scheduling of further
+ * components and is rethrown; tasks already running finish.
+ */
+public final class AnalysisScheduler {
+
+    /** Analyzes one strongly connected component. */
+    public interface ComponentAnalysis<R> {
+        /**
+         * @param members mutually recursive functions (or a single function),
+         *                in Resolution.functions order
+         * @param results holds the result of every function the members call
+         *                outside the component
+         * @return one result per member, in the same order
+         */
+        List<R> analyze(List<Ast.FunDecl> members, FunctionTable<R> results);
+    }
+
+    // Functions per runEach task: enough work to pay for a task, few enough to balance
+    private static final int BATCH = 64;
+
+    private AnalysisScheduler() {}
+
+    /** Runs analysis bottom-up over graph, on the common pool. */
+    public static <R> FunctionTable<R> run(CallGraph graph, ComponentAnalysis<R> analysis) {
+        return run(graph, analysis, ForkJoinPool.commonPool());
+    }
+
+    /** Runs analysis bottom-up over graph: every component after all the components it calls. */
+    public static <R> FunctionTable<R> run(CallGraph graph, ComponentAnalysis<R> analysis, ForkJoinPool pool) {
+        FunctionTable<R> results = new FunctionTable<>(graph);
+        int n = graph.componentCount();
+        if (n == 0) return results;
+
+        AtomicIntegerArray waiting = new AtomicIntegerArray(n);
+        AtomicInteger remaining = new AtomicInteger(n);
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        List<Integer> ready = new ArrayList<>();
+        for (int c = 0; c < n; c++) {
+            waiting.set(c, graph.componentCalleeCount(c));
+            if (graph.componentCalleeCount(c) == 0) ready.add(c);
+        }
+
+        class Component implements Runnable {
+            final int c;
+
+            Component(int c) {
+                this.c = c;
+            }
+
+            @Override
+            public void run() {
+                if (done.isDone()) return; // failed elsewhere
+                try {
+                    List<Ast.FunDecl> members = new ArrayList<>(graph.memberCount(c));
+                    for (int i = 0; i < graph.memberCount(c); i++) members.add(graph.function(graph.member(c, i)));
+                    List<R> out = analysis.analyze(members, results);
+                    if (out.size() != members.size()) {
+                        throw new IllegalStateException(out.size() + " results for " + members.size() + " functions");
+                    }
+                    for (int i = 0; i < out.size(); i++) results.set(graph.member(c, i), out.get(i));
+                    for (int i = 0; i < graph.componentCallerCount(c); i++) {
+                        int caller = graph.componentCaller(c, i);
+                        if (waiting.decrementAndGet(caller) == 0) ForkJoinTask.adapt(new Component(caller)).fork();
+                    }
+                    if (remaining.decrementAndGet() == 0) done.complete(null);
+                } catch (RuntimeException | Error e) {
+                    done.completeExceptionally(e);
+                }
+            }
+        }
+
+        for (int c : ready) pool.execute(new Component(c));
+        await(done);
+        return results;
+    }
+
+    /** Runs analysis on every function of graph, in any order, on the common pool. */
+    public static <R> FunctionTable<R> runEach(CallGraph graph, Function<Ast.FunDecl, R> analysis) {
+        return runEach(graph, analysis, ForkJoinPool.commonPool());
+    }
+
+    /** Runs analysis on every function of graph, in any order. */
+    public static <R> FunctionTable<R> runEach(CallGraph graph, Function<Ast.FunDecl, R> analysis, ForkJoinPool pool) {
+        FunctionTable<R> results = new FunctionTable<>(graph);
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (int from = 0; from < graph.size(); from += BATCH) {
+            int start = from;
+            int end = Math.min(graph.size(), from + BATCH);
+            tasks.add(pool.submit(() -> {
+                for (int f = start; f < end; f++) results.set(f, analysis.apply(graph.function(f)));
+            }));
+        }
+        // join() orders every task's writes before the reads that follow
+        for (ForkJoinTask<?> t : tasks) t.join();
+        return results;
+    }
+
+    private static void await(CompletableFuture<Void> done) {
+        try {
+            done.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException r) throw r;
+            if (e.getCause() instanceof Error r) throw r;
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package madlang.analysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import madlang.ast.Ast;
+import madlang.ast.Expr;
+import madlang.ast.Stmt;
+
+/**
+ * Which functions of a resolved program call which, and its condensation into
+ * strongly connected components (sets of mutually recursive functions).
+ *
+ * Functions are numbered as in Resolution.functions (source pre-order, nested
+ * functions included). f calls g when a call in f's own body resolves to g;
+ * calls inside a function nested in f belong to the nested function, and
+ * builtins and unresolved calls are left out.
+ *
+ * Components are numbered callees first: every component a component calls
+ * has a smaller number, so analyzing components 0, 1, ... in order always
+ * finds callees' results ready. Members of a component are in function order.
+ * Edges of both graphs are stored in flat int arrays (CSR layout, as in Cfg):
+ * the callees of f are callees[calleeStart[f] .. calleeStart[f + 1]).
+ */
+public final class CallGraph {
+    public final Resolution resolution;
+
+    private final Ast.FunDecl[] functions;
+    private final IdentityHashMap<Ast.FunDecl, Integer> index;
+
+    private final int[] calleeStart;
+    private final int[] callees;
+
+    private final int[] component;
+    private final int[] memberStart;
+    private final int[] members;
+    private final int[] compCalleeStart;
+    private final int[] compCallees;
+    private final int[] compCallerStart;
+    private final int[] compCallers;
+
+    private CallGraph(Resolution resolution, IdentityHashMap<Ast.FunDecl, Integer> index,
+                      int[] calleeStart, int[] callees) {
+        this.resolution = resolution;
+        this.functions = resolution.functions.toArray(new Ast.FunDecl[0]);
+        this.index = index;
+        this.calleeStart = calleeStart;
+        this.callees = callees;
+
+        this.component = findComponents();
+        int n = componentCount(component);
+        this.memberStart = new int[n + 1];
+        this.members = new int[functions.length];
+        group(component, n, memberStart, members);
+
+        // Component edges, without duplicates or self-loops
+        int[] mark = new int[n];
+        Arrays.fill(mark, -1);
+        this.compCalleeStart = new int[n + 1];
+        int[] edges = new int[callees.length];
+        int count = 0;
+        for (int c = 0; c < n; c++) {
+            compCalleeStart[c] = count;
+            for (int m = memberStart[c]; m < memberStart[c + 1]; m++) {
+                int f = members[m];
+                for (int e = calleeStart[f]; e < calleeStart[f + 1]; e++) {
+                    int d = component[callees[e]];
+                    if (d != c && mark[d] != c) {
+                        mark[d] = c;
+                        edges[count++] = d;
+                    }
+                }
+            }
+        }
+        compCalleeStart[n] = count;
+        this.compCallees = Arrays.copyOf(edges, count);
+
+        // Reversed: callers of each component
+        this.compCallerStart = new int[n + 1];
+        for (int d : compCallees) compCallerStart[d + 1]++;
+        for (int c = 0; c < n; c++) compCallerStart[c + 1] += compCallerStart[c];
+        this.compCallers = new int[count];
+        int[] next = Arrays.copyOf(compCallerStart, n);
+        for (int c = 0; c < n; c++) {
+            for (int e = compCalleeStart[c]; e < compCalleeStart[c + 1]; e++) compCallers[next[compCallees[e]]++] = c;
+        }
+    }
+
+    /** @param resolution a program resolved without errors */
+    public static CallGraph build(Resolution resolution) {
+        List<Ast.FunDecl> functions = resolution.functions;
+        IdentityHashMap<Ast.FunDecl, Integer> index = new IdentityHashMap<>(functions.size());
+        for (int f = 0; f < functions.size(); f++) index.put(functions.get(f), f);
+
+        int[] calleeStart = new int[functions.size() + 1];
+        int[] callees = new int[16];
+        int count = 0;
+        Calls calls = new Calls(resolution);
+        for (int f = 0; f < functions.size(); f++) {
+            calleeStart[f] = count;
+            calls.found.clear();
+            for (Stmt s : functions.get(f).body.stmts) s.accept(calls);
+            for (Ast.FunDecl g : calls.found) {
+                Integer i = index.get(g);
+                if (i == null) throw new IllegalStateException("call of a function outside the program: " + g.name);
+                if (count == callees.length) callees = Arrays.copyOf(callees, 2 * count);
+                callees[count++] = i;
+            }
+        }
+        calleeStart[functions.size()] = count;
+        return new CallGraph(resolution, index, calleeStart, Arrays.copyOf(callees, count));
+    }
+
+    public int size() { return functions.length; }
+    public Ast.FunDecl function(int f) { return functions[f]; }
+
+    /** @return the number of fun in Resolution.functions */
+    public int indexOf(Ast.FunDecl fun) {
+        Integer f = index.get(fun);
+        if (f == null) throw new IllegalArgumentException("not a function of this program: " + fun.name);
+        return f;
+    }
+
+    /** Calls of the same function count once per call site. */
+    public int calleeCount(int f) { return calleeStart[f + 1] - calleeStart[f]; }
+    public int callee(int f, int i) { return callees[calleeStart[f] + i]; }
+
+    public int componentCount() { return memberStart.length - 1; }
+    public int component(int f) { return component[f]; }
+
+    public int memberCount(int c) { return memberStart[c + 1] - memberStart[c]; }
+    public int member(int c, int i) { return members[memberStart[c] + i]; }
+
+    /** Components c calls, other than c itself, each once. */
+    public int componentCalleeCount(int c) { return compCalleeStart[c + 1] - compCalleeStart[c]; }
+    public int componentCallee(int c, int i) { return compCallees[compCalleeStart[c] + i]; }
+
+    public int componentCallerCount(int c) { return compCallerStart[c + 1] - compCallerStart[c]; }
+    public int componentCaller(int c, int i) { return compCallers[compCallerStart[c] + i]; }
+
+    /** @return true if f can call itself, directly or through other functions */
+    public boolean isRecursive(int f) {
+        if (memberCount(component[f]) > 1) return true;
+        for (int e = calleeStart[f]; e < calleeStart[f + 1]; e++) {
+            if (callees[e] == f) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Tarjan's algorithm with an explicit stack, so call chains of any length
+     * fit. A component is numbered when it is complete, which is after every
+     * component it reaches: callees first.
+     *
+     * @return the component of every function
+     */
+    private int[] findComponents() {
+        int n = functions.length;
+        int[] order = new int[n];    // visit number + 1, 0 while unvisited
+        int[] low = new int[n];
+        int[] comp = new int[n];
+        Arrays.fill(comp, -1);
+        int[] stack = new int[n];    // functions of components not yet complete
+        int top = 0;
+        int[] path = new int[n];     // depth-first path, with the next edge of each
+        int[] nextEdge = new int[n];
+        int visited = 0;
+        int components = 0;
+
+        for (int root = 0; root < n; root++) {
+            if (order[root] != 0) continue;
+            int depth = 0;
+            path[0] = root;
+            nextEdge[0] = calleeStart[root];
+            order[root] = low[root] = ++visited;
+            stack[top++] = root;
+            while (depth >= 0) {
+                int f = path[depth];
+                if (nextEdge[depth] < calleeStart[f + 1]) {
+                    int g = callees[nextEdge[depth]++];
+                    if (order[g] == 0) {
+                        order[g] = low[g] = ++visited;
+                        stack[top++] = g;
+                        path[++depth] = g;
+                        nextEdge[depth] = calleeStart[g];
+                    } else if (comp[g] < 0) {
+                        low[f] = Math.min(low[f], order[g]);
+                    }
+                    continue;
+                }
+                if (low[f] == order[f]) {
+                    int g;
+                    do {
+                        g = stack[--top];
+                        comp[g] = components;
+                    } while (g != f);
+                    components++;
+                }
+                depth--;
+                if (depth >= 0) low[path[depth]] = Math.min(low[path[depth]], low[f]);
+            }
+        }
+        return comp;
+    }
+
+    private static int componentCount(int[] component) {
+        int n = 0;
+        for (int c : component) n = Math.max(n, c + 1);
+        return n;
+    }
+
+    /** Fills start and items with the indices of each group, in index order (a counting sort). */
+    private static void group(int[] groupOf, int groups, int[] start, int[] items) {
+        for (int g : groupOf) start[g + 1]++;
+        for (int g = 0; g < groups; g++) start[g + 1] += start[g];
+        int[] next = Arrays.copyOf(start, groups);
+        for (int i = 0; i < groupOf.length; i++) items[next[groupOf[i]]++] = i;
+    }
+
+    /** Collects the functions a body calls, not looking into nested functions. */
+    private static final class Calls implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
+        final Resolution resolution;
+        final List<Ast.FunDecl> found = new ArrayList<>();
+
+        Calls(Resolution resolution) {
+            this.resolution = resolution;
+        }
+
+        @Override public Void visitBlockStmt(Stmt.Block s) {
+            for (Stmt inner : s.stmts) inner.accept(this);
+            return null;
+        }
+
+        @Override public Void visitVarDefStmt(Stmt.VarDef s) {
+            if (s.initOrNull != null) s.initOrNull.accept(this);
+            return null;
+        }
+
+        @Override public Void visitFunDefStmt(Stmt.FunDef s) { return null; }
+
+        @Override public Void visitAssignStmt(Stmt.Assign s) {
+            s.rhs.accept(this);
+            return null;
+        }
+
+        @Override public Void visitIfStmt(Stmt.If s) {
+            s.cond.accept(this);
+            s.thenBranch.accept(this);
+            if (s.elseBranchOrNull != null) s.elseBranchOrNull.accept(this);
+            return null;
+        }
+
+        @Override public Void visitWhileStmt(Stmt.While s) {
+            s.cond.accept(this);
+            s.body.accept(this);
+            return null;
+        }
+
+        @Override public Void visitReturnStmt(Stmt.Return s) {
+            s.value.accept(this);
+            return null;
+        }
+
+        @Override public Void visitExprStmt(Stmt.ExprStmt s) {
+            s.expr.accept(this);
+            return null;
+        }
+
+        @Override public Void visitBinaryExpr(Expr.Binary e) {
+            e.left.accept(this);
+            e.right.accept(this);
+            return null;
+        }
+
+        @Override public Void visitUnaryExpr(Expr.Unary e) {
+            e.expr.accept(this);
+            return null;
+        }
+
+        @Override public Void visitIntLitExpr(Expr.IntLit e) { return null; }
+        @Override public Void visitBoolLitExpr(Expr.BoolLit e) { return null; }
+        @Override public Void visitVarExpr(Expr.Var e) { return null; }
+
+        @Override public Void visitCallExpr(Expr.Call e) {
+            for (Expr arg : e.args) arg.accept(this);
+            Symbol sym = resolution.symbol(e);
+            if (sym != null && sym.kind == Symbol.Kind.FUNCTION) found.add((Ast.FunDecl) sym.decl);
+            return null;
+        }
+    }
+}
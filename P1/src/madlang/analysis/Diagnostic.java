@@ -0,0 +1,25 @@
+package madlang.analysis;
+
+import java.util.Objects;
+
+import madlang.ast.Ast;
+
+/**
+ * A problem found by a static analysis, attached to the AST node it is about.
+ */
+public final class Diagnostic {
+    public final Object node;    // the offending Ast/Stmt/Expr node
+    public final Ast.Span span;  // may be null
+    public final String message;
+
+    public Diagnostic(Object node, Ast.Span span, String message) {
+        this.node = node;
+        this.span = span;
+        this.message = Objects.requireNonNull(message);
+    }
+
+    @Override
+    public String toString() {
+        return span == null ? message : span.line + ":" + span.col + ": " + message;
+    }
+}
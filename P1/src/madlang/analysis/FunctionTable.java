@@ -0,0 +1,40 @@
+package madlang.analysis;
+
+import madlang.ast.Ast;
+
+/**
+ * One result per function of a CallGraph, filled in by AnalysisScheduler.
+ *
+ * Each slot is written once, by the task that analyzes its function, and read
+ * only after that task is known to be done (by the tasks of its callers, or
+ * by anyone once the scheduler returns), so the slots need no locks: the
+ * scheduler's atomic counters order the write before every read.
+ */
+public final class FunctionTable<R> {
+    private final CallGraph graph;
+    private final Object[] results;
+
+    FunctionTable(CallGraph graph) {
+        this.graph = graph;
+        this.results = new Object[graph.size()];
+    }
+
+    public CallGraph graph() {
+        return graph;
+    }
+
+    /** @return the result for function number f, or null while it is not there */
+    @SuppressWarnings("unchecked")
+    public R get(int f) {
+        return (R) results[f];
+    }
+
+    /** @return the result for fun, or null while it is not there */
+    public R get(Ast.FunDecl fun) {
+        return get(graph.indexOf(fun));
+    }
+
+    void set(int f, R result) {
+        results[f] = result;
+    }
+}
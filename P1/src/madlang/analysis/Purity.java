@@ -0,0 +1,310 @@
+package madlang.analysis;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import madlang.ast.Ast;
+import madlang.ast.Expr;
+import madlang.ast.Stmt;
+
+/**
+ * Purity analysis over the functions of a resolved program.
+ *
+ * A function is pure when its result depends only on its arguments and calling
+ * it has no effect anyone can observe, so equal calls may share one result.
+ * That holds when nothing it runs, itself or through any function it calls:
+ * - calls output or input
+ * - writes a global, or reads a global that some function writes, or that
+ *   has an initializer when some initializer calls a function: such a call
+ *   may run before the global is initialized, and see it change
+ * - reads or writes a variable of a function that lexically encloses it, since
+ *   that variable outlives the call
+ * Variables of the function itself and of the functions it calls are fresh for
+ * every call and do not count, even when nested functions share them.
+ */
+public final class Purity {
+
+    /** What one function body does directly, not counting its callees. */
+    private static final class Effects implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
+        final Resolution resolution;
+        final Ast.FunDecl fun; // null for the global initializers
+        final List<Ast.FunDecl> callees = new ArrayList<>();
+
+        // Variables owned by someone else (globals, enclosing functions), with write flags
+        final List<Symbol> outsideVars = new ArrayList<>();
+        final List<Boolean> outsideWrites = new ArrayList<>();
+
+        Symbol builtin = null; // first output/input call, if any
+
+        Effects(Resolution resolution, Ast.FunDecl fun) {
+            this.resolution = resolution;
+            this.fun = fun;
+        }
+
+        private void access(Symbol sym, boolean write) {
+            if (sym != null && sym.owner != fun) {
+                outsideVars.add(sym);
+                outsideWrites.add(write);
+            }
+        }
+
+        @Override public Void visitBlockStmt(Stmt.Block s) {
+            for (Stmt inner : s.stmts) inner.accept(this);
+            return null;
+        }
+
+        @Override public Void visitVarDefStmt(Stmt.VarDef s) {
+            if (s.initOrNull != null) s.initOrNull.accept(this);
+            return null;
+        }
+
+        // Nested functions have their own Effects; defining one does nothing
+        @Override public Void visitFunDefStmt(Stmt.FunDef s) { return null; }
+
+        @Override public Void visitAssignStmt(Stmt.Assign s) {
+            s.rhs.accept(this);
+            access(resolution.symbol(s), true);
+            return null;
+        }
+
+        @Override public Void visitIfStmt(Stmt.If s) {
+            s.cond.accept(this);
+            s.thenBranch.accept(this);
+            if (s.elseBranchOrNull != null) s.elseBranchOrNull.accept(this);
+            return null;
+        }
+
+        @Override public Void visitWhileStmt(Stmt.While s) {
+            s.cond.accept(this);
+            s.body.accept(this);
+            return null;
+        }
+
+        @Override public Void visitReturnStmt(Stmt.Return s) {
+            s.value.accept(this);
+            return null;
+        }
+
+        @Override public Void visitExprStmt(Stmt.ExprStmt s) {
+            s.expr.accept(this);
+            return null;
+        }
+
+        @Override public Void visitBinaryExpr(Expr.Binary e) {
+            e.left.accept(this);
+            e.right.accept(this);
+            return null;
+        }
+
+        @Override public Void visitUnaryExpr(Expr.Unary e) {
+            e.expr.accept(this);
+            return null;
+        }
+
+        @Override public Void visitIntLitExpr(Expr.IntLit e) { return null; }
+        @Override public Void visitBoolLitExpr(Expr.BoolLit e) { return null; }
+
+        @Override public Void visitVarExpr(Expr.Var e) {
+            access(resolution.symbol(e), false);
+            return null;
+        }
+
+        @Override public Void visitCallExpr(Expr.Call e) {
+            for (Expr arg : e.args) arg.accept(this);
+            Symbol sym = resolution.symbol(e);
+            if (sym == null) return null;
+            if (sym.kind == Symbol.Kind.BUILTIN) {
+                if (builtin == null) builtin = sym;
+            } else {
+                callees.add((Ast.FunDecl) sym.decl);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Why calls of a function may not be shared, as far as the functions it
+     * calls go: where is the function that does it directly.
+     */
+    private static final class Impurity {
+        final String what;
+        final Ast.FunDecl where;
+        // For reads and writes of an enclosing function's variable: that function
+        final Ast.FunDecl owner;
+
+        Impurity(String what, Ast.FunDecl where, Ast.FunDecl owner) {
+            this.what = what;
+            this.where = where;
+            this.owner = owner;
+        }
+
+        String describe(Ast.FunDecl fun) {
+            return where == fun ? what : what + " (via '" + where.name + "')";
+        }
+    }
+
+    /**
+     * Everything a function may do, itself or through its callees. Accesses to
+     * variables of an enclosing function are kept, one per owner, only while
+     * the owner encloses the function: to the callers of the owner and of
+     * functions outside it, that frame is fresh for every call.
+     */
+    private static final class Summary {
+        final Impurity first;          // output/input or a global, or null
+        final List<Impurity> enclosing;
+
+        Summary(Impurity first, List<Impurity> enclosing) {
+            this.first = first;
+            this.enclosing = enclosing;
+        }
+
+        String reason(Ast.FunDecl fun) {
+            if (first != null) return first.describe(fun);
+            return enclosing.isEmpty() ? null : enclosing.get(0).describe(fun);
+        }
+    }
+
+    private final FunctionTable<Summary> summaries;
+
+    private Purity(FunctionTable<Summary> summaries) {
+        this.summaries = summaries;
+    }
+
+    /**
+     * @param resolution a program resolved without errors
+     * @return the purity of every function in it
+     */
+    public static Purity analyze(Resolution resolution) {
+        return analyze(CallGraph.build(resolution), ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Finds what each function does directly, all functions in parallel, then
+     * combines those bottom-up over the call graph's components with
+     * AnalysisScheduler, so every function is looked at once.
+     *
+     * @param graph the call graph of a program resolved without errors
+     */
+    public static Purity analyze(CallGraph graph, ForkJoinPool pool) {
+        Resolution resolution = graph.resolution;
+        FunctionTable<Effects> effects = AnalysisScheduler.runEach(graph, f -> {
+            Effects e = new Effects(resolution, f);
+            for (Stmt s : f.body.stmts) s.accept(e);
+            return e;
+        }, pool);
+        Set<Symbol> writtenGlobals = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int f = 0; f < graph.size(); f++) {
+            Effects e = effects.get(f);
+            for (int i = 0; i < e.outsideVars.size(); i++) {
+                Symbol sym = e.outsideVars.get(i);
+                if (sym.kind == Symbol.Kind.GLOBAL && e.outsideWrites.get(i)) writtenGlobals.add(sym);
+            }
+        }
+        if (initializersCall(resolution)) {
+            // A function called while globals are initialized sees the later ones at
+            // 0 and, once their initializers ran, at another value
+            for (Ast.Decl d : resolution.program.decls) {
+                if (d instanceof Ast.GlobalVarDecl g && g.initOrNull != null) writtenGlobals.add(resolution.symbol(g));
+            }
+        }
+        return new Purity(AnalysisScheduler.run(graph,
+            (members, done) -> summarize(resolution, members, effects, writtenGlobals, done), pool));
+    }
+
+    /** @return true if some global's initializer calls a function of the program */
+    private static boolean initializersCall(Resolution resolution) {
+        Effects init = new Effects(resolution, null);
+        for (Ast.Decl d : resolution.program.decls) {
+            if (d instanceof Ast.GlobalVarDecl g && g.initOrNull != null) g.initOrNull.accept(init);
+        }
+        return !init.callees.isEmpty();
+    }
+
+    /** Summaries of one strongly connected component, from its members' effects and its callees' summaries. */
+    private static List<Summary> summarize(Resolution resolution, List<Ast.FunDecl> members,
+                                           FunctionTable<Effects> effects, Set<Symbol> writtenGlobals,
+                                           FunctionTable<Summary> done) {
+        // Members call each other, so each may do what any of them does
+        Impurity[] own = new Impurity[members.size()];
+        Impurity shared = null;
+        List<Impurity> enclosing = new ArrayList<>();
+        for (int m = 0; m < members.size(); m++) {
+            Effects e = effects.get(members.get(m));
+            own[m] = direct(e, writtenGlobals, enclosing);
+            if (shared == null) shared = own[m];
+        }
+        for (Ast.FunDecl member : members) {
+            for (Ast.FunDecl callee : effects.get(member).callees) {
+                Summary s = done.get(callee);
+                if (s == null) continue; // a member of this component
+                if (shared == null) shared = s.first;
+                for (Impurity i : s.enclosing) addOwner(enclosing, i);
+            }
+        }
+
+        List<Summary> out = new ArrayList<>(members.size());
+        for (int m = 0; m < members.size(); m++) {
+            Ast.FunDecl f = members.get(m);
+            List<Impurity> kept = new ArrayList<>();
+            for (Impurity i : enclosing) {
+                if (encloses(resolution, i.owner, f)) kept.add(i);
+            }
+            out.add(new Summary(own[m] != null ? own[m] : shared, kept));
+        }
+        return out;
+    }
+
+    /**
+     * @param enclosing receives e's reads and writes of other functions' variables
+     * @return the first thing e's function does directly that makes any caller impure
+     */
+    private static Impurity direct(Effects e, Set<Symbol> writtenGlobals, List<Impurity> enclosing) {
+        Impurity first = e.builtin == null ? null : new Impurity("calls " + e.builtin.name, e.fun, null);
+        for (int i = 0; i < e.outsideVars.size(); i++) {
+            Symbol sym = e.outsideVars.get(i);
+            boolean write = e.outsideWrites.get(i);
+            if (sym.kind == Symbol.Kind.GLOBAL) {
+                if (first != null) continue;
+                if (write) first = new Impurity("writes global '" + sym.name + "'", e.fun, null);
+                else if (writtenGlobals.contains(sym)) first = new Impurity("reads mutable global '" + sym.name + "'", e.fun, null);
+            } else {
+                addOwner(enclosing, new Impurity((write ? "writes" : "reads") + " '" + sym.name
+                    + "' of enclosing function '" + sym.owner.name + "'", e.fun, sym.owner));
+            }
+        }
+        return first;
+    }
+
+    /** Adds i unless an access to the same owner's variables is already there. */
+    private static void addOwner(List<Impurity> enclosing, Impurity i) {
+        for (Impurity j : enclosing) {
+            if (j.owner == i.owner) return;
+        }
+        enclosing.add(i);
+    }
+
+    /** @return true if owner strictly encloses fun */
+    private static boolean encloses(Resolution resolution, Ast.FunDecl owner, Ast.FunDecl fun) {
+        for (Ast.FunDecl a = resolution.symbol(fun).owner; a != null; a = resolution.symbol(a).owner) {
+            if (a == owner) return true;
+        }
+        return false;
+    }
+
+    /** @return true if equal calls of the function can share one result */
+    public boolean isPure(Ast.FunDecl fun) {
+        return reason(fun) == null;
+    }
+
+    /**
+     * @param fun a function of the analyzed program
+     * @return a short explanation of why the function is not pure, or null if it is
+     */
+    public String reason(Ast.FunDecl fun) {
+        return summaries.get(fun).reason(fun);
+    }
+}
@@ -0,0 +1,64 @@
+package madlang.analysis;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import madlang.ast.Ast;
+
+/**
+ * Result of name resolution over a program: which Symbol every identifier
+ * refers to, plus frame layout for each function.
+ *
+ * Lookups are keyed by node identity. The nodes that carry a symbol are
+ * Expr.Var, Expr.Call and Stmt.Assign (uses) and Ast.GlobalVarDecl, Ast.Param,
+ * Stmt.VarDef and Ast.FunDecl (definitions).
+ */
+public final class Resolution {
+    public final Ast.Program program;
+
+    // Every global variable in declaration order; index == Symbol.slot
+    public final List<Symbol> globals;
+
+    // Every function, top-level and nested, in source pre-order
+    public final List<Ast.FunDecl> functions;
+
+    public final List<Diagnostic> errors;
+
+    final IdentityHashMap<Object, Symbol> symbols;
+    final IdentityHashMap<Ast.FunDecl, Integer> frameSizes;
+
+    Resolution(Ast.Program program, List<Symbol> globals, List<Ast.FunDecl> functions,
+               List<Diagnostic> errors, IdentityHashMap<Object, Symbol> symbols,
+               IdentityHashMap<Ast.FunDecl, Integer> frameSizes) {
+        this.program = program;
+        this.globals = Collections.unmodifiableList(new ArrayList<Symbol>(globals));
+        this.functions = Collections.unmodifiableList(new ArrayList<Ast.FunDecl>(functions));
+        this.errors = Collections.unmodifiableList(new ArrayList<Diagnostic>(errors));
+        this.symbols = symbols;
+        this.frameSizes = frameSizes;
+    }
+
+    /**
+     * @param node an identifier use or a definition
+     * @return the symbol the node refers to or defines, or null if it did not resolve
+     */
+    public Symbol symbol(Object node) {
+        return symbols.get(node);
+    }
+
+    /**
+     * @param fun a function of this program
+     * @return number of parameter and local slots its frame needs
+     */
+    public int frameSize(Ast.FunDecl fun) {
+        Integer n = frameSizes.get(fun);
+        if (n == null) throw new IllegalArgumentException("not a function of this program: " + fun.name);
+        return n;
+    }
+
+    public boolean hasErrors() {
+        return !errors.isEmpty();
+    }
+}
@@ -0,0 +1,314 @@
+package madlang.analysis;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.function.Function;
+
+import madlang.ast.Ast;
+import madlang.ast.Expr;
+import madlang.ast.Stmt;
+
+/**
+ * Name resolution for MadLang.
+ *
+ * Scoping rules:
+ * - Variables and functions live in separate namespaces.
+ * - All top-level declarations are visible everywhere in the program.
+ * - Parameters and the top-level statements of a function body share one scope;
+ *   every nested block opens a new scope, and inner declarations may shadow outer ones.
+ * - A local variable is visible after its VarDef; a nested function is visible
+ *   from its FunDef on (including inside its own body, for recursion).
+ * - Nested functions may read and write variables of enclosing functions.
+ */
+public final class Resolver implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
+
+    /** One lexical scope; maps are created on first declaration. */
+    private static final class Scope {
+        final Scope parent;
+        HashMap<String, Symbol> vars;
+        HashMap<String, Symbol> funs;
+
+        Scope(Scope parent) { this.parent = parent; }
+
+        Symbol lookupVar(String name) {
+            for (Scope s = this; s != null; s = s.parent) {
+                Symbol sym = s.vars == null ? null : s.vars.get(name);
+                if (sym != null) return sym;
+            }
+            return null;
+        }
+
+        Symbol lookupFun(String name) {
+            for (Scope s = this; s != null; s = s.parent) {
+                Symbol sym = s.funs == null ? null : s.funs.get(name);
+                if (sym != null) return sym;
+            }
+            return null;
+        }
+    }
+
+    private final IdentityHashMap<Object, Symbol> symbols = new IdentityHashMap<>();
+    private final IdentityHashMap<Ast.FunDecl, Integer> frameSizes = new IdentityHashMap<>();
+    private final List<Symbol> globals = new ArrayList<>();
+    private final List<Ast.FunDecl> functions = new ArrayList<>();
+    private final List<Diagnostic> errors = new ArrayList<>();
+
+    private Scope scope;
+
+    // Where names not declared in any scope are looked up last (see resolveDecl)
+    private Function<String, Symbol> topVar = name -> null;
+    private Function<String, Symbol> topFun = name -> null;
+
+    // Function whose body is being resolved (null for global initializers),
+    // its nesting level and the next free slot in its frame
+    private Ast.FunDecl currentFun = null;
+    private int level = -1;
+    private int nextSlot = 0;
+
+    private Resolver() {}
+
+    /**
+     * Resolves every identifier in the program.
+     *
+     * @param program the AST of a whole MadLang program
+     * @return the symbol table; undefined and duplicate names are reported in its errors
+     */
+    public static Resolution resolve(Ast.Program program) {
+        Resolver r = new Resolver();
+        r.resolveProgram(program);
+        return new Resolution(program, r.globals, r.functions, r.errors, r.symbols, r.frameSizes);
+    }
+
+    /**
+     * Resolves one top-level declaration on its own, for XrefIndex: its name is
+     * declared at the top level, and names no scope declares are looked up
+     * with topVar and topFun (which return null for undefined ones). Errors
+     * are not reported, and a global's slot is not its index among globals.
+     *
+     * @return the symbol of every use and definition in decl that resolved
+     */
+    static IdentityHashMap<Object, Symbol> resolveDecl(Ast.Decl decl, Function<String, Symbol> topVar,
+                                                      Function<String, Symbol> topFun) {
+        Resolver r = new Resolver();
+        r.topVar = topVar;
+        r.topFun = topFun;
+        r.scope = new Scope(null);
+        r.declareFun(Symbol.OUTPUT, null);
+        r.declareFun(Symbol.INPUT, null);
+        if (decl instanceof Ast.GlobalVarDecl g) {
+            r.declareVar(new Symbol(Symbol.Kind.GLOBAL, g.name, g.type, g, null, -1, -1), g, g.span);
+            if (g.initOrNull != null) g.initOrNull.accept(r);
+        } else if (decl instanceof Ast.FunDecl f) {
+            r.declareFun(new Symbol(Symbol.Kind.FUNCTION, f.name, f.returnType, f, null, 0, -1), f);
+            r.resolveFunction(f);
+        } else {
+            throw new IllegalStateException("Unknown decl: " + decl.getClass());
+        }
+        return r.symbols;
+    }
+
+    private void resolveProgram(Ast.Program program) {
+        scope = new Scope(null);
+        declareFun(Symbol.OUTPUT, null);
+        declareFun(Symbol.INPUT, null);
+
+        // Top-level names are hoisted so declaration order does not matter
+        for (Ast.Decl decl : program.decls) {
+            if (decl instanceof Ast.GlobalVarDecl g) {
+                Symbol sym = new Symbol(Symbol.Kind.GLOBAL, g.name, g.type, g, null, -1, globals.size());
+                if (declareVar(sym, g, g.span)) globals.add(sym);
+            } else if (decl instanceof Ast.FunDecl f) {
+                declareFun(new Symbol(Symbol.Kind.FUNCTION, f.name, f.returnType, f, null, 0, -1), f);
+            } else {
+                throw new IllegalStateException("Unknown decl: " + decl.getClass());
+            }
+        }
+
+        for (Ast.Decl decl : program.decls) {
+            if (decl instanceof Ast.GlobalVarDecl g) {
+                if (g.initOrNull != null) g.initOrNull.accept(this);
+            } else {
+                resolveFunction((Ast.FunDecl) decl);
+            }
+        }
+    }
+
+    /**
+     * Resolves a function's parameters and body in a fresh frame. The function's
+     * own symbol must already be declared in the enclosing scope.
+     */
+    private void resolveFunction(Ast.FunDecl fun) {
+        Ast.FunDecl savedFun = currentFun;
+        int savedLevel = level;
+        int savedSlot = nextSlot;
+        Scope savedScope = scope;
+
+        functions.add(fun);
+        currentFun = fun;
+        level++;
+        nextSlot = 0;
+        scope = new Scope(scope);
+
+        for (Ast.Param p : fun.params) {
+            Symbol sym = new Symbol(Symbol.Kind.PARAM, p.name, p.type, p, fun, level, nextSlot);
+            if (declareVar(sym, p, p.span)) nextSlot++;
+        }
+        // The body's top-level statements share the parameter scope
+        for (Stmt s : fun.body.stmts) s.accept(this);
+        frameSizes.put(fun, nextSlot);
+
+        currentFun = savedFun;
+        level = savedLevel;
+        nextSlot = savedSlot;
+        scope = savedScope;
+    }
+
+    /** @return false (after reporting) if the name is already a variable in this scope */
+    private boolean declareVar(Symbol sym, Object node, Ast.Span span) {
+        if (scope.vars == null) scope.vars = new HashMap<>();
+        if (scope.vars.containsKey(sym.name)) {
+            error(node, span, "variable '" + sym.name + "' is already declared in this scope");
+            return false;
+        }
+        scope.vars.put(sym.name, sym);
+        symbols.put(node, sym);
+        return true;
+    }
+
+    private void declareFun(Symbol sym, Ast.FunDecl fun) {
+        if (scope.funs == null) scope.funs = new HashMap<>();
+        if (scope.funs.containsKey(sym.name)) {
+            error(fun, fun == null ? null : fun.span, "function '" + sym.name + "' is already declared in this scope");
+            return;
+        }
+        scope.funs.put(sym.name, sym);
+        if (fun != null) symbols.put(fun, sym);
+    }
+
+    /** Resolves a variable use, marking it captured when it crosses a function boundary. */
+    private void useVar(Object node, String name, Ast.Span span) {
+        Symbol sym = scope.lookupVar(name);
+        if (sym == null) sym = topVar.apply(name);
+        if (sym == null) {
+            error(node, span, "undefined variable '" + name + "'");
+            return;
+        }
+        if (sym.owner != null && sym.owner != currentFun) sym.captured = true;
+        symbols.put(node, sym);
+    }
+
+    private void error(Object node, Ast.Span span, String message) {
+        errors.add(new Diagnostic(node, span, message));
+    }
+
+    /////////////////////
+    /// STMT VISITORS ///
+    /////////////////////
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block s) {
+        scope = new Scope(scope);
+        for (Stmt inner : s.stmts) inner.accept(this);
+        scope = scope.parent;
+        return null;
+    }
+
+    @Override
+    public Void visitVarDefStmt(Stmt.VarDef s) {
+        // The initializer cannot see the variable it initializes
+        if (s.initOrNull != null) s.initOrNull.accept(this);
+        Symbol sym = new Symbol(Symbol.Kind.LOCAL, s.name, s.type, s, currentFun, level, nextSlot);
+        if (declareVar(sym, s, s.span)) nextSlot++;
+        return null;
+    }
+
+    @Override
+    public Void visitFunDefStmt(Stmt.FunDef s) {
+        Ast.FunDecl f = s.fun;
+        declareFun(new Symbol(Symbol.Kind.FUNCTION, f.name, f.returnType, f, currentFun, level + 1, -1), f);
+        resolveFunction(f);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignStmt(Stmt.Assign s) {
+        s.rhs.accept(this);
+        useVar(s, s.name, s.span);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If s) {
+        s.cond.accept(this);
+        s.thenBranch.accept(this);
+        if (s.elseBranchOrNull != null) s.elseBranchOrNull.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While s) {
+        s.cond.accept(this);
+        s.body.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return s) {
+        s.value.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitExprStmt(Stmt.ExprStmt s) {
+        s.expr.accept(this);
+        return null;
+    }
+
+    /////////////////////
+    /// EXPR VISITORS ///
+    /////////////////////
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary e) {
+        e.left.accept(this);
+        e.right.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary e) {
+        e.expr.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitIntLitExpr(Expr.IntLit e) {
+        return null;
+    }
+
+    @Override
+    public Void visitBoolLitExpr(Expr.BoolLit e) {
+        return null;
+    }
+
+    @Override
+    public Void visitVarExpr(Expr.Var e) {
+        useVar(e, e.name, e.span);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call e) {
+        for (Expr arg : e.args) arg.accept(this);
+        Symbol sym = scope.lookupFun(e.callee);
+        if (sym == null) sym = topFun.apply(e.callee);
+        if (sym == null) {
+            error(e, e.span, "undefined function '" + e.callee + "'");
+        } else {
+            symbols.put(e, sym);
+        }
+        return null;
+    }
+}
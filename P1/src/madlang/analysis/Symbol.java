@@ -0,0 +1,75 @@
+package madlang.analysis;
+
+import java.util.Objects;
+
+import madlang.ast.Ast;
+
+/**
+ * A named entity that identifiers resolve to: a variable, a function or a builtin.
+ */
+public final class Symbol {
+
+    public enum Kind {
+        GLOBAL,   // top-level variable
+        PARAM,    // function parameter
+        LOCAL,    // local variable (Stmt.VarDef)
+        FUNCTION, // top-level or nested function
+        BUILTIN   // output / input
+    }
+
+    /**
+     * output(x): prints an int or bool followed by a newline, ints in decimal and
+     * bools as true/false. The call itself has type int (its value is 0).
+     */
+    public static final Symbol OUTPUT = new Symbol(Kind.BUILTIN, "output", Ast.Type.INT, null, null, -1, -1);
+
+    /** input(): reads an int. */
+    public static final Symbol INPUT = new Symbol(Kind.BUILTIN, "input", Ast.Type.INT, null, null, -1, -1);
+
+    public final Kind kind;
+    public final String name;
+
+    // Variable type, or return type for functions and builtins
+    public final Ast.Type type;
+
+    // Declaring node: Ast.GlobalVarDecl, Ast.Param, Stmt.VarDef or Ast.FunDecl; null for builtins
+    public final Object decl;
+
+    // Function whose frame holds this variable, or that lexically encloses this
+    // function; null for globals, top-level functions and builtins
+    public final Ast.FunDecl owner;
+
+    // Lexical nesting depth: 0 for top-level functions and their variables,
+    // 1 inside a function nested once, and so on; -1 for globals and builtins
+    public final int level;
+
+    // PARAM/LOCAL: slot in the owner's frame; GLOBAL: index among globals; otherwise -1
+    public final int slot;
+
+    // PARAM/LOCAL only: read or written by a function nested inside the owner
+    boolean captured;
+
+    Symbol(Kind kind, String name, Ast.Type type, Object decl, Ast.FunDecl owner, int level, int slot) {
+        this.kind = Objects.requireNonNull(kind);
+        this.name = Objects.requireNonNull(name);
+        this.type = type;
+        this.decl = decl;
+        this.owner = owner;
+        this.level = level;
+        this.slot = slot;
+    }
+
+    public boolean isVariable() {
+        return kind == Kind.GLOBAL || kind == Kind.PARAM || kind == Kind.LOCAL;
+    }
+
+    /** @return true if a nested function reads or writes this local or parameter */
+    public boolean isCaptured() {
+        return captured;
+    }
+
+    @Override
+    public String toString() {
+        return kind.name().toLowerCase() + " " + name;
+    }
+}
@@ -0,0 +1,326 @@
+package madlang.analysis;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import madlang.ast.Ast;
+import madlang.ast.Expr;
+import madlang.ast.Stmt;
+
+/**
+ * Static type checker for MadLang.
+ *
+ * Runs on top of a Resolution and makes a single pass over the program,
+ * recording the type of every expression and collecting every error instead of
+ * stopping at the first one. An expression whose type cannot be determined
+ * (because of an earlier error) has no recorded type, and checks that depend
+ * on it are skipped so that one mistake is reported once.
+ *
+ * Once a program checks cleanly, execution engines may rely on:
+ * - if/while conditions and &&, ||, ! operands being bool
+ * - arithmetic and relational operands being int, == and != operands agreeing
+ * - calls passing the right number of arguments of the right types
+ * - returned values matching the function's return type
+ * - every function returning a value on every path
+ */
+public final class TypeChecker implements Stmt.Visitor<Void>, Expr.Visitor<Ast.Type> {
+
+    /** Outcome of type checking a program. */
+    public static final class Result {
+        public final Resolution resolution;
+
+        // Resolution errors first, then type errors in traversal order
+        public final List<Diagnostic> errors;
+
+        private final IdentityHashMap<Expr, Ast.Type> types;
+
+        private Result(Resolution resolution, List<Diagnostic> errors, IdentityHashMap<Expr, Ast.Type> types) {
+            this.resolution = resolution;
+            this.errors = Collections.unmodifiableList(errors);
+            this.types = types;
+        }
+
+        /** @return the type of the expression, or null if it could not be typed */
+        public Ast.Type typeOf(Expr e) {
+            return types.get(e);
+        }
+
+        public boolean hasErrors() {
+            return !errors.isEmpty();
+        }
+    }
+
+    private final Resolution resolution;
+    private final List<Diagnostic> errors;
+    private final IdentityHashMap<Expr, Ast.Type> types;
+
+    // Function whose body is being checked; null for global initializers
+    private Ast.FunDecl currentFun = null;
+
+    private TypeChecker(Resolution resolution, int expectedExprs) {
+        this.resolution = resolution;
+        this.errors = new ArrayList<>(resolution.errors);
+        this.types = new IdentityHashMap<>(expectedExprs);
+    }
+
+    /**
+     * Resolves and type checks a program.
+     *
+     * @param program the AST of a whole MadLang program
+     * @return expression types and all resolution and type errors
+     */
+    public static Result check(Ast.Program program) {
+        return check(Resolver.resolve(program));
+    }
+
+    /**
+     * Type checks an already resolved program.
+     *
+     * @param resolution the result of Resolver.resolve
+     * @return expression types and all resolution and type errors
+     */
+    public static Result check(Resolution resolution) {
+        // Every use and definition has a symbol entry, which is a fair estimate
+        // of the expression count and saves rehashing on large programs
+        TypeChecker tc = new TypeChecker(resolution, resolution.symbols.size());
+        for (Ast.Decl decl : resolution.program.decls) {
+            if (decl instanceof Ast.GlobalVarDecl g) {
+                if (g.initOrNull != null && !tc.expect(g.initOrNull, g.type)) {
+                    tc.mismatch(g.initOrNull, g.type, "initializer of global '" + g.name + "'");
+                }
+            } else {
+                tc.checkFunction((Ast.FunDecl) decl);
+            }
+        }
+        return new Result(resolution, tc.errors, tc.types);
+    }
+
+    private void checkFunction(Ast.FunDecl fun) {
+        Ast.FunDecl saved = currentFun;
+        currentFun = fun;
+        for (Stmt s : fun.body.stmts) s.accept(this);
+        if (!alwaysReturns(fun.body)) {
+            error(fun, fun.span, "function '" + fun.name + "' can reach its end without returning a value");
+        }
+        currentFun = saved;
+    }
+
+    /**
+     * Types an expression and compares it with the expected type. Callers build
+     * the error message only when this fails, so well-typed code allocates nothing.
+     *
+     * @return false if the expression has a known type other than the expected one
+     */
+    private boolean expect(Expr e, Ast.Type expected) {
+        Ast.Type actual = e.accept(this);
+        return actual == null || actual == expected;
+    }
+
+    /**
+     * Reports an expression whose type differs from the expected one.
+     *
+     * @param what describes the position, e.g. "condition of while"
+     */
+    private void mismatch(Expr e, Ast.Type expected, String what) {
+        error(e, e.span, what + " must be " + expected.toSource() + ", found " + types.get(e).toSource());
+    }
+
+    private void error(Object node, Ast.Span span, String message) {
+        errors.add(new Diagnostic(node, span, message));
+    }
+
+    /**
+     * Conservative check that a statement cannot complete normally: it returns
+     * on every path. Loops are assumed to possibly exit.
+     */
+    private static boolean alwaysReturns(Stmt s) {
+        if (s instanceof Stmt.Return) return true;
+        if (s instanceof Stmt.Block b) {
+            for (Stmt inner : b.stmts) {
+                if (alwaysReturns(inner)) return true;
+            }
+            return false;
+        }
+        if (s instanceof Stmt.If i) {
+            return i.elseBranchOrNull != null && alwaysReturns(i.thenBranch) && alwaysReturns(i.elseBranchOrNull);
+        }
+        return false;
+    }
+
+    /////////////////////
+    /// STMT VISITORS ///
+    /////////////////////
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block s) {
+        for (Stmt inner : s.stmts) inner.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitVarDefStmt(Stmt.VarDef s) {
+        if (s.initOrNull != null && !expect(s.initOrNull, s.type)) {
+            mismatch(s.initOrNull, s.type, "initializer of '" + s.name + "'");
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitFunDefStmt(Stmt.FunDef s) {
+        checkFunction(s.fun);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignStmt(Stmt.Assign s) {
+        Symbol target = resolution.symbol(s);
+        if (target == null) {
+            s.rhs.accept(this);
+        } else {
+            if (!expect(s.rhs, target.type)) mismatch(s.rhs, target.type, "value assigned to '" + s.name + "'");
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If s) {
+        if (!expect(s.cond, Ast.Type.BOOL)) mismatch(s.cond, Ast.Type.BOOL, "condition of if");
+        s.thenBranch.accept(this);
+        if (s.elseBranchOrNull != null) s.elseBranchOrNull.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While s) {
+        if (!expect(s.cond, Ast.Type.BOOL)) mismatch(s.cond, Ast.Type.BOOL, "condition of while");
+        s.body.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return s) {
+        if (currentFun == null) {
+            error(s, s.span, "return outside of a function");
+            s.value.accept(this);
+        } else {
+            if (!expect(s.value, currentFun.returnType)) {
+                mismatch(s.value, currentFun.returnType, "return value of '" + currentFun.name + "'");
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitExprStmt(Stmt.ExprStmt s) {
+        s.expr.accept(this);
+        return null;
+    }
+
+    /////////////////////
+    /// EXPR VISITORS ///
+    /////////////////////
+
+    // Each visitor returns the expression's type (null if unknown) and records it.
+
+    private Ast.Type record(Expr e, Ast.Type t) {
+        if (t != null) types.put(e, t);
+        return t;
+    }
+
+    @Override
+    public Ast.Type visitBinaryExpr(Expr.Binary e) {
+        Ast.Type l = e.left.accept(this);
+        Ast.Type r = e.right.accept(this);
+        String op = e.op.toSource();
+        switch (e.op) {
+            case MUL: case DIV: case MOD: case ADD: case SUB:
+                operand(e.left, l, Ast.Type.INT, op);
+                operand(e.right, r, Ast.Type.INT, op);
+                return record(e, Ast.Type.INT);
+            case LT: case LE: case GT: case GE:
+                operand(e.left, l, Ast.Type.INT, op);
+                operand(e.right, r, Ast.Type.INT, op);
+                return record(e, Ast.Type.BOOL);
+            case EQ: case NE:
+                if (l != null && r != null && l != r) {
+                    error(e, e.span, "operands of '" + op + "' must have the same type, found "
+                        + l.toSource() + " and " + r.toSource());
+                }
+                return record(e, Ast.Type.BOOL);
+            case LAND: case LOR:
+                operand(e.left, l, Ast.Type.BOOL, op);
+                operand(e.right, r, Ast.Type.BOOL, op);
+                return record(e, Ast.Type.BOOL);
+            default:
+                throw new IllegalStateException("unreachable");
+        }
+    }
+
+    private void operand(Expr e, Ast.Type actual, Ast.Type expected, String op) {
+        if (actual != null && actual != expected) {
+            error(e, e.span, "operand of '" + op + "' must be " + expected.toSource() + ", found " + actual.toSource());
+        }
+    }
+
+    @Override
+    public Ast.Type visitUnaryExpr(Expr.Unary e) {
+        Ast.Type expected = e.op == Expr.UnOp.NEG ? Ast.Type.INT : Ast.Type.BOOL;
+        operand(e.expr, e.expr.accept(this), expected, e.op.toSource());
+        return record(e, expected);
+    }
+
+    @Override
+    public Ast.Type visitIntLitExpr(Expr.IntLit e) {
+        return record(e, Ast.Type.INT);
+    }
+
+    @Override
+    public Ast.Type visitBoolLitExpr(Expr.BoolLit e) {
+        return record(e, Ast.Type.BOOL);
+    }
+
+    @Override
+    public Ast.Type visitVarExpr(Expr.Var e) {
+        Symbol sym = resolution.symbol(e);
+        return sym == null ? null : record(e, sym.type);
+    }
+
+    @Override
+    public Ast.Type visitCallExpr(Expr.Call e) {
+        Symbol callee = resolution.symbol(e);
+        if (callee == null) {
+            for (Expr arg : e.args) arg.accept(this);
+            return null;
+        }
+
+        if (callee == Symbol.OUTPUT) {
+            // output takes one value of either type
+            for (Expr arg : e.args) arg.accept(this);
+            if (e.args.size() != 1) arityError(e, 1);
+        } else if (callee == Symbol.INPUT) {
+            for (Expr arg : e.args) arg.accept(this);
+            if (!e.args.isEmpty()) arityError(e, 0);
+        } else {
+            List<Ast.Param> params = ((Ast.FunDecl) callee.decl).params;
+            if (params.size() != e.args.size()) {
+                for (Expr arg : e.args) arg.accept(this);
+                arityError(e, params.size());
+            } else {
+                for (int i = 0; i < params.size(); i++) {
+                    Expr arg = e.args.get(i);
+                    if (!expect(arg, params.get(i).type)) {
+                        mismatch(arg, params.get(i).type, "argument " + (i + 1) + " of '" + e.callee + "'");
+                    }
+                }
+            }
+        }
+        return record(e, callee.type);
+    }
+
+    private void arityError(Expr.Call e, int expected) {
+        error(e, e.span, "'" + e.callee + "' expects " + expected + " argument" + (expected == 1 ? "" : "s")
+            + ", found " + e.args.size());
+    }
+}
@@ -0,0 +1,482 @@
+package madlang.analysis;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Objects;
+
+import madlang.ast.Ast;
+import madlang.ast.Expr;
+import madlang.ast.Stmt;
+
+/**
+ * Cross-reference index of a program: for every symbol, its definition and
+ * where it is read, written and called, so that find-definition and
+ * find-all-references cost a hash lookup instead of a walk over the program.
+ *
+ * It is built in one pass over the uses (Expr.Var, Stmt.Assign, Expr.Call)
+ * and definitions (Ast.GlobalVarDecl, Ast.Param, Stmt.VarDef, Ast.FunDecl)
+ * of a Resolution, and kept up to date one top-level declaration at a time
+ * by replace() or update(), at a cost proportional to the declarations that
+ * changed. Top-level names (globals, top-level functions, builtins) are
+ * indexed by name, so that uses in unchanged declarations follow a function
+ * that is edited, removed or added back; an entry whose name has no
+ * definition holds the uses that do not resolve. Everything else is local to
+ * its top-level declaration and is indexed by its Symbol.
+ *
+ * Uses of a symbol are kept in one array per kind (READ, WRITE, CALL), in no
+ * particular order; uses() is a view of that array, valid until the next
+ * update. A top-level name declared more than once is in use with its first
+ * declaration in the program, as Resolver has it; the others are kept with
+ * the entry, and the next in program order takes over when that one goes.
+ */
+public final class XrefIndex {
+
+    public enum Use {
+        READ,  // Expr.Var
+        WRITE, // Stmt.Assign
+        CALL   // Expr.Call
+    }
+
+    /** What the index knows about one symbol. */
+    public static final class Entry {
+        private final String name;
+        private final boolean function;
+        private Symbol symbol;
+        private Object definition;
+        // Top-level names declared more than once: the definitions not in use, in
+        // no particular order, as pairs of symbol and definition
+        private ArrayList<Object> shadowed = null;
+        private final Sites[] uses = new Sites[Use.values().length];
+
+        private Entry(String name, boolean function) {
+            this.name = name;
+            this.function = function;
+        }
+
+        public String name() { return name; }
+
+        /** @return true for functions and builtins, false for variables */
+        public boolean isFunction() { return function; }
+
+        /** @return the symbol defined, or null for a top-level name that is not defined */
+        public Symbol symbol() { return symbol; }
+
+        /**
+         * @return the defining Ast.GlobalVarDecl, Ast.Param, Stmt.VarDef or
+         *         Ast.FunDecl, or null for builtins and undefined names
+         */
+        public Object definition() { return definition; }
+
+        /** @return the nodes that use the symbol in the given way */
+        public List<Object> uses(Use kind) {
+            Sites s = uses[kind.ordinal()];
+            return s == null ? List.of() : s;
+        }
+
+        public int useCount() {
+            int n = 0;
+            for (Sites s : uses) if (s != null) n += s.size;
+            return n;
+        }
+
+        @Override
+        public String toString() {
+            return (function ? "function " : "variable ") + name + " (" + useCount() + " uses)";
+        }
+    }
+
+    /** A compact, growable array of the nodes of one kind of use. */
+    private static final class Sites extends AbstractList<Object> {
+        Object[] nodes = new Object[4];
+        int size = 0;
+
+        @Override public Object get(int i) {
+            Objects.checkIndex(i, size);
+            return nodes[i];
+        }
+
+        @Override public int size() { return size; }
+    }
+
+    /** Where a node is in the index: its entry and, for uses, its place in a Sites array. */
+    private static final class Site {
+        final Entry entry;
+        final Use kind; // null for a definition
+        int slot;
+
+        Site(Entry entry, Use kind, int slot) {
+            this.entry = entry;
+            this.kind = kind;
+            this.slot = slot;
+        }
+    }
+
+    /** The nodes one top-level declaration put in the index, to take them out again. */
+    private static final class DeclRecord {
+        final List<Object> nodes = new ArrayList<>();
+        final List<Entry> locals = new ArrayList<>();
+    }
+
+    private final HashMap<String, Entry> topVars = new HashMap<>();
+    private final HashMap<String, Entry> topFuns = new HashMap<>();
+    private final IdentityHashMap<Symbol, Entry> locals = new IdentityHashMap<>();
+    private final IdentityHashMap<Object, Site> sites;
+    // The top-level declarations, and what each put in the index
+    private final ArrayList<Ast.Decl> decls = new ArrayList<>();
+    private final ArrayList<DeclRecord> records = new ArrayList<>();
+    // Entries that got or lost a duplicate definition since the last settle()
+    private final ArrayList<Entry> contested = new ArrayList<>();
+
+    private XrefIndex(int expectedNodes) {
+        this.sites = new IdentityHashMap<>(expectedNodes);
+    }
+
+    /** @param resolution a resolved program; uses that did not resolve are indexed by name */
+    public static XrefIndex build(Resolution resolution) {
+        // Every node with a symbol is indexed, which saves rehashing on large programs
+        XrefIndex index = new XrefIndex(resolution.symbols.size());
+        for (Ast.Decl decl : resolution.program.decls) {
+            index.decls.add(decl);
+            index.records.add(index.add(decl, resolution.symbols));
+        }
+        // Indexed in program order, every entry already has its first definition in use
+        index.contested.clear();
+        return index;
+    }
+
+    /** @return the top-level declarations as last indexed; a view that updates change */
+    public List<Ast.Decl> decls() {
+        return Collections.unmodifiableList(decls);
+    }
+
+    ///////////////
+    /// QUERIES ///
+    ///////////////
+
+    /**
+     * @param node a use or definition in the indexed program
+     * @return the entry of the symbol the node uses or defines, or null if the
+     *         node is not in the index
+     */
+    public Entry at(Object node) {
+        Site s = sites.get(node);
+        return s == null ? null : s.entry;
+    }
+
+    /** @return the entry of sym, or null if it is not a symbol of the indexed program */
+    public Entry entry(Symbol sym) {
+        if (sym.owner == null && sym.kind != Symbol.Kind.PARAM && sym.kind != Symbol.Kind.LOCAL) {
+            Entry e = (sym.kind == Symbol.Kind.GLOBAL ? topVars : topFuns).get(sym.name);
+            return e != null && e.symbol == sym ? e : null;
+        }
+        return locals.get(sym);
+    }
+
+    /** @return the entry of the global variable name, which may be undefined, or null if nothing mentions it */
+    public Entry global(String name) {
+        return topVars.get(name);
+    }
+
+    /** @return the entry of the top-level function or builtin name, or null if nothing mentions it */
+    public Entry function(String name) {
+        return topFuns.get(name);
+    }
+
+    ///////////////
+    /// UPDATES ///
+    ///////////////
+
+    /**
+     * Re-indexes after the top-level declarations [from, to) were replaced by
+     * replacement, resolving the new ones against the top-level names of the
+     * rest of the program.
+     */
+    public void replace(int from, int to, List<? extends Ast.Decl> replacement) {
+        Objects.checkFromToIndex(from, to, decls.size());
+        for (int i = from; i < to; i++) remove(records.get(i));
+        List<DeclRecord> added = new ArrayList<>(replacement.size());
+        for (Ast.Decl decl : replacement) {
+            added.add(add(decl, Resolver.resolveDecl(decl, name -> defined(topVars, name), name -> defined(topFuns, name))));
+        }
+        List<DeclRecord> window = records.subList(from, to);
+        window.clear();
+        window.addAll(added);
+        List<Ast.Decl> declWindow = decls.subList(from, to);
+        declWindow.clear();
+        declWindow.addAll(replacement);
+        if (!contested.isEmpty()) settle();
+    }
+
+    /**
+     * Re-indexes for program, a later version of the indexed one in which
+     * unchanged top-level declarations are the same objects (as in the
+     * programs of successive SourceFile edits). Finding what changed compares
+     * the declaration lists; only the changed declarations are resolved again.
+     */
+    public void update(Ast.Program program) {
+        List<Ast.Decl> now = program.decls;
+        int from = 0;
+        while (from < decls.size() && from < now.size() && decls.get(from) == now.get(from)) from++;
+        int oldTo = decls.size();
+        int newTo = now.size();
+        while (oldTo > from && newTo > from && decls.get(oldTo - 1) == now.get(newTo - 1)) {
+            oldTo--;
+            newTo--;
+        }
+        if (from < oldTo || from < newTo) replace(from, oldTo, now.subList(from, newTo));
+    }
+
+    /**
+     * Puts the first definition in the program in use for every contested
+     * entry, in one pass over the declarations; only edits that declare,
+     * take out or put back a duplicate top-level name pay for it.
+     */
+    private void settle() {
+        IdentityHashMap<Object, Entry> candidates = new IdentityHashMap<>();
+        int entries = 0;
+        for (Entry e : contested) {
+            if (e.shadowed == null || candidates.containsKey(e.definition)) continue;
+            entries++;
+            candidates.put(e.definition, e);
+            for (int i = 1; i < e.shadowed.size(); i += 2) candidates.put(e.shadowed.get(i), e);
+        }
+        contested.clear();
+        IdentityHashMap<Entry, Boolean> settled = new IdentityHashMap<>();
+        for (int d = 0; d < decls.size() && settled.size() < entries; d++) {
+            Ast.Decl decl = decls.get(d);
+            Entry e = candidates.get(decl);
+            if (e == null || settled.put(e, true) != null || e.definition == decl) continue;
+            int i = e.shadowed.indexOf(decl);
+            Symbol sym = (Symbol) e.shadowed.get(i - 1);
+            e.shadowed.set(i - 1, e.symbol);
+            e.shadowed.set(i, e.definition);
+            e.symbol = sym;
+            e.definition = decl;
+        }
+    }
+
+    private static Symbol defined(HashMap<String, Entry> top, String name) {
+        Entry e = top.get(name);
+        return e == null || e.definition == null ? null : e.symbol;
+    }
+
+    /** Indexes the uses and definitions in decl, whose symbols are in symbols. */
+    private DeclRecord add(Ast.Decl decl, IdentityHashMap<Object, Symbol> symbols) {
+        DeclRecord record = new DeclRecord();
+        Collector c = new Collector(this, record, symbols);
+        if (decl instanceof Ast.GlobalVarDecl g) {
+            c.define(g);
+            if (g.initOrNull != null) g.initOrNull.accept(c);
+        } else if (decl instanceof Ast.FunDecl f) {
+            c.topFunction(f);
+        } else {
+            throw new IllegalStateException("Unknown decl: " + decl.getClass());
+        }
+        return record;
+    }
+
+    /** Takes everything record added out of the index. */
+    private void remove(DeclRecord record) {
+        for (Object node : record.nodes) {
+            Site s = sites.remove(node);
+            if (s == null) continue;
+            Entry e = s.entry;
+            if (s.kind == null) {
+                if (e.definition == node) {
+                    e.definition = null;
+                    if (e.symbol != null && e.symbol.kind != Symbol.Kind.BUILTIN) e.symbol = null;
+                    if (e.shadowed != null) {
+                        // Another definition takes over; settle() picks the first in the program
+                        e.definition = e.shadowed.remove(e.shadowed.size() - 1);
+                        e.symbol = (Symbol) e.shadowed.remove(e.shadowed.size() - 1);
+                        if (e.shadowed.isEmpty()) e.shadowed = null;
+                        contested.add(e);
+                    }
+                } else if (e.shadowed != null) {
+                    int i = e.shadowed.indexOf(node);
+                    e.shadowed.subList(i - 1, i + 1).clear();
+                    if (e.shadowed.isEmpty()) e.shadowed = null;
+                }
+            } else {
+                // Fill the hole with the last use of the same kind
+                Sites uses = e.uses[s.kind.ordinal()];
+                Object last = uses.nodes[--uses.size];
+                uses.nodes[uses.size] = null;
+                if (last != node) {
+                    uses.nodes[s.slot] = last;
+                    sites.get(last).slot = s.slot;
+                }
+            }
+            // A top-level name stays while anything else defines or mentions it
+            HashMap<String, Entry> top = e.function ? topFuns : topVars;
+            if (e.definition == null && e.useCount() == 0 && top.get(e.name) == e) top.remove(e.name);
+        }
+        for (Entry e : record.locals) locals.remove(e.symbol);
+    }
+
+    /** @return the entry sym (or, if it did not resolve, name) goes to, made if new */
+    private Entry entryFor(Symbol sym, String name, boolean function, DeclRecord record) {
+        boolean top = sym == null || sym.owner == null && sym.kind != Symbol.Kind.PARAM && sym.kind != Symbol.Kind.LOCAL;
+        if (top) {
+            HashMap<String, Entry> map = function ? topFuns : topVars;
+            Entry e = map.get(name);
+            if (e == null) {
+                e = new Entry(name, function);
+                map.put(name, e);
+            }
+            if (sym != null && sym.kind == Symbol.Kind.BUILTIN) e.symbol = sym;
+            return e;
+        }
+        Entry e = locals.get(sym);
+        if (e == null) {
+            e = new Entry(name, function);
+            e.symbol = sym;
+            locals.put(sym, e);
+            record.locals.add(e);
+        }
+        return e;
+    }
+
+    private void use(Object node, Symbol sym, String name, Use kind, DeclRecord record) {
+        Entry e = entryFor(sym, name, kind == Use.CALL, record);
+        Sites uses = e.uses[kind.ordinal()];
+        if (uses == null) uses = e.uses[kind.ordinal()] = new Sites();
+        if (uses.size == uses.nodes.length) uses.nodes = Arrays.copyOf(uses.nodes, 2 * uses.size);
+        uses.nodes[uses.size] = node;
+        sites.put(node, new Site(e, kind, uses.size++));
+        record.nodes.add(node);
+    }
+
+    private void define(Object node, Symbol sym, String name, boolean function, DeclRecord record) {
+        if (sym == null) return; // a duplicate declaration
+        Entry e = entryFor(sym, name, function, record);
+        if (e.definition != null) {
+            // A top-level name declared again; replace() settles which one is first
+            if (e.shadowed == null) e.shadowed = new ArrayList<>(2);
+            e.shadowed.add(sym);
+            e.shadowed.add(node);
+            contested.add(e);
+        } else {
+            e.symbol = sym;
+            e.definition = node;
+        }
+        sites.put(node, new Site(e, null, -1));
+        record.nodes.add(node);
+    }
+
+    /** Walks one top-level declaration, indexing every use and definition. */
+    private static final class Collector implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
+        final XrefIndex index;
+        final DeclRecord record;
+        final IdentityHashMap<Object, Symbol> symbols;
+
+        Collector(XrefIndex index, DeclRecord record, IdentityHashMap<Object, Symbol> symbols) {
+            this.index = index;
+            this.record = record;
+            this.symbols = symbols;
+        }
+
+        void define(Ast.GlobalVarDecl g) {
+            Symbol sym = symbols.get(g);
+            // Resolver leaves a global declared before without a symbol; it gets one
+            // of its own, as resolveDecl() gives it, to take over when the first goes
+            if (sym == null) sym = new Symbol(Symbol.Kind.GLOBAL, g.name, g.type, g, null, -1, -1);
+            index.define(g, sym, g.name, false, record);
+        }
+
+        /** Like function(), but a function declared before gets a symbol of its own, as for a global. */
+        void topFunction(Ast.FunDecl f) {
+            Symbol sym = symbols.get(f);
+            // Builtins are never shadowed, so resolveDecl() gives a function named like one no symbol either
+            if (sym == null && !f.name.equals(Symbol.OUTPUT.name) && !f.name.equals(Symbol.INPUT.name)) {
+                sym = new Symbol(Symbol.Kind.FUNCTION, f.name, f.returnType, f, null, 0, -1);
+            }
+            function(f, sym);
+        }
+
+        void function(Ast.FunDecl f) {
+            function(f, symbols.get(f));
+        }
+
+        private void function(Ast.FunDecl f, Symbol sym) {
+            index.define(f, sym, f.name, true, record);
+            for (Ast.Param p : f.params) index.define(p, symbols.get(p), p.name, false, record);
+            for (Stmt s : f.body.stmts) s.accept(this);
+        }
+
+        @Override public Void visitBlockStmt(Stmt.Block s) {
+            for (Stmt inner : s.stmts) inner.accept(this);
+            return null;
+        }
+
+        @Override public Void visitVarDefStmt(Stmt.VarDef s) {
+            if (s.initOrNull != null) s.initOrNull.accept(this);
+            index.define(s, symbols.get(s), s.name, false, record);
+            return null;
+        }
+
+        @Override public Void visitFunDefStmt(Stmt.FunDef s) {
+            function(s.fun);
+            return null;
+        }
+
+        @Override public Void visitAssignStmt(Stmt.Assign s) {
+            s.rhs.accept(this);
+            index.use(s, symbols.get(s), s.name, Use.WRITE, record);
+            return null;
+        }
+
+        @Override public Void visitIfStmt(Stmt.If s) {
+            s.cond.accept(this);
+            s.thenBranch.accept(this);
+            if (s.elseBranchOrNull != null) s.elseBranchOrNull.accept(this);
+            return null;
+        }
+
+        @Override public Void visitWhileStmt(Stmt.While s) {
+            s.cond.accept(this);
+            s.body.accept(this);
+            return null;
+        }
+
+        @Override public Void visitReturnStmt(Stmt.Return s) {
+            s.value.accept(this);
+            return null;
+        }
+
+        @Override public Void visitExprStmt(Stmt.ExprStmt s) {
+            s.expr.accept(this);
+            return null;
+        }
+
+        @Override public Void visitBinaryExpr(Expr.Binary e) {
+            e.left.accept(this);
+            e.right.accept(this);
+            return null;
+        }
+
+        @Override public Void visitUnaryExpr(Expr.Unary e) {
+            e.expr.accept(this);
+            return null;
+        }
+
+        @Override public Void visitIntLitExpr(Expr.IntLit e) { return null; }
+        @Override public Void visitBoolLitExpr(Expr.BoolLit e) { return null; }
+
+        @Override public Void visitVarExpr(Expr.Var e) {
+            index.use(e, symbols.get(e), e.name, Use.READ, record);
+            return null;
+        }
+
+        @Override public Void visitCallExpr(Expr.Call e) {
+            for (Expr arg : e.args) arg.accept(this);
+            index.use(e, symbols.get(e), e.callee, Use.CALL, record);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package madlang.aot;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Stream;
+
+import javax.lang.model.SourceVersion;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+import madlang.analysis.TypeChecker;
+import madlang.ast.Ast;
+import madlang.interp.CompileException;
+
+/**
+ * Ahead-of-time compilation of MadLang programs to JVM class files.
+ *
+ * The program is translated to Java source (see JavaEmitter) and compiled with
+ * the JDK's own compiler, so running the result needs neither the MadLang
+ * front end nor the interpreter: java -jar prog.jar, or java -cp dir Name.
+ * Compiling needs a JDK; running the output only a JRE.
+ */
+public final class AotCompiler {
+
+    private AotCompiler() {}
+
+    /**
+     * @param program the AST of a whole MadLang program with a main()
+     * @param className simple name of the generated class, in the default package
+     * @return Java source of the class
+     * @throws CompileException if the program has resolution or type errors
+     */
+    public static String javaSource(Ast.Program program, String className) {
+        if (!SourceVersion.isName(className) || className.contains(".")) {
+            throw new IllegalArgumentException("not a simple Java class name: " + className);
+        }
+        TypeChecker.Result checked = TypeChecker.check(program);
+        if (checked.hasErrors()) throw new CompileException(checked.errors);
+        return JavaEmitter.emit(checked, className);
+    }
+
+    /**
+     * Compiles a program to className.class (and its helper classes) in dir.
+     *
+     * @throws CompileException if the program has resolution or type errors
+     * @throws IOException if dir cannot be written
+     */
+    public static void compileToDirectory(Ast.Program program, String className, Path dir) throws IOException {
+        String source = javaSource(program, className);
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        if (javac == null) throw new IllegalStateException("no Java compiler available; run on a JDK");
+        Files.createDirectories(dir);
+
+        JavaFileObject file = new SimpleJavaFileObject(URI.create("string:///" + className + ".java"),
+                                                       JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+        StringWriter messages = new StringWriter();
+        List<String> options = List.of("-d", dir.toString(), "-nowarn", "-g:none");
+        boolean ok = javac.getTask(messages, null, null, options, null, List.of(file)).call();
+        // Generated code that javac rejects is a bug in JavaEmitter, not in the program
+        if (!ok) throw new IllegalStateException("generated Java did not compile:\n" + messages);
+    }
+
+    /**
+     * Compiles a program to a runnable jar whose Main-Class is className.
+     *
+     * @throws CompileException if the program has resolution or type errors
+     * @throws IOException if the jar cannot be written
+     */
+    public static void writeJar(Ast.Program program, String className, Path jar) throws IOException {
+        Path classes = Files.createTempDirectory("madlang-aot");
+        try {
+            compileToDirectory(program, className, classes);
+            Manifest manifest = new Manifest();
+            manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+            manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, className);
+            List<Path> files = new ArrayList<>();
+            try (Stream<Path> s = Files.list(classes)) {
+                s.sorted().forEach(files::add);
+            }
+            try (OutputStream os = Files.newOutputStream(jar); JarOutputStream out = new JarOutputStream(os, manifest)) {
+                for (Path f : files) {
+                    out.putNextEntry(new JarEntry(f.getFileName().toString()));
+                    Files.copy(f, out);
+                    out.closeEntry();
+                }
+            }
+        } finally {
+            try (Stream<Path> s = Files.walk(classes)) {
+                for (Path p : (Iterable<Path>) s.sorted(Comparator.reverseOrder())::iterator) Files.deleteIfExists(p);
+            }
+        }
+    }
+}
@@ -0,0 +1,518 @@
+package madlang.aot;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import madlang.analysis.Symbol;
+import madlang.analysis.TypeChecker;
+import madlang.ast.Ast;
+import madlang.ast.Expr;
+import madlang.ast.Stmt;
+
+/**
+ * Translates a type checked program into the source of one Java class.
+ *
+ * Every MadLang function, nested ones included, becomes a static method; ints
+ * and bools are Java ints (bools 0/1), so arithmetic wraps exactly as in the
+ * interpreter. A variable that nested functions use lives in an int[]
+ * environment of the function that owns it, and a function at nesting level L
+ * receives the environments of its L enclosing functions as its first
+ * parameters (e0 ... e(L-1)). Everything else is a plain Java local.
+ *
+ * A self call in return position, return f(args), restarts the method's body
+ * instead of calling, so deep tail recursion runs in constant stack as it does
+ * in the interpreter. Other calls use the Java stack.
+ *
+ * The generated class has public static int run(OutputStream, BufferedReader),
+ * which runs the program once and returns main's result, and a main(String[])
+ * that runs it on stdin/stdout and reports errors as "runtime error: ..." on
+ * stderr with exit status 1. State is static: run one program at a time.
+ */
+final class JavaEmitter implements Stmt.Visitor<Boolean>, Expr.Visitor<String> {
+
+    private static final String INDENT = "    ";
+
+    private final TypeChecker.Result checked;
+    private final StringBuilder out = new StringBuilder();
+
+    // Method name of every function
+    private final IdentityHashMap<Ast.FunDecl, String> methods = new IdentityHashMap<>();
+
+    // Captured variables: index into their owner's environment
+    private final IdentityHashMap<Symbol, Integer> envIndex = new IdentityHashMap<>();
+    private final IdentityHashMap<Ast.FunDecl, Integer> envSizes = new IdentityHashMap<>();
+
+    // Function being emitted, its Java local names and the indentation depth
+    private Ast.FunDecl currentFn = null;
+    private boolean hasSelfTailCall = false;
+    private final IdentityHashMap<Symbol, String> locals = new IdentityHashMap<>();
+    private int depth = 0;
+    private int temps = 0;
+
+    private JavaEmitter(TypeChecker.Result checked) {
+        this.checked = checked;
+    }
+
+    /**
+     * @param checked a program that type checked without errors and has a main()
+     * @param className simple name of the generated class, in the default package
+     * @return Java source of the class
+     */
+    static String emit(TypeChecker.Result checked, String className) {
+        JavaEmitter e = new JavaEmitter(checked);
+        e.prepare();
+        e.emitClass(className);
+        return e.out.toString();
+    }
+
+    /** Names methods and lays out the environments. */
+    private void prepare() {
+        for (Ast.FunDecl f : checked.resolution.functions) {
+            Symbol sym = checked.resolution.symbol(f);
+            String name = sym.owner == null ? "f_" + f.name : methods.get(sym.owner) + "$" + f.name;
+            // Nested functions of the same name in different blocks of one function
+            if (methods.containsValue(name)) name += "$" + methods.size();
+            methods.put(f, name);
+            int n = 0;
+            for (Ast.Param p : f.params) {
+                Symbol s = checked.resolution.symbol(p);
+                if (s.isCaptured()) envIndex.put(s, n++);
+            }
+            List<Stmt.VarDef> defs = new ArrayList<>();
+            collectVarDefs(f.body, defs);
+            for (Stmt.VarDef d : defs) {
+                Symbol s = checked.resolution.symbol(d);
+                if (s.isCaptured()) envIndex.put(s, n++);
+            }
+            envSizes.put(f, n);
+        }
+    }
+
+    /** Adds the VarDefs of a function body to defs, not looking into nested functions. */
+    private static void collectVarDefs(Stmt s, List<Stmt.VarDef> defs) {
+        if (s instanceof Stmt.Block b) {
+            for (Stmt inner : b.stmts) collectVarDefs(inner, defs);
+        } else if (s instanceof Stmt.VarDef d) {
+            defs.add(d);
+        } else if (s instanceof Stmt.If i) {
+            collectVarDefs(i.thenBranch, defs);
+            if (i.elseBranchOrNull != null) collectVarDefs(i.elseBranchOrNull, defs);
+        } else if (s instanceof Stmt.While w) {
+            collectVarDefs(w.body, defs);
+        }
+    }
+
+    private static boolean hasNestedFunctions(Stmt s) {
+        if (s instanceof Stmt.FunDef) return true;
+        if (s instanceof Stmt.Block b) {
+            for (Stmt inner : b.stmts) if (hasNestedFunctions(inner)) return true;
+            return false;
+        }
+        if (s instanceof Stmt.If i) {
+            return hasNestedFunctions(i.thenBranch)
+                || i.elseBranchOrNull != null && hasNestedFunctions(i.elseBranchOrNull);
+        }
+        if (s instanceof Stmt.While w) return hasNestedFunctions(w.body);
+        return false;
+    }
+
+    private boolean hasSelfTailCall(Stmt s) {
+        if (s instanceof Stmt.Block b) {
+            for (Stmt inner : b.stmts) if (hasSelfTailCall(inner)) return true;
+            return false;
+        }
+        if (s instanceof Stmt.If i) {
+            return hasSelfTailCall(i.thenBranch) || i.elseBranchOrNull != null && hasSelfTailCall(i.elseBranchOrNull);
+        }
+        if (s instanceof Stmt.While w) return hasSelfTailCall(w.body);
+        return s instanceof Stmt.Return r && isSelfCall(r.value);
+    }
+
+    private boolean isSelfCall(Expr e) {
+        return e instanceof Expr.Call c && checked.resolution.symbol(c).decl == currentFn;
+    }
+
+    ///////////////////////
+    /// CLASS STRUCTURE ///
+    ///////////////////////
+
+    private void emitClass(String className) {
+        Ast.FunDecl main = null;
+        for (Ast.Decl decl : checked.resolution.program.decls) {
+            if (decl instanceof Ast.FunDecl f && f.name.equals("main")) main = f;
+        }
+        if (main == null) throw new IllegalArgumentException("program has no main function");
+        if (!main.params.isEmpty()) throw new IllegalArgumentException("main must not take parameters");
+
+        line("// Generated from a MadLang program by madlang.aot.AotCompiler; do not edit.");
+        line("public final class " + className + " {");
+        depth++;
+        for (Symbol g : checked.resolution.globals) line("private static int g_" + g.name + ";");
+        line("");
+        emitRuntime(className);
+
+        line("/** Runs the program once and returns the value main returned. */");
+        line("public static int run(java.io.OutputStream out, java.io.BufferedReader in) {");
+        depth++;
+        line("sink = out;");
+        line("source = in;");
+        line("text.setLength(0);");
+        for (Symbol g : checked.resolution.globals) line("g_" + g.name + " = 0;");
+        line("try {");
+        depth++;
+        for (Ast.Decl decl : checked.resolution.program.decls) {
+            if (decl instanceof Ast.GlobalVarDecl g && g.initOrNull != null) {
+                line("g_" + g.name + " = " + g.initOrNull.accept(this) + ";");
+            }
+        }
+        line("return " + methods.get(main) + "();");
+        depth--;
+        line("} finally {");
+        line(INDENT + "flush();");
+        line("}");
+        depth--;
+        line("}");
+
+        for (Ast.FunDecl f : checked.resolution.functions) {
+            line("");
+            emitFunction(f);
+        }
+        depth--;
+        line("}");
+    }
+
+    /** Output buffering, input, error reporting and main(String[]). */
+    private void emitRuntime(String className) {
+        String[] runtime = {
+            "private static final class Failure extends RuntimeException {",
+            "    Failure(String message) { super(message); }",
+            "}",
+            "",
+            "private static java.io.OutputStream sink;",
+            "private static java.io.BufferedReader source;",
+            "private static final StringBuilder text = new StringBuilder();",
+            "",
+            "private static int output(int value) {",
+            "    text.append(value).append('\\n');",
+            "    if (text.length() >= 8192) flush();",
+            "    return 0;",
+            "}",
+            "",
+            "private static int outputBool(int value) {",
+            "    text.append(value != 0 ? \"true\\n\" : \"false\\n\");",
+            "    if (text.length() >= 8192) flush();",
+            "    return 0;",
+            "}",
+            "",
+            "private static void flush() {",
+            "    try {",
+            "        sink.write(text.toString().getBytes(java.nio.charset.StandardCharsets.US_ASCII));",
+            "        sink.flush();",
+            "    } catch (java.io.IOException e) {",
+            "        throw new Failure(\"output failed: \" + e.getMessage());",
+            "    }",
+            "    text.setLength(0);",
+            "}",
+            "",
+            "private static int input() {",
+            "    flush();",
+            "    try {",
+            "        String line;",
+            "        do {",
+            "            line = source == null ? null : source.readLine();",
+            "            if (line == null) return 0;",
+            "            line = line.trim();",
+            "        } while (line.isEmpty());",
+            "        return Integer.parseInt(line);",
+            "    } catch (java.io.IOException e) {",
+            "        throw new Failure(\"input failed: \" + e.getMessage());",
+            "    } catch (NumberFormatException e) {",
+            "        throw new Failure(\"input is not an int: \" + e.getMessage());",
+            "    }",
+            "}",
+            "",
+            "private static int drop(int value) {",
+            "    return value;",
+            "}",
+            "",
+            "public static void main(String[] args) {",
+            "    String error;",
+            "    try {",
+            "        run(new java.io.FileOutputStream(java.io.FileDescriptor.out),",
+            "            new java.io.BufferedReader(new java.io.InputStreamReader(System.in)));",
+            "        return;",
+            "    } catch (Failure e) {",
+            "        error = e.getMessage();",
+            "    } catch (ArithmeticException e) {",
+            "        error = \"division by zero\";",
+            "    } catch (StackOverflowError e) {",
+            "        error = \"call stack overflow\";",
+            "    }",
+            "    System.err.println(\"runtime error: \" + error);",
+            "    System.exit(1);",
+            "}",
+            "",
+        };
+        for (String l : runtime) line(l);
+    }
+
+    private void emitFunction(Ast.FunDecl f) {
+        Symbol sym = checked.resolution.symbol(f);
+        int level = sym.level;
+        currentFn = f;
+        locals.clear();
+        temps = 0;
+
+        StringBuilder params = new StringBuilder();
+        for (int k = 0; k < level; k++) params.append(params.length() == 0 ? "" : ", ").append("int[] e").append(k);
+        for (Ast.Param p : f.params) {
+            String name = localName(checked.resolution.symbol(p));
+            params.append(params.length() == 0 ? "" : ", ").append("int ").append(name);
+        }
+        line("private static int " + methods.get(f) + "(" + params + ") {");
+        depth++;
+
+        int envSize = envSizes.get(f);
+        if (envSize > 0 || hasNestedFunctions(f.body)) {
+            line("final int[] e" + level + " = " + (envSize > 0 ? "new int[" + envSize + "]" : "null") + ";");
+        }
+        List<Stmt.VarDef> defs = new ArrayList<>();
+        collectVarDefs(f.body, defs);
+        for (Stmt.VarDef d : defs) {
+            Symbol s = checked.resolution.symbol(d);
+            if (!s.isCaptured()) line("int " + localName(s) + " = 0;");
+        }
+
+        hasSelfTailCall = hasSelfTailCall(f.body);
+        if (hasSelfTailCall) {
+            line("body: for (;;) {");
+            depth++;
+        }
+        // Captured parameters move into the environment, on every restart too
+        for (Ast.Param p : f.params) {
+            Symbol s = checked.resolution.symbol(p);
+            if (s.isCaptured()) line(variable(s) + " = " + localName(s) + ";");
+        }
+        boolean fallsThrough = block(f.body.stmts);
+        if (fallsThrough) {
+            line("throw new IllegalStateException(\"function '" + f.name + "' ended without returning\");");
+        }
+        if (hasSelfTailCall) {
+            depth--;
+            line("}");
+        }
+        depth--;
+        line("}");
+    }
+
+    /** @return the Java local that holds an uncaptured variable, or a captured parameter's argument */
+    private String localName(Symbol s) {
+        String name = locals.get(s);
+        if (name == null) {
+            name = (s.kind == Symbol.Kind.PARAM ? "p_" : "v_") + s.name + "_" + locals.size();
+            locals.put(s, name);
+        }
+        return name;
+    }
+
+    /** @return a Java lvalue for a variable */
+    private String variable(Symbol s) {
+        if (s.kind == Symbol.Kind.GLOBAL) return "g_" + s.name;
+        Integer index = envIndex.get(s);
+        if (index != null) return "e" + s.level + "[" + index + "]";
+        return localName(s);
+    }
+
+    //////////////////
+    /// STATEMENTS ///
+    //////////////////
+
+    /**
+     * Emits statements up to the first one that cannot complete normally; Java
+     * rejects the unreachable ones after it.
+     *
+     * @return true if the last emitted statement can complete normally
+     */
+    private boolean block(List<Stmt> stmts) {
+        for (Stmt s : stmts) {
+            if (!s.accept(this)) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public Boolean visitBlockStmt(Stmt.Block s) {
+        line("{");
+        depth++;
+        boolean completes = block(s.stmts);
+        depth--;
+        line("}");
+        return completes;
+    }
+
+    @Override
+    public Boolean visitVarDefStmt(Stmt.VarDef s) {
+        // Uninitialized variables start at 0 (false), also when a loop re-enters their block
+        String init = s.initOrNull == null ? "0" : s.initOrNull.accept(this);
+        line(variable(checked.resolution.symbol(s)) + " = " + init + ";");
+        return true;
+    }
+
+    @Override
+    public Boolean visitFunDefStmt(Stmt.FunDef s) {
+        return true;
+    }
+
+    @Override
+    public Boolean visitAssignStmt(Stmt.Assign s) {
+        line(variable(checked.resolution.symbol(s)) + " = " + s.rhs.accept(this) + ";");
+        return true;
+    }
+
+    @Override
+    public Boolean visitIfStmt(Stmt.If s) {
+        line("if " + condition(s.cond) + " {");
+        boolean thenCompletes = branch(s.thenBranch);
+        if (s.elseBranchOrNull == null) {
+            line("}");
+            return true;
+        }
+        line("} else {");
+        boolean elseCompletes = branch(s.elseBranchOrNull);
+        line("}");
+        return thenCompletes || elseCompletes;
+    }
+
+    @Override
+    public Boolean visitWhileStmt(Stmt.While s) {
+        // Not while (cond): with a constant condition Java would reject the code after the loop
+        line("for (;;) {");
+        depth++;
+        line("if (!" + condition(s.cond) + ") break;");
+        depth--;
+        branch(s.body);
+        line("}");
+        return true;
+    }
+
+    /** Emits the body of an if or while one level deeper, without extra braces for a block. */
+    private boolean branch(Stmt s) {
+        depth++;
+        boolean completes = s instanceof Stmt.Block b ? block(b.stmts) : s.accept(this);
+        depth--;
+        return completes;
+    }
+
+    @Override
+    public Boolean visitReturnStmt(Stmt.Return s) {
+        if (hasSelfTailCall && isSelfCall(s.value)) {
+            Expr.Call c = (Expr.Call) s.value;
+            // Evaluate all arguments before any parameter changes
+            String[] values = new String[c.args.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = "t" + temps++;
+                line("int " + values[i] + " = " + c.args.get(i).accept(this) + ";");
+            }
+            for (int i = 0; i < values.length; i++) {
+                line(localName(checked.resolution.symbol(currentFn.params.get(i))) + " = " + values[i] + ";");
+            }
+            line("continue body;");
+            return false;
+        }
+        line("return " + s.value.accept(this) + ";");
+        return false;
+    }
+
+    @Override
+    public Boolean visitExprStmt(Stmt.ExprStmt s) {
+        String e = s.expr.accept(this);
+        // Only calls and assignments are Java statements
+        line((s.expr instanceof Expr.Call ? e : "drop(" + e + ")") + ";");
+        return true;
+    }
+
+    ///////////////////
+    /// EXPRESSIONS ///
+    ///////////////////
+
+    /** @return a parenthesized Java boolean expression that is true when the bool e is */
+    private String condition(Expr e) {
+        if (e instanceof Expr.Binary b) {
+            switch (b.op) {
+                case LT: return "(" + b.left.accept(this) + " < " + b.right.accept(this) + ")";
+                case LE: return "(" + b.left.accept(this) + " <= " + b.right.accept(this) + ")";
+                case GT: return "(" + b.left.accept(this) + " > " + b.right.accept(this) + ")";
+                case GE: return "(" + b.left.accept(this) + " >= " + b.right.accept(this) + ")";
+                case EQ: return "(" + b.left.accept(this) + " == " + b.right.accept(this) + ")";
+                case NE: return "(" + b.left.accept(this) + " != " + b.right.accept(this) + ")";
+                case LAND: return "(" + condition(b.left) + " && " + condition(b.right) + ")";
+                case LOR: return "(" + condition(b.left) + " || " + condition(b.right) + ")";
+                default: break;
+            }
+        }
+        if (e instanceof Expr.Unary u && u.op == Expr.UnOp.NOT) return "(!" + condition(u.expr) + ")";
+        return "(" + e.accept(this) + " != 0)";
+    }
+
+    @Override
+    public String visitBinaryExpr(Expr.Binary e) {
+        switch (e.op) {
+            case MUL: return "(" + e.left.accept(this) + " * " + e.right.accept(this) + ")";
+            case DIV: return "(" + e.left.accept(this) + " / " + e.right.accept(this) + ")";
+            case MOD: return "(" + e.left.accept(this) + " % " + e.right.accept(this) + ")";
+            case ADD: return "(" + e.left.accept(this) + " + " + e.right.accept(this) + ")";
+            case SUB: return "(" + e.left.accept(this) + " - " + e.right.accept(this) + ")";
+            case LT: case LE: case GT: case GE: case EQ: case NE: case LAND: case LOR:
+                return "(" + condition(e) + " ? 1 : 0)";
+            default: throw new IllegalStateException("Unknown binary operator: " + e.op);
+        }
+    }
+
+    @Override
+    public String visitUnaryExpr(Expr.Unary e) {
+        String operand = e.expr.accept(this);
+        return e.op == Expr.UnOp.NEG ? "(-" + operand + ")" : "(" + operand + " ^ 1)";
+    }
+
+    @Override
+    public String visitIntLitExpr(Expr.IntLit e) {
+        if (e.value == Integer.MIN_VALUE) return "Integer.MIN_VALUE";
+        return e.value < 0 ? "(" + e.value + ")" : Integer.toString(e.value);
+    }
+
+    @Override
+    public String visitBoolLitExpr(Expr.BoolLit e) {
+        return e.value ? "1" : "0";
+    }
+
+    @Override
+    public String visitVarExpr(Expr.Var e) {
+        return variable(checked.resolution.symbol(e));
+    }
+
+    @Override
+    public String visitCallExpr(Expr.Call e) {
+        Symbol sym = checked.resolution.symbol(e);
+        if (sym == Symbol.OUTPUT) {
+            Expr arg = e.args.get(0);
+            String fn = checked.typeOf(arg) == Ast.Type.BOOL ? "outputBool" : "output";
+            return fn + "(" + arg.accept(this) + ")";
+        }
+        if (sym == Symbol.INPUT) return "input()";
+
+        // A function nested at level L takes the environments of levels 0 .. L-1,
+        // which every function that can see it has as well
+        StringBuilder args = new StringBuilder();
+        for (int k = 0; k < sym.level; k++) args.append(args.length() == 0 ? "" : ", ").append("e").append(k);
+        for (Expr arg : e.args) args.append(args.length() == 0 ? "" : ", ").append(arg.accept(this));
+        return methods.get((Ast.FunDecl) sym.decl) + "(" + args + ")";
+    }
+
+    private void line(String text) {
+        if (!text.isEmpty()) {
+            for (int i = 0; i < depth; i++) out.append(INDENT);
+        }
+        out.append(text).append('\n');
+    }
+}
@@ -1,15 +1,26 @@
 package madlang.ast;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
+import java.util.RandomAccess;
 
 /**
  * Core AST definitions that are shared across Expr/Stmt:
  * - Span (optional source location)
  * - Types
  * - Program + top-level declarations (global vars, functions)
+ *
+ * Node lists are copied by the constructors, so callers may reuse theirs. The
+ * static of(...) factories on Program, FunDecl, Stmt.Block and Expr.Call take
+ * a Children builder instead and take its array over without copying; the
+ * builder is used up by that and refuses any further use, so nothing outside
+ * the node can write to the array. Either way the node's list is unmodifiable.
+ * The constructors keep the immutable lists Zipper makes for wide nodes
+ * without copying them (see ChunkedList).
  */
 public final class Ast {
     private Ast() {}
@@ -45,6 +56,20 @@ public final class Ast {
             this.decls = unmodifiableCopy(decls);
             this.span = span;
         }
+
+        private Program(Children<Decl> decls, Span span) {
+            this.decls = decls.build();
+            this.span = span;
+        }
+
+        /** Like the constructor, but takes the builder's array over instead of copying it. */
+        public static Program of(Children<Decl> decls) {
+            return new Program(decls, null);
+        }
+
+        public static Program of(Children<Decl> decls, Span span) {
+            return new Program(decls, span);
+        }
     }
 
     /** Base class for top-level declarations. */
@@ -114,10 +139,100 @@ public final class Ast {
             this.returnType = Objects.requireNonNull(returnType);
             this.body = Objects.requireNonNull(body);
         }
+
+        private FunDecl(String name, Children<Param> params, Type returnType, Stmt.Block body, Span span) {
+            super(span);
+            this.name = Objects.requireNonNull(name);
+            this.params = params.build();
+            this.returnType = Objects.requireNonNull(returnType);
+            this.body = Objects.requireNonNull(body);
+        }
+
+        /** Like the constructor, but takes the builder's array over instead of copying it. */
+        public static FunDecl of(String name, Children<Param> params, Type returnType, Stmt.Block body) {
+            return new FunDecl(name, params, returnType, body, null);
+        }
+
+        public static FunDecl of(String name, Children<Param> params, Type returnType, Stmt.Block body, Span span) {
+            return new FunDecl(name, params, returnType, body, span);
+        }
     }
 
     static <T> List<T> unmodifiableCopy(List<T> xs) {
         Objects.requireNonNull(xs);
+        if (xs instanceof ChunkedList) return xs;
         return Collections.unmodifiableList(new ArrayList<T>(xs));
     }
+
+    /**
+     * The children of one node being built, for the of(...) factories. The
+     * array grows as children are added; the node that is built from it takes
+     * it over, after which the builder is spent and every method throws
+     * IllegalStateException. One builder makes one node.
+     */
+    public static final class Children<T> {
+        private Object[] items;
+        private int size = 0;
+
+        public Children() {
+            this(4);
+        }
+
+        /** @param capacity how many children to make room for; exactly that many needs no copy */
+        public Children(int capacity) {
+            this.items = new Object[capacity];
+        }
+
+        /** @return a builder holding the elements of xs, with no room to spare */
+        public static <T> Children<T> copyOf(List<? extends T> xs) {
+            Children<T> c = new Children<>(xs.size());
+            for (T x : xs) c.add(x);
+            return c;
+        }
+
+        public Children<T> add(T child) {
+            Object[] xs = items();
+            if (size == xs.length) items = xs = Arrays.copyOf(xs, Math.max(4, 2 * size));
+            xs[size++] = child;
+            return this;
+        }
+
+        /** Replaces the child at index, which must have been added. */
+        public Children<T> set(int index, T child) {
+            Object[] xs = items();
+            Objects.checkIndex(index, size);
+            xs[index] = child;
+            return this;
+        }
+
+        public int size() {
+            items();
+            return size;
+        }
+
+        /** @return the children as an unmodifiable list backed by the array, which this builder gives up */
+        List<T> build() {
+            Object[] xs = items();
+            items = null;
+            return new ArrayView<>(xs.length == size ? xs : Arrays.copyOf(xs, size));
+        }
+
+        private Object[] items() {
+            if (items == null) throw new IllegalStateException("these children already belong to a node");
+            return items;
+        }
+    }
+
+    /** Read-only view of an array that nothing else writes to. */
+    private static final class ArrayView<T> extends AbstractList<T> implements RandomAccess {
+        private final Object[] items;
+
+        ArrayView(Object[] items) {
+            this.items = items;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override public T get(int index) { return (T) items[index]; }
+        @Override public int size() { return items.length; }
+    }
 }
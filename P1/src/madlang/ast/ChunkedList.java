@@ -0,0 +1,78 @@
+package madlang.ast;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+/**
+ * Immutable list kept as a tree of arrays of at most 32 entries: leaves
+ * hold the elements in order, inner nodes hold up to 32 subtrees, and every
+ * node but the last one on each level is full, so an index picks its path by
+ * 5 bits per level. Zipper gives wide nodes (programs and blocks) children of
+ * this kind, so that replacing one of n children copies the arrays on one
+ * path, about 32 log32(n) entries, instead of all n; the old list and the new
+ * one share the rest.
+ *
+ * The node constructors keep such a list as it is instead of copying it,
+ * since nothing can change it.
+ */
+final class ChunkedList<T> extends AbstractList<T> implements RandomAccess {
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+
+    private final Object[] root;
+    private final int shift; // BITS times the number of inner levels below the root
+    private final int size;
+
+    private ChunkedList(Object[] root, int shift, int size) {
+        this.root = root;
+        this.shift = shift;
+        this.size = size;
+    }
+
+    /** @return a list of the elements of xs, which must not change afterwards */
+    static <T> ChunkedList<T> of(Object[] xs) {
+        Object[] level = xs;
+        int shift = 0;
+        for (; level.length > WIDTH; shift += BITS) {
+            Object[] up = new Object[(level.length + MASK) >>> BITS];
+            for (int i = 0; i < up.length; i++) {
+                up[i] = Arrays.copyOfRange(level, i << BITS, Math.min(level.length, (i + 1) << BITS));
+            }
+            level = up;
+        }
+        return new ChunkedList<>(level, shift, xs.length);
+    }
+
+    /** @return how many entries with() copies */
+    int pathLength() {
+        return WIDTH * (shift / BITS + 1);
+    }
+
+    /** @return a list like this one but with x at index; this one is unchanged */
+    ChunkedList<T> with(int index, T x) {
+        Objects.checkIndex(index, size);
+        return new ChunkedList<>(with(root, shift, index, x), shift, size);
+    }
+
+    private static Object[] with(Object[] node, int shift, int index, Object x) {
+        Object[] copy = node.clone();
+        int slot = (index >>> shift) & MASK;
+        copy[slot] = shift == 0 ? x : with((Object[]) node[slot], shift - BITS, index, x);
+        return copy;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override public T get(int index) {
+        Objects.checkIndex(index, size);
+        Object[] node = root;
+        for (int s = shift; s > 0; s -= BITS) node = (Object[]) node[(index >>> s) & MASK];
+        return (T) node[index & MASK];
+    }
+
+    @Override public int size() {
+        return size;
+    }
+}
@@ -194,6 +194,21 @@ public abstract class Expr {
             this.args = unmodifiableCopy(args);
         }
 
+        private Call(String callee, Ast.Children<Expr> args, Ast.Span span) {
+            super(span);
+            this.callee = Objects.requireNonNull(callee);
+            this.args = args.build();
+        }
+
+        /** Like the constructor, but takes the builder's array over instead of copying it (see Ast). */
+        public static Call of(String callee, Ast.Children<Expr> args) {
+            return new Call(callee, args, null);
+        }
+
+        public static Call of(String callee, Ast.Children<Expr> args, Ast.Span span) {
+            return new Call(callee, args, span);
+        }
+
         @Override public <R> R accept(Visitor<R> v) { return v.visitCallExpr(this); }
     }
 
@@ -0,0 +1,334 @@
+package madlang.ast;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * Bottom-up rewriting of programs with rules per node kind.
+ *
+ * A rule maps a node of one class (Expr.Binary, Stmt.If, ...) to its
+ * replacement, or to the node itself to leave it alone. Children are
+ * rewritten before their parent, and a node whose children all come back
+ * unchanged is kept as it is, so untouched code allocates nothing. Rules of
+ * the same kind are tried in the order they were added, and the first that
+ * replaces the node wins.
+ *
+ * rewrite runs to a fixpoint: after a rule fires, the replacement is
+ * rewritten again, but only in the parts it does not share with the node it
+ * replaced (whose children and grandchildren are done), so rules like
+ * x + 0 -> x or (a + b) + c -> a + (b + c) cost nothing further.
+ * rewriteOnce lets each node be replaced at most once and does not look at
+ * replacements again.
+ *
+ * A statement rule may return null to remove the statement. It then leaves
+ * its block; where a statement is required (a branch, a loop or function
+ * body) an empty block takes its place.
+ *
+ * Rewriters are immutable; start from EMPTY and add rules with withExprRule
+ * and withStmtRule, e.g.
+ *   Rewriter.EMPTY.withExprRule(Expr.Unary.class,
+ *       u -> u.op == Expr.UnOp.NOT && u.expr instanceof Expr.Unary inner && inner.op == Expr.UnOp.NOT ? inner.expr : u)
+ */
+public final class Rewriter {
+
+    /** Rewrites nothing. */
+    public static final Rewriter EMPTY = new Rewriter(Map.of(), Map.of());
+
+    // Rule applications at one node in a row before rewrite gives up on the rules ending
+    private static final int MAX_STEPS = 10_000;
+
+    private final Map<Class<?>, Function<Expr, Expr>[]> exprRules;
+    private final Map<Class<?>, Function<Stmt, Stmt>[]> stmtRules;
+
+    private Rewriter(Map<Class<?>, Function<Expr, Expr>[]> exprRules, Map<Class<?>, Function<Stmt, Stmt>[]> stmtRules) {
+        this.exprRules = exprRules;
+        this.stmtRules = stmtRules;
+    }
+
+    /** @return this rewriter with one more rule for expressions of class kind */
+    public <N extends Expr> Rewriter withExprRule(Class<N> kind, Function<? super N, ? extends Expr> rule) {
+        Objects.requireNonNull(rule);
+        return new Rewriter(withRule(exprRules, kind, e -> rule.apply(kind.cast(e))), stmtRules);
+    }
+
+    /** @return this rewriter with one more rule for statements of class kind; the rule may return null */
+    public <N extends Stmt> Rewriter withStmtRule(Class<N> kind, Function<? super N, ? extends Stmt> rule) {
+        Objects.requireNonNull(rule);
+        return new Rewriter(exprRules, withRule(stmtRules, kind, s -> rule.apply(kind.cast(s))));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Map<Class<?>, Function<T, T>[]> withRule(Map<Class<?>, Function<T, T>[]> rules, Class<?> kind,
+                                                                Function<T, T> rule) {
+        Map<Class<?>, Function<T, T>[]> result = new LinkedHashMap<>(rules);
+        Function<T, T>[] old = rules.getOrDefault(Objects.requireNonNull(kind), (Function<T, T>[]) new Function<?, ?>[0]);
+        Function<T, T>[] added = Arrays.copyOf(old, old.length + 1);
+        added[old.length] = rule;
+        result.put(kind, added);
+        return Collections.unmodifiableMap(result);
+    }
+
+    /** @return the program rewritten until no rule applies; the same object if nothing did */
+    public Ast.Program rewrite(Ast.Program program) {
+        return new Run(true).program(program);
+    }
+
+    /** @return the program after one bottom-up pass; the same object if no rule applied */
+    public Ast.Program rewriteOnce(Ast.Program program) {
+        return new Run(false).program(program);
+    }
+
+    /** @return the declaration rewritten until no rule applies; the same object if nothing did */
+    public Ast.Decl rewrite(Ast.Decl d) {
+        Run run = new Run(true);
+        return d instanceof Ast.FunDecl f ? run.fun(f) : run.global((Ast.GlobalVarDecl) d);
+    }
+
+    public Expr rewrite(Expr e) {
+        return new Run(true).expr(e);
+    }
+
+    /** @return the statement rewritten until no rule applies, or null if a rule removed it */
+    public Stmt rewrite(Stmt s) {
+        return new Run(true).stmt(s);
+    }
+
+    /** State of one call of rewrite or rewriteOnce. */
+    private final class Run {
+        final boolean fixpoint;
+        // While the replacement of a node is rewritten: that node's children and
+        // grandchildren, which are rewritten already
+        List<Object> done = null;
+
+        Run(boolean fixpoint) {
+            this.fixpoint = fixpoint;
+        }
+
+        ////////////////
+        /// PROGRAMS ///
+        ////////////////
+
+        Ast.Program program(Ast.Program p) {
+            Ast.Children<Ast.Decl> decls = null;
+            for (int i = 0; i < p.decls.size(); i++) {
+                Ast.Decl d = p.decls.get(i);
+                Ast.Decl r = d instanceof Ast.FunDecl f ? fun(f) : global((Ast.GlobalVarDecl) d);
+                if (r != d && decls == null) decls = Ast.Children.copyOf(p.decls);
+                if (decls != null) decls.set(i, r);
+            }
+            return decls == null ? p : Ast.Program.of(decls, p.span);
+        }
+
+        Ast.GlobalVarDecl global(Ast.GlobalVarDecl g) {
+            if (g.initOrNull == null) return g;
+            Expr init = expr(g.initOrNull);
+            return init == g.initOrNull ? g : new Ast.GlobalVarDecl(g.name, g.type, init, g.span);
+        }
+
+        Ast.FunDecl fun(Ast.FunDecl f) {
+            Stmt body = stmt(f.body);
+            if (body == f.body) return f;
+            return Ast.FunDecl.of(f.name, Ast.Children.copyOf(f.params), f.returnType, asBlock(body, f.body.span), f.span);
+        }
+
+        ///////////////////
+        /// EXPRESSIONS ///
+        ///////////////////
+
+        Expr expr(Expr e) {
+            if (done != null && done.contains(e)) return e;
+            Expr node = exprChildren(e);
+            List<Object> saved = done;
+            Function<Expr, Expr>[] rules = exprRules.get(node.getClass());
+            for (int steps = 0; rules != null; steps++) {
+                Expr out = applyAll(rules, node);
+                if (out == node) break;
+                Objects.requireNonNull(out, "expression rules must not return null");
+                if (!fixpoint) {
+                    done = saved;
+                    return out;
+                }
+                if (steps == MAX_STEPS) throw new IllegalStateException("rules keep rewriting " + node.getClass().getSimpleName());
+                done = below(node);
+                if (done.contains(out)) {
+                    done = saved;
+                    return out;
+                }
+                node = exprChildren(out);
+                rules = exprRules.get(node.getClass());
+            }
+            done = saved;
+            return node;
+        }
+
+        /** @return e with its children rewritten, or e itself if none changed */
+        Expr exprChildren(Expr e) {
+            if (e instanceof Expr.Binary b) {
+                Expr l = expr(b.left);
+                Expr r = expr(b.right);
+                return l == b.left && r == b.right ? b : new Expr.Binary(l, b.op, r, b.span);
+            }
+            if (e instanceof Expr.Unary u) {
+                Expr inner = expr(u.expr);
+                return inner == u.expr ? u : new Expr.Unary(u.op, inner, u.span);
+            }
+            if (e instanceof Expr.Call c) {
+                Ast.Children<Expr> args = null;
+                for (int i = 0; i < c.args.size(); i++) {
+                    Expr a = c.args.get(i);
+                    Expr r = expr(a);
+                    if (r != a && args == null) args = Ast.Children.copyOf(c.args);
+                    if (args != null) args.set(i, r);
+                }
+                return args == null ? c : Expr.Call.of(c.callee, args, c.span);
+            }
+            return e;
+        }
+
+        //////////////////
+        /// STATEMENTS ///
+        //////////////////
+
+        /** @return the rewritten statement, or null if it was removed */
+        Stmt stmt(Stmt s) {
+            if (done != null && done.contains(s)) return s;
+            Stmt node = stmtChildren(s);
+            List<Object> saved = done;
+            Function<Stmt, Stmt>[] rules = stmtRules.get(node.getClass());
+            for (int steps = 0; rules != null; steps++) {
+                Stmt out = applyAll(rules, node);
+                if (out == node) break;
+                if (out == null || !fixpoint) {
+                    done = saved;
+                    return out;
+                }
+                if (steps == MAX_STEPS) throw new IllegalStateException("rules keep rewriting " + node.getClass().getSimpleName());
+                done = below(node);
+                if (done.contains(out)) {
+                    done = saved;
+                    return out;
+                }
+                node = stmtChildren(out);
+                rules = stmtRules.get(node.getClass());
+            }
+            done = saved;
+            return node;
+        }
+
+        /** @return s with its children rewritten, or s itself if none changed */
+        Stmt stmtChildren(Stmt s) {
+            if (s instanceof Stmt.Block b) {
+                Ast.Children<Stmt> stmts = null;
+                for (int i = 0; i < b.stmts.size(); i++) {
+                    Stmt inner = b.stmts.get(i);
+                    Stmt r = stmt(inner);
+                    if (r != inner && stmts == null) {
+                        stmts = new Ast.Children<>(b.stmts.size());
+                        for (int k = 0; k < i; k++) stmts.add(b.stmts.get(k));
+                    }
+                    if (stmts != null && r != null) stmts.add(r);
+                }
+                return stmts == null ? b : Stmt.Block.of(stmts, b.span);
+            }
+            if (s instanceof Stmt.VarDef d) {
+                if (d.initOrNull == null) return d;
+                Expr init = expr(d.initOrNull);
+                return init == d.initOrNull ? d : new Stmt.VarDef(d.name, d.type, init, d.span);
+            }
+            if (s instanceof Stmt.FunDef d) {
+                Ast.FunDecl fun = fun(d.fun);
+                return fun == d.fun ? d : new Stmt.FunDef(fun, d.span);
+            }
+            if (s instanceof Stmt.Assign a) {
+                Expr rhs = expr(a.rhs);
+                return rhs == a.rhs ? a : new Stmt.Assign(a.name, rhs, a.span);
+            }
+            if (s instanceof Stmt.If i) {
+                Expr cond = expr(i.cond);
+                Stmt thenBranch = stmt(i.thenBranch);
+                Stmt elseBranch = i.elseBranchOrNull == null ? null : stmt(i.elseBranchOrNull);
+                if (cond == i.cond && thenBranch == i.thenBranch && elseBranch == i.elseBranchOrNull) return i;
+                return new Stmt.If(cond, thenBranch == null ? asBlock(null, i.thenBranch.span) : thenBranch, elseBranch, i.span);
+            }
+            if (s instanceof Stmt.While w) {
+                Expr cond = expr(w.cond);
+                Stmt body = stmt(w.body);
+                if (cond == w.cond && body == w.body) return w;
+                return new Stmt.While(cond, body == null ? asBlock(null, w.body.span) : body, w.span);
+            }
+            if (s instanceof Stmt.Return r) {
+                Expr value = expr(r.value);
+                return value == r.value ? r : new Stmt.Return(value, r.span);
+            }
+            if (s instanceof Stmt.ExprStmt e) {
+                Expr expr = expr(e.expr);
+                return expr == e.expr ? e : new Stmt.ExprStmt(expr, e.span);
+            }
+            throw new IllegalStateException("Unknown statement: " + s.getClass().getName());
+        }
+    }
+
+    /////////////
+    /// RULES ///
+    /////////////
+
+    /**
+     * @return the children and grandchildren of a node a rule replaces, so
+     *         rewriting the replacement skips whatever it keeps of them
+     */
+    private static List<Object> below(Object node) {
+        List<Object> result = new ArrayList<>();
+        addChildren(node, result);
+        for (int i = 0, n = result.size(); i < n; i++) addChildren(result.get(i), result);
+        return result;
+    }
+
+    private static void addChildren(Object node, List<Object> result) {
+        if (node instanceof Expr.Binary b) {
+            result.add(b.left);
+            result.add(b.right);
+        } else if (node instanceof Expr.Unary u) {
+            result.add(u.expr);
+        } else if (node instanceof Expr.Call c) {
+            result.addAll(c.args);
+        } else if (node instanceof Stmt.Block b) {
+            result.addAll(b.stmts);
+        } else if (node instanceof Stmt.VarDef d) {
+            if (d.initOrNull != null) result.add(d.initOrNull);
+        } else if (node instanceof Stmt.Assign a) {
+            result.add(a.rhs);
+        } else if (node instanceof Stmt.If i) {
+            result.add(i.cond);
+            result.add(i.thenBranch);
+            if (i.elseBranchOrNull != null) result.add(i.elseBranchOrNull);
+        } else if (node instanceof Stmt.While w) {
+            result.add(w.cond);
+            result.add(w.body);
+        } else if (node instanceof Stmt.Return r) {
+            result.add(r.value);
+        } else if (node instanceof Stmt.ExprStmt e) {
+            result.add(e.expr);
+        }
+    }
+
+    /** @return the result of the first rule that replaces node, or node */
+    private static <T> T applyAll(Function<T, T>[] rules, T node) {
+        for (Function<T, T> rule : rules) {
+            T out = rule.apply(node);
+            if (out != node) return out;
+        }
+        return node;
+    }
+
+    /** @return s as a block, for places that need one; null (removed) becomes an empty block */
+    private static Stmt.Block asBlock(Stmt s, Ast.Span span) {
+        if (s instanceof Stmt.Block b) return b;
+        return s == null ? Stmt.Block.of(new Ast.Children<>(0), span) : Stmt.Block.of(new Ast.Children<Stmt>(1).add(s), s.span);
+    }
+}
@@ -1,7 +1,5 @@
 package madlang.ast;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 
@@ -37,7 +35,21 @@ public abstract class Stmt {
 
         public Block(List<Stmt> stmts, Ast.Span span) {
             super(span);
-            this.stmts = unmodifiableCopy(stmts);
+            this.stmts = Ast.unmodifiableCopy(stmts);
+        }
+
+        private Block(Ast.Children<Stmt> stmts, Ast.Span span) {
+            super(span);
+            this.stmts = stmts.build();
+        }
+
+        /** Like the constructor, but takes the builder's array over instead of copying it (see Ast). */
+        public static Block of(Ast.Children<Stmt> stmts) {
+            return new Block(stmts, null);
+        }
+
+        public static Block of(Ast.Children<Stmt> stmts, Ast.Span span) {
+            return new Block(stmts, span);
         }
 
         @Override public <R> R accept(Visitor<R> v) { return v.visitBlockStmt(this); }
@@ -166,9 +178,4 @@ public abstract class Stmt {
     }
 
     public abstract <R> R accept(Visitor<R> visitor);
-
-    private static <T> List<T> unmodifiableCopy(List<T> xs) {
-        Objects.requireNonNull(xs);
-        return Collections.unmodifiableList(new ArrayList<T>(xs));
-    }
 }
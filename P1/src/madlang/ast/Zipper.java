@@ -0,0 +1,336 @@
+package madlang.ast;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Cursor over a program for persistent edits.
+ *
+ * A Zipper points at one node of a program (its focus): the Program itself,
+ * a Decl, a Param, a Stmt or an Expr. It moves down to the focus's children,
+ * up to its parent and sideways to its siblings, and can replace the focus.
+ * Zippers are immutable: every move and replacement returns a new one.
+ *
+ * Replacing a node copies only its ancestors, when the cursor moves up past
+ * them. Replaced siblings of the focus wait in two lists, those to its left
+ * and those to its right, each nearest first; moving sideways takes at most
+ * the head of one list and pushes the focus onto the other, and moving up
+ * makes them all in one copy of the parent. A walk over the whole program
+ * with next() that edits as it goes thus moves up past every node once, in
+ * time linear in the program's size. All other subtrees are shared between
+ * the old program and the new one.
+ *
+ * Copying a parent copies its list of children, which for a program of many
+ * declarations or a long block would make a single edit cost the width of
+ * its ancestors. Programs and blocks of WIDE children or more are therefore
+ * rebuilt with a ChunkedList, whose replace-one copies a path of about
+ * 32 log32(n) entries; the first edit of a parsed node still copies all of
+ * its children, to make that list, and so does moving up with so many
+ * pending replacements that a fresh list is cheaper. An edit thus costs the
+ * depth of the node plus, for each ancestor, its number of children if below
+ * WIDE and a path through them otherwise.
+ *
+ * Since nodes are immutable, sharing is safe; but a tree that contains the
+ * same node twice cannot be resolved (the Resolver tells symbols apart by
+ * node), so a replacement should not reuse a node that stays elsewhere in
+ * the program.
+ *
+ * Children are numbered in source order:
+ *   Program        decls
+ *   GlobalVarDecl  [init]
+ *   FunDecl        params, then body
+ *   Block          stmts
+ *   VarDef         [init]
+ *   FunDef         fun
+ *   Assign         rhs
+ *   If             cond, then, [else]
+ *   While          cond, body
+ *   Return         value
+ *   ExprStmt       expr
+ *   Binary         left, right
+ *   Unary          expr
+ *   Call           args
+ * where [x] is a child only when present. A replacement must fit its place
+ * (an Expr for a condition, a Stmt.Block for a function body, ...), or
+ * IllegalArgumentException is thrown.
+ *
+ * Usage, e.g. to add 1 to every int literal:
+ *   Zipper z = Zipper.of(program);
+ *   while (true) {
+ *     if (z.node() instanceof Expr.IntLit i) z = z.replace(new Expr.IntLit(i.value + 1, i.span));
+ *     if (!z.hasNext()) break;
+ *     z = z.next();
+ *   }
+ *   program = z.root();
+ */
+public final class Zipper {
+    // Programs and blocks with this many children get a ChunkedList when rebuilt
+    private static final int WIDE = 64;
+
+    private final Object focus;
+    private final Zipper parent;   // null at the root
+    private final int index;       // the focus's position among the parent's children
+    private final boolean changed; // the focus is not the parent's child at index
+    private final Edit left;       // replaced siblings before the focus, nearest first
+    private final Edit right;      // replaced siblings after the focus, nearest first
+
+    /** A replaced child, in a list. */
+    private static final class Edit {
+        final int index;
+        final Object node;
+        final Edit next;
+
+        Edit(int index, Object node, Edit next) {
+            this.index = index;
+            this.node = node;
+            this.next = next;
+        }
+    }
+
+    private Zipper(Object focus, Zipper parent, int index, boolean changed, Edit left, Edit right) {
+        this.focus = focus;
+        this.parent = parent;
+        this.index = index;
+        this.changed = changed;
+        this.left = left;
+        this.right = right;
+    }
+
+    /** @return a cursor at the program itself */
+    public static Zipper of(Ast.Program program) {
+        return new Zipper(Objects.requireNonNull(program), null, -1, false, null, null);
+    }
+
+    /** @return the node in focus */
+    public Object node() {
+        return focus;
+    }
+
+    /** @return how many nodes up the program is; 0 at the program itself */
+    public int depth() {
+        int d = 0;
+        for (Zipper z = parent; z != null; z = z.parent) d++;
+        return d;
+    }
+
+    /** @return the focus's position among its parent's children, or -1 at the root */
+    public int index() {
+        return index;
+    }
+
+    ////////////////
+    /// MOVEMENT ///
+    ////////////////
+
+    public int childCount() {
+        return count(focus);
+    }
+
+    /** @return a cursor at the i-th child of the focus */
+    public Zipper down(int i) {
+        Objects.checkIndex(i, count(focus));
+        return new Zipper(child(focus, i), this, i, false, null, null);
+    }
+
+    public boolean isRoot() {
+        return parent == null;
+    }
+
+    /** @return a cursor at the parent of the focus, rebuilt if anything below it was replaced */
+    public Zipper up() {
+        if (parent == null) throw new IllegalStateException("the program has no parent");
+        if (!changed && left == null && right == null) return parent;
+        return new Zipper(rebuild(parent.focus), parent.parent, parent.index, true, parent.left, parent.right);
+    }
+
+    public boolean hasLeft() {
+        return parent != null && index > 0;
+    }
+
+    public boolean hasRight() {
+        return parent != null && index + 1 < count(parent.focus);
+    }
+
+    public Zipper left() {
+        if (!hasLeft()) throw new IllegalStateException("no sibling to the left");
+        Edit after = changed ? new Edit(index, focus, right) : right;
+        // A sibling replaced before leaves its list while in focus
+        if (left != null && left.index == index - 1) return new Zipper(left.node, parent, index - 1, true, left.next, after);
+        return new Zipper(child(parent.focus, index - 1), parent, index - 1, false, left, after);
+    }
+
+    public Zipper right() {
+        if (!hasRight()) throw new IllegalStateException("no sibling to the right");
+        Edit before = changed ? new Edit(index, focus, left) : left;
+        if (right != null && right.index == index + 1) return new Zipper(right.node, parent, index + 1, true, before, right.next);
+        return new Zipper(child(parent.focus, index + 1), parent, index + 1, false, before, right);
+    }
+
+    /** @return the program with every replacement made so far */
+    public Ast.Program root() {
+        Zipper z = this;
+        while (z.parent != null) z = z.up();
+        return (Ast.Program) z.focus;
+    }
+
+    /** @return true if some node follows the focus in preorder */
+    public boolean hasNext() {
+        if (childCount() > 0) return true;
+        for (Zipper z = this; z.parent != null; z = z.parent) {
+            if (z.hasRight()) return true;
+        }
+        return false;
+    }
+
+    /** @return a cursor at the node after the focus in preorder */
+    public Zipper next() {
+        if (childCount() > 0) return down(0);
+        for (Zipper z = this; z.parent != null; z = z.up()) {
+            if (z.hasRight()) return z.right();
+        }
+        throw new IllegalStateException("no node after the last one");
+    }
+
+    /////////////
+    /// EDITS ///
+    /////////////
+
+    /** @return a cursor at the replacement, in a program where it stands in for the focus */
+    public Zipper replace(Object node) {
+        Objects.requireNonNull(node);
+        if (parent == null) return new Zipper(cast(Ast.Program.class, node), null, -1, true, null, null);
+        return new Zipper(cast(slot(parent.focus, index), node), parent, index, true, left, right);
+    }
+
+    ////////////////
+    /// CHILDREN ///
+    ////////////////
+
+    private static int count(Object node) {
+        if (node instanceof Ast.Program p) return p.decls.size();
+        if (node instanceof Ast.GlobalVarDecl g) return g.initOrNull == null ? 0 : 1;
+        if (node instanceof Ast.FunDecl f) return f.params.size() + 1;
+        if (node instanceof Stmt.Block b) return b.stmts.size();
+        if (node instanceof Stmt.VarDef d) return d.initOrNull == null ? 0 : 1;
+        if (node instanceof Stmt.If i) return i.elseBranchOrNull == null ? 2 : 3;
+        if (node instanceof Stmt.While || node instanceof Expr.Binary) return 2;
+        if (node instanceof Expr.Call c) return c.args.size();
+        if (node instanceof Stmt || node instanceof Expr.Unary) return 1;
+        return 0; // Param and the other expressions
+    }
+
+    private static Object child(Object node, int i) {
+        if (node instanceof Ast.Program p) return p.decls.get(i);
+        if (node instanceof Ast.GlobalVarDecl g) return g.initOrNull;
+        if (node instanceof Ast.FunDecl f) return i < f.params.size() ? f.params.get(i) : f.body;
+        if (node instanceof Stmt.Block b) return b.stmts.get(i);
+        if (node instanceof Stmt.VarDef d) return d.initOrNull;
+        if (node instanceof Stmt.FunDef d) return d.fun;
+        if (node instanceof Stmt.Assign a) return a.rhs;
+        if (node instanceof Stmt.If s) return i == 0 ? s.cond : i == 1 ? s.thenBranch : s.elseBranchOrNull;
+        if (node instanceof Stmt.While w) return i == 0 ? w.cond : w.body;
+        if (node instanceof Stmt.Return r) return r.value;
+        if (node instanceof Stmt.ExprStmt s) return s.expr;
+        if (node instanceof Expr.Binary b) return i == 0 ? b.left : b.right;
+        if (node instanceof Expr.Unary u) return u.expr;
+        if (node instanceof Expr.Call c) return c.args.get(i);
+        throw new IllegalStateException("Unknown node: " + node.getClass().getName());
+    }
+
+    /** @return what the i-th child of node must be */
+    private static Class<?> slot(Object node, int i) {
+        if (node instanceof Ast.Program) return Ast.Decl.class;
+        if (node instanceof Ast.FunDecl f) return i < f.params.size() ? Ast.Param.class : Stmt.Block.class;
+        if (node instanceof Stmt.FunDef) return Ast.FunDecl.class;
+        if (node instanceof Stmt.Block || node instanceof Stmt.If && i > 0 || node instanceof Stmt.While && i > 0) return Stmt.class;
+        return Expr.class;
+    }
+
+    /** @return a copy of node, the focus's parent, with the replaced children, which all fit their slots */
+    private Object rebuild(Object node) {
+        if (node instanceof Ast.Program p) {
+            return p.decls.size() < WIDE ? Ast.Program.of(apply(p.decls), p.span) : new Ast.Program(applyWide(p.decls), p.span);
+        }
+        if (node instanceof Ast.GlobalVarDecl g) {
+            return new Ast.GlobalVarDecl(g.name, g.type, (Expr) edited(g.initOrNull, 0), g.span);
+        }
+        if (node instanceof Ast.FunDecl f) {
+            return Ast.FunDecl.of(f.name, apply(f.params), f.returnType, (Stmt.Block) edited(f.body, f.params.size()), f.span);
+        }
+        if (node instanceof Stmt.Block b) {
+            return b.stmts.size() < WIDE ? Stmt.Block.of(apply(b.stmts), b.span) : new Stmt.Block(applyWide(b.stmts), b.span);
+        }
+        if (node instanceof Stmt.VarDef d) return new Stmt.VarDef(d.name, d.type, (Expr) edited(d.initOrNull, 0), d.span);
+        if (node instanceof Stmt.FunDef d) return new Stmt.FunDef((Ast.FunDecl) edited(d.fun, 0), d.span);
+        if (node instanceof Stmt.Assign a) return new Stmt.Assign(a.name, (Expr) edited(a.rhs, 0), a.span);
+        if (node instanceof Stmt.If s) {
+            return new Stmt.If((Expr) edited(s.cond, 0), (Stmt) edited(s.thenBranch, 1),
+                               s.elseBranchOrNull == null ? null : (Stmt) edited(s.elseBranchOrNull, 2), s.span);
+        }
+        if (node instanceof Stmt.While w) {
+            return new Stmt.While((Expr) edited(w.cond, 0), (Stmt) edited(w.body, 1), w.span);
+        }
+        if (node instanceof Stmt.Return r) return new Stmt.Return((Expr) edited(r.value, 0), r.span);
+        if (node instanceof Stmt.ExprStmt s) return new Stmt.ExprStmt((Expr) edited(s.expr, 0), s.span);
+        if (node instanceof Expr.Binary b) {
+            return new Expr.Binary((Expr) edited(b.left, 0), b.op, (Expr) edited(b.right, 1), b.span);
+        }
+        if (node instanceof Expr.Unary u) return new Expr.Unary(u.op, (Expr) edited(u.expr, 0), u.span);
+        if (node instanceof Expr.Call c) return Expr.Call.of(c.callee, apply(c.args), c.span);
+        throw new IllegalStateException("Unknown node: " + node.getClass().getName());
+    }
+
+    /** @return the replacement of the parent's child i, or child if it was not replaced */
+    private Object edited(Object child, int i) {
+        if (i == index) return changed ? focus : child;
+        for (Edit e = i < index ? left : right; e != null; e = e.next) {
+            if (e.index == i) return e.node;
+        }
+        return child;
+    }
+
+    /** @return a copy of children with the replacements that fall in it made, which all fit their slots */
+    @SuppressWarnings("unchecked")
+    private <T> Ast.Children<T> apply(List<T> children) {
+        Ast.Children<T> slots = Ast.Children.copyOf(children);
+        int n = slots.size();
+        if (changed && index < n) slots.set(index, (T) focus);
+        for (Edit e = left; e != null && e.index < n; e = e.next) slots.set(e.index, (T) e.node);
+        for (Edit e = right; e != null && e.index < n; e = e.next) slots.set(e.index, (T) e.node);
+        return slots;
+    }
+
+    /** @return like apply, as a ChunkedList: the replacements made one path at a time if few, else a new list */
+    @SuppressWarnings("unchecked")
+    private <T> ChunkedList<T> applyWide(List<T> children) {
+        int n = children.size();
+        if (children instanceof ChunkedList<T> list) {
+            int edits = changed ? 1 : 0;
+            for (Edit e = left; e != null; e = e.next) edits++;
+            for (Edit e = right; e != null; e = e.next) edits++;
+            if ((long) edits * list.pathLength() < n) {
+                if (changed) list = list.with(index, (T) focus);
+                for (Edit e = left; e != null; e = e.next) list = list.with(e.index, (T) e.node);
+                for (Edit e = right; e != null; e = e.next) list = list.with(e.index, (T) e.node);
+                return list;
+            }
+        }
+        Object[] slots = children.toArray();
+        if (changed) slots[index] = focus;
+        for (Edit e = left; e != null; e = e.next) slots[e.index] = e.node;
+        for (Edit e = right; e != null; e = e.next) slots[e.index] = e.node;
+        return ChunkedList.of(slots);
+    }
+
+    private static <T> T cast(Class<T> type, Object node) {
+        if (!type.isInstance(node)) {
+            throw new IllegalArgumentException("expected " + name(type) + " here, not " + name(node.getClass()));
+        }
+        return type.cast(node);
+    }
+
+    /** @return e.g. Stmt.Block for madlang.ast.Stmt$Block */
+    private static String name(Class<?> c) {
+        return c.getEnclosingClass() == null ? c.getSimpleName() : c.getEnclosingClass().getSimpleName() + "." + c.getSimpleName();
+    }
+}
@@ -0,0 +1,82 @@
+package madlang.bench;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import madlang.analysis.CallGraph;
+import madlang.analysis.Purity;
+import madlang.analysis.Resolution;
+import madlang.analysis.Resolver;
+import madlang.ast.Ast;
+import madlang.parse.Parser;
+
+/**
+ * Time to build the call graph of a large generated program and to run
+ * Purity over it with AnalysisScheduler, on pools of 1, 2, 4, ... threads up
+ * to the number of processors.
+ *
+ * Every function calls a random earlier one and a close earlier one, and now
+ * and then a close later one, so there are long call chains and recursive
+ * components; each has a nested helper that reads its variables.
+ *
+ * Usage: java -cp out madlang.bench.AnalysisBench [functions]
+ */
+public final class AnalysisBench {
+
+    private AnalysisBench() {}
+
+    public static void main(String[] args) {
+        int functions = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        Resolution resolution = Resolver.resolve(Parser.parse(source(functions)));
+        if (resolution.hasErrors()) throw new IllegalStateException(resolution.errors.get(0).toString());
+
+        CallGraph graph = null;
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            long start = System.nanoTime();
+            graph = CallGraph.build(resolution);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        int recursive = 0;
+        for (int f = 0; f < graph.size(); f++) if (graph.isRecursive(f)) recursive++;
+        System.out.printf("%d functions, %d components, %d recursive functions%n",
+                          graph.size(), graph.componentCount(), recursive);
+        System.out.printf("call graph: %.1f ms%n", best / 1e6);
+
+        System.out.printf("%-10s %10s %8s%n", "threads", "purity ms", "pure");
+        int processors = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; ; threads = Math.min(2 * threads, processors)) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            Purity purity = null;
+            best = Long.MAX_VALUE;
+            for (int i = 0; i < 5; i++) {
+                long start = System.nanoTime();
+                purity = Purity.analyze(graph, pool);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            pool.shutdown();
+            int pure = 0;
+            for (Ast.FunDecl f : resolution.functions) if (purity.isPure(f)) pure++;
+            System.out.printf("%-10d %10.1f %8d%n", threads, best / 1e6, pure);
+            if (threads == processors) break;
+        }
+    }
+
+    private static String source(int functions) {
+        Random random = new Random(1);
+        StringBuilder sb = new StringBuilder("counter: int = 0;\n");
+        for (int f = 0; f < functions; f++) {
+            sb.append("fn f").append(f).append("(a: int): int {\n")
+              .append("    v: int = a;\n")
+              .append("    fn helper(b: int): int { return b + v; }\n");
+            if (f > 0) {
+                sb.append("    v = v + f").append(random.nextInt(f)).append("(helper(v));\n");
+                sb.append("    v = v + f").append(Math.max(0, f - 1 - random.nextInt(10))).append("(v);\n");
+            }
+            if (random.nextInt(10) == 0) sb.append("    v = v + f").append(Math.min(functions - 1, f + 1 + random.nextInt(10))).append("(v);\n");
+            if (random.nextInt(1000) == 0) sb.append("    counter = counter + 1;\n");
+            sb.append("    return v;\n}\n");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,120 @@
+package madlang.bench;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import madlang.aot.AotCompiler;
+import madlang.ast.Ast;
+import madlang.interp.Interpreter;
+import madlang.interp.OutputSink;
+
+/**
+ * Compares the interpreter with ahead-of-time compiled class files (AotCompiler),
+ * cold and warm.
+ *
+ * Cold is the wall time of a fresh JVM that runs the program once: for the
+ * interpreter that includes building, checking and compiling the AST, for the
+ * class file only loading it. Warm is the median time of one run in a JVM
+ * that has already run the program many times.
+ *
+ * Usage: java -cp out madlang.bench.AotBench [runs]
+ */
+public final class AotBench {
+
+    private static final String[] NAMES = { "readme", "invariant", "nested" };
+
+    private AotBench() {}
+
+    private static Ast.Program program(String name) {
+        switch (name) {
+            case "readme": return LoopBench.readme(200_000);
+            case "invariant": return LoopBench.invariant(2_000_000);
+            case "nested": return LoopBench.nested(1_500);
+            default: throw new IllegalArgumentException("no program named " + name);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 2 && args[0].equals("--child")) {
+            Interpreter.compile(program(args[1])).run(OutputSink.memory());
+            return;
+        }
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        Path classes = Files.createTempDirectory("madlang-aot-bench");
+        String cp = System.getProperty("java.class.path");
+
+        System.out.printf("%-10s %14s %14s %14s %14s%n", "program",
+                          "cold interp ms", "cold aot ms", "warm interp ms", "warm aot ms");
+        for (String name : NAMES) {
+            String className = "Aot_" + name;
+            AotCompiler.compileToDirectory(program(name), className, classes);
+
+            // The generated main prints; send it nowhere
+            double coldInterp = spawn(runs, cp, AotBench.class.getName(), "--child", name);
+            double coldAot = spawn(runs, classes.toString(), className);
+
+            Interpreter interp = Interpreter.compile(program(name));
+            OutputSink sink = (bytes, offset, length) -> {};
+            Method run;
+            try (URLClassLoader loader = new URLClassLoader(new URL[] { classes.toUri().toURL() })) {
+                run = loader.loadClass(className).getMethod("run", OutputStream.class, BufferedReader.class);
+            }
+            OutputStream nowhere = OutputStream.nullOutputStream();
+            long[] a = new long[runs];
+            long[] b = new long[runs];
+            for (int i = 0; i < 2 * runs; i++) {
+                long start = System.nanoTime();
+                interp.run(sink);
+                long mid = System.nanoTime();
+                run.invoke(null, nowhere, null);
+                long end = System.nanoTime();
+                // First half is warm-up
+                if (i >= runs) {
+                    a[i - runs] = mid - start;
+                    b[i - runs] = end - mid;
+                }
+            }
+            System.out.printf("%-10s %14.1f %14.1f %14.1f %14.1f%n",
+                              name, coldInterp, coldAot, median(a) / 1e6, median(b) / 1e6);
+        }
+        try (Stream<Path> files = Files.walk(classes)) {
+            for (Path p : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) Files.delete(p);
+        }
+    }
+
+    /** @return median wall time of a fresh JVM running the main class, in milliseconds */
+    private static double spawn(int runs, String classPath, String... mainAndArgs) throws IOException, InterruptedException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        List<String> command = new ArrayList<>(List.of(java, "-cp", classPath));
+        command.addAll(Arrays.asList(mainAndArgs));
+        long[] nanos = new long[runs];
+        for (int i = 0; i < runs; i++) {
+            ProcessBuilder pb = new ProcessBuilder(command)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.INHERIT);
+            long start = System.nanoTime();
+            int exit = pb.start().waitFor();
+            nanos[i] = System.nanoTime() - start;
+            if (exit != 0) throw new IllegalStateException(String.join(" ", command) + " exited with " + exit);
+        }
+        return median(nanos) / 1e6;
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
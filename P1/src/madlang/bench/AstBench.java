@@ -0,0 +1,222 @@
+package madlang.bench;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+import madlang.ast.Ast;
+import madlang.ast.Expr;
+import madlang.ast.Rewriter;
+import madlang.ast.Stmt;
+import madlang.ast.Zipper;
+
+/**
+ * Time and memory to build a large AST through the copying constructors and
+ * through the of(...) factories that take over the array of an Ast.Children.
+ *
+ * Both builders work the way a parser would. One collects children in a
+ * scratch list that is reused from node to node and hands it to the
+ * constructor, which copies it. The other fills one Children per node,
+ * sized exactly where the count is known, whose array the factory keeps.
+ * The tree has functions of 100 statements
+ *   v = f(v, 1, g(v, 2)) + 3;
+ * which is about 10 nodes per statement.
+ *
+ * It then times edits through Zipper on the same tree: single edits that
+ * each go down from the program and back up, and one preorder walk that
+ * replaces every int literal on the way.
+ *
+ * Last, Rewriter passes: constant folding over the tree after every 2 was
+ * made 1 + 1, then the same rules again, which find nothing to do.
+ *
+ * Usage: java -cp out madlang.bench.AstBench [functions] [runs]
+ */
+public final class AstBench {
+
+    private static final int STMTS = 100;
+
+    private AstBench() {}
+
+    public static void main(String[] args) {
+        int functions = args.length > 0 ? Integer.parseInt(args[0]) : 1_000;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        System.out.printf("%d functions, about %d nodes%n", functions, functions * (STMTS * 10 + 2));
+        System.out.printf("%-12s %10s %14s%n", "builder", "ms", "MB allocated");
+        long[][] copying = new long[2][runs];
+        long[][] adopting = new long[2][runs];
+        for (int i = 0; i < 2 * runs; i++) {
+            // Alternate so JIT warm-up and GC hit both alike; first half is warm-up
+            long[] a = measure(() -> buildCopying(functions));
+            long[] b = measure(() -> buildAdopting(functions));
+            if (i >= runs) {
+                for (int k = 0; k < 2; k++) {
+                    copying[k][i - runs] = a[k];
+                    adopting[k][i - runs] = b[k];
+                }
+            }
+            if (a[2] != b[2]) throw new IllegalStateException("the builders build different trees");
+        }
+        report("constructor", copying);
+        report("of(...)", adopting);
+
+        Ast.Program tree = buildAdopting(functions);
+        int edits = 10_000;
+        long[] single = new long[runs];
+        long[] walk = new long[runs];
+        for (int i = 0; i < 2 * runs; i++) {
+            long start = System.nanoTime();
+            Ast.Program edited = editEach(tree, edits);
+            long mid = System.nanoTime();
+            Ast.Program walked = bumpAll(tree);
+            long end = System.nanoTime();
+            if (i >= runs) {
+                single[i - runs] = mid - start;
+                walk[i - runs] = end - mid;
+            }
+            if (edited == tree || walked == tree) throw new IllegalStateException("nothing was edited");
+        }
+        System.out.printf("zipper: %.0f single edits/ms, %.0f edits/ms in a walk over every node%n",
+                          edits / (median(single) / 1e6), 3.0 * functions * STMTS / (median(walk) / 1e6));
+
+        Rewriter split = Rewriter.EMPTY.withExprRule(Expr.IntLit.class,
+            i -> i.value == 2 ? new Expr.Binary(new Expr.IntLit(1), Expr.BinOp.ADD, new Expr.IntLit(1)) : i);
+        Rewriter fold = Rewriter.EMPTY.withExprRule(Expr.Binary.class, AstBench::fold);
+        Ast.Program planted = split.rewriteOnce(tree);
+        long[][] folding = new long[2][runs];
+        long[][] idle = new long[2][runs];
+        for (int i = 0; i < 2 * runs; i++) {
+            long[] a = measure(() -> fold.rewrite(planted));
+            long[] b = measure(() -> fold.rewrite(tree));
+            if (i >= runs) {
+                for (int k = 0; k < 2; k++) {
+                    folding[k][i - runs] = a[k];
+                    idle[k][i - runs] = b[k];
+                }
+            }
+        }
+        if (fold.rewrite(tree) != tree) throw new IllegalStateException("folding changed a tree without 1 + 1");
+        System.out.printf("%-22s %10s %14s%n", "rewriter", "ms", "MB allocated");
+        System.out.printf("%-22s %10.1f %14.1f%n", "fold " + functions * STMTS + " x 1 + 1",
+                          median(folding[0]) / 1e6, median(folding[1]) / 1e6);
+        System.out.printf("%-22s %10.1f %14.3f%n", "fold, nothing to do", median(idle[0]) / 1e6, median(idle[1]) / 1e6);
+    }
+
+    /** Folds + of two literals, and x + 0. */
+    private static Expr fold(Expr.Binary b) {
+        if (b.op != Expr.BinOp.ADD) return b;
+        if (b.left instanceof Expr.IntLit l && b.right instanceof Expr.IntLit r) return new Expr.IntLit(l.value + r.value, b.span);
+        if (b.right instanceof Expr.IntLit r && r.value == 0) return b.left;
+        return b;
+    }
+
+    /** Replaces the 1 in f(v, 1, ...) of spread-out statements, each from the program down and back. */
+    private static Ast.Program editEach(Ast.Program p, int edits) {
+        for (int e = 0; e < edits; e++) {
+            int f = (int) ((e * 7919L) % p.decls.size());
+            int s = (e * 31) % STMTS;
+            Zipper fun = Zipper.of(p).down(f);
+            Zipper one = fun.down(fun.childCount() - 1) // body
+                .down(s)                                // v = f(v, 1, g(v, 2)) + 3;
+                .down(0)                                // f(v, 1, g(v, 2)) + 3
+                .down(0)                                // f(v, 1, g(v, 2))
+                .down(1);                               // 1
+            p = one.replace(new Expr.IntLit(e)).root();
+        }
+        return p;
+    }
+
+    /** Adds 1 to every int literal. */
+    private static Ast.Program bumpAll(Ast.Program p) {
+        Zipper z = Zipper.of(p);
+        while (true) {
+            if (z.node() instanceof Expr.IntLit i) z = z.replace(new Expr.IntLit(i.value + 1, i.span));
+            if (!z.hasNext()) break;
+            z = z.next();
+        }
+        return z.root();
+    }
+
+    private static void report(String name, long[][] results) {
+        long bytes = median(results[1]);
+        System.out.printf("%-12s %10.1f %14s%n", name, median(results[0]) / 1e6,
+                          bytes < 0 ? "n/a" : String.format("%.1f", bytes / 1e6));
+    }
+
+    /** @return wall nanoseconds, bytes allocated (-1 if unknown) and the tree size */
+    private static long[] measure(Supplier<Ast.Program> build) {
+        long alloc = allocatedBytes();
+        long start = System.nanoTime();
+        Ast.Program p = build.get();
+        long nanos = System.nanoTime() - start;
+        long after = allocatedBytes();
+        return new long[] { nanos, alloc < 0 ? -1 : after - alloc, p.decls.size() };
+    }
+
+    ////////////////
+    /// BUILDERS ///
+    ////////////////
+
+    private static Ast.Program buildCopying(int functions) {
+        List<Ast.Decl> decls = new ArrayList<>();
+        List<Stmt> stmts = new ArrayList<>();
+        List<Expr> args = new ArrayList<>();
+        List<Ast.Param> params = new ArrayList<>();
+        for (int f = 0; f < functions; f++) {
+            stmts.clear();
+            for (int s = 0; s < STMTS; s++) {
+                args.clear();
+                args.add(new Expr.Var("v"));
+                args.add(new Expr.IntLit(2));
+                Expr inner = new Expr.Call("g", args);
+                args.clear();
+                args.add(new Expr.Var("v"));
+                args.add(new Expr.IntLit(1));
+                args.add(inner);
+                Expr call = new Expr.Call("f", args);
+                stmts.add(new Stmt.Assign("v", new Expr.Binary(call, Expr.BinOp.ADD, new Expr.IntLit(3))));
+            }
+            stmts.add(new Stmt.Return(new Expr.Var("v")));
+            params.clear();
+            params.add(new Ast.Param("v", Ast.Type.INT));
+            decls.add(new Ast.FunDecl("h" + f, params, Ast.Type.INT, new Stmt.Block(stmts)));
+        }
+        return new Ast.Program(decls);
+    }
+
+    private static Ast.Program buildAdopting(int functions) {
+        Ast.Children<Ast.Decl> decls = new Ast.Children<>();
+        for (int f = 0; f < functions; f++) {
+            Ast.Children<Stmt> stmts = new Ast.Children<>();
+            for (int s = 0; s < STMTS; s++) {
+                Expr inner = Expr.Call.of("g", new Ast.Children<Expr>(2).add(new Expr.Var("v")).add(new Expr.IntLit(2)));
+                Expr call = Expr.Call.of("f", new Ast.Children<Expr>(3).add(new Expr.Var("v")).add(new Expr.IntLit(1)).add(inner));
+                stmts.add(new Stmt.Assign("v", new Expr.Binary(call, Expr.BinOp.ADD, new Expr.IntLit(3))));
+            }
+            stmts.add(new Stmt.Return(new Expr.Var("v")));
+            Ast.Children<Ast.Param> params = new Ast.Children<Ast.Param>(1).add(new Ast.Param("v", Ast.Type.INT));
+            decls.add(Ast.FunDecl.of("h" + f, params, Ast.Type.INT, Stmt.Block.of(stmts)));
+        }
+        return Ast.Program.of(decls);
+    }
+
+    /** @return bytes allocated so far by this thread, or -1 if the JVM cannot tell */
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean sunBean
+                && sunBean.isThreadAllocatedMemorySupported()
+                && sunBean.isThreadAllocatedMemoryEnabled()) {
+            return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
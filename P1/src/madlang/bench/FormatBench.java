@@ -0,0 +1,119 @@
+package madlang.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import madlang.FormatServer;
+
+/**
+ * Time to pretty-print one small file: with a fresh JVM per file, as
+ * make run FILE=... does, and through a FormatServer, from a client JVM
+ * (java madlang.Main --format) and from an already running one, one request
+ * at a time and many at once.
+ *
+ * Usage: java -cp out madlang.bench.FormatBench [requests]
+ */
+public final class FormatBench {
+
+    private FormatBench() {}
+
+    public static void main(String[] args) throws Exception {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        Path dir = Files.createTempDirectory("madlang-format");
+        Path file = dir.resolve("small.madl");
+        Path socket = dir.resolve("format.sock");
+        String text = source(20);
+        Files.writeString(file, text);
+        byte[] bytes = Files.readAllBytes(file);
+        System.out.printf("%d lines, %d bytes%n", text.split("\n").length, bytes.length);
+        System.out.printf("%-28s %10s%n", "mode", "ms/file");
+
+        int spawns = 7;
+        report("process per file", median(spawns, () -> spawn("madlang.Main", file.toString())));
+
+        FormatServer server = FormatServer.start(socket);
+        try {
+            report("client process + server", median(spawns,
+                () -> spawn("madlang.Main", "--format", socket.toString(), file.toString())));
+
+            for (int i = 0; i < requests; i++) FormatServer.format(socket, bytes); // warm-up
+            long[] nanos = new long[requests];
+            for (int i = 0; i < requests; i++) {
+                long start = System.nanoTime();
+                FormatServer.format(socket, bytes);
+                nanos[i] = System.nanoTime() - start;
+            }
+            Arrays.sort(nanos);
+            report("server, one at a time", nanos[requests / 2]);
+
+            int clients = 8;
+            ExecutorService pool = Executors.newFixedThreadPool(clients);
+            long start = System.nanoTime();
+            List<Future<?>> pending = new ArrayList<>();
+            for (int c = 0; c < clients; c++) {
+                pending.add(pool.submit(() -> {
+                    for (int i = 0; i < requests / clients; i++) FormatServer.format(socket, bytes);
+                    return null;
+                }));
+            }
+            for (Future<?> f : pending) f.get();
+            report("server, " + clients + " clients at once", (System.nanoTime() - start) / (requests / clients * clients));
+            pool.shutdown();
+        } finally {
+            server.close();
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    private interface Timed {
+        long run() throws Exception;
+    }
+
+    private static long median(int runs, Timed timed) throws Exception {
+        long[] nanos = new long[runs];
+        for (int i = 0; i < runs; i++) nanos[i] = timed.run();
+        Arrays.sort(nanos);
+        return nanos[runs / 2];
+    }
+
+    /** @return nanoseconds until java CLASS ARGS exits, its output discarded */
+    private static long spawn(String... command) throws IOException, InterruptedException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        List<String> line = new ArrayList<>(List.of(java, "-cp", System.getProperty("java.class.path")));
+        line.addAll(List.of(command));
+        ProcessBuilder pb = new ProcessBuilder(line);
+        pb.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+        long start = System.nanoTime();
+        int exit = pb.start().waitFor();
+        long nanos = System.nanoTime() - start;
+        if (exit != 0) throw new IllegalStateException(command[0] + " exited with " + exit);
+        return nanos;
+    }
+
+    private static void report(String mode, long nanos) {
+        System.out.printf("%-28s %10.2f%n", mode, nanos / 1e6);
+    }
+
+    /** A file of the size an editor formats on save. */
+    private static String source(int functions) {
+        StringBuilder sb = new StringBuilder();
+        for (int f = 0; f < functions; f++) {
+            sb.append("fn f").append(f).append("(a: int, b: int): int {\n")
+              .append("  v: int = a*3 + b;\n")
+              .append("  while (v < b) { if (v % 2 == 0) v = v / 2; else v = v * 3 + 1; }\n")
+              .append("  return v;\n")
+              .append("}\n");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,98 @@
+package madlang.bench;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import madlang.parse.ByteScanner;
+import madlang.parse.Lexer;
+
+/**
+ * Lexing throughput over multi-MB sources: the CharSequence lexer on a
+ * String, and the byte lexer that Main uses for .madl files, with
+ * ByteScanner.best().
+ *
+ * Each JVM runs one ByteScanner only, as Main does, so its calls stay
+ * monomorphic; make lex-bench runs this once per scanner for the side by
+ * side: -Dmadlang.vector=false for the scalar one, then 256- and 512-bit
+ * vectors (built with make vector, run with --add-modules jdk.incubator.vector).
+ *
+ * Two sources: code like ParseBench's, where runs are short, and one that is
+ * mostly kilobyte-long comment lines, with long names and deep indents,
+ * where they are long.
+ *
+ * Usage: java [--add-modules jdk.incubator.vector] [-Dmadlang.vector=...] -cp out madlang.bench.LexBench [MB] [runs]
+ */
+public final class LexBench {
+
+    private LexBench() {}
+
+    public static void main(String[] args) {
+        int mb = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        ByteScanner scanner = ByteScanner.best();
+        System.out.printf("%-10s %-14s %8s %8s%n", "source", "lexer", "ms", "MB/s");
+        for (String kind : new String[] { "code", "comments" }) {
+            String text = source(kind, mb << 20);
+            byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+            int tokens = lexString(text);
+            long[] times = new long[runs];
+            for (int i = 0; i < 2 * runs; i++) {
+                long start = System.nanoTime();
+                if (lexString(text) != tokens) throw new IllegalStateException("token counts differ");
+                if (i >= runs) times[i - runs] = System.nanoTime() - start;
+            }
+            report(kind, "string", times, bytes.length);
+            for (int i = 0; i < 2 * runs; i++) {
+                long start = System.nanoTime();
+                if (lexBytes(bytes, scanner) != tokens) throw new IllegalStateException("token counts differ");
+                if (i >= runs) times[i - runs] = System.nanoTime() - start;
+            }
+            report(kind, "bytes " + scanner, times, bytes.length);
+        }
+    }
+
+    private static int lexString(String text) {
+        Lexer lexer = new Lexer(text);
+        int count = 0;
+        while (lexer.next() != Lexer.Kind.EOF) count++;
+        return count;
+    }
+
+    private static int lexBytes(byte[] bytes, ByteScanner scanner) {
+        Lexer lexer = new Lexer(bytes, scanner);
+        int count = 0;
+        while (lexer.next() != Lexer.Kind.EOF) count++;
+        return count;
+    }
+
+    private static void report(String kind, String lexer, long[] times, int bytes) {
+        long[] sorted = times.clone();
+        Arrays.sort(sorted);
+        double ms = sorted[0] / 1e6;
+        System.out.printf("%-10s %-14s %8.1f %8.0f%n", kind, lexer, ms, bytes / 1e3 / ms);
+    }
+
+    private static String source(String kind, int size) {
+        StringBuilder sb = new StringBuilder(size + 1024);
+        for (int f = 0; sb.length() < size; f++) {
+            if (kind.equals("code")) {
+                sb.append("fn f").append(f).append("(a: int, b: int): int {\n")
+                  .append("    v: int = a * 3 + b;\n")
+                  .append("    while (v < b) {\n")
+                  .append("        if (v % 2 == 0 && v != 7) v = v / 2; else v = v * 3 + 1;\n")
+                  .append("    }\n")
+                  .append("    return v + f").append(Math.max(f - 1, 0)).append("(a, 0) * 0;\n")
+                  .append("}\n\n");
+            } else {
+                sb.append("// ").append("Generated documentation for the function below, ".repeat(20)).append(f).append('\n')
+                  .append("// ").append("which is kept long so the comments dominate the file. ".repeat(20)).append('\n')
+                  .append("fn a_rather_long_generated_function_name_").append(f)
+                  .append("(first_parameter_name: int): int {\n")
+                  .append("                                return first_parameter_name * 1234567890;\n")
+                  .append("}\n\n");
+            }
+        }
+        return sb.toString();
+    }
+}
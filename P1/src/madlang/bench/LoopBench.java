@@ -0,0 +1,347 @@
+package madlang.bench;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import madlang.PrettyPrinter;
+import madlang.aot.AotCompiler;
+import madlang.ast.Ast;
+import madlang.ast.Expr;
+import madlang.ast.Stmt;
+import madlang.interp.Interpreter;
+import madlang.interp.InterpreterOptions;
+import madlang.interp.MemorySink;
+import madlang.interp.OutputSink;
+import madlang.opt.LoopOptimizer;
+
+/**
+ * Times loop-heavy programs on the interpreter before and after LoopOptimizer,
+ * then compiled to class files (AotCompiler) before and after LoopOptimizer
+ * with i % m reduction on. The last interpreter column is the speedup with
+ * i % m reduction on as well, which the interpreter does not gain from.
+ *
+ * Usage: java -cp out madlang.bench.LoopBench [-v] [-p] [runs]
+ * With -v the optimized programs are printed as well; with -p, a profile of
+ * one run of each plain program (see Profile.report).
+ */
+public final class LoopBench {
+
+    private LoopBench() {}
+
+    public static void main(String[] args) throws Exception {
+        boolean verbose = false;
+        boolean profile = false;
+        int runs = 10;
+        for (String a : args) {
+            if (a.equals("-v")) verbose = true;
+            else if (a.equals("-p")) profile = true;
+            else runs = Integer.parseInt(a);
+        }
+
+        String[] names = { "readme", "invariant", "nested", "weekday" };
+        Ast.Program[] programs = { readme(200_000), invariant(2_000_000), nested(1_500), weekday(2_000_000) };
+        System.out.printf("%-10s %12s %12s %8s %8s%n", "program", "plain ms", "optimized ms", "speedup", "with %");
+        for (int p = 0; p < programs.length; p++) {
+            Ast.Program plain = programs[p];
+            Ast.Program optimized = LoopOptimizer.optimize(plain);
+            if (verbose) System.out.println(PrettyPrinter.pretty(optimized));
+            if (profile) {
+                Interpreter profiled = Interpreter.compile(plain, InterpreterOptions.DEFAULT.withProfiling(true));
+                profiled.run(OutputSink.memory());
+                System.out.println(profiled.profile().report());
+            }
+
+            Interpreter a = Interpreter.compile(plain);
+            Interpreter b = Interpreter.compile(optimized);
+            String expected = output(a);
+            if (!expected.equals(output(b))) {
+                throw new IllegalStateException(names[p] + ": optimized program prints different output");
+            }
+            double[] ms = time(a, b, runs);
+            double[] modulo = time(a, Interpreter.compile(LoopOptimizer.optimize(plain, true)), runs);
+            System.out.printf("%-10s %12.1f %12.1f %7.2fx %7.2fx%n",
+                              names[p], ms[0], ms[1], ms[0] / ms[1], modulo[0] / modulo[1]);
+        }
+
+        System.out.printf("%nclass files, i %% m reduced%n");
+        System.out.printf("%-10s %12s %12s %8s%n", "program", "plain ms", "optimized ms", "speedup");
+        Path dir = Files.createTempDirectory("madlang-loop-bench");
+        try {
+            for (int p = 0; p < programs.length; p++) {
+                Method a = compiled(programs[p], "Plain_" + names[p], dir);
+                Method b = compiled(LoopOptimizer.optimize(programs[p], true), "Optimized_" + names[p], dir);
+                if (!output(a).equals(output(b))) {
+                    throw new IllegalStateException(names[p] + ": optimized class prints different output");
+                }
+                double[] ms = time(a, b, runs);
+                System.out.printf("%-10s %12.1f %12.1f %7.2fx%n", names[p], ms[0], ms[1], ms[0] / ms[1]);
+            }
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                for (Path f : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) Files.delete(f);
+            }
+        }
+    }
+
+    /** @return the run(OutputStream, BufferedReader) method of the program compiled by AotCompiler */
+    private static Method compiled(Ast.Program program, String className, Path dir) throws IOException, ReflectiveOperationException {
+        AotCompiler.compileToDirectory(program, className, dir);
+        try (URLClassLoader loader = new URLClassLoader(new URL[] { dir.toUri().toURL() })) {
+            return loader.loadClass(className).getMethod("run", OutputStream.class, BufferedReader.class);
+        }
+    }
+
+    private static String output(Method run) throws ReflectiveOperationException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        run.invoke(null, out, null);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    /** Like time(Interpreter, Interpreter, int), for compiled programs. */
+    private static double[] time(Method a, Method b, int runs) throws ReflectiveOperationException {
+        OutputStream nowhere = OutputStream.nullOutputStream();
+        for (int i = 0; i < runs; i++) {
+            a.invoke(null, nowhere, null);
+            b.invoke(null, nowhere, null);
+        }
+        long[] nanosA = new long[runs];
+        long[] nanosB = new long[runs];
+        for (int i = 0; i < runs; i++) {
+            long start = System.nanoTime();
+            a.invoke(null, nowhere, null);
+            long mid = System.nanoTime();
+            b.invoke(null, nowhere, null);
+            nanosB[i] = System.nanoTime() - mid;
+            nanosA[i] = mid - start;
+        }
+        Arrays.sort(nanosA);
+        Arrays.sort(nanosB);
+        return new double[] { nanosA[runs / 2] / 1e6, nanosB[runs / 2] / 1e6 };
+    }
+
+    static String output(Interpreter interp) {
+        MemorySink sink = OutputSink.memory();
+        interp.run(sink);
+        return sink.toString();
+    }
+
+    /**
+     * Alternates runs of both versions so JIT warm-up and machine noise hit them alike.
+     *
+     * @return median wall time of one run of each, in milliseconds
+     */
+    static double[] time(Interpreter a, Interpreter b, int runs) {
+        OutputSink sink = (bytes, offset, length) -> {};
+        for (int i = 0; i < runs; i++) {
+            a.run(sink);
+            b.run(sink);
+        }
+        long[] nanosA = new long[runs];
+        long[] nanosB = new long[runs];
+        for (int i = 0; i < runs; i++) {
+            long start = System.nanoTime();
+            a.run(sink);
+            long mid = System.nanoTime();
+            b.run(sink);
+            nanosB[i] = System.nanoTime() - mid;
+            nanosA[i] = mid - start;
+        }
+        Arrays.sort(nanosA);
+        Arrays.sort(nanosB);
+        return new double[] { nanosA[runs / 2] / 1e6, nanosB[runs / 2] / 1e6 };
+    }
+
+    ////////////////
+    /// PROGRAMS ///
+    ////////////////
+
+    /**
+     * The README example with a longer loop:
+     *
+     * fn Outer(x: int): int {
+     *   r: int = 0;
+     *   i: int = 0;
+     *   fn Inner(y: int): int { r = r + 10; return y * y; }
+     *   while (i < x) {
+     *     if (i % 2 == 0) { r = r + Inner(i); }
+     *     i = i + 1;
+     *   }
+     *   return r;
+     * }
+     */
+    static Ast.Program readme(int n) {
+        Ast.FunDecl inner = fun("Inner", params("y"), block(
+            assign("r", add(var("r"), lit(10))),
+            ret(bin(var("y"), Expr.BinOp.MUL, var("y")))));
+        Stmt loop = new Stmt.While(bin(var("i"), Expr.BinOp.LT, var("x")), block(
+            new Stmt.If(bin(bin(var("i"), Expr.BinOp.MOD, lit(2)), Expr.BinOp.EQ, lit(0)),
+                block(assign("r", add(var("r"), call("Inner", var("i"))))), null),
+            assign("i", add(var("i"), lit(1)))));
+        Ast.FunDecl outer = fun("Outer", params("x"), block(
+            def("r", lit(0)), def("i", lit(0)), new Stmt.FunDef(inner), loop, ret(var("r"))));
+        return program(outer, "Outer", n);
+    }
+
+    /**
+     * fn work(n: int, a: int, b: int): int {
+     *   s: int = 0;
+     *   i: int = 0;
+     *   while (i < n) {
+     *     s = s + (a * b + a / 3) * i + i % 7;
+     *     i = i + 1;
+     *   }
+     *   return s;
+     * }
+     */
+    static Ast.Program invariant(int n) {
+        Expr inv = add(bin(var("a"), Expr.BinOp.MUL, var("b")), bin(var("a"), Expr.BinOp.DIV, lit(3)));
+        Stmt loop = new Stmt.While(bin(var("i"), Expr.BinOp.LT, var("n")), block(
+            assign("s", add(add(var("s"), bin(inv, Expr.BinOp.MUL, var("i"))), bin(var("i"), Expr.BinOp.MOD, lit(7)))),
+            assign("i", add(var("i"), lit(1)))));
+        Ast.FunDecl work = fun("work", params("n", "a", "b"), block(
+            def("s", lit(0)), def("i", lit(0)), loop, ret(var("s"))));
+        return program(work, "work", n, 12, 34);
+    }
+
+    /**
+     * fn grid(n: int): int {
+     *   s: int = 0;
+     *   i: int = 0;
+     *   while (i < n) {
+     *     j: int = 0;
+     *     while (j < n) {
+     *       s = s + (i * n + j) % 5;
+     *       j = j + 1;
+     *     }
+     *     i = i + 1;
+     *   }
+     *   return s;
+     * }
+     */
+    static Ast.Program nested(int n) {
+        Stmt innerLoop = new Stmt.While(bin(var("j"), Expr.BinOp.LT, var("n")), block(
+            assign("s", add(var("s"),
+                bin(add(bin(var("i"), Expr.BinOp.MUL, var("n")), var("j")), Expr.BinOp.MOD, lit(5)))),
+            assign("j", add(var("j"), lit(1)))));
+        Stmt outerLoop = new Stmt.While(bin(var("i"), Expr.BinOp.LT, var("n")), block(
+            def("j", lit(0)), innerLoop, assign("i", add(var("i"), lit(1)))));
+        Ast.FunDecl grid = fun("grid", params("n"), block(
+            def("s", lit(0)), def("i", lit(0)), outerLoop, ret(var("s"))));
+        return program(grid, "grid", n);
+    }
+
+    /**
+     * A weekday switch, i % 7 tested once per day of the week:
+     *
+     * fn weekdays(n: int): int {
+     *   s: int = 0;
+     *   i: int = 0;
+     *   while (i < n) {
+     *     if (i % 7 == 0) { s = s + 1; }
+     *     if (i % 7 == 1) { s = s + 4; }
+     *     ...
+     *     if (i % 7 == 6) { s = s + 19; }
+     *     i = i + 1;
+     *   }
+     *   return s;
+     * }
+     */
+    static Ast.Program weekday(int n) {
+        Stmt[] body = new Stmt[8];
+        for (int d = 0; d < 7; d++) {
+            body[d] = new Stmt.If(bin(bin(var("i"), Expr.BinOp.MOD, lit(7)), Expr.BinOp.EQ, lit(d)),
+                block(assign("s", add(var("s"), lit(3 * d + 1)))), null);
+        }
+        body[7] = assign("i", add(var("i"), lit(1)));
+        Stmt loop = new Stmt.While(bin(var("i"), Expr.BinOp.LT, var("n")), block(body));
+        Ast.FunDecl weekdays = fun("weekdays", params("n"), block(
+            def("s", lit(0)), def("i", lit(0)), loop, ret(var("s"))));
+        return program(weekdays, "weekdays", n);
+    }
+
+    /**
+     * A kernel whose behaviour is picked by arguments that every call passes as
+     * constants, the case PartialEvaluator is for:
+     *
+     * fn kernel(n: int, mode: int, scale: int, taps: int): int {
+     *   s: int = 0;
+     *   i: int = 0;
+     *   while (i < n) {
+     *     if (mode == 0) { s = s + i * scale; }
+     *     else if (mode == 1) { s = s + i % scale; }
+     *     else { s = s - i / scale; }
+     *     j: int = 0;
+     *     while (j < taps) {
+     *       s = s + (i + j) % (taps + 1);
+     *       j = j + 1;
+     *     }
+     *     i = i + 1;
+     *   }
+     *   return s;
+     * }
+     * fn main(): int { output(kernel(n, 0, 3, 4)); output(kernel(n, 1, 7, 4)); output(kernel(n, 2, 5, 2)); return 0; }
+     */
+    static Ast.Program kernel(int n) {
+        Stmt pick = new Stmt.If(bin(var("mode"), Expr.BinOp.EQ, lit(0)),
+            block(assign("s", add(var("s"), bin(var("i"), Expr.BinOp.MUL, var("scale"))))),
+            new Stmt.If(bin(var("mode"), Expr.BinOp.EQ, lit(1)),
+                block(assign("s", add(var("s"), bin(var("i"), Expr.BinOp.MOD, var("scale"))))),
+                block(assign("s", bin(var("s"), Expr.BinOp.SUB, bin(var("i"), Expr.BinOp.DIV, var("scale")))))));
+        Stmt taps = new Stmt.While(bin(var("j"), Expr.BinOp.LT, var("taps")), block(
+            assign("s", add(var("s"), bin(add(var("i"), var("j")), Expr.BinOp.MOD, add(var("taps"), lit(1))))),
+            assign("j", add(var("j"), lit(1)))));
+        Stmt loop = new Stmt.While(bin(var("i"), Expr.BinOp.LT, var("n")), block(
+            pick, def("j", lit(0)), taps, assign("i", add(var("i"), lit(1)))));
+        Ast.FunDecl kernel = fun("kernel", params("n", "mode", "scale", "taps"), block(
+            def("s", lit(0)), def("i", lit(0)), loop, ret(var("s"))));
+        int[][] calls = { { 0, 3, 4 }, { 1, 7, 4 }, { 2, 5, 2 } };
+        Stmt[] body = new Stmt[calls.length + 1];
+        for (int c = 0; c < calls.length; c++) {
+            body[c] = new Stmt.ExprStmt(call("output",
+                call("kernel", lit(n), lit(calls[c][0]), lit(calls[c][1]), lit(calls[c][2]))));
+        }
+        body[calls.length] = ret(lit(0));
+        return new Ast.Program(Arrays.<Ast.Decl>asList(kernel, fun("main", params(), block(body))));
+    }
+
+    /** fn main(): int { output(f(args...)); return 0; } after f */
+    private static Ast.Program program(Ast.FunDecl f, String name, int... args) {
+        Expr[] actuals = new Expr[args.length];
+        for (int i = 0; i < args.length; i++) actuals[i] = lit(args[i]);
+        Ast.FunDecl main = fun("main", params(), block(
+            new Stmt.ExprStmt(call("output", call(name, actuals))), ret(lit(0))));
+        return new Ast.Program(Arrays.<Ast.Decl>asList(f, main));
+    }
+
+    private static Ast.FunDecl fun(String name, List<Ast.Param> params, Stmt.Block body) {
+        return new Ast.FunDecl(name, params, Ast.Type.INT, body);
+    }
+
+    private static List<Ast.Param> params(String... names) {
+        Ast.Param[] ps = new Ast.Param[names.length];
+        for (int i = 0; i < names.length; i++) ps[i] = new Ast.Param(names[i], Ast.Type.INT);
+        return Arrays.asList(ps);
+    }
+
+    private static Stmt.Block block(Stmt... stmts) { return new Stmt.Block(Arrays.asList(stmts)); }
+    private static Stmt def(String name, Expr init) { return new Stmt.VarDef(name, Ast.Type.INT, init); }
+    private static Stmt assign(String name, Expr rhs) { return new Stmt.Assign(name, rhs); }
+    private static Stmt ret(Expr value) { return new Stmt.Return(value); }
+    private static Expr var(String name) { return new Expr.Var(name); }
+    private static Expr lit(int value) { return new Expr.IntLit(value); }
+    private static Expr add(Expr l, Expr r) { return bin(l, Expr.BinOp.ADD, r); }
+    private static Expr bin(Expr l, Expr.BinOp op, Expr r) { return new Expr.Binary(l, op, r); }
+    private static Expr call(String name, Expr... args) { return new Expr.Call(name, Arrays.asList(args)); }
+}
@@ -0,0 +1,143 @@
+package madlang.bench;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import madlang.CEmitter;
+import madlang.aot.AotCompiler;
+import madlang.ast.Ast;
+import madlang.interp.Interpreter;
+import madlang.interp.MemorySink;
+import madlang.interp.OutputSink;
+
+/**
+ * Compares the JVM engines with the same programs translated to C (CEmitter)
+ * and compiled by gcc, as a ceiling for what the JVM engines could reach.
+ *
+ * Interpreter and AOT times are the median of one run in a warm JVM. The
+ * native time is the median wall time of running the executable minus that
+ * of an empty C program, so process startup is not counted.
+ *
+ * Usage: java -cp out madlang.bench.NativeBench [runs]
+ * Needs gcc on the PATH (or the compiler named by $CC).
+ */
+public final class NativeBench {
+
+    private static final String[] NAMES = { "readme", "invariant", "nested" };
+
+    private NativeBench() {}
+
+    private static Ast.Program program(String name) {
+        switch (name) {
+            case "readme": return LoopBench.readme(200_000);
+            case "invariant": return LoopBench.invariant(2_000_000);
+            case "nested": return LoopBench.nested(1_500);
+            default: throw new IllegalArgumentException("no program named " + name);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        String cc = System.getenv().getOrDefault("CC", "gcc");
+        Path dir = Files.createTempDirectory("madlang-native-bench");
+        try {
+            Path empty = dir.resolve("empty");
+            Files.writeString(dir.resolve("empty.c"), "int main(void) { return 0; }\n");
+            run(List.of(cc, "-O2", "-o", empty.toString(), dir.resolve("empty.c").toString()), null);
+            long[] startup = new long[runs];
+            for (int i = 0; i < 2 * runs; i++) {
+                long start = System.nanoTime();
+                run(List.of(empty.toString()), OutputStream.nullOutputStream());
+                if (i >= runs) startup[i - runs] = System.nanoTime() - start;
+            }
+            System.out.printf("process startup %.1f ms, not counted%n", median(startup) / 1e6);
+
+            System.out.printf("%-10s %12s %12s %12s %10s%n", "program", "interp ms", "aot ms", "native ms", "vs aot");
+            for (String name : NAMES) {
+                Ast.Program program = program(name);
+                Path source = dir.resolve(name + ".c");
+                Path exe = dir.resolve(name);
+                Files.writeString(source, CEmitter.emit(program));
+                run(List.of(cc, "-O2", "-fwrapv", "-o", exe.toString(), source.toString()), null);
+
+                Interpreter interp = Interpreter.compile(program);
+                MemorySink expected = OutputSink.memory();
+                interp.run(expected);
+                String output = run(List.of(exe.toString()), null);
+                if (!output.equals(expected.toString())) {
+                    throw new IllegalStateException(name + ": native program prints different output");
+                }
+
+                String className = "Native_" + name;
+                AotCompiler.compileToDirectory(program, className, dir);
+                Method aot;
+                try (URLClassLoader loader = new URLClassLoader(new URL[] { dir.toUri().toURL() })) {
+                    aot = loader.loadClass(className).getMethod("run", OutputStream.class, BufferedReader.class);
+                }
+
+                OutputSink sink = (bytes, offset, length) -> {};
+                OutputStream nowhere = OutputStream.nullOutputStream();
+                long[] a = new long[runs];
+                long[] b = new long[runs];
+                long[] c = new long[runs];
+                for (int i = 0; i < 2 * runs; i++) {
+                    long start = System.nanoTime();
+                    interp.run(sink);
+                    long afterInterp = System.nanoTime();
+                    aot.invoke(null, nowhere, null);
+                    long afterAot = System.nanoTime();
+                    run(List.of(exe.toString()), nowhere);
+                    long end = System.nanoTime();
+                    // First half is warm-up
+                    if (i >= runs) {
+                        a[i - runs] = afterInterp - start;
+                        b[i - runs] = afterAot - afterInterp;
+                        c[i - runs] = Math.max(0, end - afterAot - median(startup));
+                    }
+                }
+                System.out.printf("%-10s %12.1f %12.1f %12.1f %9.1fx%n", name, median(a) / 1e6, median(b) / 1e6,
+                                  median(c) / 1e6, (double) median(b) / Math.max(1, median(c)));
+            }
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                for (Path p : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) Files.delete(p);
+            }
+        }
+    }
+
+    /**
+     * Runs a command to completion.
+     *
+     * @param out receives its standard output; null to collect it instead
+     * @return the collected standard output, or "" when out is given
+     */
+    private static String run(List<String> command, OutputStream out) throws IOException, InterruptedException {
+        Process p = new ProcessBuilder(command)
+            .redirectInput(ProcessBuilder.Redirect.from(new File("/dev/null")))
+            .redirectError(ProcessBuilder.Redirect.INHERIT)
+            .start();
+        String text = "";
+        if (out == null) text = new String(p.getInputStream().readAllBytes());
+        else p.getInputStream().transferTo(out);
+        int exit = p.waitFor();
+        if (exit != 0) throw new IllegalStateException(String.join(" ", command) + " exited with " + exit);
+        return text;
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
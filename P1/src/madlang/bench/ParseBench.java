@@ -0,0 +1,130 @@
+package madlang.bench;
+
+import java.util.Arrays;
+
+import madlang.PrettyPrinter;
+import madlang.ast.Ast;
+import madlang.parse.Parser;
+import madlang.parse.SourceFile;
+
+/**
+ * Keystroke latency of SourceFile.edit against parsing the whole file again.
+ *
+ * The file is made of functions of 10 lines each, like
+ *   fn f42(a: int, b: int): int {
+ *     v: int = a * 3 + b;
+ *     ...
+ *   }
+ * and global variables between them. Each edit types a space at the start
+ * of a line in a spread-out declaration, or deletes it again, so every edited
+ * snapshot still parses. After the timed edits, the last snapshot is checked
+ * against a full parse of its text.
+ *
+ * Then edits that break the file: the closing brace of a spread-out function
+ * is deleted, which leaves a snapshot with an error, and typed back.
+ *
+ * Usage: java -cp out madlang.bench.ParseBench [lines] [edits]
+ */
+public final class ParseBench {
+
+    private ParseBench() {}
+
+    public static void main(String[] args) {
+        int lines = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int edits = args.length > 1 ? Integer.parseInt(args[1]) : 1_000;
+
+        String text = source(lines / 11);
+        long[] full = new long[10];
+        SourceFile file = null;
+        for (int i = 0; i < 2 * full.length; i++) {
+            long start = System.nanoTime();
+            file = SourceFile.parse(text);
+            if (i >= full.length) full[i - full.length] = System.nanoTime() - start;
+        }
+        System.out.printf("%d lines, %d KB, %d declarations%n",
+                          text.split("\n", -1).length, text.length() / 1024, file.program().decls.size());
+        System.out.printf("full parse:  %8.2f ms median%n", median(full) / 1e6);
+
+        // Warm up on a copy, then time
+        type(file, edits, new long[edits]);
+        long[] times = new long[edits];
+        SourceFile edited = type(file, edits, times);
+        Arrays.sort(times);
+        System.out.printf("keystroke:   %8.3f ms median, %.3f ms p99, %.3f ms max%n",
+                          times[edits / 2] / 1e6, times[edits * 99 / 100] / 1e6, times[edits - 1] / 1e6);
+
+        breakAndFix(file, edits / 2, new long[edits]);
+        long[] breaking = new long[edits];
+        breakAndFix(file, edits / 2, breaking);
+        Arrays.sort(breaking);
+        System.out.printf("break, fix:  %8.3f ms median, %.3f ms p99, %.3f ms max%n",
+                          breaking[edits / 2] / 1e6, breaking[edits * 99 / 100] / 1e6, breaking[edits - 1] / 1e6);
+
+        Ast.Program reparsed = Parser.parse(edited.text().toString());
+        if (!PrettyPrinter.pretty(reparsed).equals(PrettyPrinter.pretty(edited.program()))) {
+            throw new IllegalStateException("incremental parse differs from a full parse");
+        }
+        for (int i = 0; i < reparsed.decls.size(); i++) {
+            if (edited.line(i, edited.program().decls.get(i).span) != reparsed.decls.get(i).span.line) {
+                throw new IllegalStateException("declaration " + i + " has the wrong line");
+            }
+        }
+    }
+
+    /** Types edits characters into file, recording the time of each. */
+    private static SourceFile type(SourceFile file, int edits, long[] times) {
+        for (int e = 0; e < edits; e++) {
+            CharSequence text = file.text();
+            int d = (int) ((e * 7919L) % file.program().decls.size());
+            int at = file.start(d) + (file.end(d) - file.start(d)) / 2;
+            while (at > 0 && text.charAt(at - 1) != '\n') at--;
+            // Indent a line of the declaration's middle, or take the indent back
+            boolean backspace = e % 2 == 1 && text.charAt(at) == ' ';
+            long start = System.nanoTime();
+            file = backspace ? file.edit(at, 1, "") : file.edit(at, 0, " ");
+            times[e] = System.nanoTime() - start;
+        }
+        return file;
+    }
+
+    /** Deletes the closing brace of pairs functions and types it back, recording the time of each edit. */
+    private static void breakAndFix(SourceFile file, int pairs, long[] times) {
+        for (int e = 0; e < pairs; e++) {
+            int d = (int) ((e * 7919L) % file.program().decls.size());
+            if (!(file.program().decls.get(d) instanceof Ast.FunDecl)) d = (d + 1) % file.program().decls.size();
+            int brace = file.end(d) - 1;
+            long start = System.nanoTime();
+            SourceFile broken = file.edit(brace, 1, "");
+            long mid = System.nanoTime();
+            file = broken.edit(brace, 0, "}");
+            times[2 * e] = mid - start;
+            times[2 * e + 1] = System.nanoTime() - mid;
+            if (broken.error() == null || file.error() != null) throw new IllegalStateException("breaking edit went wrong");
+        }
+    }
+
+    private static String source(int functions) {
+        StringBuilder sb = new StringBuilder();
+        for (int f = 0; f < functions; f++) {
+            sb.append("g").append(f).append(": int = ").append(f % 100).append(";\n");
+            sb.append("fn f").append(f).append("(a: int, b: int): int {\n");
+            sb.append("    v: int = a * 3 + b;\n");
+            sb.append("    i: int = 0;\n");
+            sb.append("    while (i < b) {\n");
+            sb.append("        if (v % 2 == 0 && i != 7) v = v / 2; else v = v * 3 + 1;\n");
+            sb.append("        i = i + 1;\n");
+            sb.append("    }\n");
+            sb.append("    // g").append(f).append(" counts calls\n");
+            sb.append("    g").append(f).append(" = g").append(f).append(" + 1;\n");
+            sb.append("    return v + f").append(Math.max(f - 1, 0)).append("(a, 0) * 0;\n");
+            sb.append("}\n");
+        }
+        return sb.toString();
+    }
+
+    private static long median(long[] xs) {
+        long[] sorted = xs.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
@@ -0,0 +1,122 @@
+package madlang.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import madlang.ast.Ast;
+import madlang.ast.Expr;
+import madlang.ast.Stmt;
+import madlang.exec.ExecutionResult;
+import madlang.exec.ExecutionService;
+import madlang.interp.ExecutionLimits;
+import madlang.interp.Interpreter;
+import madlang.interp.OutputSink;
+import madlang.test.TestPrograms;
+
+/**
+ * Throughput of ExecutionService on a mix of short programs, against starting
+ * a JVM per program as running madlang.Main once per submission would.
+ *
+ * Usage: java -cp out madlang.bench.ServerBench [programs]
+ */
+public final class ServerBench {
+
+    // Short submissions: the runaway loop should not dominate the measurement
+    private static final ExecutionLimits LIMITS = ExecutionService.DEFAULT_LIMITS.withMaxSteps(1_000_000);
+
+    private ServerBench() {}
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 2 && args[0].equals("--child")) {
+            // One submission in a fresh JVM: compile and run a single program
+            Interpreter.compile(workload()[Integer.parseInt(args[1])]).run(OutputSink.memory());
+            return;
+        }
+        int total = args.length > 0 ? Integer.parseInt(args[0]) : 5_000;
+        Ast.Program[] mix = workload();
+        int threads = Runtime.getRuntime().availableProcessors();
+        System.out.println(mix.length + " distinct programs, runs limited to " + LIMITS.maxSteps + " steps");
+
+        System.out.printf("%-22s %9s %10s %12s%n", "mode", "programs", "ms", "programs/s");
+        try (ExecutionService service = new ExecutionService(threads, LIMITS)) {
+            runBatch(service, mix, total); // warm-up
+            long start = System.nanoTime();
+            int[] counts = runBatch(service, mix, total);
+            report("service, " + threads + " thread(s)", total, System.nanoTime() - start);
+            System.out.printf("  completed %d, limit exceeded %d, other %d%n", counts[0], counts[1], counts[2]);
+        }
+
+        int spawns = 5;
+        long[] nanos = new long[spawns];
+        for (int i = 0; i < spawns; i++) nanos[i] = spawnChild(i % mix.length);
+        Arrays.sort(nanos);
+        report("process per program", 1, nanos[spawns / 2]);
+    }
+
+    /** @return counts of completed, limit-exceeded and otherwise failed runs */
+    private static int[] runBatch(ExecutionService service, Ast.Program[] mix, int total) {
+        List<CompletableFuture<ExecutionResult>> pending = new ArrayList<>(total);
+        for (int i = 0; i < total; i++) pending.add(service.submit(mix[i % mix.length], null));
+        int[] counts = new int[3];
+        for (CompletableFuture<ExecutionResult> f : pending) {
+            ExecutionResult r = f.join();
+            if (r.status == ExecutionResult.Status.COMPLETED) counts[0]++;
+            else if (r.status == ExecutionResult.Status.LIMIT_EXCEEDED) counts[1]++;
+            else counts[2]++;
+        }
+        return counts;
+    }
+
+    private static long spawnChild(int program) throws IOException, InterruptedException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        ProcessBuilder pb = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                                               ServerBench.class.getName(), "--child", String.valueOf(program));
+        pb.inheritIO();
+        long start = System.nanoTime();
+        int exit = pb.start().waitFor();
+        long nanos = System.nanoTime() - start;
+        if (exit != 0) throw new IllegalStateException("child exited with " + exit);
+        return nanos;
+    }
+
+    private static void report(String mode, int programs, long nanos) {
+        System.out.printf("%-22s %9d %10.1f %12.0f%n", mode, programs, nanos / 1e6, programs / (nanos / 1e9));
+    }
+
+    /**
+     * The test programs that compile, small versions of the LoopBench programs,
+     * and one runaway loop that the step limit has to stop.
+     */
+    private static Ast.Program[] workload() {
+        List<Ast.Program> mix = new ArrayList<>();
+        Ast.Program[] tests = {
+            TestPrograms.test1(), TestPrograms.test2(), TestPrograms.test3(), TestPrograms.test4(),
+            TestPrograms.test5(), TestPrograms.test6(), TestPrograms.test7(), TestPrograms.test8()
+        };
+        for (Ast.Program p : tests) {
+            try {
+                Interpreter.compile(p).run(OutputSink.memory(), null, LIMITS);
+                mix.add(p);
+            } catch (RuntimeException e) {
+                // Not a runnable program (no main, type errors, ...)
+            }
+        }
+        mix.add(LoopBench.readme(2_000));
+        mix.add(LoopBench.invariant(20_000));
+        mix.add(LoopBench.nested(100));
+        mix.add(spin());
+        return mix.toArray(new Ast.Program[0]);
+    }
+
+    /** fn main(): int { while (true) { } return 0; } */
+    private static Ast.Program spin() {
+        Stmt loop = new Stmt.While(new Expr.BoolLit(true), new Stmt.Block(List.of()));
+        Ast.FunDecl main = new Ast.FunDecl("main", List.of(), Ast.Type.INT,
+            new Stmt.Block(Arrays.asList(loop, new Stmt.Return(new Expr.IntLit(0)))));
+        return new Ast.Program(List.of(main));
+    }
+}
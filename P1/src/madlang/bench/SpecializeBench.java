@@ -0,0 +1,45 @@
+package madlang.bench;
+
+import madlang.PrettyPrinter;
+import madlang.ast.Ast;
+import madlang.interp.Interpreter;
+import madlang.opt.PartialEvaluator;
+
+/**
+ * Times programs on the interpreter before and after PartialEvaluator.
+ *
+ * Usage: java -cp out madlang.bench.SpecializeBench [-v] [runs]
+ * With -v the specialized programs are printed as well.
+ */
+public final class SpecializeBench {
+
+    private SpecializeBench() {}
+
+    public static void main(String[] args) {
+        boolean verbose = false;
+        int runs = 10;
+        for (String a : args) {
+            if (a.equals("-v")) verbose = true;
+            else runs = Integer.parseInt(a);
+        }
+
+        String[] names = { "kernel", "readme", "invariant", "nested" };
+        Ast.Program[] programs = {
+            LoopBench.kernel(300_000), LoopBench.readme(200_000), LoopBench.invariant(2_000_000), LoopBench.nested(1_500)
+        };
+        System.out.printf("%-10s %12s %14s %8s%n", "program", "plain ms", "specialized ms", "speedup");
+        for (int p = 0; p < programs.length; p++) {
+            Ast.Program plain = programs[p];
+            Ast.Program specialized = PartialEvaluator.specialize(plain);
+            if (verbose) System.out.println(PrettyPrinter.pretty(specialized));
+
+            Interpreter a = Interpreter.compile(plain);
+            Interpreter b = Interpreter.compile(specialized);
+            if (!LoopBench.output(a).equals(LoopBench.output(b))) {
+                throw new IllegalStateException(names[p] + ": specialized program prints different output");
+            }
+            double[] ms = LoopBench.time(a, b, runs);
+            System.out.printf("%-10s %12.1f %14.1f %7.2fx%n", names[p], ms[0], ms[1], ms[0] / ms[1]);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package madlang.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Time from starting java madlang.Main to its first byte of output, and to
+ * its exit, for pretty-printing a file and for printing the test programs:
+ * without class data sharing, with the JDK's default archive, and with the
+ * application archive make cds builds (when it is there).
+ *
+ * The first run of each is reported apart from the median of the rest, since
+ * only it may find the archive and class files outside the page cache.
+ *
+ * Runs Main from the class path this runs with, which has to be the jar
+ * make cds builds for the archive to be used.
+ *
+ * Usage: java -cp out/madlang.jar madlang.bench.StartupBench [runs] [FILE.madl]
+ * where runs, 11 by default, is at least 2.
+ */
+public final class StartupBench {
+
+    private StartupBench() {}
+
+    public static void main(String[] args) throws Exception {
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 11;
+        if (runs < 2) {
+            // The first run is reported on its own, and the median needs at least one more
+            throw new IllegalArgumentException("runs must be at least 2, not " + runs
+                                               + "; usage: java -cp out/madlang.jar madlang.bench.StartupBench [runs] [FILE.madl]");
+        }
+        Path file = Path.of(args.length > 1 ? args[1] : "out/train.madl");
+        Path archive = Path.of("out/madlang.jsa");
+        if (!Files.exists(file)) throw new IllegalArgumentException(file + " not found; run make cds first");
+
+        List<String[]> configs = new ArrayList<>();
+        configs.add(new String[] {"no CDS", "-Xshare:off"});
+        configs.add(new String[] {"JDK archive", "-Xshare:auto"});
+        if (Files.exists(archive)) configs.add(new String[] {"AppCDS", "-XX:SharedArchiveFile=" + archive});
+        else System.out.println("(no " + archive + ", make cds builds it)");
+
+        System.out.printf("%-12s %-12s %12s %12s %12s%n", "run", "sharing", "first out", "median out", "median exit");
+        for (String[] run : new String[][] {{"file", file.toString()}, {"tests"}}) {
+            for (String[] config : configs) {
+                long[][] times = new long[runs][];
+                for (int i = 0; i < runs; i++) times[i] = spawn(config[1], Arrays.copyOfRange(run, 1, run.length));
+                long[] out = new long[runs - 1];
+                long[] exit = new long[runs - 1];
+                for (int i = 1; i < runs; i++) {
+                    out[i - 1] = times[i][0];
+                    exit[i - 1] = times[i][1];
+                }
+                Arrays.sort(out);
+                Arrays.sort(exit);
+                System.out.printf("%-12s %-12s %12.1f %12.1f %12.1f%n", run[0], config[0],
+                                  times[0][0] / 1e6, out[out.length / 2] / 1e6, exit[exit.length / 2] / 1e6);
+            }
+        }
+    }
+
+    /** @return nanoseconds to the first byte of output and to the exit of java FLAG madlang.Main ARGS */
+    private static long[] spawn(String flag, String[] args) throws IOException, InterruptedException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        List<String> line = new ArrayList<>(List.of(java, flag, "-cp", System.getProperty("java.class.path"), "madlang.Main"));
+        line.addAll(List.of(args));
+        ProcessBuilder pb = new ProcessBuilder(line);
+        pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+        long start = System.nanoTime();
+        Process p = pb.start();
+        long first = -1;
+        try (InputStream in = p.getInputStream()) {
+            byte[] buf = new byte[8192];
+            for (int n = in.read(buf); n >= 0; n = in.read(buf)) {
+                if (first < 0 && n > 0) first = System.nanoTime() - start;
+            }
+        }
+        int exit = p.waitFor();
+        long end = System.nanoTime() - start;
+        if (exit != 0 || first < 0) throw new IllegalStateException("madlang.Main exited with " + exit);
+        return new long[] {first, end};
+    }
+}
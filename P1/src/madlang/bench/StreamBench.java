@@ -0,0 +1,148 @@
+package madlang.bench;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.List;
+
+import madlang.FormatOptions;
+import madlang.PrettyPrinter;
+import madlang.StreamingPipeline;
+import madlang.ast.Expr;
+import madlang.ast.Rewriter;
+import madlang.parse.Parser;
+
+/**
+ * Time and memory to pretty-print a large generated source read from a
+ * Reader: by parsing the whole Ast.Program and printing it, and through
+ * StreamingPipeline, without and with a Rewriter pass.
+ *
+ * The source is made on the fly by a Reader, so the streaming runs never hold
+ * it whole; the whole-program run has to read it into a String first. Output
+ * goes to a Writer that only counts characters.
+ *
+ * Memory is the peak of the heap outside the young generation's allocation
+ * area (Eden), which is about what a run keeps alive; Eden fills up with
+ * short-lived garbage either way.
+ *
+ * Usage: java -cp out madlang.bench.StreamBench [functions]
+ */
+public final class StreamBench {
+
+    private StreamBench() {}
+
+    public static void main(String[] args) throws IOException {
+        int functions = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        Rewriter fold = Rewriter.EMPTY.withExprRule(Expr.Binary.class,
+            b -> b.op == Expr.BinOp.MUL && b.right instanceof Expr.IntLit r && r.value == 1 ? b.left : b);
+
+        System.out.printf("%d functions, %d lines%n", functions, functions * Generated.LINES);
+        System.out.printf("%-22s %10s %12s %12s%n", "mode", "ms", "MB retained", "MB output");
+        for (int round = 0; round < 2; round++) {
+            // The first round warms up
+            boolean report = round == 1;
+            run("whole program", report, out -> {
+                String text = readAll(new Generated(functions));
+                out.write(PrettyPrinter.pretty(Parser.parse(text)));
+            });
+            run("streaming", report, out -> StreamingPipeline.run(new Generated(functions), out));
+            run("streaming + rewrite", report, out -> StreamingPipeline.run(new Generated(functions),
+                List.of(fold::rewrite), FormatOptions.DEFAULT, out, StreamingPipeline.DEFAULT_CAPACITY));
+        }
+    }
+
+    private interface Job {
+        void run(Writer out) throws IOException;
+    }
+
+    private static void run(String mode, boolean report, Job job) throws IOException {
+        System.gc();
+        List<MemoryPoolMXBean> pools = ManagementFactory.getMemoryPoolMXBeans();
+        for (MemoryPoolMXBean pool : pools) pool.resetPeakUsage();
+        long base = retained(pools);
+        CountingWriter out = new CountingWriter();
+        long start = System.nanoTime();
+        job.run(out);
+        long nanos = System.nanoTime() - start;
+        if (report) {
+            System.out.printf("%-22s %10.0f %12.2f %12.1f%n", mode, nanos / 1e6,
+                              (retained(pools) - base) / 1e6, out.count / 1e6);
+        }
+    }
+
+    /** @return peak bytes in heap pools other than Eden since the last reset */
+    private static long retained(List<MemoryPoolMXBean> pools) {
+        long sum = 0;
+        for (MemoryPoolMXBean pool : pools) {
+            if (pool.getType() == MemoryType.HEAP && !pool.getName().contains("Eden")) sum += pool.getPeakUsage().getUsed();
+        }
+        return sum;
+    }
+
+    private static String readAll(Reader in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        char[] buf = new char[1 << 16];
+        for (int n = in.read(buf); n >= 0; n = in.read(buf)) sb.append(buf, 0, n);
+        return sb.toString();
+    }
+
+    /** Source text of functions like ParseBench's, made as it is read. */
+    private static final class Generated extends Reader {
+        static final int LINES = 8;
+
+        private final int functions;
+        private int next = 0;
+        private StringReader current = new StringReader("");
+
+        Generated(int functions) {
+            this.functions = functions;
+        }
+
+        @Override
+        public int read(char[] buf, int off, int len) throws IOException {
+            while (true) {
+                int n = current.read(buf, off, len);
+                if (n > 0) return n;
+                if (next == functions) return -1;
+                current = new StringReader(function(next++));
+            }
+        }
+
+        private static String function(int f) {
+            return "fn f" + f + "(a: int, b: int): int {\n"
+                 + "    v: int = a * 3 + b * 1;\n"
+                 + "    while (v < b) {\n"
+                 + "        if (v % 2 == 0 && v != 7) v = v / 2; else v = v * 3 + 1;\n"
+                 + "    }\n"
+                 + "    // " + f + "\n"
+                 + "    return v + f" + Math.max(f - 1, 0) + "(a, 0) * 0;\n"
+                 + "}\n";
+        }
+
+        @Override
+        public void close() {}
+    }
+
+    private static final class CountingWriter extends Writer {
+        long count = 0;
+
+        @Override
+        public void write(char[] buf, int off, int len) { count += len; }
+
+        @Override
+        public void write(String s) { count += s.length(); }
+
+        @Override
+        public Writer append(CharSequence s) { count += s.length(); return this; }
+
+        @Override
+        public void flush() {}
+
+        @Override
+        public void close() {}
+    }
+}
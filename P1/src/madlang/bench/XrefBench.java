@@ -0,0 +1,99 @@
+package madlang.bench;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import madlang.analysis.Resolution;
+import madlang.analysis.Resolver;
+import madlang.analysis.XrefIndex;
+import madlang.parse.SourceFile;
+
+/**
+ * Cost of an XrefIndex over a large program: building it, answering
+ * find-definition and find-references queries, and keeping it up to date
+ * while a declaration is edited through SourceFile.
+ *
+ * The program is made of functions of 8 lines, each calling the one before
+ * it and a few random others and writing its own global.
+ *
+ * Usage: java -cp out madlang.bench.XrefBench [lines] [edits]
+ */
+public final class XrefBench {
+
+    private XrefBench() {}
+
+    public static void main(String[] args) {
+        int lines = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int edits = args.length > 1 ? Integer.parseInt(args[1]) : 1_000;
+        int functions = lines / 8;
+
+        SourceFile file = SourceFile.parse(source(functions));
+        long start = System.nanoTime();
+        Resolution resolution = Resolver.resolve(file.program());
+        long resolve = System.nanoTime() - start;
+        XrefIndex index = null;
+        long build = Long.MAX_VALUE;
+        for (int i = 0; i < 3; i++) {
+            start = System.nanoTime();
+            index = XrefIndex.build(resolution);
+            build = Math.min(build, System.nanoTime() - start);
+        }
+        System.out.printf("%d lines, %d declarations%n", functions * 8, file.program().decls.size());
+        System.out.printf("resolve:          %10.1f ms%n", resolve / 1e6);
+        System.out.printf("build index:      %10.1f ms%n", build / 1e6);
+
+        // Find-definition from a call site, then every call of the function found
+        Random random = new Random(1);
+        int queries = 2_000_000;
+        long sum = 0;
+        for (int round = 0; round < 2; round++) {
+            start = System.nanoTime();
+            for (int q = 0; q < queries; q++) {
+                XrefIndex.Entry callee = index.function("f" + random.nextInt(functions));
+                List<Object> calls = callee.uses(XrefIndex.Use.CALL);
+                if (!calls.isEmpty()) {
+                    XrefIndex.Entry back = index.at(calls.get(random.nextInt(calls.size())));
+                    sum += back.uses(XrefIndex.Use.CALL).size() + (back.definition() == null ? 0 : 1);
+                }
+            }
+        }
+        long query = System.nanoTime() - start;
+        System.out.printf("query:            %10.3f us (%d)%n", query / 1e3 / queries, sum % 10);
+
+        // Each edit adds a call to a function's body, or takes it out again
+        long[] times = new long[edits];
+        for (int e = 0; e < edits; e++) {
+            // Odd declarations are functions; an undo takes out what the edit before put in
+            int d = 2 * (int) ((e / 2 * 7919L) % functions) + 1;
+            int at = file.start(d);
+            boolean undo = e % 2 == 1;
+            file = undo ? file.edit(at, EXTRA.length(), "") : file.edit(at, 0, EXTRA);
+            start = System.nanoTime();
+            index.update(file.program());
+            times[e] = System.nanoTime() - start;
+        }
+        Arrays.sort(times);
+        System.out.printf("update per edit:  %10.3f ms median, %.3f ms p99%n",
+                          times[edits / 2] / 1e6, times[edits * 99 / 100] / 1e6);
+    }
+
+    // A declaration put before the edited one and taken out again
+    private static final String EXTRA = "fn extra(): int { return f0(1, 2) + extra(); }\n";
+
+    private static String source(int functions) {
+        Random random = new Random(2);
+        StringBuilder sb = new StringBuilder();
+        for (int f = 0; f < functions; f++) {
+            sb.append("g").append(f).append(": int = 0;\n");
+            sb.append("fn f").append(f).append("(a: int, b: int): int {\n");
+            sb.append("    v: int = a * 3 + b;\n");
+            sb.append("    if (v > b) v = f").append(random.nextInt(functions)).append("(v, b);\n");
+            sb.append("    g").append(f).append(" = g").append(f).append(" + 1;\n");
+            sb.append("    v = v + f").append(random.nextInt(functions)).append("(b, a);\n");
+            sb.append("    return v + f").append(Math.max(f - 1, 0)).append("(a, 0) * 0;\n");
+            sb.append("}\n");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,50 @@
+package madlang.exec;
+
+import madlang.interp.LimitExceededException;
+
+/**
+ * Outcome of one program run by an ExecutionService.
+ */
+public final class ExecutionResult {
+
+    public enum Status {
+        COMPLETED,       // main returned
+        COMPILE_ERROR,   // the program has resolution or type errors
+        RUNTIME_ERROR,   // e.g. division by zero, bad input, no main
+        LIMIT_EXCEEDED,  // stopped by one of the run's ExecutionLimits
+        CANCELLED        // the worker was interrupted; not seen through a cancelled future
+    }
+
+    public final Status status;
+
+    // The value main returned; 0 unless COMPLETED
+    public final int exitValue;
+
+    // Everything the program printed, also when it did not complete
+    public final String output;
+
+    // Description of the error, or null if COMPLETED
+    public final String errorOrNull;
+
+    // Which limit stopped the run, or null unless LIMIT_EXCEEDED
+    public final LimitExceededException.Limit limitOrNull;
+
+    // Wall time from the start of the run (compiling included, waiting excluded)
+    public final long nanos;
+
+    ExecutionResult(Status status, int exitValue, String output, String errorOrNull,
+                    LimitExceededException.Limit limitOrNull, long nanos) {
+        this.status = status;
+        this.exitValue = exitValue;
+        this.output = output;
+        this.errorOrNull = errorOrNull;
+        this.limitOrNull = limitOrNull;
+        this.nanos = nanos;
+    }
+
+    @Override
+    public String toString() {
+        String what = status == Status.COMPLETED ? "exit " + exitValue : errorOrNull;
+        return status + " (" + what + ", " + output.length() + " chars of output, " + nanos / 1000 + " us)";
+    }
+}
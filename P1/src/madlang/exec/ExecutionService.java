@@ -0,0 +1,244 @@
+package madlang.exec;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import madlang.ast.Ast;
+import madlang.interp.CompileException;
+import madlang.interp.ExecutionLimits;
+import madlang.interp.Interpreter;
+import madlang.interp.LimitExceededException;
+import madlang.interp.MemorySink;
+import madlang.interp.OutputSink;
+import madlang.interp.RuntimeError;
+
+/**
+ * Runs many MadLang programs concurrently in one JVM.
+ *
+ * Each submission runs on a worker thread with its own globals, memo tables,
+ * input and in-memory output, so programs only share compiled code, which is
+ * immutable. Every run is bounded by ExecutionLimits; an error or exceeded
+ * limit ends up in that program's ExecutionResult and nowhere else. Programs
+ * are not isolated from the JVM's heap: one that allocates a huge recursion
+ * is stopped by its call depth limit, not by a memory quota.
+ *
+ * Workers are platform threads with a large stack, so the call depth limit,
+ * not the host stack, is what stops deep recursion.
+ *
+ * Cancelling a returned future with cancel(true) interrupts its run, which
+ * then stops within a fraction of a millisecond (see ExecutionLimits).
+ *
+ * A program submitted as an AST is compiled on its first submission and the
+ * compiled form reused for later ones, as long as the same Ast.Program object
+ * is passed (ASTs have no structural equality).
+ */
+public final class ExecutionService implements AutoCloseable {
+
+    /** Limits for runs submitted without their own. */
+    public static final ExecutionLimits DEFAULT_LIMITS = ExecutionLimits.NONE
+        .withMaxSteps(100_000_000)
+        .withMaxCallDepth(10_000)
+        .withMaxOutputBytes(1 << 20)
+        .withMaxMillis(10_000);
+
+    // Enough for DEFAULT_LIMITS.maxCallDepth nested calls of ordinary functions
+    private static final long WORKER_STACK_SIZE = 64L << 20;
+
+    private final ExecutorService workers;
+    private final ExecutionLimits defaultLimits;
+
+    // Compiled form or CompileException of every Ast.Program submitted so far,
+    // completed by the first run of it; the lock is only held to look one up
+    private final Map<Ast.Program, CompletableFuture<Object>> compiled = Collections.synchronizedMap(new WeakHashMap<>());
+
+    /** A service with one worker per available processor and DEFAULT_LIMITS. */
+    public ExecutionService() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_LIMITS);
+    }
+
+    /**
+     * @param threads number of programs that run at the same time
+     * @param defaultLimits limits for runs submitted without their own
+     */
+    public ExecutionService(int threads, ExecutionLimits defaultLimits) {
+        if (threads < 1) throw new IllegalArgumentException("threads < 1: " + threads);
+        AtomicInteger count = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(threads, task -> {
+            Thread t = new Thread(null, task, "madlang-exec-" + count.incrementAndGet(), WORKER_STACK_SIZE);
+            t.setDaemon(true);
+            return t;
+        });
+        this.defaultLimits = defaultLimits;
+    }
+
+    /** @see #submit(Ast.Program, String, ExecutionLimits) */
+    public CompletableFuture<ExecutionResult> submit(Ast.Program program, String input) {
+        return submit(program, input, defaultLimits);
+    }
+
+    /**
+     * Queues a program for compilation (unless it was submitted before) and a run.
+     *
+     * @param program the AST of a whole MadLang program
+     * @param input text read by input(), one int per line; may be null
+     * @param limits bounds for this run
+     * @return completes with the result once the run has ended
+     */
+    public CompletableFuture<ExecutionResult> submit(Ast.Program program, String input, ExecutionLimits limits) {
+        return schedule(new Run(input, limits) {
+            @Override ExecutionResult execute(long start) {
+                Object c = compiled(program);
+                if (c instanceof CompileException e) {
+                    return new ExecutionResult(ExecutionResult.Status.COMPILE_ERROR, 0, "", e.getMessage(), null,
+                                               System.nanoTime() - start);
+                }
+                return runProgram((Interpreter) c, start);
+            }
+        });
+    }
+
+    /** @see #submit(Interpreter, String, ExecutionLimits) */
+    public CompletableFuture<ExecutionResult> submit(Interpreter program, String input) {
+        return submit(program, input, defaultLimits);
+    }
+
+    /**
+     * Queues a run of an already compiled program.
+     *
+     * @param program compiled with Interpreter.compile
+     * @param input text read by input(), one int per line; may be null
+     * @param limits bounds for this run
+     * @return completes with the result once the run has ended
+     */
+    public CompletableFuture<ExecutionResult> submit(Interpreter program, String input, ExecutionLimits limits) {
+        return schedule(new Run(input, limits) {
+            @Override ExecutionResult execute(long start) {
+                return runProgram(program, start);
+            }
+        });
+    }
+
+    private CompletableFuture<ExecutionResult> schedule(Run run) {
+        workers.execute(run);
+        return run;
+    }
+
+    /**
+     * Compiles program on its first submission, outside any lock, so runs of
+     * other programs go on meanwhile; later submissions of it wait for that.
+     *
+     * @return the Interpreter, or the CompileException
+     */
+    private Object compiled(Ast.Program program) {
+        CompletableFuture<Object> mine = new CompletableFuture<>();
+        CompletableFuture<Object> first = compiled.putIfAbsent(program, mine);
+        if (first != null) return first.join();
+        try {
+            mine.complete(Interpreter.compile(program));
+        } catch (CompileException e) {
+            mine.complete(e);
+        } catch (RuntimeException | Error e) {
+            // Not a property of the program (e.g. out of stack): let the next submission retry
+            compiled.remove(program, mine);
+            mine.completeExceptionally(e);
+            throw e;
+        }
+        return mine.join();
+    }
+
+    /**
+     * One queued submission; completes itself with its result. While it runs,
+     * cancel(true) interrupts the worker, and only then: the interrupt status
+     * is cleared under the same lock before the worker moves on.
+     */
+    private abstract static class Run extends CompletableFuture<ExecutionResult> implements Runnable {
+        final String input;
+        final ExecutionLimits limits;
+        private Thread runner = null; // guarded by this
+
+        Run(String input, ExecutionLimits limits) {
+            this.input = input;
+            this.limits = limits;
+        }
+
+        /** @param start System.nanoTime() at the start of the run */
+        abstract ExecutionResult execute(long start);
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                // A cancel that ran before runner was set had no one to interrupt
+                if (isDone()) return;
+                runner = Thread.currentThread();
+            }
+            try {
+                complete(execute(System.nanoTime()));
+            } catch (RuntimeException | Error e) {
+                completeExceptionally(e);
+            } finally {
+                synchronized (this) {
+                    runner = null;
+                    Thread.interrupted();
+                }
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled && mayInterruptIfRunning) {
+                synchronized (this) {
+                    if (runner != null) runner.interrupt();
+                }
+            }
+            return cancelled;
+        }
+
+        ExecutionResult runProgram(Interpreter program, long start) {
+            MemorySink out = OutputSink.memory();
+            BufferedReader in = input == null ? null : new BufferedReader(new StringReader(input));
+            ExecutionResult.Status status;
+            int exitValue = 0;
+            String error = null;
+            LimitExceededException.Limit limit = null;
+            try {
+                exitValue = program.run(out, in, limits);
+                status = ExecutionResult.Status.COMPLETED;
+            } catch (LimitExceededException e) {
+                status = ExecutionResult.Status.LIMIT_EXCEEDED;
+                error = e.getMessage();
+                limit = e.limit;
+            } catch (CancellationException e) {
+                status = ExecutionResult.Status.CANCELLED;
+                error = e.getMessage();
+            } catch (RuntimeError | IllegalStateException e) {
+                status = ExecutionResult.Status.RUNTIME_ERROR;
+                error = e.getMessage();
+            }
+            return new ExecutionResult(status, exitValue, out.toString(), error, limit, System.nanoTime() - start);
+        }
+    }
+
+    /** Stops accepting programs and waits for the queued ones to finish. */
+    @Override
+    public void close() {
+        workers.shutdown();
+        try {
+            while (!workers.awaitTermination(1, TimeUnit.MINUTES)) {
+                // Runs are bounded by their limits, so this ends eventually
+            }
+        } catch (InterruptedException e) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
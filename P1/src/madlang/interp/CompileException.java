@@ -0,0 +1,21 @@
+package madlang.interp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import madlang.analysis.Diagnostic;
+
+/**
+ * Thrown when a program cannot be compiled because it has resolution or type errors.
+ */
+public final class CompileException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public final List<Diagnostic> errors;
+
+    public CompileException(List<Diagnostic> errors) {
+        super(errors.size() + " error(s), first: " + errors.get(0));
+        this.errors = Collections.unmodifiableList(new ArrayList<Diagnostic>(errors));
+    }
+}
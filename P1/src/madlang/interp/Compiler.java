@@ -0,0 +1,366 @@
+package madlang.interp;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import madlang.analysis.Purity;
+import madlang.analysis.Symbol;
+import madlang.analysis.TypeChecker;
+import madlang.ast.Ast;
+import madlang.ast.Expr;
+import madlang.ast.Stmt;
+
+/**
+ * Translates a type checked program into ExprCode/StmtCode trees.
+ *
+ * All name lookups happen here: variables become frame slots reached through a
+ * fixed number of static links, globals become indices, and calls point
+ * straight at the callee's FunctionCode.
+ *
+ * With memoization on, calls of pure functions become MemoCalls. A function
+ * that calls memoized functions from more than one place (tree recursion such
+ * as fib) calls them through the cache even in return position. With a single
+ * such call it is at most linearly recursive, so nothing could be shared
+ * within one evaluation and the call stays a tail call.
+ *
+ * With profiling on, every FunctionCode gets its Profile.FunctionStats and
+ * while loops become CountedWhiles.
+ */
+final class Compiler implements Stmt.Visitor<StmtCode>, Expr.Visitor<ExprCode> {
+
+    private final TypeChecker.Result checked;
+    private final InterpreterOptions options;
+    private final IdentityHashMap<Ast.FunDecl, FunctionCode> functions = new IdentityHashMap<>();
+    private final Profile profileOrNull;
+
+    // Function being compiled and its nesting level; null and -1 for global initializers
+    private Ast.FunDecl currentDecl = null;
+    private FunctionCode currentFn = null;
+    private int level = -1;
+
+    // Calls of memoized functions in the body of the function being compiled
+    private int memoCallSites = 0;
+
+    private int maxArity = 0;
+    private int memoCount = 0;
+
+    private Compiler(TypeChecker.Result checked, InterpreterOptions options) {
+        this.checked = checked;
+        this.options = options;
+        this.profileOrNull = options.profile ? new Profile(checked.resolution.program) : null;
+    }
+
+    /**
+     * @param checked a program that type checked without errors
+     * @return the compiled program
+     */
+    static Interpreter compile(TypeChecker.Result checked, InterpreterOptions options) {
+        Compiler c = new Compiler(checked, options);
+        Purity purity = options.memoize ? Purity.analyze(checked.resolution) : null;
+        // Create every function first so calls can be linked in any order
+        for (Ast.FunDecl f : checked.resolution.functions) {
+            Symbol sym = checked.resolution.symbol(f);
+            FunctionCode fn = new FunctionCode(f.name, f.params.size(), checked.resolution.frameSize(f), sym.level);
+            if (purity != null && purity.isPure(f)) fn.memoIndex = c.memoCount++;
+            if (c.profileOrNull != null) fn.stats = c.profileOrNull.add(f);
+            c.functions.put(f, fn);
+            c.maxArity = Math.max(c.maxArity, f.params.size());
+        }
+        for (Ast.FunDecl f : checked.resolution.functions) {
+            FunctionCode fn = c.functions.get(f);
+            c.currentDecl = f;
+            c.currentFn = fn;
+            c.level = fn.level;
+            c.memoCallSites = 0;
+            for (Stmt s : f.body.stmts) c.countMemoCalls(s);
+            fn.body = c.seq(f.body.stmts);
+        }
+
+        c.currentDecl = null;
+        c.currentFn = null;
+        c.level = -1;
+        List<StmtCode> inits = new ArrayList<>();
+        FunctionCode main = null;
+        for (Ast.Decl decl : checked.resolution.program.decls) {
+            if (decl instanceof Ast.GlobalVarDecl g) {
+                if (g.initOrNull != null) {
+                    inits.add(new StmtCode.SetGlobal(checked.resolution.symbol(g).slot, g.initOrNull.accept(c)));
+                }
+            } else if (decl instanceof Ast.FunDecl f && f.name.equals("main")) {
+                main = c.functions.get(f);
+            }
+        }
+        return new Interpreter(checked.resolution.globals.size(), c.maxArity, c.memoCount, options,
+            new StmtCode.Seq(inits.toArray(new StmtCode[0])), main, c.profileOrNull);
+    }
+
+    /** Adds the calls of memoized functions in s to memoCallSites, not looking into nested functions. */
+    private void countMemoCalls(Stmt s) {
+        if (s instanceof Stmt.Block b) {
+            for (Stmt inner : b.stmts) countMemoCalls(inner);
+        } else if (s instanceof Stmt.VarDef d) {
+            if (d.initOrNull != null) countMemoCalls(d.initOrNull);
+        } else if (s instanceof Stmt.Assign a) {
+            countMemoCalls(a.rhs);
+        } else if (s instanceof Stmt.If i) {
+            countMemoCalls(i.cond);
+            countMemoCalls(i.thenBranch);
+            if (i.elseBranchOrNull != null) countMemoCalls(i.elseBranchOrNull);
+        } else if (s instanceof Stmt.While w) {
+            countMemoCalls(w.cond);
+            countMemoCalls(w.body);
+        } else if (s instanceof Stmt.Return r) {
+            countMemoCalls(r.value);
+        } else if (s instanceof Stmt.ExprStmt e) {
+            countMemoCalls(e.expr);
+        }
+    }
+
+    private void countMemoCalls(Expr e) {
+        if (e instanceof Expr.Binary b) {
+            countMemoCalls(b.left);
+            countMemoCalls(b.right);
+        } else if (e instanceof Expr.Unary u) {
+            countMemoCalls(u.expr);
+        } else if (e instanceof Expr.Call c) {
+            for (Expr arg : c.args) countMemoCalls(arg);
+            if (isUserCall(c) && callee(c).memoIndex >= 0) memoCallSites++;
+        }
+    }
+
+    /** @return whether running s may step: it calls a function or holds a loop, not looking into nested functions */
+    private boolean steps(Stmt s) {
+        if (s instanceof Stmt.Block b) {
+            for (Stmt inner : b.stmts) {
+                if (steps(inner)) return true;
+            }
+            return false;
+        } else if (s instanceof Stmt.VarDef d) {
+            return d.initOrNull != null && steps(d.initOrNull);
+        } else if (s instanceof Stmt.Assign a) {
+            return steps(a.rhs);
+        } else if (s instanceof Stmt.If i) {
+            return steps(i.cond) || steps(i.thenBranch) || (i.elseBranchOrNull != null && steps(i.elseBranchOrNull));
+        } else if (s instanceof Stmt.While) {
+            return true;
+        } else if (s instanceof Stmt.Return r) {
+            return steps(r.value);
+        } else if (s instanceof Stmt.ExprStmt e) {
+            return steps(e.expr);
+        }
+        return false;
+    }
+
+    private boolean steps(Expr e) {
+        if (e instanceof Expr.Binary b) return steps(b.left) || steps(b.right);
+        if (e instanceof Expr.Unary u) return steps(u.expr);
+        if (e instanceof Expr.Call c) {
+            if (isUserCall(c)) return true;
+            for (Expr arg : c.args) {
+                if (steps(arg)) return true;
+            }
+        }
+        return false;
+    }
+
+    private FunctionCode callee(Expr.Call c) {
+        return functions.get((Ast.FunDecl) checked.resolution.symbol(c).decl);
+    }
+
+    private StmtCode seq(List<Stmt> stmts) {
+        List<StmtCode> code = new ArrayList<>(stmts.size());
+        for (Stmt s : stmts) {
+            StmtCode c = s.accept(this);
+            if (c != StmtCode.Nop.INSTANCE) code.add(c);
+        }
+        if (code.size() == 1) return code.get(0);
+        return new StmtCode.Seq(code.toArray(new StmtCode[0]));
+    }
+
+    private StmtCode store(Symbol sym, ExprCode value) {
+        if (sym.kind == Symbol.Kind.GLOBAL) return new StmtCode.SetGlobal(sym.slot, value);
+        int hops = level - sym.level;
+        return hops == 0 ? new StmtCode.SetLocal(sym.slot, value) : new StmtCode.SetOuter(hops, sym.slot, value);
+    }
+
+    /////////////////////
+    /// STMT VISITORS ///
+    /////////////////////
+
+    @Override
+    public StmtCode visitBlockStmt(Stmt.Block s) {
+        return seq(s.stmts);
+    }
+
+    @Override
+    public StmtCode visitVarDefStmt(Stmt.VarDef s) {
+        // Uninitialized variables start at 0 (false), also when a loop re-enters their block
+        ExprCode init = s.initOrNull == null ? new ExprCode.Const(0) : s.initOrNull.accept(this);
+        return new StmtCode.SetLocal(checked.resolution.symbol(s).slot, init);
+    }
+
+    @Override
+    public StmtCode visitFunDefStmt(Stmt.FunDef s) {
+        return StmtCode.Nop.INSTANCE;
+    }
+
+    @Override
+    public StmtCode visitAssignStmt(Stmt.Assign s) {
+        return store(checked.resolution.symbol(s), s.rhs.accept(this));
+    }
+
+    @Override
+    public StmtCode visitIfStmt(Stmt.If s) {
+        return new StmtCode.If(s.cond.accept(this), s.thenBranch.accept(this),
+            s.elseBranchOrNull == null ? null : s.elseBranchOrNull.accept(this));
+    }
+
+    @Override
+    public StmtCode visitWhileStmt(Stmt.While s) {
+        if (profileOrNull != null) {
+            Profile.LoopStats stats = profileOrNull.add(s, currentDecl);
+            return new StmtCode.CountedWhile(s.cond.accept(this), s.body.accept(this), stats);
+        }
+        ExprCode cond = s.cond.accept(this);
+        StmtCode body = s.body.accept(this);
+        return steps(s.cond) || steps(s.body) ? new StmtCode.While(cond, body) : new StmtCode.LeafWhile(cond, body);
+    }
+
+    @Override
+    public StmtCode visitReturnStmt(Stmt.Return s) {
+        if (s.value instanceof Expr.Call c && isTailCandidate(c)) {
+            return tailCall(c, StmtCode.TailCall.PLAIN, null);
+        }
+        if (s.value instanceof Expr.Binary b) {
+            int kind = b.op == Expr.BinOp.ADD ? StmtCode.TailCall.ADD
+                : b.op == Expr.BinOp.MUL ? StmtCode.TailCall.MUL
+                : b.op == Expr.BinOp.SUB ? StmtCode.TailCall.SUB
+                : StmtCode.TailCall.PLAIN;
+            if (kind != StmtCode.TailCall.PLAIN) {
+                if (b.right instanceof Expr.Call c && isTailCandidate(c)) {
+                    if (kind == StmtCode.TailCall.SUB) kind = StmtCode.TailCall.SUB_FROM;
+                    return tailCall(c, kind, b.left.accept(this));
+                }
+                if (b.left instanceof Expr.Call c && isTailCandidate(c) && unchangedByCall(b.right)) {
+                    return tailCall(c, kind, b.right.accept(this));
+                }
+            }
+        }
+        return new StmtCode.Return(s.value.accept(this));
+    }
+
+    /** @return true if c calls a user function and may become a tail call */
+    private boolean isTailCandidate(Expr.Call c) {
+        return isUserCall(c) && (callee(c).memoIndex < 0 || memoCallSites <= 1);
+    }
+
+    private boolean isUserCall(Expr.Call c) {
+        return checked.resolution.symbol(c).kind == Symbol.Kind.FUNCTION;
+    }
+
+    /**
+     * @return true if no call can change the value of e: a literal or one of the
+     *         current function's variables that no nested function touches
+     */
+    private boolean unchangedByCall(Expr e) {
+        if (e instanceof Expr.IntLit) return true;
+        if (!(e instanceof Expr.Var v)) return false;
+        Symbol sym = checked.resolution.symbol(v);
+        return sym.kind != Symbol.Kind.GLOBAL && sym.level == level && !sym.isCaptured();
+    }
+
+    private StmtCode tailCall(Expr.Call c, int kind, ExprCode operandOrNull) {
+        Symbol sym = checked.resolution.symbol(c);
+        FunctionCode fn = functions.get((Ast.FunDecl) sym.decl);
+        ExprCode[] args = new ExprCode[c.args.size()];
+        boolean callFree = true;
+        for (int i = 0; i < args.length; i++) {
+            args[i] = c.args.get(i).accept(this);
+            callFree &= !containsCall(c.args.get(i));
+        }
+        int linkHops = sym.owner == null ? -1 : level - sym.level + 1;
+        return new StmtCode.TailCall(fn, args, linkHops, fn == currentFn && callFree, kind, operandOrNull);
+    }
+
+    private static boolean containsCall(Expr e) {
+        if (e instanceof Expr.Call) return true;
+        if (e instanceof Expr.Binary b) return containsCall(b.left) || containsCall(b.right);
+        if (e instanceof Expr.Unary u) return containsCall(u.expr);
+        return false;
+    }
+
+    @Override
+    public StmtCode visitExprStmt(Stmt.ExprStmt s) {
+        return new StmtCode.Eval(s.expr.accept(this));
+    }
+
+    /////////////////////
+    /// EXPR VISITORS ///
+    /////////////////////
+
+    @Override
+    public ExprCode visitBinaryExpr(Expr.Binary e) {
+        ExprCode l = e.left.accept(this);
+        ExprCode r = e.right.accept(this);
+        switch (e.op) {
+            case MUL: return new ExprCode.Mul(l, r);
+            case DIV: return new ExprCode.Div(l, r);
+            case MOD: return new ExprCode.Mod(l, r);
+            case ADD: return new ExprCode.Add(l, r);
+            case SUB: return new ExprCode.Sub(l, r);
+            case LT: return new ExprCode.Lt(l, r);
+            case LE: return new ExprCode.Le(l, r);
+            case GT: return new ExprCode.Gt(l, r);
+            case GE: return new ExprCode.Ge(l, r);
+            case EQ: return new ExprCode.Eq(l, r);
+            case NE: return new ExprCode.Ne(l, r);
+            case LAND: return new ExprCode.And(l, r);
+            case LOR: return new ExprCode.Or(l, r);
+            default: throw new IllegalStateException("Unknown binary operator: " + e.op);
+        }
+    }
+
+    @Override
+    public ExprCode visitUnaryExpr(Expr.Unary e) {
+        ExprCode operand = e.expr.accept(this);
+        return e.op == Expr.UnOp.NEG ? new ExprCode.Neg(operand) : new ExprCode.Not(operand);
+    }
+
+    @Override
+    public ExprCode visitIntLitExpr(Expr.IntLit e) {
+        return new ExprCode.Const(e.value);
+    }
+
+    @Override
+    public ExprCode visitBoolLitExpr(Expr.BoolLit e) {
+        return new ExprCode.Const(e.value ? 1 : 0);
+    }
+
+    @Override
+    public ExprCode visitVarExpr(Expr.Var e) {
+        Symbol sym = checked.resolution.symbol(e);
+        if (sym.kind == Symbol.Kind.GLOBAL) return new ExprCode.Global(sym.slot);
+        int hops = level - sym.level;
+        return hops == 0 ? new ExprCode.Local(sym.slot) : new ExprCode.Outer(hops, sym.slot);
+    }
+
+    @Override
+    public ExprCode visitCallExpr(Expr.Call e) {
+        Symbol sym = checked.resolution.symbol(e);
+        if (sym == Symbol.OUTPUT) {
+            Expr arg = e.args.get(0);
+            return new ExprCode.Output(arg.accept(this), checked.typeOf(arg) == Ast.Type.BOOL);
+        }
+        if (sym == Symbol.INPUT) return new ExprCode.Input();
+
+        ExprCode[] args = new ExprCode[e.args.size()];
+        for (int i = 0; i < args.length; i++) args[i] = e.args.get(i).accept(this);
+        // A nested callee's static link is the frame of the function that defines it,
+        // which is level - sym.level + 1 links out from the caller
+        int linkHops = sym.owner == null ? -1 : level - sym.level + 1;
+        FunctionCode fn = functions.get((Ast.FunDecl) sym.decl);
+        if (fn.memoIndex >= 0) return new ExprCode.MemoCall(fn, args, linkHops);
+        return new ExprCode.Call(fn, args, linkHops);
+    }
+}
@@ -0,0 +1,62 @@
+package madlang.interp;
+
+/**
+ * Resource limits for one run of a compiled program.
+ *
+ * Steps count loop iterations and function calls, the only things that can
+ * repeat; the straight-line code between two steps is bounded by the size of
+ * the program. Call depth counts the MadLang calls that are active at once;
+ * tail calls replace their caller and do not add to it. Output counts the
+ * bytes output() produces, newlines included. The time limit is wall time
+ * from the start of the run.
+ *
+ * Steps and time are checked together once every so many steps (see
+ * Machine.step), so a run that goes over its time limit stops within a
+ * fraction of a millisecond, unless it is blocked reading input. A run also
+ * stops, with a CancellationException, soon after its thread is interrupted.
+ *
+ * Limits are immutable; start from NONE and derive variants with the with*
+ * methods, e.g. ExecutionLimits.NONE.withMaxSteps(1_000_000).
+ */
+public final class ExecutionLimits {
+
+    /** No limits beyond the host's stack and memory. */
+    public static final ExecutionLimits NONE =
+        new ExecutionLimits(Long.MAX_VALUE, Integer.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE);
+
+    public final long maxSteps;
+    public final int maxCallDepth;
+    public final long maxOutputBytes;
+    public final long maxMillis;
+
+    private ExecutionLimits(long maxSteps, int maxCallDepth, long maxOutputBytes, long maxMillis) {
+        if (maxSteps < 0) throw new IllegalArgumentException("maxSteps < 0: " + maxSteps);
+        if (maxCallDepth < 1) throw new IllegalArgumentException("maxCallDepth < 1: " + maxCallDepth);
+        if (maxOutputBytes < 0) throw new IllegalArgumentException("maxOutputBytes < 0: " + maxOutputBytes);
+        if (maxMillis < 0 || maxMillis > Long.MAX_VALUE / 1_000_000 && maxMillis != Long.MAX_VALUE) {
+            throw new IllegalArgumentException("maxMillis out of range: " + maxMillis);
+        }
+        this.maxSteps = maxSteps;
+        this.maxCallDepth = maxCallDepth;
+        this.maxOutputBytes = maxOutputBytes;
+        this.maxMillis = maxMillis;
+    }
+
+    public ExecutionLimits withMaxSteps(long steps) {
+        return new ExecutionLimits(steps, maxCallDepth, maxOutputBytes, maxMillis);
+    }
+
+    /** @param depth active calls allowed, main included */
+    public ExecutionLimits withMaxCallDepth(int depth) {
+        return new ExecutionLimits(maxSteps, depth, maxOutputBytes, maxMillis);
+    }
+
+    public ExecutionLimits withMaxOutputBytes(long bytes) {
+        return new ExecutionLimits(maxSteps, maxCallDepth, bytes, maxMillis);
+    }
+
+    /** @param millis wall time allowed for the run; Long.MAX_VALUE for none */
+    public ExecutionLimits withMaxMillis(long millis) {
+        return new ExecutionLimits(maxSteps, maxCallDepth, maxOutputBytes, millis);
+    }
+}
@@ -0,0 +1,195 @@
+package madlang.interp;
+
+import java.util.Arrays;
+
+/**
+ * Compiled expressions: a tree of nodes, each evaluating directly to an int.
+ *
+ * The Compiler resolves every name to a slot, link distance or global index and
+ * picks a specialized node per operator, so evaluation never looks at names,
+ * types or operator enums.
+ */
+abstract class ExprCode {
+
+    abstract int eval(Frame f, Machine m);
+
+    static final class Const extends ExprCode {
+        final int value;
+        Const(int value) { this.value = value; }
+        @Override int eval(Frame f, Machine m) { return value; }
+    }
+
+    /** Variable in the current frame. */
+    static final class Local extends ExprCode {
+        final int slot;
+        Local(int slot) { this.slot = slot; }
+        @Override int eval(Frame f, Machine m) { return f.slots[slot]; }
+    }
+
+    /** Variable of a lexically enclosing function. */
+    static final class Outer extends ExprCode {
+        final int hops, slot;
+        Outer(int hops, int slot) { this.hops = hops; this.slot = slot; }
+        @Override int eval(Frame f, Machine m) { return f.outer(hops).slots[slot]; }
+    }
+
+    static final class Global extends ExprCode {
+        final int index;
+        Global(int index) { this.index = index; }
+        @Override int eval(Frame f, Machine m) { return m.globals[index]; }
+    }
+
+    static abstract class Binary extends ExprCode {
+        final ExprCode left, right;
+        Binary(ExprCode left, ExprCode right) { this.left = left; this.right = right; }
+    }
+
+    static final class Add extends Binary {
+        Add(ExprCode l, ExprCode r) { super(l, r); }
+        @Override int eval(Frame f, Machine m) { return left.eval(f, m) + right.eval(f, m); }
+    }
+
+    static final class Sub extends Binary {
+        Sub(ExprCode l, ExprCode r) { super(l, r); }
+        @Override int eval(Frame f, Machine m) { return left.eval(f, m) - right.eval(f, m); }
+    }
+
+    static final class Mul extends Binary {
+        Mul(ExprCode l, ExprCode r) { super(l, r); }
+        @Override int eval(Frame f, Machine m) { return left.eval(f, m) * right.eval(f, m); }
+    }
+
+    static final class Div extends Binary {
+        Div(ExprCode l, ExprCode r) { super(l, r); }
+        @Override int eval(Frame f, Machine m) {
+            int l = left.eval(f, m);
+            int r = right.eval(f, m);
+            if (r == 0) throw new RuntimeError("division by zero");
+            return l / r;
+        }
+    }
+
+    static final class Mod extends Binary {
+        Mod(ExprCode l, ExprCode r) { super(l, r); }
+        @Override int eval(Frame f, Machine m) {
+            int l = left.eval(f, m);
+            int r = right.eval(f, m);
+            if (r == 0) throw new RuntimeError("division by zero");
+            return l % r;
+        }
+    }
+
+    static final class Lt extends Binary {
+        Lt(ExprCode l, ExprCode r) { super(l, r); }
+        @Override int eval(Frame f, Machine m) { return left.eval(f, m) < right.eval(f, m) ? 1 : 0; }
+    }
+
+    static final class Le extends Binary {
+        Le(ExprCode l, ExprCode r) { super(l, r); }
+        @Override int eval(Frame f, Machine m) { return left.eval(f, m) <= right.eval(f, m) ? 1 : 0; }
+    }
+
+    static final class Gt extends Binary {
+        Gt(ExprCode l, ExprCode r) { super(l, r); }
+        @Override int eval(Frame f, Machine m) { return left.eval(f, m) > right.eval(f, m) ? 1 : 0; }
+    }
+
+    static final class Ge extends Binary {
+        Ge(ExprCode l, ExprCode r) { super(l, r); }
+        @Override int eval(Frame f, Machine m) { return left.eval(f, m) >= right.eval(f, m) ? 1 : 0; }
+    }
+
+    static final class Eq extends Binary {
+        Eq(ExprCode l, ExprCode r) { super(l, r); }
+        @Override int eval(Frame f, Machine m) { return left.eval(f, m) == right.eval(f, m) ? 1 : 0; }
+    }
+
+    static final class Ne extends Binary {
+        Ne(ExprCode l, ExprCode r) { super(l, r); }
+        @Override int eval(Frame f, Machine m) { return left.eval(f, m) != right.eval(f, m) ? 1 : 0; }
+    }
+
+    static final class And extends Binary {
+        And(ExprCode l, ExprCode r) { super(l, r); }
+        @Override int eval(Frame f, Machine m) { return left.eval(f, m) != 0 ? right.eval(f, m) : 0; }
+    }
+
+    static final class Or extends Binary {
+        Or(ExprCode l, ExprCode r) { super(l, r); }
+        @Override int eval(Frame f, Machine m) { return left.eval(f, m) != 0 ? 1 : right.eval(f, m); }
+    }
+
+    static final class Neg extends ExprCode {
+        final ExprCode expr;
+        Neg(ExprCode expr) { this.expr = expr; }
+        @Override int eval(Frame f, Machine m) { return -expr.eval(f, m); }
+    }
+
+    static final class Not extends ExprCode {
+        final ExprCode expr;
+        Not(ExprCode expr) { this.expr = expr; }
+        @Override int eval(Frame f, Machine m) { return expr.eval(f, m) ^ 1; }
+    }
+
+    /** Call of a user function. */
+    static final class Call extends ExprCode {
+        final FunctionCode fn;
+        final ExprCode[] args;
+
+        // Links to follow from the caller's frame to the callee's enclosing frame; -1 for top-level callees
+        final int linkHops;
+
+        Call(FunctionCode fn, ExprCode[] args, int linkHops) {
+            this.fn = fn;
+            this.args = args;
+            this.linkHops = linkHops;
+        }
+
+        @Override int eval(Frame f, Machine m) {
+            Frame callee = new Frame(fn.frameSize, linkHops < 0 ? null : f.outer(linkHops));
+            for (int i = 0; i < args.length; i++) callee.slots[i] = args[i].eval(f, m);
+            return fn.invoke(callee, m);
+        }
+    }
+
+    /** Call of a pure function whose results are cached for the run. */
+    static final class MemoCall extends ExprCode {
+        final FunctionCode fn;
+        final ExprCode[] args;
+        final int linkHops; // as in Call
+
+        MemoCall(FunctionCode fn, ExprCode[] args, int linkHops) {
+            this.fn = fn;
+            this.args = args;
+            this.linkHops = linkHops;
+        }
+
+        @Override int eval(Frame f, Machine m) {
+            Frame callee = new Frame(fn.frameSize, linkHops < 0 ? null : f.outer(linkHops));
+            for (int i = 0; i < args.length; i++) callee.slots[i] = args[i].eval(f, m);
+            MemoTable table = m.memo(fn);
+            int slot = table.find(callee.slots);
+            if (slot >= 0) return table.value(slot);
+
+            // The body may assign its parameters, so keep the key aside
+            int[] key = Arrays.copyOf(callee.slots, args.length);
+            int result = fn.invoke(callee, m);
+            table.put(key, result);
+            return result;
+        }
+    }
+
+    static final class Output extends ExprCode {
+        final ExprCode arg;
+        final boolean isBool;
+        Output(ExprCode arg, boolean isBool) { this.arg = arg; this.isBool = isBool; }
+        @Override int eval(Frame f, Machine m) {
+            m.output(arg.eval(f, m), isBool);
+            return 0;
+        }
+    }
+
+    static final class Input extends ExprCode {
+        @Override int eval(Frame f, Machine m) { return m.input(); }
+    }
+}
@@ -0,0 +1,25 @@
+package madlang.interp;
+
+/**
+ * Activation record of one MadLang function call.
+ *
+ * Parameters and locals live in slots numbered by the Resolver; bools are 0/1.
+ * link points at the frame of the lexically enclosing function's activation, so
+ * nested functions reach captured variables by following a fixed number of links.
+ */
+final class Frame {
+    final int[] slots;
+    final Frame link; // null for top-level functions
+
+    Frame(int size, Frame link) {
+        this.slots = new int[size];
+        this.link = link;
+    }
+
+    /** @return the frame hops levels out (0 is this frame) */
+    Frame outer(int hops) {
+        Frame f = this;
+        for (int i = 0; i < hops; i++) f = f.link;
+        return f;
+    }
+}
@@ -0,0 +1,112 @@
+package madlang.interp;
+
+/**
+ * Compiled form of one MadLang function.
+ */
+final class FunctionCode {
+    final String name;
+    final int arity;
+    final int frameSize;
+
+    // Lexical nesting depth, see Symbol.level
+    final int level;
+
+    // Filled in after the whole program is compiled, so calls can refer to any function
+    StmtCode body;
+
+    // Index of the function's MemoTable in Machine.memos, or -1 if results are not cached
+    int memoIndex = -1;
+
+    // Where calls are counted and timed when the program is profiled, else null
+    Profile.FunctionStats stats = null;
+
+    FunctionCode(String name, int arity, int frameSize, int level) {
+        this.name = name;
+        this.arity = arity;
+        this.frameSize = frameSize;
+        this.level = level;
+    }
+
+    /**
+     * Runs the function on a frame whose parameters are already set.
+     *
+     * Tail calls do not recurse on the host stack: the body returns TAIL_CALL
+     * with the next function and frame in the Machine, and this loop runs it.
+     * A call whose result is combined with a value, as in return n * f(n - 1),
+     * leaves that pending work in the Machine's affine accumulator instead, so
+     * the result is accMul * value + accAdd once some body really returns.
+     *
+     * Every call and every tail call counts as a step; only calls count
+     * against the call depth, since a tail call takes its caller's place.
+     *
+     * @return the function's result
+     */
+    int invoke(Frame frame, Machine m) {
+        if (stats != null) return invokeProfiled(frame, m);
+        m.enterCall();
+        int savedMul = m.accMul;
+        int savedAdd = m.accAdd;
+        m.accMul = 1;
+        m.accAdd = 0;
+        FunctionCode fn = this;
+        for (;;) {
+            m.step();
+            int status = fn.body.exec(frame, m);
+            if (status == StmtCode.RETURN) break;
+            if (status != StmtCode.TAIL_CALL) throw new IllegalStateException("function '" + fn.name + "' ended without returning");
+            fn = m.tailFn;
+            frame = m.tailFrame;
+        }
+        int result = m.accMul * m.returnValue + m.accAdd;
+        m.accMul = savedMul;
+        m.accAdd = savedAdd;
+        m.callsLeft++;
+        return result;
+    }
+
+    /**
+     * invoke with counting and timing in m.counts: every body run (the call
+     * itself and each tail call after it) is charged to the function it
+     * belongs to. Callees add
+     * their time to m.calleeNanos, which is subtracted from exclusive time.
+     */
+    private int invokeProfiled(Frame frame, Machine m) {
+        m.enterCall();
+        int savedMul = m.accMul;
+        int savedAdd = m.accAdd;
+        long savedCalleeNanos = m.calleeNanos;
+        m.accMul = 1;
+        m.accAdd = 0;
+        long total = 0;
+        FunctionCode fn = this;
+        for (;;) {
+            m.step();
+            Profile.Counts c = m.counts;
+            int i = fn.stats.index;
+            c.calls[i]++;
+            boolean outermost = c.active[i]++ == 0;
+            m.calleeNanos = 0;
+            long start = System.nanoTime();
+            int status;
+            try {
+                status = fn.body.exec(frame, m);
+            } finally {
+                c.active[i]--;
+            }
+            long elapsed = System.nanoTime() - start;
+            if (outermost) c.inclusiveNanos[i] += elapsed;
+            c.exclusiveNanos[i] += elapsed - m.calleeNanos;
+            total += elapsed;
+            if (status == StmtCode.RETURN) break;
+            if (status != StmtCode.TAIL_CALL) throw new IllegalStateException("function '" + fn.name + "' ended without returning");
+            fn = m.tailFn;
+            frame = m.tailFrame;
+        }
+        int result = m.accMul * m.returnValue + m.accAdd;
+        m.accMul = savedMul;
+        m.accAdd = savedAdd;
+        m.calleeNanos = savedCalleeNanos + total;
+        m.callsLeft++;
+        return result;
+    }
+}
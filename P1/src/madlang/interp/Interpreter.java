@@ -0,0 +1,152 @@
+package madlang.interp;
+
+import java.io.BufferedReader;
+import java.io.PrintStream;
+import java.util.concurrent.CancellationException;
+
+import madlang.analysis.TypeChecker;
+import madlang.ast.Ast;
+
+/**
+ * Tree-walking interpreter for MadLang.
+ *
+ * compile checks the program and translates it once into a tree of
+ * specialized nodes (see Compiler); run may then be called any number of
+ * times. Ints are Java ints with wrap-around; bools are 0/1.
+ *
+ * Calls in return position (return f(x), and return e op f(x) for +, - and *)
+ * run in constant host stack, see FunctionCode.invoke. With
+ * InterpreterOptions.memoize, results of pure functions are cached for the
+ * duration of one run. With InterpreterOptions.profile, runs collect the
+ * Profile returned by profile().
+ */
+public final class Interpreter {
+    private final int globalCount;
+    private final int maxArity;
+    private final int memoCount;
+    private final InterpreterOptions options;
+    private final StmtCode globalInits;
+    private final FunctionCode main; // null if the program has no top-level main
+    private final Profile profileOrNull;
+
+    Interpreter(int globalCount, int maxArity, int memoCount, InterpreterOptions options,
+                StmtCode globalInits, FunctionCode main, Profile profileOrNull) {
+        this.globalCount = globalCount;
+        this.maxArity = maxArity;
+        this.memoCount = memoCount;
+        this.options = options;
+        this.globalInits = globalInits;
+        this.main = main;
+        this.profileOrNull = profileOrNull;
+    }
+
+    /**
+     * Type checks and compiles a program.
+     *
+     * @param program the AST of a whole MadLang program
+     * @return the compiled program
+     * @throws CompileException if the program has resolution or type errors
+     */
+    public static Interpreter compile(Ast.Program program) {
+        return compile(program, InterpreterOptions.DEFAULT);
+    }
+
+    /**
+     * Type checks and compiles a program with the given options.
+     *
+     * @param program the AST of a whole MadLang program
+     * @param options e.g. whether to memoize pure functions
+     * @return the compiled program
+     * @throws CompileException if the program has resolution or type errors
+     */
+    public static Interpreter compile(Ast.Program program, InterpreterOptions options) {
+        TypeChecker.Result checked = TypeChecker.check(program);
+        if (checked.hasErrors()) throw new CompileException(checked.errors);
+        return Compiler.compile(checked, options);
+    }
+
+    /**
+     * @return the counts and times collected by the runs so far
+     * @throws IllegalStateException if the program was compiled without profiling
+     */
+    public Profile profile() {
+        if (profileOrNull == null) throw new IllegalStateException("program was compiled without profiling");
+        return profileOrNull;
+    }
+
+    /**
+     * Runs the program without input; input() returns 0.
+     *
+     * @see #run(OutputSink, BufferedReader)
+     */
+    public int run(PrintStream out) {
+        return run(OutputSink.stream(out), null);
+    }
+
+    /** @see #run(OutputSink, BufferedReader) */
+    public int run(PrintStream out, BufferedReader in) {
+        return run(OutputSink.stream(out), in);
+    }
+
+    /**
+     * Runs the program without input; input() returns 0.
+     *
+     * @see #run(OutputSink, BufferedReader)
+     */
+    public int run(OutputSink out) {
+        return run(out, null);
+    }
+
+    /**
+     * Runs the program without resource limits.
+     *
+     * @see #run(OutputSink, BufferedReader, ExecutionLimits)
+     */
+    public int run(OutputSink out, BufferedReader in) {
+        return run(out, in, ExecutionLimits.NONE);
+    }
+
+    /**
+     * Initializes the globals in declaration order, then calls main().
+     *
+     * Runs share nothing but the compiled code and the Profile, which each
+     * run adds its counts to when it ends, so one Interpreter may run on
+     * several threads at once.
+     *
+     * @param out receives one line per output() call, in batches; everything is
+     *            flushed by the time this returns or throws
+     * @param in source of input() values, one int per line; may be null
+     * @param limits bounds on steps, call depth and output for this run
+     * @return the value main returned
+     * @throws RuntimeError on division by zero, bad input, failed output or too deep recursion
+     * @throws LimitExceededException if the run goes over one of its limits
+     * @throws CancellationException if the thread is interrupted during the run,
+     *         whose interrupt status is then cleared
+     */
+    public int run(OutputSink out, BufferedReader in, ExecutionLimits limits) {
+        if (main == null) throw new IllegalStateException("program has no main function");
+        if (main.arity != 0) throw new IllegalStateException("main must not take parameters");
+        Machine m = new Machine(globalCount, maxArity, memoCount, options.memoCapacity, out, in, limits,
+                                profileOrNull == null ? null : profileOrNull.newCounts());
+        boolean completed = false;
+        try {
+            globalInits.exec(new Frame(0, null), m);
+            int result = main.invoke(new Frame(main.frameSize, null), m);
+            completed = true;
+            return result;
+        } catch (StackOverflowError e) {
+            throw new RuntimeError("call stack overflow");
+        } finally {
+            if (m.counts != null) profileOrNull.merge(m.counts);
+            if (completed) {
+                m.flushOutput();
+            } else {
+                // Keep the original error; the output before it is still worth having
+                try {
+                    m.flushOutput();
+                } catch (RuntimeError ignored) {
+                }
+            }
+        }
+    }
+}
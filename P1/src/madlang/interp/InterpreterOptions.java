@@ -0,0 +1,41 @@
+package madlang.interp;
+
+/**
+ * Settings for compiling a program with Interpreter.compile.
+ *
+ * Options are immutable; start from DEFAULT and derive variants with the
+ * with* methods, e.g. InterpreterOptions.DEFAULT.withMemoization(true).
+ */
+public final class InterpreterOptions {
+
+    /** Plain execution: no memoization, no profiling. */
+    public static final InterpreterOptions DEFAULT = new InterpreterOptions(false, 4096, false);
+
+    // Cache the results of pure functions (see madlang.analysis.Purity) per run
+    public final boolean memoize;
+
+    // Maximum cached results per function
+    public final int memoCapacity;
+
+    // Count calls and loop iterations and time functions, see Profile
+    public final boolean profile;
+
+    private InterpreterOptions(boolean memoize, int memoCapacity, boolean profile) {
+        if (memoCapacity < 1) throw new IllegalArgumentException("memoCapacity < 1: " + memoCapacity);
+        this.memoize = memoize;
+        this.memoCapacity = memoCapacity;
+        this.profile = profile;
+    }
+
+    public InterpreterOptions withMemoization(boolean on) {
+        return new InterpreterOptions(on, memoCapacity, profile);
+    }
+
+    public InterpreterOptions withMemoCapacity(int entries) {
+        return new InterpreterOptions(memoize, entries, profile);
+    }
+
+    public InterpreterOptions withProfiling(boolean on) {
+        return new InterpreterOptions(memoize, memoCapacity, on);
+    }
+}
@@ -0,0 +1,18 @@
+package madlang.interp;
+
+/**
+ * Thrown when a run goes over one of its ExecutionLimits. The run stops at
+ * that point; output produced before it has been handed to the sink.
+ */
+public final class LimitExceededException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public enum Limit { STEPS, CALL_DEPTH, OUTPUT, TIME }
+
+    public final Limit limit;
+
+    public LimitExceededException(Limit limit, String message) {
+        super(message);
+        this.limit = limit;
+    }
+}
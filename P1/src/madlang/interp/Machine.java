@@ -0,0 +1,206 @@
+package madlang.interp;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Mutable state of one program run: globals, I/O and the pending return value.
+ * A compiled program can be run many times; each run gets a fresh Machine.
+ */
+final class Machine {
+    private static final int OUTPUT_BUFFER_SIZE = 8192;
+
+    // Longest line output() can produce: "-2147483648\n"
+    private static final int MAX_LINE = 12;
+
+    private static final byte[] TRUE_LINE = { 't', 'r', 'u', 'e', '\n' };
+    private static final byte[] FALSE_LINE = { 'f', 'a', 'l', 's', 'e', '\n' };
+
+    final int[] globals;
+    final BufferedReader in;
+
+    // output() text not yet handed to the sink
+    private final OutputSink sink;
+    private final byte[] outBuf = new byte[OUTPUT_BUFFER_SIZE];
+    private int outCount = 0;
+
+    // Set by a return statement, read by the call that started the frame
+    int returnValue;
+
+    // Set by a tail call: the function to continue with and its frame
+    FunctionCode tailFn;
+    Frame tailFrame;
+
+    // Pending work of the tail calls in the current invocation, see FunctionCode.invoke
+    int accMul = 1;
+    int accAdd = 0;
+
+    // Counts of this run when profiling, else null; see Profile.Counts
+    final Profile.Counts counts;
+
+    // Time spent in calls made by the running function body, when profiling
+    long calleeNanos = 0;
+
+    // Staging area for the arguments of a self tail call, which overwrite the caller's parameters
+    final int[] argBuffer;
+
+    // Result caches of memoized functions, created on first call
+    private final MemoTable[] memos;
+    private final int memoCapacity;
+
+    // Steps between two polls: often enough to stop a run within well under a
+    // millisecond, rare enough that the checks in poll cost nothing measurable
+    private static final int POLL_INTERVAL = 1024;
+
+    // Usage so far, checked against the run's ExecutionLimits
+    private final ExecutionLimits limits;
+    private final long deadline; // System.nanoTime() value; unused without a time limit
+    private long steps = 0;      // counted up to the last poll, that step included
+    private int granted = 0;     // steps handed out by the last poll
+    int budget = 0;              // steps left until the next poll, see step()
+    int callsLeft;               // calls that may still start before the depth limit
+    private long outputBytes = 0;
+
+    Machine(int globalCount, int maxArity, int memoCount, int memoCapacity, OutputSink sink, BufferedReader in,
+            ExecutionLimits limits, Profile.Counts counts) {
+        this.globals = new int[globalCount];
+        this.argBuffer = new int[maxArity];
+        this.memos = new MemoTable[memoCount];
+        this.memoCapacity = memoCapacity;
+        this.sink = sink;
+        this.in = in;
+        this.limits = limits;
+        this.counts = counts;
+        this.callsLeft = limits.maxCallDepth;
+        this.deadline = limits.maxMillis == Long.MAX_VALUE ? 0 : System.nanoTime() + limits.maxMillis * 1_000_000;
+    }
+
+    /**
+     * Counts one loop iteration or function call. Loop back-edges and function
+     * entries are the only places a run can spend unbounded time, so checking
+     * there is enough to stop any program. The common case is a decrement of
+     * budget; the limits are only looked at in poll(), once per POLL_INTERVAL
+     * steps. A loop in which nothing else steps counts budget down in a local
+     * instead, see StmtCode.LeafWhile.
+     */
+    void step() {
+        if (--budget < 0) poll();
+    }
+
+    /**
+     * Accounts for the steps since the last poll, checks the step limit, the
+     * time limit and whether the running thread was interrupted, then grants
+     * the next batch of steps.
+     *
+     * @return the new budget
+     */
+    int poll() {
+        steps += granted;
+        if (steps >= limits.maxSteps) {
+            throw new LimitExceededException(LimitExceededException.Limit.STEPS,
+                "step limit of " + limits.maxSteps + " exceeded");
+        }
+        steps++;
+        if (limits.maxMillis != Long.MAX_VALUE && System.nanoTime() - deadline >= 0) {
+            throw new LimitExceededException(LimitExceededException.Limit.TIME,
+                "time limit of " + limits.maxMillis + " ms exceeded");
+        }
+        if (Thread.interrupted()) throw new CancellationException("run was interrupted");
+        granted = (int) Math.min(POLL_INTERVAL, limits.maxSteps - steps);
+        budget = granted;
+        return granted;
+    }
+
+    /** Enters a call; FunctionCode.invoke leaves it again by incrementing callsLeft. */
+    void enterCall() {
+        if (--callsLeft < 0) {
+            callsLeft++;
+            throw new LimitExceededException(LimitExceededException.Limit.CALL_DEPTH,
+                "call depth limit of " + limits.maxCallDepth + " exceeded");
+        }
+    }
+
+    private void countOutput(int bytes) {
+        outputBytes += bytes;
+        if (outputBytes > limits.maxOutputBytes) {
+            throw new LimitExceededException(LimitExceededException.Limit.OUTPUT,
+                "output limit of " + limits.maxOutputBytes + " bytes exceeded");
+        }
+    }
+
+    MemoTable memo(FunctionCode fn) {
+        MemoTable t = memos[fn.memoIndex];
+        if (t == null) {
+            t = new MemoTable(fn.arity, memoCapacity);
+            memos[fn.memoIndex] = t;
+        }
+        return t;
+    }
+
+    /** Appends one output() line: the int in decimal or the bool as true/false. */
+    void output(int value, boolean isBool) {
+        if (outCount > OUTPUT_BUFFER_SIZE - MAX_LINE) drainOutput();
+        if (isBool) {
+            byte[] line = value != 0 ? TRUE_LINE : FALSE_LINE;
+            countOutput(line.length);
+            System.arraycopy(line, 0, outBuf, outCount, line.length);
+            outCount += line.length;
+            return;
+        }
+
+        // Digits are produced from a non-positive value so MIN_VALUE needs no special case
+        boolean negative = value < 0;
+        int q = negative ? value : -value;
+        int digits = 1;
+        for (int t = q; t <= -10; t /= 10) digits++;
+        int end = outCount + (negative ? 1 : 0) + digits;
+        countOutput(end + 1 - outCount);
+        outBuf[end] = '\n';
+        int pos = end;
+        do {
+            outBuf[--pos] = (byte) ('0' - q % 10);
+            q /= 10;
+        } while (q != 0);
+        if (negative) outBuf[--pos] = '-';
+        outCount = end + 1;
+    }
+
+    private void drainOutput() {
+        try {
+            sink.write(outBuf, 0, outCount);
+        } catch (IOException e) {
+            throw new RuntimeError("output failed: " + e.getMessage());
+        }
+        outCount = 0;
+    }
+
+    /** Hands all buffered output to the sink and flushes it. */
+    void flushOutput() {
+        if (outCount > 0) drainOutput();
+        try {
+            sink.flush();
+        } catch (IOException e) {
+            throw new RuntimeError("output failed: " + e.getMessage());
+        }
+    }
+
+    /** @return the next integer on the input, or 0 at end of input */
+    int input() {
+        // Let any prompt printed so far reach the user before blocking
+        flushOutput();
+        try {
+            String line;
+            do {
+                line = in == null ? null : in.readLine();
+                if (line == null) return 0;
+                line = line.trim();
+            } while (line.isEmpty());
+            return Integer.parseInt(line);
+        } catch (IOException e) {
+            throw new RuntimeError("input failed: " + e.getMessage());
+        } catch (NumberFormatException e) {
+            throw new RuntimeError("input is not an int: " + e.getMessage());
+        }
+    }
+}
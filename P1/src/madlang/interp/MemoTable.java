@@ -0,0 +1,93 @@
+package madlang.interp;
+
+/**
+ * Bounded cache from argument tuples to results for one memoized function.
+ *
+ * Open addressing over flat int arrays, so nothing is boxed: slot s holds its
+ * key in keys[s * arity .. (s + 1) * arity) and its result in values[s]. A key
+ * lives within PROBES slots of its home slot. Slots are never emptied, so a
+ * lookup can stop at the first empty slot. Once every slot in a key's window is
+ * taken, an insert evicts one of them, giving recently hit entries a second
+ * chance (CLOCK).
+ */
+final class MemoTable {
+    private static final int PROBES = 8;
+
+    private static final byte EMPTY = 0;
+    private static final byte USED = 1;
+    private static final byte REFERENCED = 2; // hit since the last eviction sweep
+
+    private final int arity;
+    private final int mask;
+    private final int[] keys;
+    private final int[] values;
+    private final byte[] state;
+
+    /**
+     * @param arity number of ints in a key
+     * @param capacity maximum number of entries, rounded up to a power of two
+     */
+    MemoTable(int arity, int capacity) {
+        int size = capacity <= PROBES ? PROBES : Integer.highestOneBit(capacity - 1) << 1;
+        this.arity = arity;
+        this.mask = size - 1;
+        this.keys = new int[size * arity];
+        this.values = new int[size];
+        this.state = new byte[size];
+    }
+
+    private int home(int[] args) {
+        int h = arity;
+        for (int i = 0; i < arity; i++) h = h * 0x9E3779B9 + args[i];
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private boolean matches(int slot, int[] args) {
+        int base = slot * arity;
+        for (int i = 0; i < arity; i++) {
+            if (keys[base + i] != args[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param args the key in args[0 .. arity)
+     * @return the slot holding the key, or -1; read the result with value
+     */
+    int find(int[] args) {
+        int slot = home(args);
+        for (int p = 0; p < PROBES; p++, slot = (slot + 1) & mask) {
+            if (state[slot] == EMPTY) return -1;
+            if (matches(slot, args)) {
+                state[slot] = REFERENCED;
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    int value(int slot) {
+        return values[slot];
+    }
+
+    /** Stores a result, evicting an entry of the key's window if it is full. */
+    void put(int[] args, int value) {
+        int h = home(args);
+        int victim = -1;
+        for (int p = 0, slot = h; p < PROBES; p++, slot = (slot + 1) & mask) {
+            if (state[slot] == EMPTY || matches(slot, args)) {
+                victim = slot;
+                break;
+            }
+            if (state[slot] == REFERENCED) {
+                state[slot] = USED;
+            } else if (victim < 0) {
+                victim = slot;
+            }
+        }
+        if (victim < 0) victim = h;
+        System.arraycopy(args, 0, keys, victim * arity, arity);
+        values[victim] = value;
+        state[victim] = USED;
+    }
+}
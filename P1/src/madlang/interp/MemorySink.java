@@ -0,0 +1,39 @@
+package madlang.interp;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * OutputSink collecting everything in a growable byte array.
+ */
+public final class MemorySink implements OutputSink {
+    private byte[] bytes = new byte[256];
+    private int size = 0;
+
+    @Override
+    public void write(byte[] src, int offset, int length) {
+        if (size + length > bytes.length) bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + length));
+        System.arraycopy(src, offset, bytes, size, length);
+        size += length;
+    }
+
+    /** @return number of bytes written so far */
+    public int size() {
+        return size;
+    }
+
+    /** @return a copy of the bytes written so far */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(bytes, size);
+    }
+
+    /** Discards everything written so far, keeping the storage. */
+    public void reset() {
+        size = 0;
+    }
+
+    @Override
+    public String toString() {
+        return new String(bytes, 0, size, StandardCharsets.US_ASCII);
+    }
+}
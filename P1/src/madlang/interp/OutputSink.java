@@ -0,0 +1,55 @@
+package madlang.interp;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Destination of a program's output() text.
+ *
+ * The interpreter formats output into its own byte buffer and hands it to the
+ * sink in large chunks: when the buffer fills, before input() blocks, and once
+ * when the run ends (normally or with an error). Sinks therefore see few calls
+ * and need no buffering or locking of their own.
+ */
+public interface OutputSink {
+
+    /** Writes bytes[offset .. offset + length). */
+    void write(byte[] bytes, int offset, int length) throws IOException;
+
+    /** Called after the last write of a run and before input() reads. */
+    default void flush() throws IOException {}
+
+    /** @return a sink writing straight to file descriptor 1, bypassing System.out */
+    static OutputSink stdout() {
+        return stream(new FileOutputStream(FileDescriptor.out));
+    }
+
+    static OutputSink stream(OutputStream out) {
+        return new OutputSink() {
+            @Override public void write(byte[] bytes, int offset, int length) throws IOException {
+                out.write(bytes, offset, length);
+            }
+
+            @Override public void flush() throws IOException {
+                out.flush();
+            }
+        };
+    }
+
+    /** @return a sink for a file or socket channel, e.g. FileChannel.open(path, WRITE, CREATE) */
+    static OutputSink channel(WritableByteChannel channel) {
+        return (bytes, offset, length) -> {
+            ByteBuffer buf = ByteBuffer.wrap(bytes, offset, length);
+            while (buf.hasRemaining()) channel.write(buf);
+        };
+    }
+
+    /** @return an in-memory sink, e.g. for comparing a program's output in tests */
+    static MemorySink memory() {
+        return new MemorySink();
+    }
+}
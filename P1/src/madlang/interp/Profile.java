@@ -0,0 +1,245 @@
+package madlang.interp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import madlang.PrettyPrinter;
+import madlang.SourceMap;
+import madlang.ast.Ast;
+import madlang.ast.Stmt;
+
+/**
+ * Counts and times collected by a program compiled with profiling on (see
+ * InterpreterOptions.withProfiling), keyed to the AST nodes they belong to.
+ *
+ * Per function: the calls that ran its body, and the wall time spent in it,
+ * both inclusive (with everything it called) and exclusive (its own code
+ * only). A recursive function's inclusive time counts the outermost activation
+ * only. A tail call counts as a call of the callee; since the callee takes the
+ * caller's place, its time is not part of the caller's inclusive time. Calls
+ * answered from a memo table do not run the body and are not counted.
+ *
+ * Per while loop: how often it was entered and how many iterations it ran.
+ *
+ * Counts accumulate over all runs of the program until reset. Each run
+ * collects its own in a Counts and adds them here when it ends, so runs on
+ * several threads at once do not lose any. The figures read from a
+ * FunctionStats or LoopStats cover the runs that have ended.
+ */
+public final class Profile {
+
+    /** Counts and times of one function. */
+    public static final class FunctionStats {
+        public final Ast.FunDecl fun;
+        final int index; // into the arrays of Counts
+        long calls = 0;
+        long inclusiveNanos = 0;
+        long exclusiveNanos = 0;
+
+        FunctionStats(Ast.FunDecl fun, int index) {
+            this.fun = fun;
+            this.index = index;
+        }
+
+        public long calls() { return calls; }
+        public long inclusiveNanos() { return inclusiveNanos; }
+        public long exclusiveNanos() { return exclusiveNanos; }
+    }
+
+    /** Counts of one while loop. */
+    public static final class LoopStats {
+        public final Stmt.While loop;
+        public final Ast.FunDecl fun; // function whose body contains the loop
+        final int index;              // into the arrays of Counts
+        long entries = 0;
+        long iterations = 0;
+
+        LoopStats(Stmt.While loop, Ast.FunDecl fun, int index) {
+            this.loop = loop;
+            this.fun = fun;
+            this.index = index;
+        }
+
+        public long entries() { return entries; }
+        public long iterations() { return iterations; }
+    }
+
+    private final Ast.Program program;
+    private final IdentityHashMap<Ast.FunDecl, FunctionStats> functions = new IdentityHashMap<>();
+    private final IdentityHashMap<Stmt.While, LoopStats> loops = new IdentityHashMap<>();
+
+    // In the order they appear in the program
+    private final List<FunctionStats> functionList = new ArrayList<>();
+    private final List<LoopStats> loopList = new ArrayList<>();
+
+    Profile(Ast.Program program) {
+        this.program = program;
+    }
+
+    FunctionStats add(Ast.FunDecl fun) {
+        FunctionStats s = new FunctionStats(fun, functionList.size());
+        functions.put(fun, s);
+        functionList.add(s);
+        return s;
+    }
+
+    LoopStats add(Stmt.While loop, Ast.FunDecl fun) {
+        LoopStats s = new LoopStats(loop, fun, loopList.size());
+        loops.put(loop, s);
+        loopList.add(s);
+        return s;
+    }
+
+    /** @return the stats of every function, in program order */
+    public List<FunctionStats> functions() {
+        return Collections.unmodifiableList(functionList);
+    }
+
+    /** @return the stats of every while loop, in program order */
+    public List<LoopStats> loops() {
+        return Collections.unmodifiableList(loopList);
+    }
+
+    /** @return the stats of a function of the profiled program */
+    public FunctionStats function(Ast.FunDecl fun) {
+        FunctionStats s = functions.get(fun);
+        if (s == null) throw new IllegalArgumentException("not a function of this program: " + fun.name);
+        return s;
+    }
+
+    /** @return the stats of a while loop of the profiled program */
+    public LoopStats loop(Stmt.While loop) {
+        LoopStats s = loops.get(loop);
+        if (s == null) throw new IllegalArgumentException("not a loop of this program");
+        return s;
+    }
+
+    /**
+     * Counts and times of one run, indexed like the stats they are added to.
+     * Only the thread of the run touches them until it ends.
+     */
+    static final class Counts {
+        final long[] calls;
+        final long[] inclusiveNanos;
+        final long[] exclusiveNanos;
+
+        // Activations on the stack right now, to count recursion only once in inclusiveNanos
+        final int[] active;
+
+        final long[] entries;
+        final long[] iterations;
+
+        private Counts(int functions, int loops) {
+            calls = new long[functions];
+            inclusiveNanos = new long[functions];
+            exclusiveNanos = new long[functions];
+            active = new int[functions];
+            entries = new long[loops];
+            iterations = new long[loops];
+        }
+    }
+
+    /** @return zero counts for a new run */
+    Counts newCounts() {
+        return new Counts(functionList.size(), loopList.size());
+    }
+
+    /** Adds the counts of a run that has ended. */
+    synchronized void merge(Counts c) {
+        for (FunctionStats s : functionList) {
+            s.calls += c.calls[s.index];
+            s.inclusiveNanos += c.inclusiveNanos[s.index];
+            s.exclusiveNanos += c.exclusiveNanos[s.index];
+        }
+        for (LoopStats s : loopList) {
+            s.entries += c.entries[s.index];
+            s.iterations += c.iterations[s.index];
+        }
+    }
+
+    /** Sets all counts and times back to zero. */
+    public synchronized void reset() {
+        for (FunctionStats s : functionList) {
+            s.calls = 0;
+            s.inclusiveNanos = 0;
+            s.exclusiveNanos = 0;
+        }
+        for (LoopStats s : loopList) {
+            s.entries = 0;
+            s.iterations = 0;
+        }
+    }
+
+    //////////////
+    /// REPORT ///
+    //////////////
+
+    /**
+     * Formats the profile as a table of the functions by exclusive time,
+     * followed by the pretty-printed program with each function and while
+     * loop annotated in a left-hand column, e.g.
+     *
+     *   calls 1 incl 12.3 ms excl 0.1 ms | fn main(): int {
+     *                   iterations 5000 |   while (i < n) {
+     *
+     * @return the report, one line per line of text
+     */
+    public synchronized String report() {
+        StringBuilder out = new StringBuilder();
+        List<FunctionStats> byTime = new ArrayList<>(functionList);
+        byTime.sort((a, b) -> Long.compare(b.exclusiveNanos, a.exclusiveNanos));
+        out.append(String.format("%-20s %12s %12s %12s%n", "function", "calls", "incl ms", "excl ms"));
+        for (FunctionStats s : byTime) {
+            out.append(String.format("%-20s %12d %12.3f %12.3f%n",
+                s.fun.name, s.calls, s.inclusiveNanos / 1e6, s.exclusiveNanos / 1e6));
+        }
+        out.append('\n');
+
+        SourceMap map = new SourceMap();
+        String text = PrettyPrinter.pretty(program, map);
+        // Annotation of the node printed first on each line, if it is profiled
+        List<String> lines = new ArrayList<>();
+        List<String> notes = new ArrayList<>();
+        int width = 0;
+        for (int start = 0; start < text.length(); ) {
+            int end = text.indexOf('\n', start);
+            if (end < 0) end = text.length();
+            String line = text.substring(start, end);
+            String note = annotation(map, start + leadingSpaces(line), end);
+            lines.add(line);
+            notes.add(note);
+            width = Math.max(width, note.length());
+            start = end + 1;
+        }
+        for (int i = 0; i < lines.size(); i++) {
+            out.append(String.format("%" + Math.max(width, 1) + "s | %s%n", notes.get(i), lines.get(i)));
+        }
+        return out.toString();
+    }
+
+    private static int leadingSpaces(String line) {
+        int n = 0;
+        while (n < line.length() && line.charAt(n) == ' ') n++;
+        return n;
+    }
+
+    /** @return the annotation for a function or loop that starts at offset, or "" */
+    private String annotation(SourceMap map, int offset, int lineEnd) {
+        if (offset >= lineEnd) return "";
+        // The innermost entry at the offset may be a child starting at the same
+        // place (e.g. a FunDef's FunDecl); walk out to every entry starting here
+        for (int e = map.entryAt(offset); e >= 0 && map.start(e) == offset; e = map.parent(e)) {
+            Object node = map.node(e);
+            FunctionStats f = node instanceof Ast.FunDecl fun ? functions.get(fun) : null;
+            if (f != null) {
+                return String.format("calls %d incl %.3f ms excl %.3f ms",
+                    f.calls, f.inclusiveNanos / 1e6, f.exclusiveNanos / 1e6);
+            }
+            LoopStats l = node instanceof Stmt.While w ? loops.get(w) : null;
+            if (l != null) return "iterations " + l.iterations + (l.entries > 1 ? " in " + l.entries + " entries" : "");
+        }
+        return "";
+    }
+}
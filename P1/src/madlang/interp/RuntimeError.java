@@ -0,0 +1,12 @@
+package madlang.interp;
+
+/**
+ * Error raised while a MadLang program runs, e.g. division by zero.
+ */
+public final class RuntimeError extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public RuntimeError(String message) {
+        super(message);
+    }
+}
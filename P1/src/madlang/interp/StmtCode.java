@@ -0,0 +1,225 @@
+package madlang.interp;
+
+/**
+ * Compiled statements. exec returns NORMAL when control falls through to the
+ * next statement, RETURN when a return statement ran (the returned value is
+ * left in Machine.returnValue) and TAIL_CALL when a return statement asks the
+ * enclosing FunctionCode.invoke to continue with another call.
+ */
+abstract class StmtCode {
+    static final int NORMAL = 0;
+    static final int RETURN = 1;
+    static final int TAIL_CALL = 2;
+
+    abstract int exec(Frame f, Machine m);
+
+    static final class Seq extends StmtCode {
+        final StmtCode[] stmts;
+        Seq(StmtCode[] stmts) { this.stmts = stmts; }
+        @Override int exec(Frame f, Machine m) {
+            for (StmtCode s : stmts) {
+                int status = s.exec(f, m);
+                if (status != NORMAL) return status;
+            }
+            return NORMAL;
+        }
+    }
+
+    /** Assignment or initialization of a variable in the current frame. */
+    static final class SetLocal extends StmtCode {
+        final int slot;
+        final ExprCode value;
+        SetLocal(int slot, ExprCode value) { this.slot = slot; this.value = value; }
+        @Override int exec(Frame f, Machine m) {
+            f.slots[slot] = value.eval(f, m);
+            return NORMAL;
+        }
+    }
+
+    /** Assignment to a variable of a lexically enclosing function. */
+    static final class SetOuter extends StmtCode {
+        final int hops, slot;
+        final ExprCode value;
+        SetOuter(int hops, int slot, ExprCode value) { this.hops = hops; this.slot = slot; this.value = value; }
+        @Override int exec(Frame f, Machine m) {
+            int v = value.eval(f, m);
+            f.outer(hops).slots[slot] = v;
+            return NORMAL;
+        }
+    }
+
+    static final class SetGlobal extends StmtCode {
+        final int index;
+        final ExprCode value;
+        SetGlobal(int index, ExprCode value) { this.index = index; this.value = value; }
+        @Override int exec(Frame f, Machine m) {
+            m.globals[index] = value.eval(f, m);
+            return NORMAL;
+        }
+    }
+
+    static final class If extends StmtCode {
+        final ExprCode cond;
+        final StmtCode thenBranch;
+        final StmtCode elseBranchOrNull;
+        If(ExprCode cond, StmtCode thenBranch, StmtCode elseBranchOrNull) {
+            this.cond = cond;
+            this.thenBranch = thenBranch;
+            this.elseBranchOrNull = elseBranchOrNull;
+        }
+        @Override int exec(Frame f, Machine m) {
+            if (cond.eval(f, m) != 0) return thenBranch.exec(f, m);
+            return elseBranchOrNull == null ? NORMAL : elseBranchOrNull.exec(f, m);
+        }
+    }
+
+    static final class While extends StmtCode {
+        final ExprCode cond;
+        final StmtCode body;
+        While(ExprCode cond, StmtCode body) { this.cond = cond; this.body = body; }
+        @Override int exec(Frame f, Machine m) {
+            while (cond.eval(f, m) != 0) {
+                int status = body.exec(f, m);
+                if (status != NORMAL) return status;
+                m.step(); // back-edge
+            }
+            return NORMAL;
+        }
+    }
+
+    /**
+     * A While whose condition and body make no calls and hold no loops, so
+     * that nothing else steps while it runs. It keeps Machine.budget in a
+     * local, saving a load and a store of the field on every back-edge. A run
+     * that throws is over, so only the normal exits write the budget back.
+     */
+    static final class LeafWhile extends StmtCode {
+        final ExprCode cond;
+        final StmtCode body;
+        LeafWhile(ExprCode cond, StmtCode body) { this.cond = cond; this.body = body; }
+        @Override int exec(Frame f, Machine m) {
+            int budget = m.budget;
+            while (cond.eval(f, m) != 0) {
+                int status = body.exec(f, m);
+                if (status != NORMAL) {
+                    m.budget = budget;
+                    return status;
+                }
+                if (--budget < 0) budget = m.poll(); // back-edge
+            }
+            m.budget = budget;
+            return NORMAL;
+        }
+    }
+
+    /** A While that counts its entries and iterations, for profiling. */
+    static final class CountedWhile extends StmtCode {
+        final ExprCode cond;
+        final StmtCode body;
+        final Profile.LoopStats stats;
+        CountedWhile(ExprCode cond, StmtCode body, Profile.LoopStats stats) {
+            this.cond = cond;
+            this.body = body;
+            this.stats = stats;
+        }
+        @Override int exec(Frame f, Machine m) {
+            m.counts.entries[stats.index]++;
+            while (cond.eval(f, m) != 0) {
+                m.counts.iterations[stats.index]++;
+                int status = body.exec(f, m);
+                if (status != NORMAL) return status;
+                m.step(); // back-edge
+            }
+            return NORMAL;
+        }
+    }
+
+    static final class Return extends StmtCode {
+        final ExprCode value;
+        Return(ExprCode value) { this.value = value; }
+        @Override int exec(Frame f, Machine m) {
+            m.returnValue = value.eval(f, m);
+            return RETURN;
+        }
+    }
+
+    /**
+     * return g(args), return v op g(args) or return g(args) op v in a function:
+     * the call becomes the continuation of the current invocation and op is
+     * folded into Machine.accMul/accAdd, see FunctionCode.invoke.
+     */
+    static final class TailCall extends StmtCode {
+        // Pending operation around the call
+        static final int PLAIN = 0;     // g(args)
+        static final int ADD = 1;       // v + g(args) or g(args) + v
+        static final int MUL = 2;       // v * g(args) or g(args) * v
+        static final int SUB_FROM = 3;  // v - g(args)
+        static final int SUB = 4;       // g(args) - v
+
+        final FunctionCode fn;
+        final ExprCode[] args;
+        final int linkHops; // as in ExprCode.Call
+
+        // The callee is the running function and the arguments make no calls,
+        // so they can be staged and written over the current frame
+        final boolean reuseFrame;
+
+        final int kind;
+
+        // Evaluated before the arguments. When the call comes first in the source
+        // the Compiler only allows literals and the function's own uncaptured
+        // variables, which the call cannot change.
+        final ExprCode operandOrNull;
+
+        TailCall(FunctionCode fn, ExprCode[] args, int linkHops, boolean reuseFrame, int kind, ExprCode operandOrNull) {
+            this.fn = fn;
+            this.args = args;
+            this.linkHops = linkHops;
+            this.reuseFrame = reuseFrame;
+            this.kind = kind;
+            this.operandOrNull = operandOrNull;
+        }
+
+        @Override int exec(Frame f, Machine m) {
+            int v = operandOrNull == null ? 0 : operandOrNull.eval(f, m);
+            Frame next;
+            if (reuseFrame) {
+                int[] staged = m.argBuffer;
+                for (int i = 0; i < args.length; i++) staged[i] = args[i].eval(f, m);
+                System.arraycopy(staged, 0, f.slots, 0, args.length);
+                next = f;
+            } else {
+                next = new Frame(fn.frameSize, linkHops < 0 ? null : f.outer(linkHops));
+                for (int i = 0; i < args.length; i++) next.slots[i] = args[i].eval(f, m);
+            }
+
+            // The pending result is accMul * x + accAdd; substitute x = v op y
+            switch (kind) {
+                case ADD: m.accAdd += m.accMul * v; break;
+                case MUL: m.accMul *= v; break;
+                case SUB_FROM: m.accAdd += m.accMul * v; m.accMul = -m.accMul; break;
+                case SUB: m.accAdd -= m.accMul * v; break;
+                default: break;
+            }
+            m.tailFn = fn;
+            m.tailFrame = next;
+            return TAIL_CALL;
+        }
+    }
+
+    /** Expression statement. */
+    static final class Eval extends StmtCode {
+        final ExprCode expr;
+        Eval(ExprCode expr) { this.expr = expr; }
+        @Override int exec(Frame f, Machine m) {
+            expr.eval(f, m);
+            return NORMAL;
+        }
+    }
+
+    /** Nested function definitions compile to nothing at their definition point. */
+    static final class Nop extends StmtCode {
+        static final Nop INSTANCE = new Nop();
+        @Override int exec(Frame f, Machine m) { return NORMAL; }
+    }
+}
@@ -0,0 +1,162 @@
+package madlang.ir;
+
+import java.util.Arrays;
+
+import madlang.ast.Ast;
+
+/**
+ * Control-flow graph of one function in SSA form.
+ *
+ * Blocks are numbered 0..blockCount()-1 with block 0 the entry; every block is
+ * reachable from the entry. Instructions are numbered so that each block owns
+ * a contiguous id range, phis first and the terminator last. All edges and
+ * instruction ranges are stored in flat int arrays (CSR layout): the
+ * predecessors of block b are preds[predStart[b] .. predStart[b + 1]).
+ *
+ * Locals and parameters that no nested function touches are SSA values. Every
+ * other variable (globals, captured locals, variables of enclosing functions)
+ * is accessed through LOAD and STORE instructions, since calls may change it.
+ */
+public final class Cfg {
+    public final Ast.FunDecl fun;
+
+    private final Instr[] instrs;
+    private final int[] blockStart;
+    private final int[] predStart;
+    private final int[] preds;
+    private final int[] succStart;
+    private final int[] succs;
+
+    // Blocks in reverse postorder, and each block's immediate dominator (-1 for the entry)
+    private final int[] rpo;
+    private final int[] idom;
+
+    Cfg(Ast.FunDecl fun, Instr[] instrs, int[] blockStart, int[] predStart, int[] preds,
+        int[] succStart, int[] succs) {
+        this.fun = fun;
+        this.instrs = instrs;
+        this.blockStart = blockStart;
+        this.predStart = predStart;
+        this.preds = preds;
+        this.succStart = succStart;
+        this.succs = succs;
+        this.rpo = computeReversePostorder();
+        this.idom = computeDominators();
+    }
+
+    public int blockCount() { return blockStart.length - 1; }
+    public int instrCount() { return instrs.length; }
+    public Instr instr(int id) { return instrs[id]; }
+
+    /** @return id of the block's first instruction */
+    public int firstInstr(int block) { return blockStart[block]; }
+
+    /** @return one past the id of the block's terminator */
+    public int endInstr(int block) { return blockStart[block + 1]; }
+
+    public Instr terminator(int block) { return instrs[blockStart[block + 1] - 1]; }
+
+    public int predCount(int block) { return predStart[block + 1] - predStart[block]; }
+    public int pred(int block, int i) { return preds[predStart[block] + i]; }
+    public int succCount(int block) { return succStart[block + 1] - succStart[block]; }
+    public int succ(int block, int i) { return succs[succStart[block] + i]; }
+
+    /** @return the immediate dominator of the block, or -1 for the entry */
+    public int idom(int block) { return idom[block]; }
+
+    /** @return a copy of the blocks in reverse postorder */
+    public int[] reversePostorder() { return rpo.clone(); }
+
+    /** @return true if every path from the entry to b passes through a */
+    public boolean dominates(int a, int b) {
+        while (b > 0 && b != a) b = idom[b];
+        return b == a;
+    }
+
+    private int[] computeReversePostorder() {
+        int n = blockCount();
+        int[] order = new int[n];
+        int[] stack = new int[n];
+        int[] nextSucc = new int[n];
+        boolean[] seen = new boolean[n];
+        int pos = n, sp = 0;
+        stack[sp++] = 0;
+        seen[0] = true;
+        while (sp > 0) {
+            int b = stack[sp - 1];
+            if (nextSucc[b] < succCount(b)) {
+                int s = succ(b, nextSucc[b]++);
+                if (!seen[s]) {
+                    seen[s] = true;
+                    stack[sp++] = s;
+                }
+            } else {
+                order[--pos] = b;
+                sp--;
+            }
+        }
+        return order;
+    }
+
+    /** Cooper, Harvey and Kennedy's iterative dominator algorithm over the RPO. */
+    private int[] computeDominators() {
+        int n = blockCount();
+        int[] rpoIndex = new int[n];
+        for (int i = 0; i < n; i++) rpoIndex[rpo[i]] = i;
+        int[] dom = new int[n];
+        Arrays.fill(dom, -1);
+        dom[0] = 0;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 1; i < n; i++) {
+                int b = rpo[i];
+                int newIdom = -1;
+                for (int p = 0; p < predCount(b); p++) {
+                    int pr = pred(b, p);
+                    if (dom[pr] < 0) continue;
+                    newIdom = newIdom < 0 ? pr : intersect(dom, rpoIndex, pr, newIdom);
+                }
+                if (dom[b] != newIdom) {
+                    dom[b] = newIdom;
+                    changed = true;
+                }
+            }
+        }
+        dom[0] = -1;
+        return dom;
+    }
+
+    private static int intersect(int[] dom, int[] rpoIndex, int a, int b) {
+        while (a != b) {
+            while (rpoIndex[a] > rpoIndex[b]) a = dom[a];
+            while (rpoIndex[b] > rpoIndex[a]) b = dom[b];
+        }
+        return a;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("fn ").append(fun.name).append('\n');
+        for (int b = 0; b < blockCount(); b++) {
+            sb.append("b").append(b).append(':');
+            if (predCount(b) > 0) {
+                sb.append(" preds");
+                for (int i = 0; i < predCount(b); i++) sb.append(" b").append(pred(b, i));
+            }
+            if (b > 0) sb.append(" idom b").append(idom[b]);
+            sb.append('\n');
+            for (int id = firstInstr(b); id < endInstr(b); id++) {
+                sb.append("  ").append(instrs[id]);
+                Instr in = instrs[id];
+                if (in.isTerminator() && in.op != Instr.Op.RETURN) {
+                    sb.append(" ->");
+                    for (int i = 0; i < succCount(b); i++) sb.append(" b").append(succ(b, i));
+                }
+                sb.append('\n');
+            }
+        }
+        return sb.toString();
+    }
+}
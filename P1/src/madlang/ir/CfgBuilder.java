@@ -0,0 +1,537 @@
+package madlang.ir;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import madlang.analysis.Resolution;
+import madlang.analysis.Symbol;
+import madlang.ast.Ast;
+import madlang.ast.Expr;
+import madlang.ast.Stmt;
+
+/**
+ * Lowers a function body from the structured AST to a Cfg in SSA form.
+ *
+ * SSA values are built on the fly while lowering, following Braun et al.,
+ * "Simple and Efficient Construction of Static Single Assignment Form" (CC 2013):
+ * a variable read looks up the definition in the current block, then in its
+ * predecessors, placing phis only where paths merge. A block is sealed once all
+ * of its predecessors are known; reads in unsealed blocks (loop headers) get
+ * placeholder phis whose operands are filled in at sealing time. Phis that turn
+ * out to merge a single value are removed when the graph is finished.
+ *
+ * Nested FunDefs are not part of the enclosing CFG; each function is lowered
+ * separately. Variables they share with the enclosing function are memory
+ * (LOAD/STORE), see Cfg.
+ *
+ * The program must resolve and type check without errors.
+ */
+public final class CfgBuilder implements Stmt.Visitor<Void>, Expr.Visitor<Integer> {
+
+    /** A block under construction. */
+    private static final class Block {
+        final List<Instr> phis = new ArrayList<>();
+        final List<Instr> body = new ArrayList<>();
+        final List<Integer> preds = new ArrayList<>();
+        final List<Integer> succs = new ArrayList<>();
+        final Map<Symbol, Integer> defs = new HashMap<>();
+        Map<Symbol, Instr> incompletePhis = null;
+        boolean sealed = false;
+    }
+
+    private final Resolution resolution;
+    private final Ast.FunDecl fun;
+    private final List<Block> blocks = new ArrayList<>();
+    private final List<Instr> values = new ArrayList<>();
+
+    // Trivial phis found while finishing are forwarded to the value they merge
+    private int[] forward;
+
+    // Block receiving new instructions, or -1 after a return
+    private int current;
+
+    // Lazily created constant 0 in the entry block, the value of uninitialized variables
+    private int zero = -1;
+
+    private CfgBuilder(Resolution resolution, Ast.FunDecl fun) {
+        this.resolution = resolution;
+        this.fun = fun;
+    }
+
+    /**
+     * Lowers every function of a resolved program, nested ones included.
+     *
+     * @param resolution a program resolved (and type checked) without errors
+     * @return one Cfg per function, in Resolution.functions order
+     */
+    public static List<Cfg> buildAll(Resolution resolution) {
+        List<Cfg> cfgs = new ArrayList<>(resolution.functions.size());
+        for (Ast.FunDecl f : resolution.functions) cfgs.add(build(resolution, f));
+        return cfgs;
+    }
+
+    /**
+     * Lowers one function.
+     *
+     * @param resolution a program resolved (and type checked) without errors
+     * @param fun a function of that program
+     * @return the function's CFG in SSA form
+     */
+    public static Cfg build(Resolution resolution, Ast.FunDecl fun) {
+        if (resolution.hasErrors()) throw new IllegalArgumentException("program has resolution errors");
+        CfgBuilder b = new CfgBuilder(resolution, fun);
+        b.lowerFunction();
+        return b.finish();
+    }
+
+    private void lowerFunction() {
+        current = newBlock();
+        seal(current);
+        for (int i = 0; i < fun.params.size(); i++) {
+            Ast.Param p = fun.params.get(i);
+            int v = emit(Instr.Op.PARAM, new int[0], i, null, null, null);
+            assign(resolution.symbol(p), v);
+        }
+        for (Stmt s : fun.body.stmts) {
+            if (current < 0) break; // the rest of the body is unreachable
+            s.accept(this);
+        }
+        // The type checker rules this out; keep the CFG well formed regardless
+        if (current >= 0) emit(Instr.Op.RETURN, new int[] { zero() }, 0, null, null, null);
+    }
+
+    //////////////////////////
+    /// GRAPH CONSTRUCTION ///
+    //////////////////////////
+
+    private int newBlock() {
+        blocks.add(new Block());
+        return blocks.size() - 1;
+    }
+
+    private void edge(int from, int to) {
+        blocks.get(from).succs.add(to);
+        blocks.get(to).preds.add(from);
+    }
+
+    private int emit(Instr.Op op, int[] args, int constant, Expr.BinOp binOp, Expr.UnOp unOp, Symbol symbol) {
+        Instr in = new Instr(op, values.size(), current, args, constant, binOp, unOp, symbol);
+        values.add(in);
+        Block b = blocks.get(current);
+        b.body.add(in);
+        if (in.isTerminator()) current = -1;
+        return in.id;
+    }
+
+    private int constant(int value) {
+        return emit(Instr.Op.CONST, new int[0], value, null, null, null);
+    }
+
+    private int zero() {
+        if (zero < 0) {
+            zero = values.size();
+            Instr in = new Instr(Instr.Op.CONST, zero, 0, new int[0], 0, null, null, null);
+            values.add(in);
+            blocks.get(0).body.add(0, in);
+        }
+        return zero;
+    }
+
+    private void jump(int to) {
+        int from = current;
+        emit(Instr.Op.JUMP, new int[0], 0, null, null, null);
+        edge(from, to);
+    }
+
+    private void branch(int cond, int ifTrue, int ifFalse) {
+        int from = current;
+        emit(Instr.Op.BRANCH, new int[] { cond }, 0, null, null, null);
+        edge(from, ifTrue);
+        edge(from, ifFalse);
+    }
+
+    ///////////////////////////
+    /// SSA VARIABLE ACCESS ///
+    ///////////////////////////
+
+    /** @return true if the variable is an SSA value here rather than memory */
+    private boolean isRegister(Symbol sym) {
+        return (sym.kind == Symbol.Kind.PARAM || sym.kind == Symbol.Kind.LOCAL)
+            && sym.owner == fun && !sym.isCaptured();
+    }
+
+    private void assign(Symbol sym, int value) {
+        if (isRegister(sym)) {
+            blocks.get(current).defs.put(sym, value);
+        } else {
+            emit(Instr.Op.STORE, new int[] { value }, 0, null, null, sym);
+        }
+    }
+
+    private int read(Symbol sym) {
+        if (isRegister(sym)) return readVariable(sym, current);
+        return emit(Instr.Op.LOAD, new int[0], 0, null, null, sym);
+    }
+
+    private int readVariable(Symbol sym, int block) {
+        Integer v = blocks.get(block).defs.get(sym);
+        return v != null ? v : readVariableRecursive(sym, block);
+    }
+
+    private int readVariableRecursive(Symbol sym, int block) {
+        Block b = blocks.get(block);
+        int v;
+        if (!b.sealed) {
+            // Predecessors are still missing: operands are added when the block is sealed
+            Instr phi = newPhi(block);
+            if (b.incompletePhis == null) b.incompletePhis = new HashMap<>();
+            b.incompletePhis.put(sym, phi);
+            v = phi.id;
+        } else if (b.preds.isEmpty()) {
+            v = zero(); // read before any definition, only possible in the entry block
+        } else if (b.preds.size() == 1) {
+            v = readVariable(sym, b.preds.get(0));
+        } else {
+            Instr phi = newPhi(block);
+            // Record the phi first to break cycles through loops
+            b.defs.put(sym, phi.id);
+            addPhiOperands(sym, phi);
+            v = phi.id;
+        }
+        b.defs.put(sym, v);
+        return v;
+    }
+
+    private Instr newPhi(int block) {
+        Instr phi = new Instr(Instr.Op.PHI, values.size(), block, new int[0], 0, null, null, null);
+        values.add(phi);
+        blocks.get(block).phis.add(phi);
+        return phi;
+    }
+
+    private void addPhiOperands(Symbol sym, Instr phi) {
+        List<Integer> preds = blocks.get(phi.block).preds;
+        int[] args = new int[preds.size()];
+        for (int i = 0; i < args.length; i++) args[i] = readVariable(sym, preds.get(i));
+        phi.args = args;
+    }
+
+    private void seal(int block) {
+        Block b = blocks.get(block);
+        if (b.incompletePhis != null) {
+            for (Map.Entry<Symbol, Instr> e : b.incompletePhis.entrySet()) addPhiOperands(e.getKey(), e.getValue());
+            b.incompletePhis = null;
+        }
+        b.sealed = true;
+    }
+
+    /////////////////////
+    /// STMT VISITORS ///
+    /////////////////////
+
+    // Statements are only visited while current >= 0.
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block s) {
+        for (Stmt inner : s.stmts) {
+            if (current < 0) break;
+            inner.accept(this);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVarDefStmt(Stmt.VarDef s) {
+        int v = s.initOrNull != null ? s.initOrNull.accept(this) : zero();
+        assign(resolution.symbol(s), v);
+        return null;
+    }
+
+    @Override
+    public Void visitFunDefStmt(Stmt.FunDef s) {
+        return null; // lowered as a function of its own
+    }
+
+    @Override
+    public Void visitAssignStmt(Stmt.Assign s) {
+        assign(resolution.symbol(s), s.rhs.accept(this));
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If s) {
+        int cond = s.cond.accept(this);
+        int thenBlock = newBlock();
+        int elseBlock = s.elseBranchOrNull != null ? newBlock() : -1;
+        int join = newBlock();
+        branch(cond, thenBlock, elseBlock >= 0 ? elseBlock : join);
+
+        seal(thenBlock);
+        current = thenBlock;
+        s.thenBranch.accept(this);
+        if (current >= 0) jump(join);
+
+        if (elseBlock >= 0) {
+            seal(elseBlock);
+            current = elseBlock;
+            s.elseBranchOrNull.accept(this);
+            if (current >= 0) jump(join);
+        }
+
+        seal(join);
+        // A join nobody jumps to stays empty and is dropped by finish()
+        current = blocks.get(join).preds.isEmpty() ? -1 : join;
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While s) {
+        int header = newBlock();
+        jump(header);
+
+        // The back edge is not known yet, so the header stays unsealed
+        current = header;
+        int cond = s.cond.accept(this);
+        int body = newBlock();
+        int exit = newBlock();
+        branch(cond, body, exit);
+
+        seal(body);
+        current = body;
+        s.body.accept(this);
+        if (current >= 0) jump(header);
+        seal(header);
+
+        seal(exit);
+        current = exit;
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return s) {
+        emit(Instr.Op.RETURN, new int[] { s.value.accept(this) }, 0, null, null, null);
+        return null;
+    }
+
+    @Override
+    public Void visitExprStmt(Stmt.ExprStmt s) {
+        s.expr.accept(this);
+        return null;
+    }
+
+    /////////////////////
+    /// EXPR VISITORS ///
+    /////////////////////
+
+    // Each visitor returns the id of the value holding the expression's result.
+
+    @Override
+    public Integer visitBinaryExpr(Expr.Binary e) {
+        if (e.op == Expr.BinOp.LAND || e.op == Expr.BinOp.LOR) return shortCircuit(e);
+        int l = e.left.accept(this);
+        int r = e.right.accept(this);
+        return emit(Instr.Op.BINARY, new int[] { l, r }, 0, e.op, null, null);
+    }
+
+    /**
+     * a && b  becomes  if (a) b else false;  a || b  becomes  if (a) true else b,
+     * with a phi in the join block merging the two outcomes.
+     */
+    private int shortCircuit(Expr.Binary e) {
+        boolean isAnd = e.op == Expr.BinOp.LAND;
+        int l = e.left.accept(this);
+        // The value taken when the right side is skipped: false for &&, true for ||
+        int shortValue = constant(isAnd ? 0 : 1);
+        int shortFrom = current;
+        int rhs = newBlock();
+        int join = newBlock();
+        if (isAnd) branch(l, rhs, join);
+        else branch(l, join, rhs);
+
+        seal(rhs);
+        current = rhs;
+        int r = e.right.accept(this);
+        int rhsFrom = current;
+        jump(join);
+
+        seal(join);
+        current = join;
+        Instr phi = newPhi(join);
+        List<Integer> preds = blocks.get(join).preds;
+        phi.args = new int[] {
+            preds.get(0) == shortFrom ? shortValue : r,
+            preds.get(1) == shortFrom ? shortValue : r
+        };
+        assert preds.get(0) == rhsFrom || preds.get(1) == rhsFrom;
+        return phi.id;
+    }
+
+    @Override
+    public Integer visitUnaryExpr(Expr.Unary e) {
+        int v = e.expr.accept(this);
+        return emit(Instr.Op.UNARY, new int[] { v }, 0, null, e.op, null);
+    }
+
+    @Override
+    public Integer visitIntLitExpr(Expr.IntLit e) {
+        return constant(e.value);
+    }
+
+    @Override
+    public Integer visitBoolLitExpr(Expr.BoolLit e) {
+        return constant(e.value ? 1 : 0);
+    }
+
+    @Override
+    public Integer visitVarExpr(Expr.Var e) {
+        return read(resolution.symbol(e));
+    }
+
+    @Override
+    public Integer visitCallExpr(Expr.Call e) {
+        int[] args = new int[e.args.size()];
+        for (int i = 0; i < args.length; i++) args[i] = e.args.get(i).accept(this);
+        return emit(Instr.Op.CALL, args, 0, null, null, resolution.symbol(e));
+    }
+
+    //////////////
+    /// FINISH ///
+    //////////////
+
+    /**
+     * Drops unreachable blocks and trivial phis, then renumbers blocks and
+     * instructions densely and packs everything into a Cfg.
+     */
+    private Cfg finish() {
+        // Reachable blocks, numbered in creation order
+        int n = blocks.size();
+        int[] newBlock = new int[n];
+        Arrays.fill(newBlock, -1);
+        int[] work = new int[n];
+        int top = 0;
+        work[top++] = 0;
+        newBlock[0] = 0;
+        while (top > 0) {
+            int b = work[--top];
+            for (int s : blocks.get(b).succs) {
+                if (newBlock[s] < 0) {
+                    newBlock[s] = 0;
+                    work[top++] = s;
+                }
+            }
+        }
+        int live = 0;
+        for (int b = 0; b < n; b++) if (newBlock[b] >= 0) newBlock[b] = live++;
+
+        // Phi operands from unreachable predecessors disappear with them
+        for (int b = 0; b < n; b++) {
+            Block blk = blocks.get(b);
+            if (newBlock[b] < 0 || blk.phis.isEmpty()) continue;
+            int keep = 0;
+            for (int p : blk.preds) if (newBlock[p] >= 0) keep++;
+            if (keep == blk.preds.size()) continue;
+            for (Instr phi : blk.phis) {
+                int[] args = new int[keep];
+                int k = 0;
+                for (int i = 0; i < blk.preds.size(); i++) {
+                    if (newBlock[blk.preds.get(i)] >= 0) args[k++] = phi.args[i];
+                }
+                phi.args = args;
+            }
+        }
+
+        removeTrivialPhis(newBlock);
+
+        // Dense renumbering, block by block: phis, then the body
+        int[] newId = new int[values.size()];
+        Arrays.fill(newId, -1);
+        int count = 0;
+        for (int b = 0; b < n; b++) {
+            if (newBlock[b] < 0) continue;
+            for (Instr phi : blocks.get(b).phis) if (forward[phi.id] == phi.id) newId[phi.id] = count++;
+            for (Instr in : blocks.get(b).body) newId[in.id] = count++;
+        }
+
+        Instr[] instrs = new Instr[count];
+        int[] blockStart = new int[live + 1];
+        int[] predStart = new int[live + 1];
+        int[] succStart = new int[live + 1];
+        List<Integer> preds = new ArrayList<>();
+        List<Integer> succs = new ArrayList<>();
+        int next = 0;
+        for (int b = 0; b < n; b++) {
+            int nb = newBlock[b];
+            if (nb < 0) continue;
+            Block blk = blocks.get(b);
+            blockStart[nb] = next;
+            predStart[nb] = preds.size();
+            succStart[nb] = succs.size();
+            for (int p : blk.preds) if (newBlock[p] >= 0) preds.add(newBlock[p]);
+            for (int s : blk.succs) succs.add(newBlock[s]);
+            for (Instr phi : blk.phis) {
+                if (forward[phi.id] == phi.id) instrs[next++] = renumber(phi, nb, newId);
+            }
+            for (Instr in : blk.body) instrs[next++] = renumber(in, nb, newId);
+        }
+        blockStart[live] = next;
+        predStart[live] = preds.size();
+        succStart[live] = succs.size();
+
+        return new Cfg(fun, instrs, blockStart, predStart, toArray(preds), succStart, toArray(succs));
+    }
+
+    /**
+     * Forwards every phi whose operands are all the same value (or the phi itself)
+     * to that value, repeating until no phi changes, since removing one phi can
+     * make the phis that use it trivial.
+     */
+    private void removeTrivialPhis(int[] newBlock) {
+        forward = new int[values.size()];
+        for (int i = 0; i < forward.length; i++) forward[i] = i;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int b = 0; b < blocks.size(); b++) {
+                if (newBlock[b] < 0) continue;
+                for (Instr phi : blocks.get(b).phis) {
+                    if (forward[phi.id] != phi.id) continue;
+                    int same = -1;
+                    boolean trivial = true;
+                    for (int a : phi.args) {
+                        a = resolve(a);
+                        if (a == phi.id || a == same) continue;
+                        if (same >= 0) {
+                            trivial = false;
+                            break;
+                        }
+                        same = a;
+                    }
+                    if (trivial) {
+                        forward[phi.id] = same >= 0 ? same : zero();
+                        changed = true;
+                    }
+                }
+            }
+        }
+    }
+
+    private int resolve(int v) {
+        while (v < forward.length && forward[v] != v) v = forward[v];
+        return v;
+    }
+
+    private Instr renumber(Instr in, int block, int[] newId) {
+        int[] args = new int[in.args.length];
+        for (int i = 0; i < args.length; i++) args[i] = newId[resolve(in.args[i])];
+        return new Instr(in.op, newId[in.id], block, args, in.constant, in.binOp, in.unOp, in.symbol);
+    }
+
+    private static int[] toArray(List<Integer> xs) {
+        int[] a = new int[xs.size()];
+        for (int i = 0; i < a.length; i++) a[i] = xs.get(i);
+        return a;
+    }
+}
@@ -0,0 +1,80 @@
+package madlang.ir;
+
+import madlang.analysis.Symbol;
+import madlang.ast.Expr;
+
+/**
+ * One SSA instruction. Its id doubles as the name of the value it defines;
+ * operands refer to other instructions by id.
+ *
+ * Booleans are ints: false is 0, true is 1.
+ */
+public final class Instr {
+
+    public enum Op {
+        CONST,  // constant
+        PARAM,  // incoming argument number constant
+        BINARY, // binOp args[0] args[1]; never && or ||, which become control flow
+        UNARY,  // unOp args[0]
+        CALL,   // symbol(args...)
+        LOAD,   // read of symbol, a variable kept in memory
+        STORE,  // symbol = args[0]
+        PHI,    // args[i] flows in from the block's i-th predecessor
+        JUMP,   // to the block's only successor
+        BRANCH, // args[0] != 0 ? first successor : second successor
+        RETURN  // return args[0]
+    }
+
+    public final Op op;
+    public final int id;
+
+    // Block the instruction belongs to
+    public final int block;
+
+    // Operand value ids; phis grow theirs while the CFG is being built
+    int[] args;
+
+    public final int constant;      // CONST value, PARAM index
+    public final Expr.BinOp binOp;  // BINARY only
+    public final Expr.UnOp unOp;    // UNARY only
+    public final Symbol symbol;     // CALL callee, LOAD/STORE variable
+
+    Instr(Op op, int id, int block, int[] args, int constant, Expr.BinOp binOp, Expr.UnOp unOp, Symbol symbol) {
+        this.op = op;
+        this.id = id;
+        this.block = block;
+        this.args = args;
+        this.constant = constant;
+        this.binOp = binOp;
+        this.unOp = unOp;
+        this.symbol = symbol;
+    }
+
+    public int argCount() { return args.length; }
+    public int arg(int i) { return args[i]; }
+
+    public boolean isTerminator() {
+        return op == Op.JUMP || op == Op.BRANCH || op == Op.RETURN;
+    }
+
+    /** @return true if the instruction defines a value other instructions may use */
+    public boolean hasValue() {
+        return !isTerminator() && op != Op.STORE;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        if (hasValue()) sb.append('v').append(id).append(" = ");
+        sb.append(op.name().toLowerCase());
+        switch (op) {
+            case CONST: case PARAM: sb.append(' ').append(constant); break;
+            case BINARY: sb.append(' ').append(binOp.toSource()); break;
+            case UNARY: sb.append(' ').append(unOp.toSource()); break;
+            case CALL: case LOAD: case STORE: sb.append(' ').append(symbol.name); break;
+            default: break;
+        }
+        for (int a : args) sb.append(" v").append(a);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,692 @@
+package madlang.opt;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import madlang.analysis.Resolution;
+import madlang.analysis.Symbol;
+import madlang.analysis.TypeChecker;
+import madlang.ast.Ast;
+import madlang.ast.Expr;
+import madlang.ast.Stmt;
+
+/**
+ * Source-to-source loop optimizations on Stmt.While.
+ *
+ * Loops are handled outside-in, so an inner loop sees what was already
+ * hoisted out of the loops around it. For every loop:
+ * - Invariant hoisting: maximal subexpressions whose value cannot change while
+ *   the loop runs are computed once into a fresh variable declared right before
+ *   the loop. Only expressions without calls that cannot trap (division and
+ *   modulo only by a nonzero literal) are hoisted, so evaluating them even when
+ *   the loop runs zero times is harmless. Equal expressions share one variable.
+ * - Induction variables: a local updated exactly once per iteration, by a
+ *   top-level statement i = i + c or i = i - c of the loop body.
+ * - Strength reduction: i * k (k a literal, invariant variable or hoisted
+ *   expression) becomes a variable stepped by an addition after the update of
+ *   i. i % m (m a positive literal) becomes a counter that wraps at m, but only
+ *   when i provably stays non-negative: it is set to a non-negative literal
+ *   right before the loop, steps by +1 and the loop condition is i < e, which
+ *   also rules out overflow. Since the reduced form costs an update per
+ *   iteration, only expressions used in an inner loop or several times are
+ *   reduced.
+ * - i % m is only reduced on request (optimize(program, true)), and only when
+ *   m is not a power of two. On the interpreter a use of i % m costs about as
+ *   much as one node of the counter update, so the reduced loop runs at
+ *   0.75-1.0x even with ten uses per iteration; compiled to class files
+ *   (AotCompiler) it pays once the JIT cannot turn the division into a mask,
+ *   e.g. 1.5x for i % 7 used seven times (see LoopBench).
+ *
+ * A variable is invariant if the loop neither declares nor assigns it and no
+ * call in the loop can change it: when the loop calls user functions, globals
+ * and variables shared with nested functions are treated as changing. Loops
+ * that define functions are left alone.
+ *
+ * Ints wrap around, so all rewrites are exact. The input must type check; the
+ * returned program shares every untouched subtree with it.
+ */
+public final class LoopOptimizer implements Stmt.Visitor<Stmt>, Expr.Visitor<Expr> {
+
+    /** What a statement (usually a loop) does to variables. */
+    private static final class Summary implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
+        final Resolution resolution;
+        final IdentityHashMap<Symbol, Integer> assignCounts = new IdentityHashMap<>();
+        final Set<Symbol> declared = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        // Every expression that is not part of a larger one, in source order, and
+        // how many loops it is nested in (counting the summarized loop itself)
+        final List<Expr> roots = new ArrayList<>();
+        final List<Integer> rootDepths = new ArrayList<>();
+        private int depth = 0;
+
+        boolean hasUserCall = false;
+        boolean hasFunDef = false;
+
+        Summary(Resolution resolution) {
+            this.resolution = resolution;
+        }
+
+        static Summary of(Resolution resolution, Stmt s) {
+            Summary sum = new Summary(resolution);
+            s.accept(sum);
+            return sum;
+        }
+
+        boolean assigns(Symbol sym) {
+            return assignCounts.containsKey(sym);
+        }
+
+        private void root(Expr e) {
+            roots.add(e);
+            rootDepths.add(depth);
+            e.accept(this);
+        }
+
+        @Override public Void visitBlockStmt(Stmt.Block s) {
+            for (Stmt inner : s.stmts) inner.accept(this);
+            return null;
+        }
+
+        @Override public Void visitVarDefStmt(Stmt.VarDef s) {
+            if (s.initOrNull != null) root(s.initOrNull);
+            declared.add(resolution.symbol(s));
+            return null;
+        }
+
+        @Override public Void visitFunDefStmt(Stmt.FunDef s) {
+            hasFunDef = true;
+            return null;
+        }
+
+        @Override public Void visitAssignStmt(Stmt.Assign s) {
+            root(s.rhs);
+            assignCounts.merge(resolution.symbol(s), 1, Integer::sum);
+            return null;
+        }
+
+        @Override public Void visitIfStmt(Stmt.If s) {
+            root(s.cond);
+            s.thenBranch.accept(this);
+            if (s.elseBranchOrNull != null) s.elseBranchOrNull.accept(this);
+            return null;
+        }
+
+        @Override public Void visitWhileStmt(Stmt.While s) {
+            depth++;
+            root(s.cond);
+            s.body.accept(this);
+            depth--;
+            return null;
+        }
+
+        @Override public Void visitReturnStmt(Stmt.Return s) {
+            root(s.value);
+            return null;
+        }
+
+        @Override public Void visitExprStmt(Stmt.ExprStmt s) {
+            root(s.expr);
+            return null;
+        }
+
+        @Override public Void visitBinaryExpr(Expr.Binary e) {
+            e.left.accept(this);
+            e.right.accept(this);
+            return null;
+        }
+
+        @Override public Void visitUnaryExpr(Expr.Unary e) {
+            e.expr.accept(this);
+            return null;
+        }
+
+        @Override public Void visitIntLitExpr(Expr.IntLit e) { return null; }
+        @Override public Void visitBoolLitExpr(Expr.BoolLit e) { return null; }
+        @Override public Void visitVarExpr(Expr.Var e) { return null; }
+
+        @Override public Void visitCallExpr(Expr.Call e) {
+            if (resolution.symbol(e).kind == Symbol.Kind.FUNCTION) hasUserCall = true;
+            for (Expr arg : e.args) arg.accept(this);
+            return null;
+        }
+    }
+
+    /** A recognized induction variable: updated once per iteration by i = i + delta. */
+    private static final class Induction {
+        final Symbol sym;
+        final int delta;
+        final int updateIndex; // index of the update among the loop body's statements
+
+        // Counts up by one from a non-negative start while below a bound, so i % m may be reduced
+        boolean countsUp = false;
+
+        Induction(Symbol sym, int delta, int updateIndex) {
+            this.sym = sym;
+            this.delta = delta;
+            this.updateIndex = updateIndex;
+        }
+    }
+
+    private final TypeChecker.Result checked;
+    private final Resolution resolution;
+    private final boolean reduceModulo;
+    private final Set<String> usedNames = new HashSet<>();
+    private int nextTemp = 0;
+
+    // Original expressions to replace by a read of the named variable
+    private final IdentityHashMap<Expr, String> replacements = new IdentityHashMap<>();
+
+    private Ast.FunDecl currentFun = null;
+
+    // Statement list holding the statement being rewritten and its index there;
+    // null when the statement is a lone if branch or loop body
+    private List<Stmt> enclosing = null;
+    private int enclosingIndex = -1;
+
+    // Declarations to place before the statement just rewritten, set by visitWhileStmt
+    private List<Stmt> prelude = null;
+
+    private LoopOptimizer(TypeChecker.Result checked, boolean reduceModulo) {
+        this.checked = checked;
+        this.resolution = checked.resolution;
+        this.reduceModulo = reduceModulo;
+    }
+
+    /**
+     * Optimizes every loop in the program for the interpreter, leaving i % m alone.
+     *
+     * @param program a program that type checks without errors
+     * @return the optimized program; the input is not modified
+     */
+    public static Ast.Program optimize(Ast.Program program) {
+        return optimize(program, false);
+    }
+
+    /**
+     * Optimizes every loop in the program.
+     *
+     * @param program a program that type checks without errors
+     * @param reduceModulo whether to strength-reduce i % m, which only pays in compiled code
+     * @return the optimized program; the input is not modified
+     */
+    public static Ast.Program optimize(Ast.Program program, boolean reduceModulo) {
+        TypeChecker.Result checked = TypeChecker.check(program);
+        if (checked.hasErrors()) {
+            throw new IllegalArgumentException("cannot optimize a program with errors: " + checked.errors.get(0));
+        }
+        LoopOptimizer opt = new LoopOptimizer(checked, reduceModulo);
+        opt.collectNames();
+
+        List<Ast.Decl> decls = new ArrayList<>(program.decls.size());
+        for (Ast.Decl decl : program.decls) {
+            decls.add(decl instanceof Ast.FunDecl f ? opt.rewriteFunction(f) : decl);
+        }
+        return new Ast.Program(decls, program.span);
+    }
+
+    /** Records every variable name so fresh names cannot shadow or collide. */
+    private void collectNames() {
+        for (Symbol g : resolution.globals) usedNames.add(g.name);
+        for (Ast.FunDecl f : resolution.functions) {
+            for (Ast.Param p : f.params) usedNames.add(p.name);
+            Summary sum = Summary.of(resolution, f.body);
+            for (Symbol sym : sum.declared) usedNames.add(sym.name);
+        }
+    }
+
+    private String freshName(String prefix) {
+        String name;
+        do {
+            name = prefix + nextTemp++;
+        } while (!usedNames.add(name));
+        return name;
+    }
+
+    private Ast.FunDecl rewriteFunction(Ast.FunDecl fun) {
+        Ast.FunDecl saved = currentFun;
+        currentFun = fun;
+        List<Stmt> body = rewriteList(fun.body.stmts);
+        currentFun = saved;
+        return new Ast.FunDecl(fun.name, fun.params, fun.returnType, new Stmt.Block(body, fun.body.span), fun.span);
+    }
+
+    /** Rewrites a statement list, splicing in the declarations hoisted out of loops. */
+    private List<Stmt> rewriteList(List<Stmt> stmts) {
+        List<Stmt> savedEnclosing = enclosing;
+        int savedIndex = enclosingIndex;
+        List<Stmt> out = new ArrayList<>(stmts.size());
+        for (int i = 0; i < stmts.size(); i++) {
+            enclosing = stmts;
+            enclosingIndex = i;
+            Stmt s = stmts.get(i).accept(this);
+            if (prelude != null) {
+                out.addAll(prelude);
+                prelude = null;
+            }
+            out.add(s);
+        }
+        enclosing = savedEnclosing;
+        enclosingIndex = savedIndex;
+        return out;
+    }
+
+    /** Rewrites a statement that is not part of a list, wrapping it in a block if it needs a prelude. */
+    private Stmt rewriteSingle(Stmt s) {
+        List<Stmt> savedEnclosing = enclosing;
+        int savedIndex = enclosingIndex;
+        enclosing = null;
+        Stmt r = s.accept(this);
+        if (prelude != null) {
+            List<Stmt> stmts = new ArrayList<>(prelude);
+            stmts.add(r);
+            prelude = null;
+            r = new Stmt.Block(stmts, s.span);
+        }
+        enclosing = savedEnclosing;
+        enclosingIndex = savedIndex;
+        return r;
+    }
+
+    ////////////////////
+    /// LOOP SUPPORT ///
+    ////////////////////
+
+    /** @return true if the variable keeps its value for the whole loop */
+    private boolean invariant(Symbol sym, Summary loop) {
+        if (loop.assigns(sym) || loop.declared.contains(sym)) return false;
+        if (!loop.hasUserCall) return true;
+        return sym.kind != Symbol.Kind.GLOBAL && !sym.isCaptured();
+    }
+
+    /**
+     * Finds the maximal invariant subexpressions of e worth hoisting.
+     *
+     * @return true if e as a whole is invariant and safe to evaluate early
+     */
+    private boolean collectInvariant(Expr e, Summary loop, List<Expr> out) {
+        if (replacements.containsKey(e)) return true;
+        if (e instanceof Expr.IntLit || e instanceof Expr.BoolLit) return true;
+        if (e instanceof Expr.Var v) return invariant(resolution.symbol(v), loop);
+        if (e instanceof Expr.Unary u) return collectInvariant(u.expr, loop, out);
+        if (e instanceof Expr.Binary b) {
+            boolean l = collectInvariant(b.left, loop, out);
+            boolean r = collectInvariant(b.right, loop, out);
+            boolean safe = (b.op != Expr.BinOp.DIV && b.op != Expr.BinOp.MOD)
+                || (b.right instanceof Expr.IntLit lit && lit.value != 0);
+            if (l && r && safe) return true;
+            if (l && worthHoisting(b.left)) out.add(b.left);
+            if (r && worthHoisting(b.right)) out.add(b.right);
+            return false;
+        }
+        Expr.Call c = (Expr.Call) e;
+        for (Expr arg : c.args) {
+            if (collectInvariant(arg, loop, out) && worthHoisting(arg)) out.add(arg);
+        }
+        return false;
+    }
+
+    /** @return true if e computes something from a variable, so a temporary saves work */
+    private boolean worthHoisting(Expr e) {
+        if (replacements.containsKey(e)) return false;
+        return (e instanceof Expr.Binary || e instanceof Expr.Unary) && readsVariable(e);
+    }
+
+    private boolean readsVariable(Expr e) {
+        if (e instanceof Expr.Var || replacements.containsKey(e)) return true;
+        if (e instanceof Expr.Unary u) return readsVariable(u.expr);
+        if (e instanceof Expr.Binary b) return readsVariable(b.left) || readsVariable(b.right);
+        return false;
+    }
+
+    /** Structural key of an invariant expression, used to share one temporary between equal ones. */
+    private String key(Expr e) {
+        String temp = replacements.get(e);
+        if (temp != null) return temp;
+        if (e instanceof Expr.IntLit i) return Integer.toString(i.value);
+        if (e instanceof Expr.BoolLit b) return Boolean.toString(b.value);
+        if (e instanceof Expr.Var v) return v.name;
+        if (e instanceof Expr.Unary u) return u.op.toSource() + "(" + key(u.expr) + ")";
+        Expr.Binary b = (Expr.Binary) e;
+        return "(" + key(b.left) + b.op.toSource() + key(b.right) + ")";
+    }
+
+    /** @return the induction variables updated by top-level statements of the body */
+    private List<Induction> findInductions(List<Stmt> body, Summary loop) {
+        List<Induction> found = new ArrayList<>();
+        for (int i = 0; i < body.size(); i++) {
+            if (!(body.get(i) instanceof Stmt.Assign a)) continue;
+            Symbol sym = resolution.symbol(a);
+            if (sym.kind == Symbol.Kind.GLOBAL || sym.isCaptured() || sym.owner != currentFun) continue;
+            if (loop.assignCounts.get(sym) != 1) continue;
+            if (!(a.rhs instanceof Expr.Binary b)) continue;
+            if (b.op == Expr.BinOp.ADD && isVar(b.left, sym) && b.right instanceof Expr.IntLit c) {
+                found.add(new Induction(sym, c.value, i));
+            } else if (b.op == Expr.BinOp.ADD && b.left instanceof Expr.IntLit c && isVar(b.right, sym)) {
+                found.add(new Induction(sym, c.value, i));
+            } else if (b.op == Expr.BinOp.SUB && isVar(b.left, sym) && b.right instanceof Expr.IntLit c) {
+                found.add(new Induction(sym, -c.value, i));
+            }
+        }
+        return found;
+    }
+
+    private boolean isVar(Expr e, Symbol sym) {
+        return e instanceof Expr.Var v && resolution.symbol(v) == sym;
+    }
+
+    private Induction inductionOf(Expr e, List<Induction> ivs) {
+        if (!(e instanceof Expr.Var v)) return null;
+        Symbol sym = resolution.symbol(v);
+        for (Induction iv : ivs) {
+            if (iv.sym == sym) return iv;
+        }
+        return null;
+    }
+
+    /**
+     * @return true if the induction variable is non-negative on entry: the loop
+     *         is preceded in its statement list by i = literal >= 0, with nothing
+     *         in between assigning i
+     */
+    private boolean startsNonNegative(Symbol sym, List<Stmt> stmts, int loopIndex) {
+        if (stmts == null) return false;
+        for (int i = loopIndex - 1; i >= 0; i--) {
+            Stmt s = stmts.get(i);
+            Expr value = null;
+            if (s instanceof Stmt.VarDef d && resolution.symbol(d) == sym) {
+                value = d.initOrNull == null ? new Expr.IntLit(0) : d.initOrNull;
+            } else if (s instanceof Stmt.Assign a && resolution.symbol(a) == sym) {
+                value = a.rhs;
+            } else {
+                if (Summary.of(resolution, s).assigns(sym)) return false;
+                continue;
+            }
+            return value instanceof Expr.IntLit lit && lit.value >= 0;
+        }
+        return false;
+    }
+
+    /** @return true if the loop condition is i < e, which keeps i + 1 from overflowing */
+    private boolean boundedAbove(Expr cond, Symbol sym) {
+        return cond instanceof Expr.Binary b
+            && ((b.op == Expr.BinOp.LT && isVar(b.left, sym)) || (b.op == Expr.BinOp.GT && isVar(b.right, sym)));
+    }
+
+    //////////////////////
+    /// STMT REWRITERS ///
+    //////////////////////
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While s) {
+        List<Stmt> outerList = enclosing;
+        int outerIndex = enclosingIndex;
+        Summary loop = Summary.of(resolution, s);
+        List<Stmt> bodyStmts = s.body instanceof Stmt.Block b ? b.stmts : List.of(s.body);
+        if (loop.hasFunDef) {
+            return new Stmt.While(s.cond.accept(this), rewriteSingle(s.body), s.span);
+        }
+
+        List<Stmt> pre = new ArrayList<>();
+
+        // Invariant hoisting
+        List<Expr> candidates = new ArrayList<>();
+        for (Expr root : loop.roots) {
+            if (collectInvariant(root, loop, candidates) && worthHoisting(root)) candidates.add(root);
+        }
+        Map<String, String> tempByKey = new HashMap<>();
+        IdentityHashMap<Expr, String> hoisted = new IdentityHashMap<>();
+        for (Expr e : candidates) {
+            String key = key(e);
+            String temp = tempByKey.get(key);
+            if (temp == null) {
+                temp = freshName("_inv");
+                tempByKey.put(key, temp);
+                pre.add(new Stmt.VarDef(temp, checked.typeOf(e), e.accept(this), e.span));
+            }
+            hoisted.put(e, temp);
+        }
+        replacements.putAll(hoisted);
+
+        // Strength reduction of induction variables
+        List<Induction> ivs = findInductions(bodyStmts, loop);
+        Map<Integer, List<Stmt>> updates = new HashMap<>();
+        for (Induction iv : ivs) {
+            iv.countsUp = iv.delta == 1 && boundedAbove(s.cond, iv.sym) && startsNonNegative(iv.sym, outerList, outerIndex);
+        }
+        if (!ivs.isEmpty()) {
+            // Reducing trades one operation per use for an update per iteration, which
+            // only pays off for expressions used in an inner loop or more than once
+            Map<String, List<Expr.Binary>> uses = new LinkedHashMap<>();
+            Set<String> inInnerLoop = new HashSet<>();
+            for (int i = 0; i < loop.roots.size(); i++) {
+                List<Expr.Binary> found = new ArrayList<>();
+                collectReducible(loop.roots.get(i), ivs, loop, found);
+                for (Expr.Binary b : found) {
+                    String key = key(b);
+                    uses.computeIfAbsent(key, k -> new ArrayList<>()).add(b);
+                    if (loop.rootDepths.get(i) > 1) inInnerLoop.add(key);
+                }
+            }
+            for (Map.Entry<String, List<Expr.Binary>> entry : uses.entrySet()) {
+                List<Expr.Binary> same = entry.getValue();
+                if (same.size() < 2 && !inInnerLoop.contains(entry.getKey())) continue;
+                String temp = reduce(same.get(0), ivs, pre, updates);
+                for (Expr.Binary b : same) replacements.put(b, temp);
+            }
+        }
+
+        Expr cond = s.cond.accept(this);
+        Stmt body = updates.isEmpty()
+            ? rewriteSingle(s.body)
+            : new Stmt.Block(rewriteWithUpdates(bodyStmts, updates), s.body.span);
+
+        if (!pre.isEmpty()) prelude = pre;
+        return new Stmt.While(cond, body, s.span);
+    }
+
+    /** Rewrites a loop body, following each induction variable update with the statements queued for it. */
+    private List<Stmt> rewriteWithUpdates(List<Stmt> stmts, Map<Integer, List<Stmt>> updates) {
+        List<Stmt> out = new ArrayList<>();
+        int from = 0;
+        List<Integer> indices = new ArrayList<>(updates.keySet());
+        Collections.sort(indices);
+        for (int index : indices) {
+            out.addAll(rewriteList(stmts.subList(from, index + 1)));
+            out.addAll(updates.get(index));
+            from = index + 1;
+        }
+        out.addAll(rewriteList(stmts.subList(from, stmts.size())));
+        return out;
+    }
+
+    /** Collects i * k and i % m subexpressions that can be strength-reduced. */
+    private void collectReducible(Expr e, List<Induction> ivs, Summary loop, List<Expr.Binary> out) {
+        if (replacements.containsKey(e)) return;
+        if (e instanceof Expr.Unary u) {
+            collectReducible(u.expr, ivs, loop, out);
+        } else if (e instanceof Expr.Call c) {
+            for (Expr arg : c.args) collectReducible(arg, ivs, loop, out);
+        } else if (e instanceof Expr.Binary b) {
+            if (b.op == Expr.BinOp.MUL && (reducibleFactor(b.left, b.right, ivs, loop)
+                    || reducibleFactor(b.right, b.left, ivs, loop))) {
+                out.add(b);
+            } else if (b.op == Expr.BinOp.MOD && reducibleModulo(b, ivs)) {
+                out.add(b);
+            } else {
+                collectReducible(b.left, ivs, loop, out);
+                collectReducible(b.right, ivs, loop, out);
+            }
+        }
+    }
+
+    private boolean reducibleFactor(Expr iv, Expr k, List<Induction> ivs, Summary loop) {
+        if (inductionOf(iv, ivs) == null) return false;
+        return k instanceof Expr.IntLit || replacements.containsKey(k)
+            || (k instanceof Expr.Var v && invariant(resolution.symbol(v), loop));
+    }
+
+    private boolean reducibleModulo(Expr.Binary b, List<Induction> ivs) {
+        if (!reduceModulo) return false;
+        Induction iv = inductionOf(b.left, ivs);
+        // The JIT already turns a power-of-two modulus into a mask
+        return iv != null && iv.countsUp && b.right instanceof Expr.IntLit m && m.value > 0
+            && (m.value & (m.value - 1)) != 0;
+    }
+
+    /**
+     * Declares the temporary for a reducible expression before the loop and
+     * queues the statements keeping it up to date after the variable's update.
+     *
+     * @return the temporary's name
+     */
+    private String reduce(Expr.Binary b, List<Induction> ivs, List<Stmt> pre, Map<Integer, List<Stmt>> updates) {
+        Induction iv = inductionOf(b.left, ivs);
+        Expr k = b.right;
+        if (iv == null) {
+            iv = inductionOf(b.right, ivs);
+            k = b.left;
+        }
+        String temp = freshName("_iv");
+        List<Stmt> after = updates.computeIfAbsent(iv.updateIndex, i -> new ArrayList<>());
+        Expr init = new Expr.Binary(new Expr.Var(iv.sym.name, b.span), b.op, copyLeaf(k), b.span);
+        pre.add(new Stmt.VarDef(temp, Ast.Type.INT, init, b.span));
+
+        if (b.op == Expr.BinOp.MOD) {
+            // r = r + 1; if (r == m) r = 0;
+            int m = ((Expr.IntLit) k).value;
+            after.add(new Stmt.Assign(temp, new Expr.Binary(new Expr.Var(temp), Expr.BinOp.ADD, new Expr.IntLit(1))));
+            after.add(new Stmt.If(new Expr.Binary(new Expr.Var(temp), Expr.BinOp.EQ, new Expr.IntLit(m)),
+                new Stmt.Assign(temp, new Expr.IntLit(0)), null));
+            return temp;
+        }
+
+        // t = t + delta * k
+        Expr step;
+        if (k instanceof Expr.IntLit lit) {
+            step = new Expr.IntLit(iv.delta * lit.value);
+        } else if (iv.delta == 1 || iv.delta == -1) {
+            step = copyLeaf(k);
+        } else {
+            String stepTemp = freshName("_iv");
+            pre.add(new Stmt.VarDef(stepTemp, Ast.Type.INT,
+                new Expr.Binary(copyLeaf(k), Expr.BinOp.MUL, new Expr.IntLit(iv.delta)), b.span));
+            step = new Expr.Var(stepTemp);
+        }
+        Expr.BinOp op = Expr.BinOp.ADD;
+        if (step instanceof Expr.IntLit lit && lit.value < 0 && lit.value != Integer.MIN_VALUE) {
+            step = new Expr.IntLit(-lit.value);
+            op = Expr.BinOp.SUB;
+        } else if (!(step instanceof Expr.IntLit) && iv.delta == -1) {
+            op = Expr.BinOp.SUB;
+        }
+        after.add(new Stmt.Assign(temp, new Expr.Binary(new Expr.Var(temp), op, step)));
+        return temp;
+    }
+
+    /** Copies a literal or variable factor; hoisted factors become reads of their temporary. */
+    private Expr copyLeaf(Expr e) {
+        String temp = replacements.get(e);
+        if (temp != null) return new Expr.Var(temp, e.span);
+        if (e instanceof Expr.IntLit lit) return new Expr.IntLit(lit.value, lit.span);
+        Expr.Var v = (Expr.Var) e;
+        return new Expr.Var(v.name, v.span);
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block s) {
+        return new Stmt.Block(rewriteList(s.stmts), s.span);
+    }
+
+    @Override
+    public Stmt visitVarDefStmt(Stmt.VarDef s) {
+        if (s.initOrNull == null) return s;
+        Expr init = s.initOrNull.accept(this);
+        return init == s.initOrNull ? s : new Stmt.VarDef(s.name, s.type, init, s.span);
+    }
+
+    @Override
+    public Stmt visitFunDefStmt(Stmt.FunDef s) {
+        return new Stmt.FunDef(rewriteFunction(s.fun), s.span);
+    }
+
+    @Override
+    public Stmt visitAssignStmt(Stmt.Assign s) {
+        Expr rhs = s.rhs.accept(this);
+        return rhs == s.rhs ? s : new Stmt.Assign(s.name, rhs, s.span);
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If s) {
+        return new Stmt.If(s.cond.accept(this), rewriteSingle(s.thenBranch),
+            s.elseBranchOrNull == null ? null : rewriteSingle(s.elseBranchOrNull), s.span);
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return s) {
+        Expr value = s.value.accept(this);
+        return value == s.value ? s : new Stmt.Return(value, s.span);
+    }
+
+    @Override
+    public Stmt visitExprStmt(Stmt.ExprStmt s) {
+        Expr expr = s.expr.accept(this);
+        return expr == s.expr ? s : new Stmt.ExprStmt(expr, s.span);
+    }
+
+    //////////////////////
+    /// EXPR REWRITERS ///
+    //////////////////////
+
+    // Each rewriter returns the node itself when nothing below it changed.
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary e) {
+        String temp = replacements.get(e);
+        if (temp != null) return new Expr.Var(temp, e.span);
+        Expr l = e.left.accept(this);
+        Expr r = e.right.accept(this);
+        return l == e.left && r == e.right ? e : new Expr.Binary(l, e.op, r, e.span);
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary e) {
+        String temp = replacements.get(e);
+        if (temp != null) return new Expr.Var(temp, e.span);
+        Expr inner = e.expr.accept(this);
+        return inner == e.expr ? e : new Expr.Unary(e.op, inner, e.span);
+    }
+
+    @Override
+    public Expr visitIntLitExpr(Expr.IntLit e) {
+        return e;
+    }
+
+    @Override
+    public Expr visitBoolLitExpr(Expr.BoolLit e) {
+        return e;
+    }
+
+    @Override
+    public Expr visitVarExpr(Expr.Var e) {
+        return e;
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call e) {
+        List<Expr> args = new ArrayList<>(e.args.size());
+        boolean changed = false;
+        for (Expr arg : e.args) {
+            Expr a = arg.accept(this);
+            changed |= a != arg;
+            args.add(a);
+        }
+        return changed ? new Expr.Call(e.callee, args, e.span) : e;
+    }
+}
@@ -0,0 +1,791 @@
+package madlang.opt;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import madlang.analysis.Purity;
+import madlang.analysis.Resolution;
+import madlang.analysis.Symbol;
+import madlang.analysis.TypeChecker;
+import madlang.ast.Ast;
+import madlang.ast.Expr;
+import madlang.ast.Stmt;
+
+/**
+ * Partial evaluation: specializes top-level functions on the constant
+ * arguments they are called with.
+ *
+ * Every function body is evaluated as far as its known values allow. Known
+ * values are literals and the variables of the function itself that hold a
+ * literal at that point; variables shared with nested functions, globals and
+ * anything a call returns are unknown. With them:
+ * - Operators on literals are folded, except division and modulo by zero, which
+ *   are left to fail at run time. && and || with a literal left operand reduce
+ *   to their right operand or a literal, and so do + 0, * 1 and the like.
+ * - Variables written only with literals and no longer read are removed.
+ * - An if with a known condition is replaced by the branch it takes.
+ * - A loop whose condition stays known is unrolled completely, when it ends
+ *   within UNROLL_LIMIT iterations and MAX_UNROLLED statements. Other loops
+ *   stay loops, and what they assign is unknown at their head and after them.
+ * - A call f(..., literal, ...) of a top-level function becomes a call of a
+ *   clone f_... that takes only the other arguments, its body evaluated with
+ *   the literals as known parameter values. Equal calls share a clone. If f is
+ *   pure (see Purity) and the clone's body comes down to return literal, the
+ *   call itself becomes that literal.
+ * Code after a statement that cannot complete normally is dropped.
+ *
+ * Recursion on changing constants (fact(123) calling fact(122) ...) creates a
+ * clone per value, so the total size of clones and unrolled loops is bounded
+ * by a budget; calls beyond it are left alone. A chain of clones that runs
+ * into the budget before it ends (count(1000, 0) calling count(999, 1000) ...)
+ * is dropped as a whole and its budget given back, so it does not crowd out
+ * the specializations that pay off. Clones that end up unused are not emitted.
+ *
+ * Ints wrap around in folding as at run time, so all rewrites are exact. The
+ * input must type check; the result shares no nodes with it, so it can be
+ * resolved and run on its own.
+ */
+public final class PartialEvaluator implements Stmt.Visitor<Boolean>, Expr.Visitor<Expr> {
+
+    /** Statements that clones and unrolled loops may add to the program, by default. */
+    public static final int DEFAULT_BUDGET = 2_000;
+
+    private static final int MAX_CLONES = 256;
+    private static final int UNROLL_LIMIT = 32;
+    private static final int MAX_UNROLLED = 256;
+
+    /** A function specialized on some constant arguments. */
+    private static final class Clone {
+        final String name;
+        final Expr[] constants;  // per parameter: its literal, or null if it stays a parameter
+        Ast.FunDecl decl = null; // null while its body is being evaluated
+        Expr result = null;      // the literal every call returns, if the call can be replaced by it
+        boolean abandoned = false;
+
+        Clone(String name, Expr[] constants) {
+            this.name = name;
+            this.constants = constants;
+        }
+    }
+
+    private final Resolution resolution;
+    private final Purity purity;
+    private final Set<String> usedNames = new HashSet<>();
+    private int budget;
+
+    // Clones of every function by the constants they were made for, in order of creation
+    private final IdentityHashMap<Ast.FunDecl, Map<String, Clone>> clones = new IdentityHashMap<>();
+    private int cloneCount = 0;
+
+    // Set when a specialization was refused for lack of budget; the clones being
+    // evaluated at that moment are then abandoned, see specialization
+    private boolean exhausted = false;
+
+    // Function whose body is being evaluated and the known values of its variables
+    private Ast.FunDecl currentFun = null;
+    private IdentityHashMap<Symbol, Integer> known = new IdentityHashMap<>();
+
+    // Receives the statements produced for the statement being visited
+    private List<Stmt> out = null;
+
+    private PartialEvaluator(TypeChecker.Result checked, int budget) {
+        this.resolution = checked.resolution;
+        this.purity = Purity.analyze(checked.resolution);
+        this.budget = budget;
+    }
+
+    /**
+     * Specializes a program with the default budget.
+     *
+     * @param program a program that type checks without errors
+     * @return the specialized program; the input is not modified
+     */
+    public static Ast.Program specialize(Ast.Program program) {
+        return specialize(program, DEFAULT_BUDGET);
+    }
+
+    /**
+     * @param program a program that type checks without errors
+     * @param budget how many statements clones and unrolled loops may add
+     * @return the specialized program; the input is not modified
+     */
+    public static Ast.Program specialize(Ast.Program program, int budget) {
+        if (budget < 0) throw new IllegalArgumentException("budget must not be negative: " + budget);
+        TypeChecker.Result checked = TypeChecker.check(program);
+        if (checked.hasErrors()) {
+            throw new IllegalArgumentException("cannot specialize a program with errors: " + checked.errors.get(0));
+        }
+        PartialEvaluator pe = new PartialEvaluator(checked, budget);
+        pe.collectNames();
+
+        List<Ast.Decl> decls = new ArrayList<>();
+        for (Ast.Decl decl : program.decls) {
+            if (decl instanceof Ast.GlobalVarDecl g) {
+                Expr init = g.initOrNull == null ? null : pe.evaluateOutside(g.initOrNull);
+                decls.add(new Ast.GlobalVarDecl(g.name, g.type, init, g.span));
+            } else {
+                decls.add(pe.evaluateFunction((Ast.FunDecl) decl, new IdentityHashMap<>()));
+            }
+        }
+
+        // Clones follow their original, if anything still calls them
+        Set<String> called = new HashSet<>();
+        for (Ast.Decl decl : decls) collectCallees(decl, called);
+        Set<Clone> kept = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (boolean more = true; more; ) {
+            more = false;
+            for (Map<String, Clone> byConstants : pe.clones.values()) {
+                for (Clone c : byConstants.values()) {
+                    if (called.contains(c.name) && kept.add(c)) {
+                        collectCallees(c.decl, called);
+                        more = true;
+                    }
+                }
+            }
+        }
+        List<Ast.Decl> result = new ArrayList<>();
+        for (int i = 0; i < program.decls.size(); i++) {
+            result.add(decls.get(i));
+            for (Clone c : pe.clones.getOrDefault(program.decls.get(i), Map.of()).values()) {
+                if (kept.contains(c)) result.add(c.decl);
+            }
+        }
+        return new Ast.Program(result, program.span);
+    }
+
+    /** Records every name in the program so clone names cannot collide with or shadow one. */
+    private void collectNames() {
+        for (Symbol g : resolution.globals) usedNames.add(g.name);
+        for (Ast.FunDecl f : resolution.functions) {
+            usedNames.add(f.name);
+            for (Ast.Param p : f.params) usedNames.add(p.name);
+            List<Stmt.VarDef> defs = new ArrayList<>();
+            collectVarDefs(f.body, defs);
+            for (Stmt.VarDef d : defs) usedNames.add(d.name);
+        }
+    }
+
+    private static void collectVarDefs(Stmt s, List<Stmt.VarDef> defs) {
+        if (s instanceof Stmt.Block b) {
+            for (Stmt inner : b.stmts) collectVarDefs(inner, defs);
+        } else if (s instanceof Stmt.VarDef d) {
+            defs.add(d);
+        } else if (s instanceof Stmt.If i) {
+            collectVarDefs(i.thenBranch, defs);
+            if (i.elseBranchOrNull != null) collectVarDefs(i.elseBranchOrNull, defs);
+        } else if (s instanceof Stmt.While w) {
+            collectVarDefs(w.body, defs);
+        }
+    }
+
+    /** Adds the name of every function called in a declaration, nested functions included. */
+    private static void collectCallees(Object node, Set<String> names) {
+        if (node instanceof Ast.FunDecl f) {
+            collectCallees(f.body, names);
+        } else if (node instanceof Ast.GlobalVarDecl g) {
+            if (g.initOrNull != null) collectCallees(g.initOrNull, names);
+        } else if (node instanceof Stmt.Block b) {
+            for (Stmt s : b.stmts) collectCallees(s, names);
+        } else if (node instanceof Stmt.VarDef d) {
+            if (d.initOrNull != null) collectCallees(d.initOrNull, names);
+        } else if (node instanceof Stmt.FunDef d) {
+            collectCallees(d.fun, names);
+        } else if (node instanceof Stmt.Assign a) {
+            collectCallees(a.rhs, names);
+        } else if (node instanceof Stmt.If i) {
+            collectCallees(i.cond, names);
+            collectCallees(i.thenBranch, names);
+            if (i.elseBranchOrNull != null) collectCallees(i.elseBranchOrNull, names);
+        } else if (node instanceof Stmt.While w) {
+            collectCallees(w.cond, names);
+            collectCallees(w.body, names);
+        } else if (node instanceof Stmt.Return r) {
+            collectCallees(r.value, names);
+        } else if (node instanceof Stmt.ExprStmt s) {
+            collectCallees(s.expr, names);
+        } else if (node instanceof Expr.Binary b) {
+            collectCallees(b.left, names);
+            collectCallees(b.right, names);
+        } else if (node instanceof Expr.Unary u) {
+            collectCallees(u.expr, names);
+        } else if (node instanceof Expr.Call c) {
+            names.add(c.callee);
+            for (Expr arg : c.args) collectCallees(arg, names);
+        }
+    }
+
+    private static int size(List<Stmt> stmts) {
+        int n = 0;
+        for (Stmt s : stmts) n += size(s);
+        return n;
+    }
+
+    private static int size(Stmt s) {
+        if (s instanceof Stmt.Block b) return 1 + size(b.stmts);
+        if (s instanceof Stmt.If i) return 1 + size(i.thenBranch) + (i.elseBranchOrNull == null ? 0 : size(i.elseBranchOrNull));
+        if (s instanceof Stmt.While w) return 1 + size(w.body);
+        if (s instanceof Stmt.FunDef d) return 1 + size(d.fun.body);
+        return 1;
+    }
+
+    /////////////////
+    /// FUNCTIONS ///
+    /////////////////
+
+    /** Evaluates an expression outside of any function, such as a global's initializer. */
+    private Expr evaluateOutside(Expr e) {
+        Ast.FunDecl savedFun = currentFun;
+        IdentityHashMap<Symbol, Integer> savedKnown = known;
+        currentFun = null;
+        known = new IdentityHashMap<>();
+        Expr r = e.accept(this);
+        currentFun = savedFun;
+        known = savedKnown;
+        return r;
+    }
+
+    /**
+     * Evaluates a function body with some parameters known.
+     *
+     * @param params the known parameters and their values; they are left out of the result's parameters
+     * @return a copy of the function, named and parameterized as the caller sets up
+     */
+    private Ast.FunDecl evaluateFunction(Ast.FunDecl fun, IdentityHashMap<Symbol, Integer> params) {
+        return evaluateFunction(fun, fun.name, params);
+    }
+
+    private Ast.FunDecl evaluateFunction(Ast.FunDecl fun, String name, IdentityHashMap<Symbol, Integer> params) {
+        Ast.FunDecl savedFun = currentFun;
+        IdentityHashMap<Symbol, Integer> savedKnown = known;
+        List<Stmt> savedOut = out;
+        currentFun = fun;
+        known = new IdentityHashMap<>(params);
+
+        List<Ast.Param> kept = new ArrayList<>();
+        List<Stmt> body = new ArrayList<>();
+        Set<Symbol> assigned = assigned(fun.body);
+        for (Ast.Param p : fun.params) {
+            Symbol sym = resolution.symbol(p);
+            Integer value = params.get(sym);
+            if (value == null) {
+                kept.add(new Ast.Param(p.name, p.type, p.span));
+            } else if (!isTracked(sym) || assigned.contains(sym)) {
+                // Reads that remain need the variable; the known value is its initializer
+                body.add(new Stmt.VarDef(p.name, p.type, literal(value, p.type, p.span), p.span));
+            }
+        }
+        out = body;
+        evaluateList(fun.body.stmts);
+        dropDeadStores(fun, body);
+
+        currentFun = savedFun;
+        known = savedKnown;
+        out = savedOut;
+        return new Ast.FunDecl(name, kept, fun.returnType, new Stmt.Block(body, fun.body.span), fun.span);
+    }
+
+    /**
+     * Removes the variables of the current function that are written only with
+     * literals and no longer read, once their reads have all been folded.
+     * Variables are told apart by name, so a name that also stands for some
+     * other variable written here is kept.
+     */
+    private void dropDeadStores(Ast.FunDecl fun, List<Stmt> body) {
+        Set<String> dead = new HashSet<>();
+        Set<String> kept = new HashSet<>();
+        for (Ast.Param p : fun.params) (isTracked(resolution.symbol(p)) ? dead : kept).add(p.name);
+        for (Symbol sym : assigned(fun.body)) (isTracked(sym) ? dead : kept).add(sym.name);
+        collectLive(body, kept);
+        dead.removeAll(kept);
+        if (dead.isEmpty()) return;
+        List<Stmt> swept = sweep(body, dead);
+        body.clear();
+        body.addAll(swept);
+    }
+
+    /** Adds the names a statement reads, and those it writes with anything but a literal. */
+    private static void collectLive(Object node, Set<String> names) {
+        if (node instanceof List<?> list) {
+            for (Object o : list) collectLive(o, names);
+        } else if (node instanceof Stmt.Block b) {
+            collectLive(b.stmts, names);
+        } else if (node instanceof Stmt.VarDef d) {
+            if (d.initOrNull != null && !isLiteral(d.initOrNull)) names.add(d.name);
+            if (d.initOrNull != null) collectLive(d.initOrNull, names);
+        } else if (node instanceof Stmt.FunDef d) {
+            collectLive(d.fun.body, names);
+        } else if (node instanceof Stmt.Assign a) {
+            if (!isLiteral(a.rhs)) names.add(a.name);
+            collectLive(a.rhs, names);
+        } else if (node instanceof Stmt.If i) {
+            collectLive(i.cond, names);
+            collectLive(i.thenBranch, names);
+            if (i.elseBranchOrNull != null) collectLive(i.elseBranchOrNull, names);
+        } else if (node instanceof Stmt.While w) {
+            collectLive(w.cond, names);
+            collectLive(w.body, names);
+        } else if (node instanceof Stmt.Return r) {
+            collectLive(r.value, names);
+        } else if (node instanceof Stmt.ExprStmt s) {
+            collectLive(s.expr, names);
+        } else if (node instanceof Expr.Binary b) {
+            collectLive(b.left, names);
+            collectLive(b.right, names);
+        } else if (node instanceof Expr.Unary u) {
+            collectLive(u.expr, names);
+        } else if (node instanceof Expr.Var v) {
+            names.add(v.name);
+        } else if (node instanceof Expr.Call c) {
+            collectLive(c.args, names);
+        }
+    }
+
+    /** Removes the definitions of and assignments to the dead names, outside of nested functions. */
+    private static List<Stmt> sweep(List<Stmt> stmts, Set<String> dead) {
+        List<Stmt> result = new ArrayList<>();
+        for (Stmt s : stmts) {
+            Stmt swept = sweep(s, dead);
+            if (swept != null) result.add(swept);
+        }
+        return result;
+    }
+
+    /** @return the statement without the dead stores, or null if nothing is left of it */
+    private static Stmt sweep(Stmt s, Set<String> dead) {
+        if (s instanceof Stmt.VarDef d) return dead.contains(d.name) ? null : s;
+        if (s instanceof Stmt.Assign a) return dead.contains(a.name) ? null : s;
+        if (s instanceof Stmt.Block b) {
+            List<Stmt> stmts = sweep(b.stmts, dead);
+            return stmts.isEmpty() ? null : new Stmt.Block(stmts, b.span);
+        }
+        if (s instanceof Stmt.If i) {
+            Stmt thenBranch = sweep(i.thenBranch, dead);
+            Stmt elseBranch = i.elseBranchOrNull == null ? null : sweep(i.elseBranchOrNull, dead);
+            return new Stmt.If(i.cond, thenBranch == null ? new Stmt.Block(List.of(), i.thenBranch.span) : thenBranch,
+                               elseBranch, i.span);
+        }
+        if (s instanceof Stmt.While w) {
+            Stmt body = sweep(w.body, dead);
+            return new Stmt.While(w.cond, body == null ? new Stmt.Block(List.of(), w.body.span) : body, w.span);
+        }
+        return s;
+    }
+
+    /** @return true if the value of a variable can be followed through the current function */
+    private boolean isTracked(Symbol sym) {
+        return (sym.kind == Symbol.Kind.PARAM || sym.kind == Symbol.Kind.LOCAL)
+            && sym.owner == currentFun && !sym.isCaptured();
+    }
+
+    /** @return the variables of the current function that a statement assigns or declares */
+    private Set<Symbol> assigned(Stmt s) {
+        Set<Symbol> result = Collections.newSetFromMap(new IdentityHashMap<>());
+        collectAssigned(s, result);
+        return result;
+    }
+
+    private void collectAssigned(Stmt s, Set<Symbol> result) {
+        if (s instanceof Stmt.Block b) {
+            for (Stmt inner : b.stmts) collectAssigned(inner, result);
+        } else if (s instanceof Stmt.VarDef d) {
+            result.add(resolution.symbol(d));
+        } else if (s instanceof Stmt.Assign a) {
+            result.add(resolution.symbol(a));
+        } else if (s instanceof Stmt.If i) {
+            collectAssigned(i.thenBranch, result);
+            if (i.elseBranchOrNull != null) collectAssigned(i.elseBranchOrNull, result);
+        } else if (s instanceof Stmt.While w) {
+            collectAssigned(w.body, result);
+        }
+    }
+
+    private static boolean definesFunctions(Stmt s) {
+        if (s instanceof Stmt.FunDef) return true;
+        if (s instanceof Stmt.Block b) {
+            for (Stmt inner : b.stmts) if (definesFunctions(inner)) return true;
+            return false;
+        }
+        if (s instanceof Stmt.If i) {
+            return definesFunctions(i.thenBranch) || i.elseBranchOrNull != null && definesFunctions(i.elseBranchOrNull);
+        }
+        if (s instanceof Stmt.While w) return definesFunctions(w.body);
+        return false;
+    }
+
+    /**
+     * @return the clone of f for these constant arguments, or null if f should
+     *         not be specialized (nothing is known, or the budget is spent)
+     */
+    private Clone specialization(Ast.FunDecl f, List<Expr> args) {
+        Expr[] constants = new Expr[args.size()];
+        StringBuilder key = new StringBuilder();
+        boolean any = false;
+        for (int i = 0; i < constants.length; i++) {
+            Expr a = args.get(i);
+            if (a instanceof Expr.IntLit || a instanceof Expr.BoolLit) {
+                constants[i] = a;
+                any = true;
+            }
+            key.append(i == 0 ? "" : ",").append(constants[i] == null ? "_" : value(a));
+        }
+        if (!any) return null;
+        Map<String, Clone> byConstants = clones.computeIfAbsent(f, k -> new LinkedHashMap<>());
+        Clone c = byConstants.get(key.toString());
+        if (c != null && c.abandoned) exhausted = true;
+        if (c != null) return c.abandoned ? null : c;
+        if (budget <= 0 || cloneCount >= MAX_CLONES) {
+            exhausted = true;
+            return null;
+        }
+
+        StringBuilder name = new StringBuilder(f.name);
+        for (int i = 0; i < constants.length; i++) {
+            name.append('_');
+            if (constants[i] == null) name.append(f.params.get(i).name);
+            else if (constants[i] instanceof Expr.BoolLit b) name.append(b.value);
+            else name.append(value(constants[i]) < 0 ? "m" + -(long) value(constants[i]) : "" + value(constants[i]));
+        }
+        String unique = name.toString();
+        for (int n = 2; !usedNames.add(unique); n++) unique = name + "_" + n;
+
+        c = new Clone(unique, constants);
+        byConstants.put(key.toString(), c);
+        int savedCount = cloneCount++;
+
+        IdentityHashMap<Symbol, Integer> params = new IdentityHashMap<>();
+        for (int i = 0; i < constants.length; i++) {
+            if (constants[i] != null) params.put(resolution.symbol(f.params.get(i)), value(constants[i]));
+        }
+        boolean savedExhausted = exhausted;
+        int savedBudget = budget;
+        exhausted = false;
+        Ast.FunDecl decl = evaluateFunction(f, unique, params);
+        c.decl = decl;
+        if (exhausted) {
+            // A chain of clones that never reaches its end (count(1000, 0) calling
+            // count(999, 1000) ...) would only fill the budget: give it back and
+            // keep the call. Calls made to c while it was evaluated still need decl.
+            c.abandoned = true;
+            budget = savedBudget;
+            cloneCount = savedCount;
+            return null;
+        }
+        exhausted = savedExhausted;
+        budget -= size(decl.body.stmts);
+        if (purity.isPure(f) && decl.body.stmts.size() == 1 && decl.body.stmts.get(0) instanceof Stmt.Return r
+                && isLiteral(r.value)) {
+            c.result = r.value;
+        }
+        return c;
+    }
+
+    //////////////////
+    /// STATEMENTS ///
+    //////////////////
+
+    /**
+     * Evaluates statements into out, up to the first one that cannot complete normally.
+     *
+     * @return true if the statements can complete normally
+     */
+    private boolean evaluateList(List<Stmt> stmts) {
+        for (Stmt s : stmts) {
+            if (!s.accept(this)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Evaluates a statement that stands alone, such as an if branch, into one statement.
+     *
+     * @param completes receives whether it can complete normally
+     * @return the statement, or null if nothing is left of it
+     */
+    private Stmt evaluateSingle(Stmt s, boolean[] completes) {
+        List<Stmt> savedOut = out;
+        out = new ArrayList<>();
+        completes[0] = s.accept(this);
+        List<Stmt> result = out;
+        out = savedOut;
+        if (result.isEmpty()) return null;
+        return result.size() == 1 ? result.get(0) : new Stmt.Block(result, s.span);
+    }
+
+    @Override
+    public Boolean visitBlockStmt(Stmt.Block s) {
+        List<Stmt> savedOut = out;
+        out = new ArrayList<>();
+        boolean completes = evaluateList(s.stmts);
+        List<Stmt> stmts = out;
+        out = savedOut;
+        addBlock(stmts, s.span);
+        return completes;
+    }
+
+    /** Adds statements as a block, or without one when they declare nothing it would scope. */
+    private void addBlock(List<Stmt> stmts, Ast.Span span) {
+        for (Stmt s : stmts) {
+            if (s instanceof Stmt.VarDef || s instanceof Stmt.FunDef) {
+                out.add(new Stmt.Block(stmts, span));
+                return;
+            }
+        }
+        out.addAll(stmts);
+    }
+
+    @Override
+    public Boolean visitVarDefStmt(Stmt.VarDef s) {
+        Symbol sym = resolution.symbol(s);
+        Expr init = s.initOrNull == null ? null : s.initOrNull.accept(this);
+        if (isTracked(sym)) {
+            // Uninitialized variables start at 0 (false)
+            if (init == null) known.put(sym, 0);
+            else if (isLiteral(init)) known.put(sym, value(init));
+            else known.remove(sym);
+        }
+        out.add(new Stmt.VarDef(s.name, s.type, init, s.span));
+        return true;
+    }
+
+    @Override
+    public Boolean visitFunDefStmt(Stmt.FunDef s) {
+        out.add(new Stmt.FunDef(evaluateFunction(s.fun, new IdentityHashMap<>()), s.span));
+        return true;
+    }
+
+    @Override
+    public Boolean visitAssignStmt(Stmt.Assign s) {
+        Symbol sym = resolution.symbol(s);
+        Expr rhs = s.rhs.accept(this);
+        if (isTracked(sym)) {
+            if (isLiteral(rhs)) known.put(sym, value(rhs));
+            else known.remove(sym);
+        }
+        out.add(new Stmt.Assign(s.name, rhs, s.span));
+        return true;
+    }
+
+    @Override
+    public Boolean visitIfStmt(Stmt.If s) {
+        Expr cond = s.cond.accept(this);
+        if (cond instanceof Expr.BoolLit b) {
+            Stmt taken = b.value ? s.thenBranch : s.elseBranchOrNull;
+            return taken == null || taken.accept(this);
+        }
+
+        boolean[] completes = new boolean[1];
+        IdentityHashMap<Symbol, Integer> before = new IdentityHashMap<>(known);
+        Stmt thenBranch = evaluateSingle(s.thenBranch, completes);
+        boolean thenCompletes = completes[0];
+        IdentityHashMap<Symbol, Integer> afterThen = known;
+
+        known = new IdentityHashMap<>(before);
+        Stmt elseBranch = s.elseBranchOrNull == null ? null : evaluateSingle(s.elseBranchOrNull, completes);
+        boolean elseCompletes = s.elseBranchOrNull == null || completes[0];
+
+        // Afterwards only what both ways agree on is known
+        if (!thenCompletes) {
+            // known is already the else branch's
+        } else if (!elseCompletes) {
+            known = afterThen;
+        } else {
+            known.entrySet().removeIf(e -> !e.getValue().equals(afterThen.get(e.getKey())));
+        }
+
+        if (thenBranch == null) thenBranch = new Stmt.Block(new ArrayList<>(), s.thenBranch.span);
+        out.add(new Stmt.If(cond, thenBranch, elseBranch, s.span));
+        return thenCompletes || elseCompletes;
+    }
+
+    @Override
+    public Boolean visitWhileStmt(Stmt.While s) {
+        if (!definesFunctions(s.body)) {
+            Boolean completes = unroll(s);
+            if (completes != null) return completes;
+        }
+
+        // What the loop assigns is unknown at its head and after it
+        known.keySet().removeAll(assigned(s.body));
+        Expr cond = s.cond.accept(this);
+        if (cond instanceof Expr.BoolLit b && !b.value) return true;
+        IdentityHashMap<Symbol, Integer> atHead = new IdentityHashMap<>(known);
+        boolean[] completes = new boolean[1];
+        Stmt body = evaluateSingle(s.body, completes);
+        known = atHead;
+        out.add(new Stmt.While(cond, body == null ? new Stmt.Block(new ArrayList<>(), s.body.span) : body, s.span));
+        return true;
+    }
+
+    /**
+     * Tries to unroll a loop completely: its condition must be known at the start
+     * of every iteration and false (or a body that returns) within the limits.
+     *
+     * @return null if the loop was not unrolled, which leaves everything as it
+     *         was; otherwise whether the unrolled loop can complete normally
+     */
+    private Boolean unroll(Stmt.While s) {
+        IdentityHashMap<Symbol, Integer> before = new IdentityHashMap<>(known);
+        List<Stmt> savedOut = out;
+        List<Stmt> unrolled = new ArrayList<>();
+        for (int i = 0; i <= UNROLL_LIMIT; i++) {
+            Expr cond = s.cond.accept(this);
+            if (!(cond instanceof Expr.BoolLit b) || (b.value && i == UNROLL_LIMIT)) break;
+            if (!b.value) {
+                out.addAll(unrolled);
+                budget -= size(unrolled);
+                return true;
+            }
+            // Each iteration is a block of its own, so its variables are fresh
+            out = new ArrayList<>();
+            boolean completes = evaluateList(s.body instanceof Stmt.Block block ? block.stmts : List.of(s.body));
+            List<Stmt> iteration = out;
+            out = unrolled;
+            addBlock(iteration, s.body.span);
+            out = savedOut;
+            if (!completes) {
+                out.addAll(unrolled);
+                budget -= size(unrolled);
+                return false;
+            }
+            if (size(unrolled) > MAX_UNROLLED || size(unrolled) > budget) break;
+        }
+        known = before;
+        out = savedOut;
+        return null;
+    }
+
+    @Override
+    public Boolean visitReturnStmt(Stmt.Return s) {
+        out.add(new Stmt.Return(s.value.accept(this), s.span));
+        return false;
+    }
+
+    @Override
+    public Boolean visitExprStmt(Stmt.ExprStmt s) {
+        Expr e = s.expr.accept(this);
+        // What is left without a call has no effect
+        if (hasCall(e)) out.add(new Stmt.ExprStmt(e, s.span));
+        return true;
+    }
+
+    private static boolean hasCall(Expr e) {
+        if (e instanceof Expr.Call) return true;
+        if (e instanceof Expr.Unary u) return hasCall(u.expr);
+        if (e instanceof Expr.Binary b) {
+            // Division and modulo by a variable may fail
+            if ((b.op == Expr.BinOp.DIV || b.op == Expr.BinOp.MOD) && !(b.right instanceof Expr.IntLit r && r.value != 0)) {
+                return true;
+            }
+            return hasCall(b.left) || hasCall(b.right);
+        }
+        return false;
+    }
+
+    ///////////////////
+    /// EXPRESSIONS ///
+    ///////////////////
+
+    // Every evaluator returns a new node, so clones and unrolled copies never share one.
+
+    private static boolean isLiteral(Expr e) {
+        return e instanceof Expr.IntLit || e instanceof Expr.BoolLit;
+    }
+
+    /** @return the value of a literal, bools as 0/1 */
+    private static boolean isInt(Expr e, int value) {
+        return e instanceof Expr.IntLit i && i.value == value;
+    }
+
+    private static int value(Expr e) {
+        if (e instanceof Expr.IntLit i) return i.value;
+        return ((Expr.BoolLit) e).value ? 1 : 0;
+    }
+
+    private static Expr literal(int value, Ast.Type type, Ast.Span span) {
+        return type == Ast.Type.BOOL ? new Expr.BoolLit(value != 0, span) : new Expr.IntLit(value, span);
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary e) {
+        Expr l = e.left.accept(this);
+        if (e.op == Expr.BinOp.LAND || e.op == Expr.BinOp.LOR) {
+            if (l instanceof Expr.BoolLit b) {
+                // true && r and false || r are r; false && r and true || r skip r
+                return b.value == (e.op == Expr.BinOp.LAND) ? e.right.accept(this) : l;
+            }
+            return new Expr.Binary(l, e.op, e.right.accept(this), e.span);
+        }
+        Expr r = e.right.accept(this);
+        if (!isLiteral(l) || !isLiteral(r)) {
+            // Identities, as left by known values: x + 0, 0 + x, x - 0, x * 1, 1 * x, x / 1
+            if (isInt(r, 0) && (e.op == Expr.BinOp.ADD || e.op == Expr.BinOp.SUB)) return l;
+            if (isInt(r, 1) && (e.op == Expr.BinOp.MUL || e.op == Expr.BinOp.DIV)) return l;
+            if (isInt(l, 0) && e.op == Expr.BinOp.ADD || isInt(l, 1) && e.op == Expr.BinOp.MUL) return r;
+            return new Expr.Binary(l, e.op, r, e.span);
+        }
+        int a = value(l);
+        int b = value(r);
+        switch (e.op) {
+            case MUL: return new Expr.IntLit(a * b, e.span);
+            case DIV: return b == 0 ? new Expr.Binary(l, e.op, r, e.span) : new Expr.IntLit(a / b, e.span);
+            case MOD: return b == 0 ? new Expr.Binary(l, e.op, r, e.span) : new Expr.IntLit(a % b, e.span);
+            case ADD: return new Expr.IntLit(a + b, e.span);
+            case SUB: return new Expr.IntLit(a - b, e.span);
+            case LT: return new Expr.BoolLit(a < b, e.span);
+            case LE: return new Expr.BoolLit(a <= b, e.span);
+            case GT: return new Expr.BoolLit(a > b, e.span);
+            case GE: return new Expr.BoolLit(a >= b, e.span);
+            case EQ: return new Expr.BoolLit(a == b, e.span);
+            case NE: return new Expr.BoolLit(a != b, e.span);
+            default: throw new IllegalStateException("Unknown binary operator: " + e.op);
+        }
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary e) {
+        Expr inner = e.expr.accept(this);
+        if (inner instanceof Expr.IntLit i && e.op == Expr.UnOp.NEG) return new Expr.IntLit(-i.value, e.span);
+        if (inner instanceof Expr.BoolLit b && e.op == Expr.UnOp.NOT) return new Expr.BoolLit(!b.value, e.span);
+        return new Expr.Unary(e.op, inner, e.span);
+    }
+
+    @Override
+    public Expr visitIntLitExpr(Expr.IntLit e) {
+        return new Expr.IntLit(e.value, e.span);
+    }
+
+    @Override
+    public Expr visitBoolLitExpr(Expr.BoolLit e) {
+        return new Expr.BoolLit(e.value, e.span);
+    }
+
+    @Override
+    public Expr visitVarExpr(Expr.Var e) {
+        Symbol sym = resolution.symbol(e);
+        Integer value = isTracked(sym) ? known.get(sym) : null;
+        return value == null ? new Expr.Var(e.name, e.span) : literal(value, sym.type, e.span);
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call e) {
+        List<Expr> args = new ArrayList<>(e.args.size());
+        for (Expr arg : e.args) args.add(arg.accept(this));
+        Symbol sym = resolution.symbol(e);
+        if (sym.kind != Symbol.Kind.FUNCTION || sym.owner != null) return new Expr.Call(e.callee, args, e.span);
+
+        Clone c = specialization((Ast.FunDecl) sym.decl, args);
+        if (c == null) return new Expr.Call(e.callee, args, e.span);
+        if (c.result != null) return c.result.accept(this);
+        List<Expr> rest = new ArrayList<>();
+        for (int i = 0; i < args.size(); i++) {
+            if (c.constants[i] == null) rest.add(args.get(i));
+        }
+        return new Expr.Call(c.name, rest, e.span);
+    }
+}
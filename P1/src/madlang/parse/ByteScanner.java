@@ -0,0 +1,64 @@
+package madlang.parse;
+
+/**
+ * The run-length scans that most of lexing time goes to, over ASCII source
+ * bytes: identifiers, numbers, blanks and comments. Each returns the first
+ * index in [from, limit) that ends the run, or limit.
+ *
+ * SCALAR tests a byte at a time. A vector implementation that tests 32 or 64
+ * bytes at a time with jdk.incubator.vector lives in src-vector, outside the
+ * default build since it needs --add-modules jdk.incubator.vector to compile
+ * and run (make vector builds it); best() picks it when it is there.
+ */
+public interface ByteScanner {
+
+    /** @return the end of the identifier characters (letters, digits, _) from from */
+    int identEnd(byte[] src, int from, int limit);
+
+    /** @return the end of the digits from from */
+    int digitsEnd(byte[] src, int from, int limit);
+
+    /** @return the end of the spaces, tabs and carriage returns from from */
+    int blanksEnd(byte[] src, int from, int limit);
+
+    /** @return the index of the first newline from from */
+    int newlineAt(byte[] src, int from, int limit);
+
+    ByteScanner SCALAR = new ByteScanner() {
+        @Override
+        public int identEnd(byte[] src, int from, int limit) {
+            while (from < limit && Lexer.isIdentPart((char) src[from])) from++;
+            return from;
+        }
+
+        @Override
+        public int digitsEnd(byte[] src, int from, int limit) {
+            while (from < limit && src[from] >= '0' && src[from] <= '9') from++;
+            return from;
+        }
+
+        @Override
+        public int blanksEnd(byte[] src, int from, int limit) {
+            while (from < limit && (src[from] == ' ' || src[from] == '\t' || src[from] == '\r')) from++;
+            return from;
+        }
+
+        @Override
+        public int newlineAt(byte[] src, int from, int limit) {
+            while (from < limit && src[from] != '\n') from++;
+            return from;
+        }
+
+        @Override
+        public String toString() { return "scalar"; }
+    };
+
+    /**
+     * @return the vector scanner if it was built and jdk.incubator.vector is
+     *         loaded, otherwise SCALAR; -Dmadlang.vector=false forces SCALAR,
+     *         and -Dmadlang.vector=256 (or 128, 512) picks a vector width
+     */
+    static ByteScanner best() {
+        return Lexer.BestScanner.SCANNER;
+    }
+}
@@ -0,0 +1,141 @@
+package madlang.parse;
+
+import java.util.Arrays;
+
+/**
+ * Immutable text kept as a sequence of chunks of a few KB, so that an edit
+ * copies one chunk and the chunk table instead of the whole text.
+ *
+ * charAt costs a binary search over the chunks; the scanning methods below
+ * search once and then walk the chunks, and SourceFile uses those. The whole
+ * text is only joined by toString(), once per snapshot.
+ */
+final class ChunkedText implements CharSequence {
+
+    private static final int CHUNK = 4096;
+
+    // chunks[i] starts at offsets[i]; no chunk is empty
+    private final String[] chunks;
+    private final int[] offsets;
+    private final int length;
+
+    // Joined text, made on first use. A race only joins it twice.
+    private String joined;
+
+    private ChunkedText(String[] chunks, int[] offsets, int length) {
+        this.chunks = chunks;
+        this.offsets = offsets;
+        this.length = length;
+    }
+
+    static ChunkedText of(String text) {
+        int n = (text.length() + CHUNK - 1) / CHUNK;
+        String[] chunks = new String[n];
+        int[] offsets = new int[n];
+        for (int i = 0; i < n; i++) {
+            offsets[i] = i * CHUNK;
+            chunks[i] = text.substring(i * CHUNK, Math.min(text.length(), (i + 1) * CHUNK));
+        }
+        ChunkedText t = new ChunkedText(chunks, offsets, text.length());
+        t.joined = text;
+        return t;
+    }
+
+    /** @return this text with length characters at offset replaced */
+    ChunkedText replace(int offset, int length, String replacement) {
+        int end = offset + length;
+        if (chunks.length == 0) return of(replacement);
+        // Chunks [first, last] hold the replaced range, or the insertion point
+        int first = chunkAt(Math.min(offset, this.length - 1));
+        int last = end > offset ? chunkAt(end - 1) : first;
+        String merged = chunks[first].substring(0, offset - offsets[first])
+                      + replacement
+                      + chunks[last].substring(end - offsets[last]);
+
+        // The merged chunk is split back into pieces of at most CHUNK, or dropped if empty
+        int pieces = (merged.length() + CHUNK - 1) / CHUNK;
+        int n = chunks.length - (last - first + 1) + pieces;
+        String[] newChunks = new String[n];
+        int[] newOffsets = new int[n];
+        System.arraycopy(chunks, 0, newChunks, 0, first);
+        System.arraycopy(offsets, 0, newOffsets, 0, first);
+        int at = offsets[first];
+        for (int p = 0; p < pieces; p++) {
+            newChunks[first + p] = merged.substring(p * CHUNK, Math.min(merged.length(), (p + 1) * CHUNK));
+            newOffsets[first + p] = at + p * CHUNK;
+        }
+        int delta = replacement.length() - length;
+        for (int i = last + 1, j = first + pieces; i < chunks.length; i++, j++) {
+            newChunks[j] = chunks[i];
+            newOffsets[j] = offsets[i] + delta;
+        }
+        return new ChunkedText(newChunks, newOffsets, this.length + delta);
+    }
+
+    /** @return the offset of the first '\n' at or after from, or -1 */
+    int nextNewline(int from) {
+        if (from >= length) return -1;
+        for (int c = chunkAt(from); c < chunks.length; c++) {
+            int i = chunks[c].indexOf('\n', Math.max(0, from - offsets[c]));
+            if (i >= 0) return offsets[c] + i;
+        }
+        return -1;
+    }
+
+    /** @return the offset of the last '\n' before to, or -1 */
+    int previousNewline(int to) {
+        if (to <= 0) return -1;
+        for (int c = chunkAt(to - 1); c >= 0; c--) {
+            int i = chunks[c].lastIndexOf('\n', to - 1 - offsets[c]);
+            if (i >= 0) return offsets[c] + i;
+        }
+        return -1;
+    }
+
+    /** @return the number of '\n' in [from, to) */
+    int countNewlines(int from, int to) {
+        int count = 0;
+        for (int c = from < length ? chunkAt(from) : chunks.length; c < chunks.length && offsets[c] < to; c++) {
+            String chunk = chunks[c];
+            for (int i = Math.max(0, from - offsets[c]), e = Math.min(chunk.length(), to - offsets[c]); i < e; i++) {
+                if (chunk.charAt(i) == '\n') count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public int length() { return length; }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) throw new IndexOutOfBoundsException("index " + index + " of " + length);
+        int c = chunkAt(index);
+        return chunks[c].charAt(index - offsets[c]);
+    }
+
+    @Override
+    public String subSequence(int start, int end) {
+        if (start < 0 || start > end || end > length) {
+            throw new IndexOutOfBoundsException("range [" + start + ", " + end + ") of " + length);
+        }
+        if (joined != null) return joined.substring(start, end);
+        StringBuilder sb = new StringBuilder(end - start);
+        for (int c = start < length ? chunkAt(start) : chunks.length; c < chunks.length && offsets[c] < end; c++) {
+            sb.append(chunks[c], Math.max(0, start - offsets[c]), Math.min(chunks[c].length(), end - offsets[c]));
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        String s = joined;
+        if (s == null) joined = s = subSequence(0, length);
+        return s;
+    }
+
+    private int chunkAt(int index) {
+        int c = Arrays.binarySearch(offsets, index);
+        return c >= 0 ? c : -c - 2;
+    }
+}
@@ -0,0 +1,107 @@
+package madlang.parse;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import madlang.ast.Ast;
+
+/**
+ * Parses top-level declarations one at a time from a Reader, for inputs too
+ * large to hold whole.
+ *
+ * Only the text of the declaration being parsed is kept, and it is parsed in
+ * whole lines (tokens never span lines); the rest of a line read in part
+ * waits for more input, or for the end. When a declaration runs past the
+ * lines read so far, more is read, twice as much each time, and the
+ * declaration is parsed again from its start; so a declaration costs time
+ * and memory linear in its size. The text is kept as it comes, line breaks
+ * included, so spans and error positions are the lines and columns a parse
+ * of the whole input gives.
+ */
+public final class DeclReader {
+
+    private static final int MIN_READ = 8192;
+
+    private final Reader in;
+    private final char[] chunk = new char[MIN_READ];
+    private boolean eof = false;
+
+    // Text read and not fully parsed yet, whole lines up to limit (all of it at
+    // the end); pos is where parsing goes on, and lineStart the start of pos's
+    // line, which is line number line
+    private final StringBuilder buffer = new StringBuilder();
+    private int limit = 0;
+    private int pos = 0;
+    private int lineStart = 0;
+    private int line = 1;
+
+    public DeclReader(Reader in) {
+        this.in = in;
+    }
+
+    /**
+     * @return the next declaration, or null at the end of the input
+     * @throws ParseException if the input is not a program
+     */
+    public Ast.Decl next() throws IOException {
+        int want = MIN_READ;
+        while (true) {
+            fill(want);
+            want = 2 * Math.max(want, limit - pos);
+            Parser p = new Parser(new Lexer(buffer, pos, limit, line, lineStart));
+            if (p.atEnd()) {
+                // Only whitespace and comments are left
+                if (eof) return null;
+                consume(limit);
+                want = MIN_READ;
+                continue;
+            }
+            Ast.Decl decl;
+            try {
+                decl = p.decl();
+            } catch (ParseException e) {
+                if (e.atEnd && !eof) continue;
+                throw e;
+            }
+            consume(p.lastEnd());
+            return decl;
+        }
+    }
+
+    /** Reads until want characters of whole lines are unparsed or the input ends. */
+    private void fill(int want) throws IOException {
+        while (!eof && limit - pos < want) {
+            int n = in.read(chunk);
+            if (n < 0) {
+                eof = true;
+                limit = buffer.length();
+                return;
+            }
+            int from = buffer.length();
+            buffer.append(chunk, 0, n);
+            for (int i = buffer.length() - 1; i >= from; i--) {
+                if (buffer.charAt(i) == '\n') {
+                    limit = i + 1;
+                    break;
+                }
+            }
+        }
+    }
+
+    /** Moves past a parsed declaration, dropping the lines before it once they are half the buffer. */
+    private void consume(int end) {
+        for (int i = lineStart; i < end; i++) {
+            if (buffer.charAt(i) == '\n') {
+                line++;
+                lineStart = i + 1;
+            }
+        }
+        pos = end;
+        if (lineStart > MIN_READ && lineStart > buffer.length() / 2) {
+            buffer.delete(0, lineStart);
+            pos -= lineStart;
+            limit -= lineStart;
+            lineStart = 0;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package madlang.parse;
+
+import java.util.Arrays;
+
+import madlang.ast.Ast;
+
+/**
+ * Immutable table of the top-level declarations of a SourceFile, with the
+ * offsets of each one's first and past its last token, and its current line.
+ *
+ * Declarations are kept in blocks of at most BLOCK, whose offsets and lines
+ * are relative to a base per block. Replacing some declarations rebuilds only
+ * the blocks holding them; the blocks after are shared and just get new bases,
+ * so an edit costs O(BLOCK + size / BLOCK) instead of O(size).
+ */
+final class DeclTable {
+
+    private static final int BLOCK = 256;
+
+    private static final class Block {
+        final Ast.Decl[] decls;
+        // Relative to the block's base offset and line
+        final int[] starts;
+        final int[] ends;
+        final int[] lines;
+
+        Block(Ast.Decl[] decls, int[] starts, int[] ends, int[] lines) {
+            this.decls = decls;
+            this.starts = starts;
+            this.ends = ends;
+            this.lines = lines;
+        }
+    }
+
+    static final DeclTable EMPTY = new DeclTable(new Block[0], new int[0], new int[0], new int[0], 0);
+
+    private final Block[] blocks;
+    private final int[] baseStarts;
+    private final int[] baseLines;
+    // Index of the first declaration of each block
+    private final int[] firsts;
+    private final int size;
+
+    private DeclTable(Block[] blocks, int[] baseStarts, int[] baseLines, int[] firsts, int size) {
+        this.blocks = blocks;
+        this.baseStarts = baseStarts;
+        this.baseLines = baseLines;
+        this.firsts = firsts;
+        this.size = size;
+    }
+
+    int size() { return size; }
+
+    Ast.Decl decl(int i) { int b = blockOf(i); return blocks[b].decls[i - firsts[b]]; }
+
+    int start(int i) { int b = blockOf(i); return baseStarts[b] + blocks[b].starts[i - firsts[b]]; }
+
+    int end(int i) { int b = blockOf(i); return baseStarts[b] + blocks[b].ends[i - firsts[b]]; }
+
+    int line(int i) { int b = blockOf(i); return baseLines[b] + blocks[b].lines[i - firsts[b]]; }
+
+    /** @return every declaration, in a new builder */
+    Ast.Children<Ast.Decl> children() {
+        Ast.Children<Ast.Decl> all = new Ast.Children<>(size);
+        for (Block b : blocks) {
+            for (Ast.Decl d : b.decls) all.add(d);
+        }
+        return all;
+    }
+
+    /**
+     * Replaces declarations [lo, hi) with the given ones, whose offsets and
+     * lines are absolute, and moves the ones from hi on by delta characters
+     * and lineDelta lines.
+     */
+    DeclTable splice(int lo, int hi, Ast.Decl[] decls, int[] starts, int[] ends, int[] lines, int delta, int lineDelta) {
+        if (lo < 0 || lo > hi || hi > size) throw new IndexOutOfBoundsException("range [" + lo + ", " + hi + ") of " + size);
+
+        // Blocks [bFirst, bLast] are rebuilt from what stays of them and the new declarations
+        int bFirst = blocks.length == 0 ? 0 : blockOf(Math.min(lo, size - 1));
+        int bLast = hi > lo ? blockOf(hi - 1) : bFirst;
+        int first = blocks.length == 0 ? 0 : firsts[bFirst];
+        int last = blocks.length == 0 ? 0 : firsts[bLast] + blocks[bLast].decls.length;
+
+        int count = (lo - first) + decls.length + (last - hi);
+        Ast.Decl[] gathered = new Ast.Decl[count];
+        int[] gStarts = new int[count];
+        int[] gEnds = new int[count];
+        int[] gLines = new int[count];
+        int g = 0;
+        for (int i = first; i < lo; i++, g++) {
+            gathered[g] = decl(i);
+            gStarts[g] = start(i);
+            gEnds[g] = end(i);
+            gLines[g] = line(i);
+        }
+        for (int i = 0; i < decls.length; i++, g++) {
+            gathered[g] = decls[i];
+            gStarts[g] = starts[i];
+            gEnds[g] = ends[i];
+            gLines[g] = lines[i];
+        }
+        for (int i = hi; i < last; i++, g++) {
+            gathered[g] = decl(i);
+            gStarts[g] = start(i) + delta;
+            gEnds[g] = end(i) + delta;
+            gLines[g] = line(i) + lineDelta;
+        }
+
+        int rebuilt = (count + BLOCK - 1) / BLOCK;
+        int kept = blocks.length == 0 ? 0 : blocks.length - (bLast - bFirst + 1);
+        int n = kept + rebuilt;
+        Block[] newBlocks = Arrays.copyOf(blocks, n);
+        int[] newBaseStarts = Arrays.copyOf(baseStarts, n);
+        int[] newBaseLines = Arrays.copyOf(baseLines, n);
+        int[] newFirsts = Arrays.copyOf(firsts, n);
+        for (int r = 0; r < rebuilt; r++) {
+            int from = r * BLOCK, to = Math.min(count, from + BLOCK);
+            int b = bFirst + r;
+            newBaseStarts[b] = gStarts[from];
+            newBaseLines[b] = gLines[from];
+            newFirsts[b] = first + from;
+            newBlocks[b] = new Block(Arrays.copyOfRange(gathered, from, to),
+                                     relative(gStarts, from, to, gStarts[from]),
+                                     relative(gEnds, from, to, gStarts[from]),
+                                     relative(gLines, from, to, gLines[from]));
+        }
+        int shift = decls.length - (hi - lo);
+        for (int b = bLast + 1, j = bFirst + rebuilt; b < blocks.length; b++, j++) {
+            newBlocks[j] = blocks[b];
+            newBaseStarts[j] = baseStarts[b] + delta;
+            newBaseLines[j] = baseLines[b] + lineDelta;
+            newFirsts[j] = firsts[b] + shift;
+        }
+        return new DeclTable(newBlocks, newBaseStarts, newBaseLines, newFirsts, size + shift);
+    }
+
+    private static int[] relative(int[] values, int from, int to, int base) {
+        int[] out = new int[to - from];
+        for (int i = from; i < to; i++) out[i - from] = values[i] - base;
+        return out;
+    }
+
+    private int blockOf(int i) {
+        if (i < 0 || i >= size) throw new IndexOutOfBoundsException("declaration " + i + " of " + size);
+        int b = Arrays.binarySearch(firsts, i);
+        return b >= 0 ? b : -b - 2;
+    }
+}
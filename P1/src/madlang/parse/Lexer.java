@@ -0,0 +1,327 @@
+package madlang.parse;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+/**
+ * Splits MadLang source into tokens, one at a time.
+ *
+ * After next() the current token is described by the public fields: its kind,
+ * its range [start, end) in the source, and the line and column (both from 1)
+ * of its first character. Whitespace and // comments are skipped. Source
+ * text is ASCII; any other character is an error.
+ *
+ * A lexer may cover part of a larger text (see SourceFile): offsets are then
+ * into the whole text, and lines count from the line the part starts on.
+ *
+ * Source given as bytes, as read from a .madl file, is scanned by a
+ * ByteScanner, which may test many bytes at a time.
+ */
+public final class Lexer {
+
+    public enum Kind {
+        IDENT, INT,
+        // Keywords
+        FN, IF, ELSE, WHILE, RETURN, TRUE, FALSE, INT_TYPE, BOOL_TYPE,
+        // Punctuation
+        LPAREN, RPAREN, LBRACE, RBRACE, COMMA, COLON, SEMI, ASSIGN,
+        // Operators
+        PLUS, MINUS, STAR, SLASH, PERCENT, LT, LE, GT, GE, EQ, NE, AND, OR, NOT,
+        EOF
+    }
+
+    private final CharSequence src;
+    private final int limit;
+
+    // The source bytes and their scanner, or null for a CharSequence source
+    private final byte[] bytes;
+    private final ByteScanner scanner;
+
+    // Scanning position, and the line it is on with the offset that line starts at
+    private int pos;
+    private int line;
+    private int lineStart;
+
+    // The current token
+    public Kind kind = null;
+    public int start;
+    public int end;
+    public int tokenLine;
+    public int tokenCol;
+
+    public Lexer(CharSequence src) {
+        this(src, 0, src.length(), 1);
+    }
+
+    /**
+     * @param from where to start; must be at the start of a line
+     * @param to where to stop, exclusive
+     * @param line the line number of from
+     */
+    public Lexer(CharSequence src, int from, int to, int line) {
+        this(src, from, to, line, from);
+    }
+
+    /** Like the public constructor, but from may be inside the line that starts at lineStart. */
+    Lexer(CharSequence src, int from, int to, int line, int lineStart) {
+        this(src, null, null, from, to, line, lineStart);
+    }
+
+    /** Lexes ASCII source bytes with ByteScanner.best(). */
+    public Lexer(byte[] src) {
+        this(src, ByteScanner.best());
+    }
+
+    public Lexer(byte[] src, ByteScanner scanner) {
+        this(new Ascii(src), src, scanner, 0, src.length, 1, 0);
+    }
+
+    private Lexer(CharSequence src, byte[] bytes, ByteScanner scanner, int from, int to, int line, int lineStart) {
+        if (from < 0 || from > to || to > src.length() || lineStart < 0 || lineStart > from) {
+            throw new IndexOutOfBoundsException("range [" + from + ", " + to + ") of " + src.length());
+        }
+        this.src = src;
+        this.bytes = bytes;
+        this.scanner = bytes == null ? null : Objects.requireNonNull(scanner);
+        this.limit = to;
+        this.pos = from;
+        this.line = line;
+        this.lineStart = lineStart;
+    }
+
+    /** @return the text of the current token */
+    public String text() {
+        return src.subSequence(start, end).toString();
+    }
+
+    /** @return the kind of the token after the current one, without moving to it */
+    public Kind peek() {
+        int p = pos, l = line, ls = lineStart;
+        Kind k = kind;
+        int s = start, e = end, tl = tokenLine, tc = tokenCol;
+        Kind after = next();
+        pos = p;
+        line = l;
+        lineStart = ls;
+        kind = k;
+        start = s;
+        end = e;
+        tokenLine = tl;
+        tokenCol = tc;
+        return after;
+    }
+
+    /** Advances to the next token and returns its kind, EOF at the end. */
+    public Kind next() {
+        skipTrivia();
+        start = pos;
+        tokenLine = line;
+        tokenCol = pos - lineStart + 1;
+        if (pos >= limit) {
+            end = pos;
+            return kind = Kind.EOF;
+        }
+        char c = src.charAt(pos);
+        if (isIdentStart(c)) {
+            end = pos = identEnd(pos + 1);
+            return kind = keyword();
+        }
+        if (c >= '0' && c <= '9') {
+            int p = digitsEnd(pos + 1);
+            if (p < limit && isIdentPart(src.charAt(p))) throw error("malformed number");
+            end = pos = p;
+            return kind = Kind.INT;
+        }
+        char d = pos + 1 < limit ? src.charAt(pos + 1) : '\0';
+        Kind k;
+        int length = 1;
+        switch (c) {
+            case '(': k = Kind.LPAREN; break;
+            case ')': k = Kind.RPAREN; break;
+            case '{': k = Kind.LBRACE; break;
+            case '}': k = Kind.RBRACE; break;
+            case ',': k = Kind.COMMA; break;
+            case ':': k = Kind.COLON; break;
+            case ';': k = Kind.SEMI; break;
+            case '+': k = Kind.PLUS; break;
+            case '-': k = Kind.MINUS; break;
+            case '*': k = Kind.STAR; break;
+            case '/': k = Kind.SLASH; break;
+            case '%': k = Kind.PERCENT; break;
+            case '<': if (d == '=') { k = Kind.LE; length = 2; } else k = Kind.LT; break;
+            case '>': if (d == '=') { k = Kind.GE; length = 2; } else k = Kind.GT; break;
+            case '=': if (d == '=') { k = Kind.EQ; length = 2; } else k = Kind.ASSIGN; break;
+            case '!': if (d == '=') { k = Kind.NE; length = 2; } else k = Kind.NOT; break;
+            case '&': if (d == '&') { k = Kind.AND; length = 2; break; } throw error("expected &&");
+            case '|': if (d == '|') { k = Kind.OR; length = 2; break; } throw error("expected ||");
+            default: throw error("unexpected character " + describe(c));
+        }
+        end = pos += length;
+        return kind = k;
+    }
+
+    private void skipTrivia() {
+        while (pos < limit) {
+            char c = src.charAt(pos);
+            if (c == '\n') {
+                pos++;
+                line++;
+                lineStart = pos;
+            } else if (c == ' ' || c == '\t' || c == '\r') {
+                pos = blanksEnd(pos + 1);
+            } else if (c == '/' && pos + 1 < limit && src.charAt(pos + 1) == '/') {
+                pos = newlineAt(pos + 2);
+            } else {
+                return;
+            }
+        }
+    }
+
+    ////////////////////////
+    /// RUN-LENGTH SCANS ///
+    ////////////////////////
+
+    // Same as the ByteScanner methods. Over bytes, most runs (names, indents) are
+    // short, so the first bytes are tested here and only a longer run goes to
+    // the scanner.
+
+    private static final int SHORT_RUN = 8;
+
+    private int identEnd(int p) {
+        if (bytes != null) {
+            for (int stop = Math.min(limit, p + SHORT_RUN); p < stop; p++) {
+                if (!isIdentPart((char) bytes[p])) return p;
+            }
+            return scanner.identEnd(bytes, p, limit);
+        }
+        while (p < limit && isIdentPart(src.charAt(p))) p++;
+        return p;
+    }
+
+    private int digitsEnd(int p) {
+        if (bytes != null) {
+            for (int stop = Math.min(limit, p + SHORT_RUN); p < stop; p++) {
+                if (bytes[p] < '0' || bytes[p] > '9') return p;
+            }
+            return scanner.digitsEnd(bytes, p, limit);
+        }
+        while (p < limit && src.charAt(p) >= '0' && src.charAt(p) <= '9') p++;
+        return p;
+    }
+
+    private int blanksEnd(int p) {
+        if (bytes != null) {
+            for (int stop = Math.min(limit, p + SHORT_RUN); p < stop; p++) {
+                if (bytes[p] != ' ' && bytes[p] != '\t' && bytes[p] != '\r') return p;
+            }
+            return scanner.blanksEnd(bytes, p, limit);
+        }
+        while (p < limit && (src.charAt(p) == ' ' || src.charAt(p) == '\t' || src.charAt(p) == '\r')) p++;
+        return p;
+    }
+
+    private int newlineAt(int p) {
+        if (bytes != null) return scanner.newlineAt(bytes, p, limit);
+        while (p < limit && src.charAt(p) != '\n') p++;
+        return p;
+    }
+
+    private Kind keyword() {
+        switch (end - start) {
+            case 2:
+                if (is("fn")) return Kind.FN;
+                if (is("if")) return Kind.IF;
+                break;
+            case 3:
+                if (is("int")) return Kind.INT_TYPE;
+                break;
+            case 4:
+                if (is("else")) return Kind.ELSE;
+                if (is("true")) return Kind.TRUE;
+                if (is("bool")) return Kind.BOOL_TYPE;
+                break;
+            case 5:
+                if (is("while")) return Kind.WHILE;
+                if (is("false")) return Kind.FALSE;
+                break;
+            case 6:
+                if (is("return")) return Kind.RETURN;
+                break;
+            default:
+                break;
+        }
+        return Kind.IDENT;
+    }
+
+    private boolean is(String word) {
+        for (int i = 0; i < word.length(); i++) {
+            if (src.charAt(start + i) != word.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    static boolean isIdentStart(char c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c == '_';
+    }
+
+    static boolean isIdentPart(char c) {
+        return isIdentStart(c) || c >= '0' && c <= '9';
+    }
+
+    private static String describe(char c) {
+        return c >= ' ' && c < 0x7f ? "'" + c + "'" : String.format("U+%04X", (int) c);
+    }
+
+    private ParseException error(String message) {
+        return new ParseException(line, pos - lineStart + 1, message);
+    }
+
+    /** Source bytes as chars, one per byte. */
+    private static final class Ascii implements CharSequence {
+        private final byte[] bytes;
+
+        Ascii(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public int length() { return bytes.length; }
+
+        @Override
+        public char charAt(int index) { return (char) (bytes[index] & 0xff); }
+
+        @Override
+        public String subSequence(int start, int end) {
+            return new String(bytes, start, end - start, StandardCharsets.ISO_8859_1);
+        }
+
+        @Override
+        public String toString() { return subSequence(0, bytes.length); }
+    }
+
+    /** Holder of ByteScanner.best(), found on first use. */
+    static final class BestScanner {
+        static final ByteScanner SCANNER = find();
+
+        private BestScanner() {}
+
+        private static ByteScanner find() {
+            String setting = System.getProperty("madlang.vector", "true");
+            if (setting.equals("false")) return ByteScanner.SCALAR;
+            try {
+                Class<?> vector = Class.forName("madlang.parse.VectorByteScanner");
+                ByteScanner s = (ByteScanner) (setting.equals("true")
+                    ? vector.getConstructor().newInstance()
+                    : vector.getConstructor(int.class).newInstance(Integer.parseInt(setting)));
+                // Links the vector classes now, so a missing module shows here and not mid-lex
+                byte[] probe = "ab1 // c\n".getBytes(StandardCharsets.US_ASCII);
+                if (s.identEnd(probe, 0, probe.length) != 3 || s.newlineAt(probe, 0, probe.length) != 8) {
+                    return ByteScanner.SCALAR;
+                }
+                return s;
+            } catch (ReflectiveOperationException | LinkageError | IllegalArgumentException e) {
+                return ByteScanner.SCALAR;
+            }
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package madlang.parse;
+
+/**
+ * Thrown when source text is not a MadLang program.
+ */
+public final class ParseException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public final int line;
+    public final int col;
+    // True when the text ended in the middle of a declaration, so more text could make it parse
+    public final boolean atEnd;
+
+    public ParseException(int line, int col, String message) {
+        this(line, col, message, false);
+    }
+
+    public ParseException(int line, int col, String message, boolean atEnd) {
+        super(line + ":" + col + ": " + message);
+        this.line = line;
+        this.col = col;
+        this.atEnd = atEnd;
+    }
+}
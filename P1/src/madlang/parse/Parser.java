@@ -0,0 +1,392 @@
+package madlang.parse;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import madlang.ast.Ast;
+import madlang.ast.Expr;
+import madlang.ast.Stmt;
+import madlang.parse.Lexer.Kind;
+
+/**
+ * Recursive-descent parser for MadLang, the inverse of PrettyPrinter.
+ *
+ * program := decl*
+ * decl    := "fn" fun | IDENT ":" type ("=" expr)? ";"
+ * fun     := IDENT "(" (IDENT ":" type ("," IDENT ":" type)*)? ")" ":" type block
+ * block   := "{" stmt* "}"
+ * stmt    := block | "fn" fun | IDENT ":" type ("=" expr)? ";" | IDENT "=" expr ";"
+ *          | "if" "(" expr ")" stmt ("else" stmt)? | "while" "(" expr ")" stmt
+ *          | "return" expr ";" | expr ";"
+ * expr    := binary operators by Expr.BinOp precedence, all left-associative,
+ *            over unary - and !, literals, variables, calls and ( expr )
+ *
+ * Every node's span is the position of its first token, except for binary
+ * expressions, which are at their operator. A minus is a Unary node like any
+ * other, so parse(pretty(ast)) gives back ast; only -2147483648 is one
+ * literal, since 2147483648 alone is out of range.
+ *
+ * Statements and expressions nest at most MAX_DEPTH deep, so that neither the
+ * parser nor the recursive passes after it run out of stack; deeper nesting
+ * is a ParseException. A chain of n binary operators, a + b + ... + z, is n
+ * nodes deep, its first operand at the bottom, and counts as n levels on top
+ * of the deepest of its operands.
+ */
+public final class Parser {
+
+    /** How deep statements, parentheses and unary operators may nest. */
+    public static final int MAX_DEPTH = 1_000;
+
+    private final Lexer lexer;
+
+    // Statements and expressions being parsed that contain the current token
+    private int depth = 0;
+    // The deepest depth reached within the current operator chain
+    private int peak = 0;
+
+    Parser(Lexer lexer) {
+        this.lexer = lexer;
+        lexer.next();
+    }
+
+    /** @throws ParseException if the source is not a program */
+    public static Ast.Program parse(CharSequence source) {
+        return program(new Parser(new Lexer(source)));
+    }
+
+    /**
+     * Parses ASCII source bytes, as read from a .madl file, scanning them with
+     * ByteScanner.best().
+     *
+     * @throws ParseException if the source is not a program
+     */
+    public static Ast.Program parse(byte[] source) {
+        return program(new Parser(new Lexer(source)));
+    }
+
+    private static Ast.Program program(Parser p) {
+        Ast.Children<Ast.Decl> decls = new Ast.Children<>();
+        while (p.lexer.kind != Kind.EOF) decls.add(p.decl());
+        return Ast.Program.of(decls, new Ast.Span(1, 1));
+    }
+
+    /**
+     * Parses the declarations in part of a text, for SourceFile.
+     *
+     * @param from the start of a line in source
+     * @param line the line number of from
+     * @param ranges receives the start and end offset of each declaration, from its first to past its last token
+     */
+    static List<Ast.Decl> parseDecls(CharSequence source, int from, int to, int line, List<int[]> ranges) {
+        Parser p = new Parser(new Lexer(source, from, to, line));
+        List<Ast.Decl> decls = new ArrayList<>();
+        while (p.lexer.kind != Kind.EOF) {
+            int start = p.lexer.start;
+            decls.add(p.decl());
+            ranges.add(new int[] { start, p.lastEnd });
+        }
+        return decls;
+    }
+
+    // End offset of the last token consumed
+    private int lastEnd = 0;
+
+    /** @return true if all tokens are consumed */
+    boolean atEnd() {
+        return lexer.kind == Kind.EOF;
+    }
+
+    /** @return the offset past the last token consumed */
+    int lastEnd() {
+        return lastEnd;
+    }
+
+    ////////////////////
+    /// DECLARATIONS ///
+    ////////////////////
+
+    Ast.Decl decl() {
+        Ast.Span span = span();
+        if (accept(Kind.FN)) return fun(span);
+        String name = expectIdent("a declaration");
+        expect(Kind.COLON, "':'");
+        Ast.Type type = type();
+        Expr init = accept(Kind.ASSIGN) ? expr() : null;
+        expect(Kind.SEMI, "';'");
+        return new Ast.GlobalVarDecl(name, type, init, span);
+    }
+
+    /** Parses a function after its fn keyword. */
+    private Ast.FunDecl fun(Ast.Span span) {
+        String name = expectIdent("a function name");
+        expect(Kind.LPAREN, "'('");
+        Ast.Children<Ast.Param> params = new Ast.Children<>();
+        if (lexer.kind != Kind.RPAREN) {
+            do {
+                Ast.Span paramSpan = span();
+                String paramName = expectIdent("a parameter name");
+                expect(Kind.COLON, "':'");
+                params.add(new Ast.Param(paramName, type(), paramSpan));
+            } while (accept(Kind.COMMA));
+        }
+        expect(Kind.RPAREN, "')'");
+        expect(Kind.COLON, "':'");
+        Ast.Type returnType = type();
+        return Ast.FunDecl.of(name, params, returnType, block(), span);
+    }
+
+    private Ast.Type type() {
+        if (accept(Kind.INT_TYPE)) return Ast.Type.INT;
+        if (accept(Kind.BOOL_TYPE)) return Ast.Type.BOOL;
+        throw error("expected a type");
+    }
+
+    //////////////////
+    /// STATEMENTS ///
+    //////////////////
+
+    private Stmt.Block block() {
+        Ast.Span span = span();
+        expect(Kind.LBRACE, "'{'");
+        Ast.Children<Stmt> stmts = new Ast.Children<>();
+        while (lexer.kind != Kind.RBRACE) {
+            if (lexer.kind == Kind.EOF) throw error("expected '}'");
+            stmts.add(stmt());
+        }
+        advance();
+        return Stmt.Block.of(stmts, span);
+    }
+
+    private Stmt stmt() {
+        enter();
+        Stmt s = stmtBody();
+        depth--;
+        return s;
+    }
+
+    private Stmt stmtBody() {
+        Ast.Span span = span();
+        switch (lexer.kind) {
+            case LBRACE:
+                return block();
+            case FN:
+                advance();
+                return new Stmt.FunDef(fun(span), span);
+            case IF: {
+                advance();
+                Expr cond = condition();
+                Stmt thenBranch = stmt();
+                Stmt elseBranch = accept(Kind.ELSE) ? stmt() : null;
+                return new Stmt.If(cond, thenBranch, elseBranch, span);
+            }
+            case WHILE: {
+                advance();
+                Expr cond = condition();
+                return new Stmt.While(cond, stmt(), span);
+            }
+            case RETURN: {
+                advance();
+                Expr value = expr();
+                expect(Kind.SEMI, "';'");
+                return new Stmt.Return(value, span);
+            }
+            case IDENT: {
+                Kind after = lexer.peek();
+                if (after == Kind.COLON) {
+                    String name = lexer.text();
+                    advance();
+                    advance();
+                    Ast.Type type = type();
+                    Expr init = accept(Kind.ASSIGN) ? expr() : null;
+                    expect(Kind.SEMI, "';'");
+                    return new Stmt.VarDef(name, type, init, span);
+                }
+                if (after == Kind.ASSIGN) {
+                    String name = lexer.text();
+                    advance();
+                    advance();
+                    Expr rhs = expr();
+                    expect(Kind.SEMI, "';'");
+                    return new Stmt.Assign(name, rhs, span);
+                }
+                break;
+            }
+            default:
+                break;
+        }
+        Expr e = expr();
+        expect(Kind.SEMI, "';'");
+        return new Stmt.ExprStmt(e, span);
+    }
+
+    /** ( expr ) after if and while */
+    private Expr condition() {
+        expect(Kind.LPAREN, "'('");
+        Expr cond = expr();
+        expect(Kind.RPAREN, "')'");
+        return cond;
+    }
+
+    ///////////////////
+    /// EXPRESSIONS ///
+    ///////////////////
+
+    private Expr expr() {
+        enter();
+        Expr e = binary(0);
+        depth--;
+        return e;
+    }
+
+    /**
+     * Parses operands joined by operators that bind tighter than minPrecedence.
+     * The operands are parsed at the chain's own depth; the tree nests them
+     * as much as one level deeper per operator, which is counted here.
+     */
+    private Expr binary(int minPrecedence) {
+        int outerPeak = peak;
+        peak = depth;
+        Expr left = unary();
+        int operators = 0;
+        while (true) {
+            Expr.BinOp op = binOp(lexer.kind);
+            if (op == null || op.precedence() <= minPrecedence) break;
+            if (peak + ++operators > MAX_DEPTH) throw tooDeep();
+            Ast.Span span = span();
+            advance();
+            left = new Expr.Binary(left, op, binary(op.precedence()), span);
+        }
+        if (peak + operators > MAX_DEPTH) throw tooDeep();
+        peak = Math.max(outerPeak, peak + operators);
+        return left;
+    }
+
+    private Expr unary() {
+        Ast.Span span = span();
+        Expr.UnOp op = accept(Kind.NOT) ? Expr.UnOp.NOT : accept(Kind.MINUS) ? Expr.UnOp.NEG : null;
+        if (op == null) return primary();
+        if (op == Expr.UnOp.NEG && lexer.kind == Kind.INT && literalValue() == Integer.MAX_VALUE + 1L) {
+            return new Expr.IntLit((int) -intValue(true), span);
+        }
+        enter();
+        Expr operand = unary();
+        depth--;
+        return new Expr.Unary(op, operand, span);
+    }
+
+    private Expr primary() {
+        Ast.Span span = span();
+        switch (lexer.kind) {
+            case INT:
+                return new Expr.IntLit((int) intValue(false), span);
+            case TRUE:
+                advance();
+                return new Expr.BoolLit(true, span);
+            case FALSE:
+                advance();
+                return new Expr.BoolLit(false, span);
+            case LPAREN: {
+                advance();
+                Expr e = expr();
+                expect(Kind.RPAREN, "')'");
+                return e;
+            }
+            case IDENT: {
+                String name = lexer.text();
+                advance();
+                if (!accept(Kind.LPAREN)) return new Expr.Var(name, span);
+                Ast.Children<Expr> args = new Ast.Children<>();
+                if (lexer.kind != Kind.RPAREN) {
+                    do args.add(expr()); while (accept(Kind.COMMA));
+                }
+                expect(Kind.RPAREN, "')'");
+                return Expr.Call.of(name, args, span);
+            }
+            default:
+                throw error("expected an expression");
+        }
+    }
+
+    /** Reads the current int literal; 2147483648 is allowed after a minus only. */
+    private long intValue(boolean negated) {
+        long value = literalValue();
+        if (value > Integer.MAX_VALUE + (negated ? 1L : 0L)) throw error("int literal out of range");
+        advance();
+        return value;
+    }
+
+    /** @return the value of the current int literal, or anything above 2147483648 if it is larger */
+    private long literalValue() {
+        String digits = lexer.text();
+        long value = 0;
+        for (int i = 0; i < digits.length() && value <= Integer.MAX_VALUE + 1L; i++) {
+            value = value * 10 + (digits.charAt(i) - '0');
+        }
+        return value;
+    }
+
+    private static Expr.BinOp binOp(Kind kind) {
+        switch (kind) {
+            case STAR: return Expr.BinOp.MUL;
+            case SLASH: return Expr.BinOp.DIV;
+            case PERCENT: return Expr.BinOp.MOD;
+            case PLUS: return Expr.BinOp.ADD;
+            case MINUS: return Expr.BinOp.SUB;
+            case LT: return Expr.BinOp.LT;
+            case LE: return Expr.BinOp.LE;
+            case GT: return Expr.BinOp.GT;
+            case GE: return Expr.BinOp.GE;
+            case EQ: return Expr.BinOp.EQ;
+            case NE: return Expr.BinOp.NE;
+            case AND: return Expr.BinOp.LAND;
+            case OR: return Expr.BinOp.LOR;
+            default: return null;
+        }
+    }
+
+    ///////////////
+    /// HELPERS ///
+    ///////////////
+
+    private Ast.Span span() {
+        return new Ast.Span(lexer.tokenLine, lexer.tokenCol);
+    }
+
+    /** Counts one more level of nesting; the caller decrements depth when it is done. */
+    private void enter() {
+        if (++depth > MAX_DEPTH) throw tooDeep();
+        peak = Math.max(peak, depth);
+    }
+
+    private ParseException tooDeep() {
+        return error("nesting deeper than " + MAX_DEPTH + " levels");
+    }
+
+    private void advance() {
+        lastEnd = lexer.end;
+        lexer.next();
+    }
+
+    private boolean accept(Kind kind) {
+        if (lexer.kind != kind) return false;
+        advance();
+        return true;
+    }
+
+    private void expect(Kind kind, String what) {
+        if (!accept(kind)) throw error("expected " + what);
+    }
+
+    private String expectIdent(String what) {
+        if (lexer.kind != Kind.IDENT) throw error("expected " + what);
+        String name = lexer.text();
+        advance();
+        return name;
+    }
+
+    private ParseException error(String message) {
+        boolean atEnd = lexer.kind == Kind.EOF;
+        String found = atEnd ? "end of input" : "'" + lexer.text() + "'";
+        return new ParseException(lexer.tokenLine, lexer.tokenCol, message + ", found " + found, atEnd);
+    }
+}
@@ -0,0 +1,204 @@
+package madlang.parse;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import madlang.ast.Ast;
+
+/**
+ * An immutable snapshot of a source text and its parsed program, for editor
+ * loops that re-parse on every keystroke.
+ *
+ * edit() makes the next snapshot by re-lexing and re-parsing only the lines
+ * of the declarations the edit touches; every other Ast.Decl object is taken
+ * over as is. Since nodes are immutable, the spans inside a taken-over
+ * declaration keep the lines it was first parsed at: use lineShift() (or
+ * line()) to get current lines. Columns never change, because the re-parsed
+ * part is always whole lines.
+ *
+ * An edit that breaks the text, say by deleting a closing brace, gives a
+ * snapshot with an error(). The re-parsed lines are then left out, up to the
+ * next declaration that starts a line (a column-1 fn or global), and the
+ * declarations after it are kept as they were, so the cost stays that of the
+ * lines around the edit rather than of the rest of the file. The next edit
+ * re-parses the left-out lines along with its own, and thereby gets rid of
+ * the error when it fixes them. Edits far from the error re-parse all lines
+ * in between.
+ */
+public final class SourceFile {
+
+    private final ChunkedText text;
+    private final DeclTable table;
+    private final Ast.Program program;
+    private final ParseException error; // null if the text is a program
+    // The lines [errorFrom, errorTo) that were left out because they do not parse
+    private final int errorFrom;
+    private final int errorTo;
+
+    private SourceFile(ChunkedText text, DeclTable table) {
+        this(text, table, null, 0, 0);
+    }
+
+    private SourceFile(ChunkedText text, DeclTable table, ParseException error, int errorFrom, int errorTo) {
+        this.text = text;
+        this.table = table;
+        this.program = Ast.Program.of(table.children(), new Ast.Span(1, 1));
+        this.error = error;
+        this.errorFrom = errorFrom;
+        this.errorTo = errorTo;
+    }
+
+    /** @throws ParseException if the text is not a program */
+    public static SourceFile parse(String source) {
+        ChunkedText text = ChunkedText.of(source);
+        return new SourceFile(text, parse(DeclTable.EMPTY, 0, 0, source, 0, 1, 0, 0));
+    }
+
+    /**
+     * @return the text, which is kept in chunks so that edits need not copy all
+     *         of it; toString() joins it, once per snapshot
+     */
+    public CharSequence text() { return text; }
+
+    /** @return the declarations; with an error(), only those outside the lines that do not parse */
+    public Ast.Program program() { return program; }
+
+    /** @return why the text is not a program, or null if it is one */
+    public ParseException error() { return error; }
+
+    /** @return how many lines below its spans' lines the declaration now is */
+    public int lineShift(int decl) {
+        return table.line(decl) - table.decl(decl).span.line;
+    }
+
+    /** @return the current line of a span inside the given declaration */
+    public int line(int decl, Ast.Span span) {
+        return span.line + lineShift(decl);
+    }
+
+    /** @return the offset of the declaration's first token */
+    public int start(int decl) { return table.start(decl); }
+
+    /** @return the offset past the declaration's last token */
+    public int end(int decl) { return table.end(decl); }
+
+    /**
+     * Replaces length characters at offset and re-parses what changed.
+     *
+     * The lines of the edit, and those left out for an error if any, widened
+     * to the whole lines of every declaration on them, are parsed again. If
+     * that part no longer parses on its own, the edited text is not a program
+     * either: the part is left out up to the next declaration at the start of
+     * a line, and the snapshot carries the error.
+     *
+     * @return the snapshot of the edited text; this one is unchanged
+     */
+    public SourceFile edit(int offset, int length, String replacement) {
+        if (offset < 0 || length < 0 || offset + length > text.length()) {
+            throw new IndexOutOfBoundsException("edit [" + offset + ", " + (offset + length) + ") of " + text.length());
+        }
+        int n = table.size();
+
+        // Old text [from, to) is whole lines and holds the edit, the lines left out for
+        // an error and every declaration touching them; declarations [lo, hi) are the ones inside
+        int from = lineStart(offset);
+        int to = lineEnd(offset + length);
+        if (error != null) {
+            from = Math.min(from, errorFrom);
+            to = Math.max(to, errorTo);
+        }
+        int lo = firstEndingAfter(from);
+        int hi = lo;
+        while (true) {
+            if (lo > 0 && lineEnd(table.end(lo - 1)) > from) {
+                lo--;
+            } else if (hi < n && lineStart(table.start(hi)) < to) {
+                hi++;
+            } else {
+                break;
+            }
+            from = Math.min(from, lineStart(table.start(lo)));
+            to = Math.max(to, lineEnd(table.end(hi - 1)));
+        }
+        int line = lo > 0 ? table.line(lo - 1) + text.countNewlines(table.start(lo - 1), from) : 1 + text.countNewlines(0, from);
+
+        ChunkedText edited = text.replace(offset, length, replacement);
+        int delta = edited.length() - text.length();
+        try {
+            return new SourceFile(edited, parse(table, lo, hi, edited.subSequence(from, to + delta), from, line,
+                                                delta, text.countNewlines(from, to)));
+        } catch (ParseException e) {
+            // A declaration or the end follows the part, so the whole text does not parse either;
+            // leave the part out up to a declaration at the start of a line, and keep the rest
+            int resync = hi;
+            while (resync < n && table.start(resync) != lineStart(table.start(resync))) resync++;
+            int end = resync < n ? table.start(resync) : text.length();
+            DeclTable next = table.splice(lo, resync, new Ast.Decl[0], new int[0], new int[0], new int[0],
+                                          delta, edited.countNewlines(from, end + delta) - text.countNewlines(from, end));
+            return new SourceFile(edited, next, e, from, end + delta);
+        }
+    }
+
+    /**
+     * Parses part, which starts at offset from on the given line, and puts the
+     * declarations in it in place of [lo, hi) of table.
+     *
+     * @param delta how far the text after part moved
+     * @param oldNewlines how many newlines the text part replaces had
+     */
+    private static DeclTable parse(DeclTable table, int lo, int hi, String part, int from, int line,
+                                   int delta, int oldNewlines) {
+        // The part is parsed on its own, so its offsets are from its start
+        List<int[]> ranges = new ArrayList<>();
+        List<Ast.Decl> parsed = Parser.parseDecls(part, 0, part.length(), line, ranges);
+        int m = parsed.size();
+        int[] starts = new int[m];
+        int[] ends = new int[m];
+        int[] lines = new int[m];
+        int counted = 0;
+        for (int i = 0; i < m; i++) {
+            int[] range = ranges.get(i);
+            starts[i] = from + range[0];
+            ends[i] = from + range[1];
+            line += countLines(part, counted, range[0]);
+            counted = range[0];
+            lines[i] = line;
+        }
+        return table.splice(lo, hi, parsed.toArray(new Ast.Decl[0]), starts, ends, lines,
+                            delta, countLines(part, 0, part.length()) - oldNewlines);
+    }
+
+    ///////////////
+    /// HELPERS ///
+    ///////////////
+
+    /** @return the first declaration whose last line ends after offset, or the count */
+    private int firstEndingAfter(int offset) {
+        int lo = 0, hi = table.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (lineEnd(table.end(mid)) > offset) hi = mid;
+            else lo = mid + 1;
+        }
+        return lo;
+    }
+
+    /** @return the offset of the start of the line holding offset */
+    private int lineStart(int offset) {
+        return text.previousNewline(offset) + 1;
+    }
+
+    /** @return the offset past the newline ending the line holding offset, or the text length */
+    private int lineEnd(int offset) {
+        int newline = text.nextNewline(offset);
+        return newline < 0 ? text.length() : newline + 1;
+    }
+
+    private static int countLines(String s, int from, int to) {
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            if (s.charAt(i) == '\n') count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,116 @@
+package madlang.test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import madlang.PrettyPrinter;
+import madlang.aot.AotCompiler;
+import madlang.ast.Ast;
+import madlang.interp.Interpreter;
+import madlang.interp.MemorySink;
+import madlang.interp.RuntimeError;
+import madlang.parse.Parser;
+
+/**
+ * Checks AotCompiler on the test programs, random ones and two that divide by
+ * zero: each program
+ * with a main is compiled with compileToDirectory, loaded, and its run method
+ * must print what the interpreter prints and return the same value, or fail
+ * where the interpreter ends with a RuntimeError.
+ *
+ * Usage: java -cp out madlang.test.AotCheck [programs]
+ */
+public final class AotCheck {
+
+    // What input() returns in both runs, one value per call
+    private static final String INPUT = "7\n-3\n12\n0\n5\n";
+
+    private AotCheck() {}
+
+    public static void main(String[] args) throws IOException, ReflectiveOperationException {
+        int programs = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        List<Ast.Program> all = new ArrayList<>();
+        for (int t = 1; t <= 8; t++) all.add(TestPrograms.byName("test" + t));
+        for (int i = 0; i < programs; i++) all.add(RandomPrograms.generate(new Random(i)));
+        // Random programs rarely fail; these do, after some output
+        all.add(Parser.parse("fn main(): int { z: int = input() - 7; output(1); return 1 / z; }"));
+        all.add(Parser.parse("fn main(): int { output(true); return 5 % (input() + input() - 4); }"));
+
+        int runs = 0, errors = 0;
+        Path dir = Files.createTempDirectory("madlang-aot-check");
+        try {
+            for (int p = 0; p < all.size(); p++) {
+                Ast.Program program = all.get(p);
+                if (!hasMain(program)) continue;
+                String expected = interpret(program);
+                String actual = compiled(program, "Program" + p, dir);
+                if (!expected.equals(actual)) {
+                    throw new AssertionError("compiled program gives\n" + actual + "\ninstead of\n" + expected
+                                             + "\nfor\n" + PrettyPrinter.pretty(program));
+                }
+                runs++;
+                if (expected.equals("error")) errors++;
+            }
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                for (Path f : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) Files.delete(f);
+            }
+        }
+        System.out.printf("aot: %d compiled programs, %d of them failing, match the interpreter%n", runs, errors);
+    }
+
+    private static boolean hasMain(Ast.Program program) {
+        for (Ast.Decl d : program.decls) {
+            if (d instanceof Ast.FunDecl f && f.name.equals("main")) return true;
+        }
+        return false;
+    }
+
+    /** @return output lines and main's result, or "error" on a runtime error */
+    private static String interpret(Ast.Program program) {
+        MemorySink sink = new MemorySink();
+        try {
+            int result = Interpreter.compile(program).run(sink, new BufferedReader(new StringReader(INPUT)));
+            return sink + "return " + result + "\n";
+        } catch (RuntimeError e) {
+            return "error";
+        }
+    }
+
+    /** @return like interpret, from the class compiled into dir */
+    private static String compiled(Ast.Program program, String className, Path dir)
+            throws IOException, ReflectiveOperationException {
+        AotCompiler.compileToDirectory(program, className, dir);
+        try (URLClassLoader loader = new URLClassLoader(new URL[] { dir.toUri().toURL() })) {
+            Method run = loader.loadClass(className).getMethod("run", OutputStream.class, BufferedReader.class);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try {
+                int result = (int) run.invoke(null, out, new BufferedReader(new StringReader(INPUT)));
+                return out.toString(StandardCharsets.UTF_8) + "return " + result + "\n";
+            } catch (InvocationTargetException e) {
+                // What the generated main reports as a runtime error; anything else is a bug
+                Throwable cause = e.getCause();
+                if (cause instanceof ArithmeticException || cause instanceof StackOverflowError
+                        || cause.getClass().getName().equals(className + "$Failure")) {
+                    return "error";
+                }
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,332 @@
+package madlang.test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import madlang.PrettyPrinter;
+import madlang.analysis.AnalysisScheduler;
+import madlang.analysis.CallGraph;
+import madlang.analysis.FunctionTable;
+import madlang.analysis.Resolution;
+import madlang.analysis.Resolver;
+import madlang.ast.Ast;
+import madlang.parse.Parser;
+
+/**
+ * Checks CallGraph and AnalysisScheduler on programs written around random
+ * call graphs, some with nested functions, on call chains longer than any
+ * call stack, and on the test and random programs.
+ *
+ * The callees of every function must be its call sites in order. Two
+ * functions must share a component exactly when each reaches the other, as
+ * found by a search from every function; components must be numbered
+ * callees first, list their members in function order, and list the
+ * components they call and are called by each once.
+ *
+ * run() on pools of 1 and 4 threads must analyze every component once, after
+ * the components it calls; an exception thrown by the analysis must be
+ * rethrown, itself and not wrapped, and no component calling the failing one
+ * may be analyzed. runEach() must give every function its result.
+ *
+ * Usage: java -cp out madlang.test.CallGraphCheck [programs]
+ */
+public final class CallGraphCheck {
+
+    private CallGraphCheck() {}
+
+    public static void main(String[] args) {
+        int programs = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        ForkJoinPool[] pools = { new ForkJoinPool(1), new ForkJoinPool(4) };
+        int graphs = 0, components = 0, failures = 0;
+        try {
+            for (int i = 0; i < programs; i++) {
+                Random random = new Random(i);
+                List<List<Integer>> calls = new ArrayList<>();
+                String source = randomGraph(random, 1 + random.nextInt(i % 10 == 0 ? 300 : 40), calls);
+                CallGraph graph = graph(Parser.parse(source), source);
+                for (int f = 0; f < graph.size(); f++) {
+                    List<Integer> callees = new ArrayList<>();
+                    for (int e = 0; e < graph.calleeCount(f); e++) callees.add(graph.callee(f, e));
+                    if (!callees.equals(calls.get(f))) {
+                        throw new AssertionError(graph.function(f).name + " calls " + callees + " instead of "
+                                                 + calls.get(f) + " in\n" + source);
+                    }
+                }
+                check(graph, source);
+                failures += schedule(graph, pools, random, source);
+                graphs++;
+                components += graph.componentCount();
+            }
+            List<Ast.Program> all = new ArrayList<>();
+            for (int t = 1; t <= 8; t++) all.add(TestPrograms.byName("test" + t));
+            for (int i = 0; i < programs; i++) all.add(RandomPrograms.generate(new Random(i)));
+            for (Ast.Program program : all) {
+                String source = PrettyPrinter.pretty(program);
+                CallGraph graph = graph(program, source);
+                check(graph, source);
+                failures += schedule(graph, pools, new Random(graphs), source);
+                graphs++;
+                components += graph.componentCount();
+            }
+        } finally {
+            for (ForkJoinPool pool : pools) pool.shutdown();
+        }
+
+        // f0 calls f1, ..., which calls f(n - 1): one component per function, or one for all with a call back to f0
+        int n = 20_000;
+        for (boolean back : new boolean[] { false, true }) {
+            StringBuilder chain = new StringBuilder();
+            for (int f = 0; f < n; f++) {
+                String callee = f + 1 < n ? "f" + (f + 1) : back ? "f0" : null;
+                chain.append("fn f").append(f).append("(a: int): int { return ")
+                     .append(callee == null ? "a" : callee + "(a)").append("; }\n");
+            }
+            CallGraph graph = graph(Parser.parse(chain.toString()), "a chain of " + n + " calls");
+            if (graph.componentCount() != (back ? 1 : n)) {
+                throw new AssertionError("a chain of " + n + " calls has " + graph.componentCount() + " components");
+            }
+            for (int f = 0; f + 1 < n; f++) {
+                if (!back && graph.component(f) != n - 1 - f) {
+                    throw new AssertionError("f" + f + " of a chain is in component " + graph.component(f));
+                }
+                if (graph.isRecursive(f) != back) throw new AssertionError("f" + f + " of a chain is recursive: " + !back);
+            }
+            graphs++;
+        }
+        System.out.printf("call graph: %d graphs, %d components match a search from every function;"
+                          + " %d failing analyses rethrown%n", graphs, components, failures);
+    }
+
+    /**
+     * @return a program of n functions f0, f1, ..., each calling a few others
+     *         and some through a nested function h; calls gets the callees of
+     *         every function, numbered as in Resolution.functions
+     */
+    private static String randomGraph(Random random, int n, List<List<Integer>> calls) {
+        // Every function is numbered, then its h if it has one
+        boolean[] nested = new boolean[n];
+        int[] number = new int[n];
+        for (int f = 0, next = 0; f < n; f++) {
+            nested[f] = random.nextInt(4) == 0;
+            number[f] = next;
+            next += nested[f] ? 2 : 1;
+        }
+        int spread = 1 + random.nextInt(n);
+        StringBuilder sb = new StringBuilder();
+        for (int f = 0; f < n; f++) {
+            List<Integer> own = new ArrayList<>();
+            List<Integer> inner = new ArrayList<>();
+            sb.append("fn f").append(f).append("(a: int): int {\n");
+            if (nested[f]) {
+                sb.append("    fn h(b: int): int { return b");
+                for (int k = random.nextInt(3); k > 0; k--) {
+                    int g = callee(random, f, n, spread);
+                    sb.append(" + f").append(g).append("(b)");
+                    inner.add(number[g]);
+                }
+                sb.append("; }\n");
+            }
+            sb.append("    v: int = a;\n");
+            for (int k = random.nextInt(4); k > 0; k--) {
+                int g = callee(random, f, n, spread);
+                sb.append("    v = v + f").append(g).append("(v);\n");
+                own.add(number[g]);
+            }
+            if (nested[f]) {
+                sb.append("    v = h(v);\n");
+                own.add(number[f] + 1);
+            }
+            sb.append("    return v;\n}\n");
+            calls.add(own);
+            if (nested[f]) calls.add(inner);
+        }
+        return sb.toString();
+    }
+
+    /** @return a function within spread of f, itself included, so that graphs range from sparse to tangled */
+    private static int callee(Random random, int f, int n, int spread) {
+        return Math.floorMod(f + random.nextInt(2 * spread + 1) - spread, n);
+    }
+
+    private static CallGraph graph(Ast.Program program, String source) {
+        Resolution resolution = Resolver.resolve(program);
+        if (resolution.hasErrors()) throw new AssertionError(resolution.errors.get(0) + " in\n" + source);
+        return CallGraph.build(resolution);
+    }
+
+    /** Checks the components of graph against reachability found by a search from every function. */
+    private static void check(CallGraph graph, String source) {
+        int n = graph.size();
+        BitSet[] reaches = new BitSet[n]; // functions reached through one call or more
+        for (int f = 0; f < n; f++) {
+            reaches[f] = new BitSet(n);
+            int[] work = new int[n];
+            int top = 0;
+            work[top++] = f;
+            while (top > 0) {
+                int g = work[--top];
+                for (int e = 0; e < graph.calleeCount(g); e++) {
+                    int h = graph.callee(g, e);
+                    if (!reaches[f].get(h)) {
+                        reaches[f].set(h);
+                        work[top++] = h;
+                    }
+                }
+            }
+        }
+
+        int count = graph.componentCount();
+        for (int f = 0; f < n; f++) {
+            int c = graph.component(f);
+            if (c < 0 || c >= count) throw new AssertionError("component " + c + " of " + count + " in\n" + source);
+            if (graph.isRecursive(f) != reaches[f].get(f)) {
+                throw new AssertionError(graph.function(f).name + " is recursive: " + graph.isRecursive(f) + " in\n" + source);
+            }
+            for (int g = 0; g < n; g++) {
+                boolean mutual = f == g || reaches[f].get(g) && reaches[g].get(f);
+                if ((graph.component(g) == c) != mutual) {
+                    throw new AssertionError("functions " + f + " and " + g + " share a component: " + !mutual
+                                             + " in\n" + source);
+                }
+            }
+            for (int e = 0; e < graph.calleeCount(f); e++) {
+                if (graph.component(graph.callee(f, e)) > c) {
+                    throw new AssertionError("function " + f + " in component " + c + " calls one in component "
+                                             + graph.component(graph.callee(f, e)) + " in\n" + source);
+                }
+            }
+        }
+
+        int listed = 0;
+        for (int c = 0; c < count; c++) {
+            if (graph.memberCount(c) == 0) throw new AssertionError("component " + c + " is empty in\n" + source);
+            for (int i = 0; i < graph.memberCount(c); i++) {
+                int f = graph.member(c, i);
+                if (graph.component(f) != c || i > 0 && graph.member(c, i - 1) >= f) {
+                    throw new AssertionError("member " + i + " of component " + c + " is function " + f + " in\n" + source);
+                }
+            }
+            listed += graph.memberCount(c);
+
+            BitSet callees = new BitSet(count);
+            for (int i = 0; i < graph.memberCount(c); i++) {
+                int f = graph.member(c, i);
+                for (int e = 0; e < graph.calleeCount(f); e++) callees.set(graph.component(graph.callee(f, e)));
+            }
+            callees.clear(c);
+            BitSet listedCallees = new BitSet(count);
+            for (int i = 0; i < graph.componentCalleeCount(c); i++) listedCallees.set(graph.componentCallee(c, i));
+            if (!listedCallees.equals(callees) || graph.componentCalleeCount(c) != callees.cardinality()) {
+                throw new AssertionError("component " + c + " calls " + callees + " but lists "
+                                         + graph.componentCalleeCount(c) + " of " + listedCallees + " in\n" + source);
+            }
+            for (int i = 0; i < graph.componentCallerCount(c); i++) {
+                int caller = graph.componentCaller(c, i);
+                boolean calls = false;
+                for (int j = 0; j < graph.componentCalleeCount(caller); j++) calls |= graph.componentCallee(caller, j) == c;
+                if (!calls) throw new AssertionError("component " + caller + " is listed as calling " + c + " in\n" + source);
+            }
+        }
+        int callers = 0, edges = 0;
+        for (int c = 0; c < count; c++) {
+            callers += graph.componentCallerCount(c);
+            edges += graph.componentCalleeCount(c);
+        }
+        if (listed != n || callers != edges) {
+            throw new AssertionError(listed + " members of " + n + " functions, " + callers + " caller edges of "
+                                     + edges + " in\n" + source);
+        }
+    }
+
+    /**
+     * Runs an analysis that gives every function the length of the longest
+     * chain of components below its own, and one that fails on a random
+     * component, on each pool.
+     *
+     * @return the number of failing runs
+     */
+    private static int schedule(CallGraph graph, ForkJoinPool[] pools, Random random, String source) {
+        int n = graph.componentCount();
+        int[] height = new int[n];
+        for (int c = 0; c < n; c++) {
+            for (int i = 0; i < graph.componentCalleeCount(c); i++) {
+                height[c] = Math.max(height[c], height[graph.componentCallee(c, i)] + 1);
+            }
+        }
+        int failures = 0;
+        for (ForkJoinPool pool : pools) {
+            FunctionTable<Integer> each = AnalysisScheduler.runEach(graph, fun -> graph.indexOf(fun), pool);
+            for (int f = 0; f < graph.size(); f++) {
+                if (each.get(f) == null || each.get(f) != f) {
+                    throw new AssertionError("runEach gives function " + f + " the result " + each.get(f) + " in\n" + source);
+                }
+            }
+            if (n == 0) continue;
+
+            AtomicIntegerArray runs = new AtomicIntegerArray(n);
+            FunctionTable<Integer> results = AnalysisScheduler.run(graph, (members, done) -> {
+                int c = graph.component(graph.indexOf(members.get(0)));
+                runs.incrementAndGet(c);
+                for (int i = 0; i < members.size(); i++) {
+                    if (members.get(i) != graph.function(graph.member(c, i))) {
+                        throw new AssertionError("member " + i + " of component " + c + " is " + members.get(i).name);
+                    }
+                }
+                int h = 0;
+                for (Ast.FunDecl member : members) {
+                    int f = graph.indexOf(member);
+                    for (int e = 0; e < graph.calleeCount(f); e++) {
+                        int g = graph.callee(f, e);
+                        if (graph.component(g) == c) continue;
+                        Integer r = done.get(g);
+                        if (r == null) throw new AssertionError("component " + c + " runs before function " + g);
+                        h = Math.max(h, r + 1);
+                    }
+                }
+                return Collections.nCopies(members.size(), h);
+            }, pool);
+            for (int c = 0; c < n; c++) {
+                if (runs.get(c) != 1) throw new AssertionError("component " + c + " ran " + runs.get(c) + " times in\n" + source);
+                for (int i = 0; i < graph.memberCount(c); i++) {
+                    if (results.get(graph.member(c, i)) != height[c]) {
+                        throw new AssertionError("component " + c + " gets " + results.get(graph.member(c, i))
+                                                 + " instead of " + height[c] + " in\n" + source);
+                    }
+                }
+            }
+
+            // A failing component, and those that reach it, which must never be analyzed
+            int failing = random.nextInt(n);
+            boolean[] above = new boolean[n];
+            above[failing] = true;
+            for (int c = failing + 1; c < n; c++) {
+                for (int i = 0; i < graph.componentCalleeCount(c); i++) above[c] |= above[graph.componentCallee(c, i)];
+            }
+            RuntimeException thrown = new IllegalStateException("component " + failing);
+            AtomicIntegerArray started = new AtomicIntegerArray(n);
+            try {
+                AnalysisScheduler.run(graph, (members, done) -> {
+                    int c = graph.component(graph.indexOf(members.get(0)));
+                    started.incrementAndGet(c);
+                    if (c == failing) throw thrown;
+                    return Collections.nCopies(members.size(), (Integer) null);
+                }, pool);
+                throw new AssertionError("run() returns although component " + failing + " fails in\n" + source);
+            } catch (IllegalStateException e) {
+                if (e != thrown) throw new AssertionError("run() throws " + e + " instead of " + thrown, e);
+            }
+            for (int c = 0; c < n; c++) {
+                if (above[c] && c != failing && started.get(c) != 0) {
+                    throw new AssertionError("component " + c + " runs after component " + failing + " failed in\n" + source);
+                }
+            }
+            failures++;
+        }
+        return failures;
+    }
+}
@@ -0,0 +1,321 @@
+package madlang.test;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import madlang.PrettyPrinter;
+import madlang.analysis.Resolution;
+import madlang.analysis.Symbol;
+import madlang.analysis.TypeChecker;
+import madlang.ast.Ast;
+import madlang.ast.Expr;
+import madlang.interp.Interpreter;
+import madlang.interp.MemorySink;
+import madlang.interp.RuntimeError;
+import madlang.ir.Cfg;
+import madlang.ir.CfgBuilder;
+import madlang.ir.Instr;
+
+/**
+ * Checks CfgBuilder on the test programs and on random ones.
+ *
+ * Every Cfg must be well formed: terminators only at the end of blocks,
+ * successors matching the terminator, edges listed on both ends, every block
+ * reachable, idom() agreeing with dominance computed by brute force, and every
+ * operand defined by an instruction that dominates its use (for a phi, the end
+ * of the matching predecessor). Each program is then run by evaluating its
+ * Cfgs, which must give the output and result of the interpreter.
+ *
+ * Usage: java -cp out madlang.test.CfgCheck [programs]
+ */
+public final class CfgCheck {
+
+    // What input() returns in both runs, one value per call
+    private static final int[] INPUT = { 7, -3, 12, 0, 5 };
+
+    private CfgCheck() {}
+
+    public static void main(String[] args) {
+        int programs = args.length > 0 ? Integer.parseInt(args[0]) : 1_000;
+        int functions = 0, blocks = 0, runs = 0;
+        List<Ast.Program> all = new ArrayList<>();
+        for (int t = 1; t <= 8; t++) all.add(TestPrograms.byName("test" + t));
+        for (int i = 0; i < programs; i++) all.add(RandomPrograms.generate(new Random(i)));
+
+        for (Ast.Program program : all) {
+            TypeChecker.Result checked = TypeChecker.check(program);
+            if (checked.hasErrors()) throw new AssertionError(checked.errors + "\n" + PrettyPrinter.pretty(program));
+            List<Cfg> cfgs = CfgBuilder.buildAll(checked.resolution);
+            for (Cfg cfg : cfgs) {
+                try {
+                    verify(cfg);
+                } catch (AssertionError e) {
+                    throw new AssertionError(e.getMessage() + "\n" + cfg + "\n" + PrettyPrinter.pretty(program), e);
+                }
+                functions++;
+                blocks += cfg.blockCount();
+            }
+            String expected = interpret(program);
+            if (expected == null) continue; // no main
+            String actual = new Evaluator(checked.resolution, cfgs).run();
+            if (!expected.equals(actual)) {
+                throw new AssertionError("Cfg evaluation gives\n" + actual + "\ninstead of\n" + expected
+                                         + "\nfor\n" + PrettyPrinter.pretty(program));
+            }
+            runs++;
+        }
+        System.out.printf("cfg: %d programs, %d functions, %d blocks well formed; %d runs match the interpreter%n",
+                          all.size(), functions, blocks, runs);
+    }
+
+    ///////////////////////
+    /// WELL-FORMEDNESS ///
+    ///////////////////////
+
+    static void verify(Cfg cfg) {
+        int n = cfg.blockCount();
+        check(n > 0, "no blocks");
+        check(cfg.predCount(0) == 0, "the entry has predecessors");
+        int edges = 0;
+        for (int b = 0; b < n; b++) {
+            check(cfg.firstInstr(b) < cfg.endInstr(b), "b" + b + " is empty");
+            boolean phis = true;
+            for (int id = cfg.firstInstr(b); id < cfg.endInstr(b); id++) {
+                Instr in = cfg.instr(id);
+                check(in.id == id && in.block == b, "v" + id + " is misnumbered");
+                check(in.isTerminator() == (id == cfg.endInstr(b) - 1), "v" + id + ": terminators end blocks");
+                if (in.op == Instr.Op.PHI) check(phis, "v" + id + ": phi after other instructions");
+                else phis = false;
+            }
+            Instr last = cfg.terminator(b);
+            int succs = last.op == Instr.Op.JUMP ? 1 : last.op == Instr.Op.BRANCH ? 2 : 0;
+            check(cfg.succCount(b) == succs, "b" + b + " has " + cfg.succCount(b) + " successors for " + last.op);
+            for (int i = 0; i < cfg.succCount(b); i++) {
+                int s = cfg.succ(b, i);
+                boolean listed = false;
+                for (int p = 0; p < cfg.predCount(s); p++) listed |= cfg.pred(s, p) == b;
+                check(listed, "b" + b + " -> b" + s + " is missing from the predecessors");
+            }
+            edges += cfg.succCount(b) - cfg.predCount(b);
+        }
+        check(edges == 0, "predecessor and successor lists differ in size");
+
+        boolean[][] dominates = new boolean[n][];
+        for (int a = 0; a < n; a++) {
+            // a dominates exactly the blocks the entry cannot reach without it
+            boolean[] reached = reachable(cfg, a);
+            dominates[a] = new boolean[n];
+            for (int b = 0; b < n; b++) dominates[a][b] = b == a || !reached[b];
+        }
+        boolean[] all = reachable(cfg, -1);
+        for (int b = 0; b < n; b++) {
+            check(all[b], "b" + b + " is unreachable");
+            for (int a = 0; a < n; a++) {
+                check(cfg.dominates(a, b) == dominates[a][b],
+                      "dominates(b" + a + ", b" + b + ") should be " + dominates[a][b]);
+            }
+        }
+
+        for (int id = 0; id < cfg.instrCount(); id++) {
+            Instr in = cfg.instr(id);
+            check(in.argCount() == arity(in, cfg), "v" + id + " has " + in.argCount() + " operands");
+            for (int i = 0; i < in.argCount(); i++) {
+                int a = in.arg(i);
+                check(a >= 0 && a < cfg.instrCount() && cfg.instr(a).hasValue(), "v" + id + " uses no value: " + a);
+                Instr def = cfg.instr(a);
+                if (in.op == Instr.Op.PHI) {
+                    int pred = cfg.pred(in.block, i);
+                    check(dominates[def.block][pred], "phi v" + id + ": v" + a + " does not reach b" + pred);
+                } else {
+                    check(def.block == in.block ? a < id : dominates[def.block][in.block],
+                          "v" + id + ": v" + a + " does not dominate its use");
+                }
+            }
+        }
+    }
+
+    /** @return the blocks the entry reaches without going through block without (-1 for none) */
+    private static boolean[] reachable(Cfg cfg, int without) {
+        boolean[] seen = new boolean[cfg.blockCount()];
+        if (without == 0) return seen;
+        ArrayDeque<Integer> work = new ArrayDeque<>();
+        work.push(0);
+        seen[0] = true;
+        while (!work.isEmpty()) {
+            int b = work.pop();
+            for (int i = 0; i < cfg.succCount(b); i++) {
+                int s = cfg.succ(b, i);
+                if (s != without && !seen[s]) {
+                    seen[s] = true;
+                    work.push(s);
+                }
+            }
+        }
+        return seen;
+    }
+
+    private static int arity(Instr in, Cfg cfg) {
+        switch (in.op) {
+            case CONST: case PARAM: case LOAD: case JUMP: return 0;
+            case UNARY: case STORE: case BRANCH: case RETURN: return 1;
+            case BINARY: return 2;
+            case PHI: return cfg.predCount(in.block);
+            default: return in.argCount(); // CALL
+        }
+    }
+
+    private static void check(boolean ok, String message) {
+        if (!ok) throw new AssertionError(message);
+    }
+
+    //////////////////
+    /// EVALUATION ///
+    //////////////////
+
+    /** @return output lines (bools as 1 and 0) and main's result, "error" on a runtime error, or null without main */
+    private static String interpret(Ast.Program program) {
+        boolean hasMain = false;
+        for (Ast.Decl d : program.decls) hasMain |= d instanceof Ast.FunDecl f && f.name.equals("main");
+        if (!hasMain) return null;
+        MemorySink sink = new MemorySink();
+        try {
+            StringBuilder input = new StringBuilder();
+            for (int v : INPUT) input.append(v).append('\n');
+            int result = Interpreter.compile(program).run(sink, new BufferedReader(new StringReader(input.toString())));
+            return sink.toString().replace("true", "1").replace("false", "0") + "return " + result + "\n";
+        } catch (RuntimeError e) {
+            return "error";
+        }
+    }
+
+    /**
+     * Runs a program from its Cfgs. Memory variables of a function live in a
+     * map per call; without first-class functions, the frame a nested function
+     * reaches is always the latest call of the function that defines it.
+     */
+    private static final class Evaluator {
+        private final Resolution resolution;
+        private final IdentityHashMap<Ast.FunDecl, Cfg> cfgs = new IdentityHashMap<>();
+        private final HashMap<Symbol, Integer> globals = new HashMap<>();
+        private final IdentityHashMap<Ast.FunDecl, ArrayDeque<Map<Symbol, Integer>>> frames = new IdentityHashMap<>();
+        private final StringBuilder out = new StringBuilder();
+        private int inputs = 0;
+
+        Evaluator(Resolution resolution, List<Cfg> cfgs) {
+            this.resolution = resolution;
+            for (Cfg cfg : cfgs) this.cfgs.put(cfg.fun, cfg);
+        }
+
+        String run() {
+            Cfg main = null;
+            for (Ast.Decl d : resolution.program.decls) {
+                if (d instanceof Ast.GlobalVarDecl g && g.initOrNull != null) {
+                    globals.put(resolution.symbol(g), literal(g.initOrNull));
+                } else if (d instanceof Ast.FunDecl f && f.name.equals("main")) {
+                    main = cfgs.get(f);
+                }
+            }
+            try {
+                int result = call(main, new int[0]);
+                return out + "return " + result + "\n";
+            } catch (ArithmeticException | IllegalStateException e) {
+                return "error";
+            }
+        }
+
+        // Globals are initialized before any Cfg runs; the checked programs keep them literal
+        private static int literal(Expr e) {
+            if (e instanceof Expr.IntLit i) return i.value;
+            if (e instanceof Expr.BoolLit b) return b.value ? 1 : 0;
+            if (e instanceof Expr.Unary u && u.op == Expr.UnOp.NEG) return -literal(u.expr);
+            throw new IllegalArgumentException("global initializer is not a literal");
+        }
+
+        private int call(Cfg cfg, int[] args) {
+            ArrayDeque<Map<Symbol, Integer>> stack = frames.computeIfAbsent(cfg.fun, f -> new ArrayDeque<>());
+            stack.push(new HashMap<>());
+            try {
+                int[] values = new int[cfg.instrCount()];
+                int block = 0, from = -1;
+                while (true) {
+                    int id = cfg.firstInstr(block);
+                    // Phis read their operands together, on entry to the block
+                    int phis = id;
+                    while (phis < cfg.endInstr(block) && cfg.instr(phis).op == Instr.Op.PHI) phis++;
+                    if (phis > id) {
+                        int p = 0;
+                        while (cfg.pred(block, p) != from) p++;
+                        int[] in = new int[phis - id];
+                        for (int i = id; i < phis; i++) in[i - id] = values[cfg.instr(i).arg(p)];
+                        for (int i = id; i < phis; i++) values[i] = in[i - id];
+                    }
+                    for (id = phis; id < cfg.endInstr(block) - 1; id++) values[id] = execute(cfg.instr(id), values, args);
+                    Instr last = cfg.terminator(block);
+                    from = block;
+                    switch (last.op) {
+                        case RETURN: return values[last.arg(0)];
+                        case JUMP: block = cfg.succ(block, 0); break;
+                        default: block = cfg.succ(block, values[last.arg(0)] != 0 ? 0 : 1); break;
+                    }
+                }
+            } finally {
+                stack.pop();
+            }
+        }
+
+        private int execute(Instr in, int[] values, int[] args) {
+            switch (in.op) {
+                case CONST: return in.constant;
+                case PARAM: return args[in.constant];
+                case UNARY: {
+                    int v = values[in.arg(0)];
+                    return in.unOp == Expr.UnOp.NEG ? -v : v == 0 ? 1 : 0;
+                }
+                case BINARY: return binary(in.binOp, values[in.arg(0)], values[in.arg(1)]);
+                case LOAD: return memory(in.symbol).getOrDefault(in.symbol, 0);
+                case STORE:
+                    memory(in.symbol).put(in.symbol, values[in.arg(0)]);
+                    return 0;
+                case CALL: {
+                    int[] actual = new int[in.argCount()];
+                    for (int i = 0; i < actual.length; i++) actual[i] = values[in.arg(i)];
+                    if (in.symbol == Symbol.OUTPUT) {
+                        out.append(actual[0]).append('\n');
+                        return 0;
+                    }
+                    if (in.symbol == Symbol.INPUT) return inputs < INPUT.length ? INPUT[inputs++] : 0;
+                    return call(cfgs.get((Ast.FunDecl) in.symbol.decl), actual);
+                }
+                default: throw new IllegalStateException("unexpected " + in);
+            }
+        }
+
+        private Map<Symbol, Integer> memory(Symbol sym) {
+            return sym.kind == Symbol.Kind.GLOBAL ? globals : frames.get(sym.owner).peek();
+        }
+
+        private static int binary(Expr.BinOp op, int l, int r) {
+            switch (op) {
+                case MUL: return l * r;
+                case DIV: return l / r;
+                case MOD: return l % r;
+                case ADD: return l + r;
+                case SUB: return l - r;
+                case LT: return l < r ? 1 : 0;
+                case LE: return l <= r ? 1 : 0;
+                case GT: return l > r ? 1 : 0;
+                case GE: return l >= r ? 1 : 0;
+                case EQ: return l == r ? 1 : 0;
+                case NE: return l != r ? 1 : 0;
+                default: throw new IllegalStateException("unexpected " + op);
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package madlang.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
+
+import madlang.ast.Ast;
+import madlang.exec.ExecutionResult;
+import madlang.exec.ExecutionService;
+import madlang.interp.ExecutionLimits;
+import madlang.interp.LimitExceededException;
+import madlang.parse.Parser;
+
+/**
+ * Checks ExecutionService with many submissions in flight: runs of one
+ * Ast.Program, which share its compiled form, runs of a program that does
+ * not compile, and runs that end at a limit, all get their own results.
+ * Runs cancelled around the moment they start must free their worker.
+ *
+ * Usage: java -cp out madlang.test.ExecutionCheck
+ */
+public final class ExecutionCheck {
+
+    private ExecutionCheck() {}
+
+    public static void main(String[] args) {
+        Ast.Program echo = Parser.parse("fn main(): int { n: int = input(); i: int = 0;"
+                                        + " while (i < n) { output(i); i = i + 1; } return n; }");
+        Ast.Program broken = Parser.parse("fn main(): int { return y; }");
+        Ast.Program spin = Parser.parse("fn main(): int { while (true) { } return 0; }");
+        ExecutionLimits fewSteps = ExecutionService.DEFAULT_LIMITS.withMaxSteps(10_000);
+
+        int checks = 0;
+        try (ExecutionService service = new ExecutionService(4, ExecutionService.DEFAULT_LIMITS)) {
+            List<CompletableFuture<ExecutionResult>> echoes = new ArrayList<>();
+            List<CompletableFuture<ExecutionResult>> errors = new ArrayList<>();
+            List<CompletableFuture<ExecutionResult>> spins = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                echoes.add(service.submit(echo, i + "\n"));
+                errors.add(service.submit(broken, null));
+                spins.add(service.submit(spin, null, fewSteps));
+            }
+            for (int i = 0; i < 50; i++) {
+                StringBuilder expected = new StringBuilder();
+                for (int k = 0; k < i; k++) expected.append(k).append('\n');
+                ExecutionResult r = echoes.get(i).join();
+                expect(r.status == ExecutionResult.Status.COMPLETED && r.exitValue == i
+                       && r.output.equals(expected.toString()), "echo " + i, r);
+                r = errors.get(i).join();
+                expect(r.status == ExecutionResult.Status.COMPILE_ERROR && r.errorOrNull.contains("y"), "compile error", r);
+                r = spins.get(i).join();
+                expect(r.status == ExecutionResult.Status.LIMIT_EXCEEDED
+                       && r.limitOrNull == LimitExceededException.Limit.STEPS, "step limit", r);
+                checks += 3;
+            }
+        }
+        checks += cancels(spin);
+        System.out.printf("execution: %d results checked%n", checks);
+    }
+
+    /**
+     * Cancels endless runs at random moments around their start. A cancel
+     * that misses its run leaves a worker spinning until the time limit, and
+     * a run submitted afterwards would wait behind it.
+     */
+    private static int cancels(Ast.Program spin) {
+        ExecutionLimits slow = ExecutionLimits.NONE.withMaxMillis(30_000);
+        Random random = new Random(1);
+        int cancelled = 0;
+        try (ExecutionService service = new ExecutionService(2, slow)) {
+            for (int i = 0; i < 2_000; i++) {
+                CompletableFuture<ExecutionResult> run = service.submit(spin, null);
+                LockSupport.parkNanos(random.nextInt(200_000));
+                if (run.cancel(true)) cancelled++;
+            }
+            ExecutionResult r;
+            try {
+                r = service.submit(Parser.parse("fn main(): int { return 7; }"), null).get(10, TimeUnit.SECONDS);
+            } catch (TimeoutException e) {
+                throw new AssertionError("a cancelled run kept its worker");
+            } catch (InterruptedException | ExecutionException e) {
+                throw new AssertionError(e);
+            }
+            expect(r.status == ExecutionResult.Status.COMPLETED && r.exitValue == 7, "run after cancels", r);
+        }
+        if (cancelled == 0) throw new AssertionError("no run was cancelled");
+        return cancelled;
+    }
+
+    private static void expect(boolean ok, String what, ExecutionResult r) {
+        if (!ok) throw new AssertionError(what + ": " + r);
+    }
+}
@@ -0,0 +1,117 @@
+package madlang.test;
+
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import madlang.FormatOptions;
+import madlang.FormatServer;
+import madlang.PrettyPrinter;
+import madlang.parse.ParseException;
+import madlang.parse.Parser;
+
+/**
+ * Checks FormatServer end to end on a socket in a temporary directory: every
+ * request gets a reply, formatted text, a syntax error (also for nesting far
+ * too deep) or an error, and the socket file is managed as documented. A
+ * client that stops sending gets an error when its read timeout runs out,
+ * and the one thread it held goes on to serve the next request.
+ *
+ * Usage: java -cp out madlang.test.FormatServerCheck
+ */
+public final class FormatServerCheck {
+
+    private FormatServerCheck() {}
+
+    public static void main(String[] args) throws IOException {
+        Path dir = Files.createTempDirectory("madlang-format-check");
+        Path socket = dir.resolve("format.sock");
+        int checks = 0;
+        try {
+            // A socket file nobody answers on is replaced
+            ServerSocketChannel dead = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            dead.bind(UnixDomainSocketAddress.of(socket));
+            dead.close();
+
+            FormatServer server = FormatServer.start(socket, 2, FormatOptions.DEFAULT);
+            try {
+                String source = "fn main(): int { x: int = -0; return x * (1 + 2); }";
+                String expected = PrettyPrinter.pretty(Parser.parse(source));
+                if (!FormatServer.format(socket, bytes(source)).equals(expected)) throw new AssertionError("formatted differently");
+                checks++;
+
+                syntaxError(socket, "fn main(): int { return 1 }", 1);
+                syntaxError(socket, "fn main(): int { return " + "(".repeat(20_000) + "1" + ")".repeat(20_000) + "; }", 1);
+                syntaxError(socket, "x: int = " + "-".repeat(20_000) + "1;", 1);
+                checks += 3;
+
+                try {
+                    FormatServer.format(socket, new byte[FormatServer.MAX_SOURCE + 1]);
+                    throw new AssertionError("a source over MAX_SOURCE is formatted");
+                } catch (IllegalStateException e) {
+                    if (!e.getMessage().contains("larger than")) throw new AssertionError("unexpected error: " + e.getMessage());
+                }
+                checks++;
+
+                try {
+                    FormatServer.start(socket, 1, FormatOptions.DEFAULT).close();
+                    throw new AssertionError("a second server started on a live socket");
+                } catch (IllegalStateException e) {
+                    // expected
+                }
+                checks++;
+            } finally {
+                server.close();
+            }
+            if (Files.exists(socket)) throw new AssertionError("close() left the socket file behind");
+            checks++;
+
+            checks += stalled(socket);
+        } finally {
+            Files.deleteIfExists(socket);
+            Files.deleteIfExists(dir);
+        }
+        System.out.printf("format server: %d checks passed%n", checks);
+    }
+
+    /** A server of one thread has a client that never finishes sending, and then one that does. */
+    private static int stalled(Path socket) throws IOException {
+        String source = "x: int = 1 + 2;";
+        long start = System.nanoTime();
+        FormatServer server = FormatServer.start(socket, 1, FormatOptions.DEFAULT, Duration.ofMillis(200));
+        try (SocketChannel stalled = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+            Channels.newOutputStream(stalled).write(bytes(source));
+            // Waits for the thread the stalled client holds
+            if (!FormatServer.format(socket, bytes(source)).equals(PrettyPrinter.pretty(Parser.parse(source)))) {
+                throw new AssertionError("formatted differently after a stalled client");
+            }
+            String reply = new String(Channels.newInputStream(stalled).readAllBytes(), StandardCharsets.UTF_8);
+            if (!reply.startsWith("error\nsource not sent within")) throw new AssertionError("stalled client got " + reply);
+        } finally {
+            server.close();
+        }
+        if (System.nanoTime() - start < 200_000_000) throw new AssertionError("the read timeout ran out early");
+        return 2;
+    }
+
+    private static void syntaxError(Path socket, String source, int line) throws IOException {
+        try {
+            FormatServer.format(socket, bytes(source));
+        } catch (ParseException e) {
+            if (e.line == line) return;
+            throw new AssertionError("syntax error on line " + e.line + " instead of " + line, e);
+        }
+        throw new AssertionError("formatted a source with a syntax error");
+    }
+
+    private static byte[] bytes(String source) {
+        return source.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,212 @@
+package madlang.test;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+
+import madlang.ast.Ast;
+import madlang.interp.CompileException;
+import madlang.interp.ExecutionLimits;
+import madlang.interp.Interpreter;
+import madlang.interp.InterpreterOptions;
+import madlang.interp.LimitExceededException;
+import madlang.interp.MemorySink;
+import madlang.interp.Profile;
+import madlang.interp.RuntimeError;
+import madlang.parse.Parser;
+
+/**
+ * Checks the interpreter on small programs with known output: arithmetic,
+ * short-circuit evaluation, scoping of globals and nested functions,
+ * recursion, input, the errors a run can end with, and the counts of a
+ * profiled program run on several threads at once.
+ *
+ * Every program runs twice, plain and with memoization, which must not
+ * change what a program prints.
+ *
+ * Usage: java -cp out madlang.test.InterpreterCheck
+ */
+public final class InterpreterCheck {
+
+    private InterpreterCheck() {}
+
+    public static void main(String[] args) {
+        int checks = 0;
+
+        // Ints wrap, / and % truncate toward zero, operators follow C precedence
+        checks += expect("fn main(): int {"
+                         + " output(2147483647 + 1); output(-7 / 2); output(-7 % 2); output(7 % -2);"
+                         + " output(1 + 2 * 3 - 8 / 4 % 3); output(-(2 - 5) * 2);"
+                         + " return 0; }",
+                         "-2147483648", "-3", "-1", "1", "5", "6");
+        checks += expect("fn main(): int {"
+                         + " output(1 < 2 == true); output(!(3 >= 4) && 2 != 2 || 5 <= 5); output(false == false);"
+                         + " return 0; }",
+                         "true", "true", "true");
+
+        // The right side of && and || runs only when it decides the value
+        checks += expect("fn t(n: int): bool { output(n); return true; }"
+                         + " fn f(n: int): bool { output(n); return false; }"
+                         + " fn main(): int {"
+                         + " if (f(1) && t(2)) { output(0); }"
+                         + " if (t(3) || f(4)) { output(5); }"
+                         + " if (t(6) && f(7) || t(8)) { output(9); }"
+                         + " return 0; }",
+                         "1", "3", "5", "6", "7", "8", "9");
+
+        // Globals start at their initializers, in order, or at 0 / false
+        checks += expect("a: int = 3; b: int; c: bool; d: int = a * 2;"
+                         + " fn main(): int { output(a); output(b); output(c); output(d); b = d + 1; return b; }",
+                         "3", "0", "false", "6", "return 7");
+
+        // A function called by an initializer sees later globals before theirs run
+        checks += expect("a: int = f(); b: int = 5; fn f(): int { return b; }"
+                         + " fn main(): int { output(a); output(f()); return 0; }",
+                         "0", "5");
+
+        // Nested functions read and write the variables of the calls they are in
+        checks += expect("fn counter(n: int): int {"
+                         + " total: int = 0;"
+                         + " fn add(k: int): int { total = total + k; return total; }"
+                         + " i: int = 0;"
+                         + " while (i < n) { add(i); i = i + 1; }"
+                         + " return total; }"
+                         + " fn main(): int { output(counter(5)); output(counter(3)); return 0; }",
+                         "10", "3");
+        checks += expect("fn outer(d: int): int {"
+                         + " x: int = d * 10;"
+                         + " fn inner(): int { return x + d; }"
+                         + " if (d > 0) { output(outer(d - 1)); }"
+                         + " return inner(); }"
+                         + " fn main(): int { return outer(2); }",
+                         "0", "11", "return 22");
+
+        // Blocks scope their variables; inner ones shadow outer ones
+        checks += expect("x: int = 1;"
+                         + " fn main(): int { x: int = 2; { x: int = 3; output(x); } output(x); return 0; }"
+                         + " fn f(): int { return x; }",
+                         "3", "2");
+
+        // Recursion, and returns from inside loops
+        checks += expect("fn fib(n: int): int { if (n < 2) { return n; } return fib(n - 1) + fib(n - 2); }"
+                         + " fn first(n: int): int { i: int = 0; while (true) { if (i * i > n) { return i; } i = i + 1; } return -1; }"
+                         + " fn main(): int { output(fib(20)); output(first(50)); return 0; }",
+                         "6765", "8");
+
+        // Self-recursive tail calls run in constant stack
+        checks += expect("fn loop(n: int, acc: int): int { if (n == 0) { return acc; } return loop(n - 1, acc + n); }"
+                         + " fn main(): int { return loop(1000000, 0); }",
+                         "return 1784293664");
+
+        // input() reads one int per line, skipping blank ones, and 0 at the end
+        checks += expectWithInput("fn main(): int { a: int = input(); b: int = input(); output(a - b); return input(); }",
+                                  "5\n\n -2\n", "7");
+
+        checks += fails("fn main(): int { z: int = 0; return 1 / z; }", RuntimeError.class);
+        checks += fails("fn main(): int { z: int = 0; return 1 % z; }", RuntimeError.class);
+        checks += fails("fn main(): int { return input(); }", "x\n", RuntimeError.class);
+        checks += fails("fn f(n: int): int { x: int = f(n + 1); return x; } fn main(): int { return f(0); }", RuntimeError.class);
+        checks += fails("fn main(): int { return y; }", CompileException.class);
+        checks += fails("fn main(): int { return true; }", CompileException.class);
+
+        // Limits stop a run
+        Interpreter spin = Interpreter.compile(Parser.parse("fn main(): int { while (true) { output(1); } return 0; }"));
+        checks += limit(spin, ExecutionLimits.NONE.withMaxSteps(10_000), LimitExceededException.Limit.STEPS);
+        checks += limit(spin, ExecutionLimits.NONE.withMaxOutputBytes(100), LimitExceededException.Limit.OUTPUT);
+        Interpreter deep = Interpreter.compile(Parser.parse("fn f(n: int): int { x: int = f(n + 1); return x; } fn main(): int { return f(0); }"));
+        checks += limit(deep, ExecutionLimits.NONE.withMaxCallDepth(1_000), LimitExceededException.Limit.CALL_DEPTH);
+        // return f(n + 1) + 1 runs in constant stack, so only the step limit ends it
+        Interpreter endless = Interpreter.compile(Parser.parse("fn f(n: int): int { return f(n + 1) + 1; } fn main(): int { return f(0); }"));
+        checks += limit(endless, ExecutionLimits.NONE.withMaxSteps(100_000), LimitExceededException.Limit.STEPS);
+
+        checks += profile();
+
+        System.out.printf("interpreter: %d checks passed%n", checks);
+    }
+
+    /** Runs source with no input; see expectWithInput. */
+    private static int expect(String source, String... lines) {
+        return expectWithInput(source, "", lines);
+    }
+
+    /**
+     * Runs source plain and memoized and compares what it prints, one line per
+     * output(), followed by "return N" if main does not return 0.
+     */
+    private static int expectWithInput(String source, String input, String... lines) {
+        StringBuilder expected = new StringBuilder();
+        for (String line : lines) expected.append(line).append('\n');
+        for (boolean memoize : new boolean[] { false, true }) {
+            Interpreter interp = Interpreter.compile(Parser.parse(source), InterpreterOptions.DEFAULT.withMemoization(memoize));
+            MemorySink sink = new MemorySink();
+            int result = interp.run(sink, new BufferedReader(new StringReader(input)));
+            String actual = sink + (result == 0 ? "" : "return " + result + "\n");
+            if (!actual.equals(expected.toString())) {
+                throw new AssertionError((memoize ? "memoized: " : "") + source + "\nprints\n" + actual + "instead of\n" + expected);
+            }
+        }
+        return 1;
+    }
+
+    private static int fails(String source, Class<? extends RuntimeException> error) {
+        return fails(source, "", error);
+    }
+
+    private static int fails(String source, String input, Class<? extends RuntimeException> error) {
+        try {
+            Interpreter.compile(Parser.parse(source)).run(new MemorySink(), new BufferedReader(new StringReader(input)));
+        } catch (RuntimeException e) {
+            if (error.isInstance(e)) return 1;
+            throw new AssertionError(source + "\nthrows " + e + " instead of " + error.getSimpleName(), e);
+        }
+        throw new AssertionError(source + "\nshould throw " + error.getSimpleName());
+    }
+
+    /**
+     * Runs a profiled program on several threads at once: no count may be lost,
+     * and reset starts them over.
+     */
+    private static int profile() {
+        Ast.Program program = Parser.parse(
+            "fn fib(n: int): int { if (n < 2) { return n; } return fib(n - 1) + fib(n - 2); }"
+            + " fn main(): int { i: int = 0; while (i < 100) { i = i + 1; } return fib(15); }");
+        Interpreter interp = Interpreter.compile(program, InterpreterOptions.DEFAULT.withProfiling(true));
+        int threads = 4, runs = 50;
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                for (int r = 0; r < runs; r++) interp.run(new MemorySink());
+            });
+            workers[t].start();
+        }
+        for (Thread w : workers) {
+            try {
+                w.join();
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        }
+        Profile profile = interp.profile();
+        long n = (long) threads * runs;
+        // fib(15) makes 1973 calls of fib
+        Profile.FunctionStats fib = profile.functions().get(0), main = profile.functions().get(1);
+        Profile.LoopStats loop = profile.loops().get(0);
+        if (fib.calls() != 1973 * n || main.calls() != n || loop.entries() != n || loop.iterations() != 100 * n) {
+            throw new AssertionError("concurrent runs counted " + fib.calls() + " calls of fib, " + main.calls() + " of main and "
+                                     + loop.iterations() + " iterations in " + loop.entries() + " entries\n" + profile.report());
+        }
+        profile.reset();
+        interp.run(new MemorySink());
+        if (fib.calls() != 1973 || loop.iterations() != 100) throw new AssertionError("reset left\n" + profile.report());
+        return 2;
+    }
+
+    private static int limit(Interpreter interp, ExecutionLimits limits, LimitExceededException.Limit expected) {
+        try {
+            interp.run(new MemorySink(), null, limits);
+        } catch (LimitExceededException e) {
+            if (e.limit == expected) return 1;
+            throw new AssertionError("stopped by " + e.limit + " instead of " + expected, e);
+        }
+        throw new AssertionError("should stop at the " + expected + " limit");
+    }
+}
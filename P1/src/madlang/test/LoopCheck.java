@@ -0,0 +1,91 @@
+package madlang.test;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import madlang.PrettyPrinter;
+import madlang.ast.Ast;
+import madlang.interp.Interpreter;
+import madlang.interp.MemorySink;
+import madlang.interp.RuntimeError;
+import madlang.opt.LoopOptimizer;
+import madlang.parse.Parser;
+
+/**
+ * Checks that LoopOptimizer does not change what a program prints, with and
+ * without i % m reduction, on loops written to be reduced and on the test
+ * and random programs.
+ *
+ * Usage: java -cp out madlang.test.LoopCheck [programs]
+ */
+public final class LoopCheck {
+
+    // Loops every rewrite applies to, and some that look alike but must not be touched
+    private static final String[] LOOPS = {
+        // i % m for several m, used often enough to be reduced
+        "fn main(): int { s: int = 0; i: int = 3; while (i < 100) {"
+            + " s = s + i % 7 + i % 7 * 2 + i % 6 + i % 6 + i % 8 + i % 8; i = i + 1; } return s; }",
+        // i * k with literal and invariant k, and an invariant expression
+        "fn main(): int { k: int = input(); s: int = 0; i: int = 0; while (i < 50) {"
+            + " s = s + i * 3 + i * k + i * k + (k * k + 1); i = i + 2; } return s; }",
+        // Counting down, and steps that overflow
+        "fn main(): int { s: int = 0; i: int = 40; while (i > -40) { s = s + i * 5 + i * 5; i = i - 3; } return s; }",
+        "fn main(): int { s: int = 0; i: int = 2147483000; c: int = 0; while (c < 100) {"
+            + " s = s + i * 7 + i * 7; i = i + 1000; c = c + 1; } return s; }",
+        // i may be negative, or is assigned twice: i % m stays
+        "fn main(): int { s: int = 0; i: int = -20; while (i < 20) { s = s + i % 7 + i % 7; i = i + 1; } return s; }",
+        "fn main(): int { s: int = 0; i: int = 0; while (i < 30) { s = s + i % 5 + i % 5; i = i + 1; if (i == 9) { i = i + 4; } } return s; }",
+        // A call may change a global that looks invariant
+        "g: int = 1; fn bump(): int { g = g + 1; return g; }"
+            + " fn main(): int { s: int = 0; i: int = 0; while (i < 10) { s = s + i * g + i * g + bump(); i = i + 1; } return s; }",
+        // Nested loops, the inner one using the outer counter
+        "fn main(): int { s: int = 0; i: int = 0; while (i < 12) { j: int = 0; while (j < 12) {"
+            + " s = s + i * 9 + j % 5 + i % 11; j = j + 1; } i = i + 1; } return s; }",
+    };
+
+    private LoopCheck() {}
+
+    public static void main(String[] args) {
+        int programs = args.length > 0 ? Integer.parseInt(args[0]) : 1_000;
+        List<Ast.Program> all = new ArrayList<>();
+        for (String source : LOOPS) all.add(Parser.parse(source));
+        for (int t = 1; t <= 8; t++) all.add(TestPrograms.byName("test" + t));
+        for (int i = 0; i < programs; i++) all.add(RandomPrograms.generate(new Random(i)));
+
+        int changed = 0;
+        for (Ast.Program program : all) {
+            String expected = run(program);
+            String source = PrettyPrinter.pretty(program);
+            boolean differs = false;
+            for (boolean reduceModulo : new boolean[] { false, true }) {
+                Ast.Program optimized = LoopOptimizer.optimize(program, reduceModulo);
+                differs |= !PrettyPrinter.pretty(optimized).equals(source);
+                String actual = run(optimized);
+                if (!actual.equals(expected)) {
+                    throw new AssertionError("optimized " + (reduceModulo ? "with i % m " : "") + "program prints\n" + actual
+                                             + "instead of\n" + expected + source
+                                             + "\nafter optimizing:\n" + PrettyPrinter.pretty(optimized));
+                }
+            }
+            if (differs) changed++;
+        }
+        System.out.printf("loops: %d programs, %d rewritten, all print the same%n", all.size(), changed);
+    }
+
+    /** @return output lines and main's result, "error" on a runtime error, or "" without main */
+    private static String run(Ast.Program program) {
+        boolean hasMain = false;
+        for (Ast.Decl d : program.decls) hasMain |= d instanceof Ast.FunDecl f && f.name.equals("main");
+        if (!hasMain) return "";
+        MemorySink sink = new MemorySink();
+        try {
+            int result = Interpreter.compile(program).run(sink, new BufferedReader(new StringReader("7\n-3\n12\n")));
+            return sink + "return " + result + "\n";
+        } catch (RuntimeError e) {
+            return "error";
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package madlang.test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import madlang.CEmitter;
+import madlang.PrettyPrinter;
+import madlang.ast.Ast;
+import madlang.interp.Interpreter;
+import madlang.interp.MemorySink;
+import madlang.interp.RuntimeError;
+import madlang.parse.Parser;
+
+/**
+ * Checks CEmitter against the interpreter when a C compiler is at hand: the
+ * test programs, random ones and a few with known pitfalls are translated to
+ * C, compiled with -O2 -fwrapv and run on fixed input. Each must print what
+ * the interpreter prints, and fail where it fails. The compiler must not
+ * warn about the generated code at its default warning level.
+ *
+ * The compiler is $CC, or gcc; without one the check is skipped. Programs
+ * that overflow the interpreter's call stack are left out, since the C
+ * stack is not checked.
+ *
+ * Usage: java -cp out madlang.test.NativeCheck [programs]
+ */
+public final class NativeCheck {
+
+    // What input() returns in both runs, one value per call
+    private static final String INPUT = "7\n-3\n12\n0\n5\n";
+
+    // Constant expressions that overflow, INT32_MIN / -1, and a division by zero after some output
+    private static final String[] PITFALLS = {
+        "g: int = 3 * 1560904284; fn main(): int { output(g); output(2147483647 + 1 - -2147483648); return 0; }",
+        "fn main(): int { output(-(-2147483647 - 1) / -1); output((-2147483647 - 1) % -1); output(-2147483647 - 1); return 0; }",
+        "fn main(): int { output(!(1 < 2) || 3 * 1073741824 < 0); x: int = input(); return 1 / (x - 7); }",
+    };
+
+    private NativeCheck() {}
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int programs = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        String cc = System.getenv().getOrDefault("CC", "gcc");
+        List<Ast.Program> all = new ArrayList<>();
+        for (int t = 1; t <= 8; t++) all.add(TestPrograms.byName("test" + t));
+        for (String source : PITFALLS) all.add(Parser.parse(source));
+        for (int i = 0; i < programs; i++) all.add(RandomPrograms.generate(new Random(i)));
+
+        int runs = 0, errors = 0;
+        Path dir = Files.createTempDirectory("madlang-native-check");
+        try {
+            try {
+                run(List.of(cc, "--version"), "", dir);
+            } catch (IOException e) {
+                System.out.printf("native: skipped, no C compiler %s%n", cc);
+                return;
+            }
+            for (Ast.Program program : all) {
+                if (!hasMain(program)) continue;
+                String expected = interpret(program);
+                if (expected == null) continue;
+                Path source = dir.resolve("program.c");
+                Path exe = dir.resolve("program");
+                Files.writeString(source, CEmitter.emit(program));
+                Result compiled = run(List.of(cc, "-O2", "-fwrapv", "-o", exe.toString(), source.toString()), "", dir);
+                if (compiled.status != 0 || !compiled.stderr.isEmpty()) {
+                    throw new AssertionError(cc + " says\n" + compiled.stderr + "\nabout\n" + Files.readString(source));
+                }
+                Result r = run(List.of(exe.toString()), INPUT, dir);
+                String actual = r.stdout + (r.status == 0 ? "" : "error\n");
+                if (!expected.equals(actual)) {
+                    throw new AssertionError("native program prints\n" + actual + "instead of\n" + expected
+                                             + "for\n" + PrettyPrinter.pretty(program));
+                }
+                runs++;
+                if (r.status != 0) errors++;
+            }
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                for (Path f : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) Files.delete(f);
+            }
+        }
+        System.out.printf("native: %d programs compiled by %s without warnings, %d of them failing, match the interpreter%n",
+                          runs, cc, errors);
+    }
+
+    private static boolean hasMain(Ast.Program program) {
+        for (Ast.Decl d : program.decls) {
+            if (d instanceof Ast.FunDecl f && f.name.equals("main")) return true;
+        }
+        return false;
+    }
+
+    /** @return output lines, followed by "error" on a runtime error; null if the call stack overflowed */
+    private static String interpret(Ast.Program program) {
+        MemorySink sink = new MemorySink();
+        try {
+            Interpreter.compile(program).run(sink, new BufferedReader(new StringReader(INPUT)));
+            return sink.toString();
+        } catch (RuntimeError e) {
+            return e.getMessage().contains("call stack overflow") ? null : sink + "error\n";
+        }
+    }
+
+    /** Exit status and output of a finished process. */
+    private static final class Result {
+        final int status;
+        final String stdout;
+        final String stderr;
+
+        Result(int status, String stdout, String stderr) {
+            this.status = status;
+            this.stdout = stdout;
+            this.stderr = stderr;
+        }
+    }
+
+    /** Runs command with input on stdin, through files in dir so that neither side can block on a pipe. */
+    private static Result run(List<String> command, String input, Path dir) throws IOException, InterruptedException {
+        Path in = Files.writeString(dir.resolve("stdin"), input);
+        Path errors = dir.resolve("stderr");
+        Process p = new ProcessBuilder(command).redirectInput(in.toFile()).redirectError(errors.toFile()).start();
+        String stdout = new String(p.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        int status = p.waitFor();
+        return new Result(status, stdout, Files.readString(errors));
+    }
+}
@@ -0,0 +1,352 @@
+package madlang.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import madlang.FormatOptions;
+import madlang.PrettyPrinter;
+import madlang.ast.Ast;
+import madlang.ast.Expr;
+import madlang.ast.Stmt;
+import madlang.ast.Zipper;
+import madlang.parse.ParseException;
+import madlang.parse.Parser;
+import madlang.parse.SourceFile;
+
+/**
+ * Checks Parser against PrettyPrinter, and SourceFile.edit against parsing
+ * the edited text from scratch.
+ *
+ * Round trip: for the test programs, random ones and some tricky
+ * expressions, parse(pretty(ast)) must be ast again, node for node, in every
+ * format, and pretty-printing that must give the same text.
+ *
+ * Edits: random programs, some after hundreds of short declarations, are
+ * edited at random, by changing digits, adding, deleting and swapping
+ * declarations, and inserting or deleting a few characters anywhere, which
+ * often breaks the text. A broken file is edited further, or has the text it
+ * had when it last parsed put back in one edit. After every edit, the
+ * snapshot must have an error exactly when Parser.parse throws, and otherwise
+ * hold the same declarations, at the same offsets and, through lineShift, the
+ * same lines. Last, typing that breaks a long file must keep the declarations
+ * after the error as they were, and undoing it must fix the file.
+ *
+ * Usage: java -cp out madlang.test.ParserCheck [programs]
+ */
+public final class ParserCheck {
+
+    // Printed as written, and parsed back to the same tree
+    private static final String[] EXPRESSIONS = {
+        "-0", "-5", "--5", "-2147483648", "--2147483648", "2 - -3", "-x * -y", "-(x + 1)", "-f(1) - 1",
+        "!!b", "!(a < b)", "a - (b - c)", "a - b - c", "-2147483648 % -1", "f(-1, -2, 3 - 4)",
+    };
+
+    private static final FormatOptions[] FORMATS = {
+        FormatOptions.DEFAULT,
+        FormatOptions.DEFAULT.withSpaceAroundOperators(false),
+        FormatOptions.DEFAULT.withTabs(true).withBraceStyle(FormatOptions.BraceStyle.NEXT_LINE).withElseOnNewLine(false),
+    };
+
+    // Text the random edits insert
+    private static final String[] SNIPPETS = { "\n", " ", "{", "}", ";", "(", ")", "-", "x", "0", "fn", "\nz: int;\n" };
+
+    private ParserCheck() {}
+
+    public static void main(String[] args) {
+        int programs = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        List<Ast.Program> all = new ArrayList<>();
+        for (String e : EXPRESSIONS) {
+            String source = "x: int = " + e + ";\n";
+            String printed = PrettyPrinter.pretty(Parser.parse(source));
+            if (!printed.equals(source)) throw new AssertionError(source + "is printed as\n" + printed);
+            all.add(Parser.parse(source));
+        }
+        for (int t = 1; t <= 8; t++) all.add(TestPrograms.byName("test" + t));
+        for (int i = 0; i < programs; i++) all.add(RandomPrograms.generate(new Random(i)));
+
+        for (Ast.Program program : all) {
+            String tree = describe(program);
+            for (FormatOptions format : FORMATS) {
+                String text = PrettyPrinter.pretty(program, format);
+                Ast.Program parsed = Parser.parse(text);
+                if (!describe(parsed).equals(tree)) {
+                    throw new AssertionError("parsing gives a different tree for\n" + text);
+                }
+                String again = PrettyPrinter.pretty(parsed, format);
+                if (!again.equals(text)) throw new AssertionError(text + "\nis printed again as\n" + again);
+            }
+        }
+        nesting();
+
+        int edits = 0, errors = 0;
+        for (int i = 0; i < programs / 5; i++) {
+            Random random = new Random(i);
+            // Some files hold more declarations than a DeclTable block
+            StringBuilder source = new StringBuilder();
+            for (int k = i % 10 == 0 ? 600 : 0; k > 0; k--) source.append("c").append(k).append(": int = ").append(k).append(";\n");
+            SourceFile file = SourceFile.parse(source + PrettyPrinter.pretty(RandomPrograms.generate(random)));
+            SourceFile good = file; // the last snapshot that parsed
+            for (int k = 0; k < 40; k++) {
+                String text = file.text().toString();
+                int offset, length;
+                String replacement;
+                if (file.error() != null && random.nextBoolean()) {
+                    // Put back the text of the last snapshot that parsed, in one edit
+                    String back = good.text().toString();
+                    int prefix = 0, suffix = 0;
+                    while (prefix < Math.min(text.length(), back.length()) && text.charAt(prefix) == back.charAt(prefix)) prefix++;
+                    while (suffix < Math.min(text.length(), back.length()) - prefix
+                           && text.charAt(text.length() - 1 - suffix) == back.charAt(back.length() - 1 - suffix)) suffix++;
+                    offset = prefix;
+                    length = text.length() - prefix - suffix;
+                    replacement = back.substring(prefix, back.length() - suffix);
+                } else {
+                    int[] edit = edit(random, file, text);
+                    offset = edit[0];
+                    length = edit[1];
+                    replacement = edit.length == 2 ? "" : replacement(random, edit[2], file, text);
+                }
+                String expected = text.substring(0, offset) + replacement + text.substring(offset + length);
+                SourceFile edited = file.edit(offset, length, replacement), fresh = null;
+                ParseException fullError = null;
+                try {
+                    fresh = SourceFile.parse(expected);
+                } catch (ParseException e) {
+                    fullError = e;
+                }
+                if ((edited.error() == null) != (fullError == null)) {
+                    throw new AssertionError("edit at " + offset + " of " + length + " chars by '" + replacement + "' gives "
+                                             + (edited.error() == null ? "no error" : edited.error().getMessage()) + " instead of "
+                                             + (fullError == null ? "no error" : fullError.getMessage()) + " in\n" + expected);
+                }
+                edits++;
+                if (fullError != null) {
+                    errors++;
+                    if (!edited.text().toString().equals(expected)) throw new AssertionError("edited text differs");
+                } else {
+                    compare(file, edited, fresh, expected);
+                    good = edited;
+                }
+                file = edited;
+            }
+        }
+        breaking();
+        System.out.printf("parser: %d programs round-trip in %d formats; %d random edits (%d errors) agree with a full parse%n",
+                          all.size(), FORMATS.length, edits, errors);
+    }
+
+    /**
+     * Nesting up to the limit parses and prints; far beyond it, it is a syntax
+     * error, not a stack overflow. Operator chains count too: a long one is
+     * too deep, and so are chains each within the limit whose first operands
+     * are chains in turn.
+     */
+    private static void nesting() {
+        int deep = Parser.MAX_DEPTH / 2;
+        String[] nested = {
+            "x: int = " + "(".repeat(deep) + "1" + ")".repeat(deep) + ";\n",
+            "x: int = " + "-".repeat(deep) + "1;\n",
+            "fn f(): int {\n" + "while (true) ".repeat(deep) + "{ }\n return 0; }\n",
+            "x: int = " + "1 + ".repeat(deep) + "1;\n",
+            "fn f(): int { return " + "(".repeat(10) + "1" + (" + 1".repeat(deep / 10) + ")").repeat(10) + "; }\n",
+        };
+        // Chains no deeper than the limit each, but too deep as a whole
+        String[] chains = {
+            "x: int = " + "1+".repeat(5_000) + "1;\n",
+            "fn f(): int { return " + "(".repeat(20) + "1" + (" * 1".repeat(60) + ")").repeat(20) + "; }\n",
+        };
+        for (String source : chains) {
+            try {
+                Parser.parse(source);
+                throw new AssertionError("operator chains nested too deep parse");
+            } catch (ParseException e) {
+                // expected
+            }
+        }
+        for (String source : nested) {
+            Ast.Program program = Parser.parse(source);
+            if (!describe(Parser.parse(PrettyPrinter.pretty(program))).equals(describe(program))) {
+                throw new AssertionError("deep nesting does not round-trip");
+            }
+            String tooDeep = source.replace("(", "((((((((((((((((((((").replace(")", "))))))))))))))))))))")
+                                   .replace("-", "--------------------").replace("while (true) ", "while (true) ".repeat(20))
+                                   .replace("1 + ", "1 + ".repeat(20));
+            try {
+                Parser.parse(tooDeep);
+                throw new AssertionError("nesting 20 times as deep parses");
+            } catch (ParseException e) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * Deletes the closing brace of a function near the start of a long file,
+     * and types an unfinished function there; then undoes each. The error
+     * must be where the broken function is, and only the declaration being
+     * edited may be left out: the ones after it are kept as they were rather
+     * than parsed again.
+     */
+    private static void breaking() {
+        StringBuilder source = new StringBuilder();
+        for (int f = 0; f < 20_000; f++) {
+            source.append("fn f").append(f).append("(a: int): int {\n    return a + ").append(f).append(";\n}\n");
+        }
+        String text = source.toString();
+        SourceFile file = SourceFile.parse(text);
+        List<Ast.Decl> decls = file.program().decls;
+        // Delete the brace closing f2, on line 9; type a line before f3, on line 10
+        int[][] edits = { { file.end(2) - 1, 1 }, { file.start(3), 0 } };
+        String[] replacements = { "", "fn g(): int {\n" };
+        for (int e = 0; e < edits.length; e++) {
+            int offset = edits[e][0], length = edits[e][1];
+            SourceFile broken = file.edit(offset, length, replacements[e]);
+            ParseException error = broken.error();
+            if (error == null || error.line < 9 || error.line > 14) {
+                throw new AssertionError("breaking edit gives " + (error == null ? "no error" : error.getMessage()));
+            }
+            List<Ast.Decl> kept = broken.program().decls;
+            int left = e == 0 ? 2 : 3;
+            if (kept.size() != decls.size() - 1 || kept.get(left) != decls.get(left + 1)
+                    || kept.get(kept.size() - 1) != decls.get(decls.size() - 1)) {
+                throw new AssertionError("breaking edit keeps " + kept.size() + " of " + decls.size() + " declarations");
+            }
+            SourceFile fixed = broken.edit(offset, replacements[e].length(), text.substring(offset, offset + length));
+            if (fixed.error() != null) throw new AssertionError("undoing a breaking edit gives " + fixed.error().getMessage());
+            compare(broken, fixed, file, text);
+        }
+    }
+
+    ////////////////////
+    /// RANDOM EDITS ///
+    ////////////////////
+
+    /**
+     * @return offset and length of an edit, then what replaces the text: a
+     *         digit (-1), a declaration of another program (-2), a copy of
+     *         declaration d (-3 - d) or a snippet (its index); or nothing
+     */
+    private static int[] edit(Random random, SourceFile file, String text) {
+        int decls = file.program().decls.size();
+        int kind = random.nextInt(6);
+        if (kind == 0 && decls > 0) {
+            // Change a digit
+            int at = random.nextInt(text.length());
+            for (int i = 0; i < text.length(); i++) {
+                int j = (at + i) % text.length();
+                if (Character.isDigit(text.charAt(j))) return new int[] { j, 1, -1 };
+            }
+        }
+        if (kind == 1 && decls > 1) {
+            // Delete a declaration, with the line break after it
+            int d = random.nextInt(decls);
+            int end = Math.min(text.length(), file.end(d) + 1);
+            return new int[] { file.start(d), end - file.start(d) };
+        }
+        if (kind == 2 && decls > 0) {
+            // Put a declaration of another program after one of this
+            int d = random.nextInt(decls);
+            return new int[] { Math.min(text.length(), file.end(d) + 1), 0, -2 };
+        }
+        if (kind == 3 && decls > 1) {
+            // Replace a declaration by a copy of another
+            int d = random.nextInt(decls), e = random.nextInt(decls);
+            return new int[] { file.start(d), file.end(d) - file.start(d), -3 - e };
+        }
+        int at = random.nextInt(text.length() + 1);
+        if (random.nextBoolean()) return new int[] { at, Math.min(1 + random.nextInt(3), text.length() - at) };
+        return new int[] { at, 0, random.nextInt(SNIPPETS.length) };
+    }
+
+    private static String replacement(Random random, int kind, SourceFile file, String text) {
+        if (kind == -1) return Integer.toString(random.nextInt(10));
+        if (kind == -2) {
+            List<Ast.Decl> decls = RandomPrograms.generate(random).decls;
+            return PrettyPrinter.pretty(new Ast.Program(List.of(decls.get(random.nextInt(decls.size())))));
+        }
+        if (kind <= -3) return text.substring(file.start(-3 - kind), file.end(-3 - kind));
+        return SNIPPETS[kind];
+    }
+
+    /**
+     * Checks that an edited file holds what a fresh parse of its text does.
+     * Declarations taken over from the file before the edit were compared
+     * node for node when they were parsed; all their spans move together, so
+     * checking where the declaration itself is suffices.
+     */
+    private static void compare(SourceFile before, SourceFile edited, SourceFile fresh, String text) {
+        if (!edited.text().toString().equals(text)) throw new AssertionError("edited text differs");
+        int n = fresh.program().decls.size();
+        if (edited.program().decls.size() != n) {
+            throw new AssertionError(edited.program().decls.size() + " declarations instead of " + n + " in\n" + text);
+        }
+        Set<Ast.Decl> checked = Collections.newSetFromMap(new IdentityHashMap<>());
+        checked.addAll(before.program().decls);
+        for (int d = 0; d < n; d++) {
+            if (edited.start(d) != fresh.start(d) || edited.end(d) != fresh.end(d)) {
+                throw new AssertionError("declaration " + d + " at [" + edited.start(d) + ", " + edited.end(d) + ") instead of ["
+                                         + fresh.start(d) + ", " + fresh.end(d) + ") in\n" + text);
+            }
+            Ast.Decl mine = edited.program().decls.get(d), theirs = fresh.program().decls.get(d);
+            boolean same = checked.contains(mine)
+                ? edited.line(d, mine.span) == theirs.span.line && mine.span.col == theirs.span.col
+                : describe(mine, edited.lineShift(d)).equals(describe(theirs, 0));
+            if (!same) throw new AssertionError("declaration " + d + " differs from the parsed one in\n" + text);
+        }
+    }
+
+    ///////////////
+    /// HELPERS ///
+    ///////////////
+
+    /** @return every node of the program in preorder with what it holds and how many children it has */
+    private static String describe(Ast.Program program) {
+        return describe(program, false, 0);
+    }
+
+    /** @return the nodes of decl as describe(program) does, with their spans moved down shift lines */
+    private static String describe(Ast.Decl decl, int shift) {
+        return describe(new Ast.Program(List.of(decl)), true, shift);
+    }
+
+    private static String describe(Ast.Program program, boolean spans, int shift) {
+        StringBuilder out = new StringBuilder();
+        Zipper z = Zipper.of(program);
+        while (true) {
+            Object node = z.node();
+            out.append(label(node)).append('/').append(z.childCount());
+            Ast.Span span = span(node);
+            if (spans && span != null) out.append('@').append(span.line + shift).append(':').append(span.col);
+            out.append('\n');
+            if (!z.hasNext()) return out.toString();
+            z = z.next();
+        }
+    }
+
+    private static String label(Object node) {
+        if (node instanceof Ast.GlobalVarDecl g) return "global " + g.name + ": " + g.type;
+        if (node instanceof Ast.FunDecl f) return "fn " + f.name + ": " + f.returnType;
+        if (node instanceof Ast.Param p) return "param " + p.name + ": " + p.type;
+        if (node instanceof Stmt.VarDef d) return "var " + d.name + ": " + d.type;
+        if (node instanceof Stmt.Assign a) return "assign " + a.name;
+        if (node instanceof Expr.Binary b) return b.op.toString();
+        if (node instanceof Expr.Unary u) return u.op.toString();
+        if (node instanceof Expr.Call c) return "call " + c.callee;
+        if (node instanceof Expr.IntLit i) return Integer.toString(i.value);
+        if (node instanceof Expr.BoolLit b) return Boolean.toString(b.value);
+        if (node instanceof Expr.Var v) return "use " + v.name;
+        return node.getClass().getSimpleName();
+    }
+
+    private static Ast.Span span(Object node) {
+        if (node instanceof Ast.Decl d) return d.span;
+        if (node instanceof Ast.Param p) return p.span;
+        if (node instanceof Stmt s) return s.span;
+        if (node instanceof Expr e) return e.span;
+        return null;
+    }
+}
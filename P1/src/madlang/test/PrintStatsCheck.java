@@ -0,0 +1,178 @@
+package madlang.test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
+
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import madlang.PrettyPrinter;
+import madlang.PrintStats;
+import madlang.PrintStats.NodeKind;
+import madlang.ast.Ast;
+import madlang.ast.Expr;
+import madlang.ast.Zipper;
+import madlang.parse.Parser;
+
+/**
+ * Checks the metrics of PrettyPrinter: PrintStats of a program with known
+ * node counts, depths, parentheses and size; expression counts of the test
+ * and random programs against a walk of their trees; a reused PrintStats
+ * against a fresh one; and the madlang.PrettyPrint JFR event, which must
+ * carry the same numbers and must not start JFR when nobody records.
+ *
+ * Usage: java -cp out madlang.test.PrintStatsCheck [programs]
+ */
+public final class PrintStatsCheck {
+
+    // Node counts, depths and parentheses are given in known()
+    private static final String KNOWN =
+        "x: int = 1;\n"
+        + "y: bool;\n"
+        + "fn f(a: int, b: int): int {\n"
+        + "  fn g(): int { return a * (b + 1); }\n"
+        + "  if (a > 0) { while (a < 10) { a = a + 1; } } else { output(-a); }\n"
+        + "  { c: int = (a - b) - (a - (b - 1)); }\n"
+        + "  return g();\n"
+        + "}\n";
+
+    private PrintStatsCheck() {}
+
+    public static void main(String[] args) throws IOException {
+        int programs = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int checks = 0;
+
+        Ast.Program known = Parser.parse(KNOWN);
+        PrintStats stats = new PrintStats();
+        String text = PrettyPrinter.pretty(known, stats);
+        if (FlightRecorder.isInitialized()) throw new AssertionError("printing started JFR with no recording");
+        if (!text.equals(PrettyPrinter.pretty(known))) throw new AssertionError("printing with stats gives other text");
+        known(stats, text);
+        checks += 2;
+
+        // Every expression of the test and random programs is counted once, by kind
+        PrintStats reused = new PrintStats();
+        for (int i = -8; i < programs; i++) {
+            Ast.Program program = i < 0 ? TestPrograms.byName("test" + (i + 9)) : RandomPrograms.generate(new Random(i));
+            PrintStats fresh = new PrintStats();
+            PrettyPrinter.pretty(program, fresh);
+            long[] expected = exprCounts(program);
+            for (NodeKind k : NodeKind.values()) {
+                if (k.ordinal() >= NodeKind.BINARY.ordinal() && fresh.count(k) != expected[k.ordinal()]) {
+                    throw new AssertionError(k + " counted " + fresh.count(k) + " times instead of "
+                                             + expected[k.ordinal()] + " in\n" + PrettyPrinter.pretty(program));
+                }
+            }
+            // Reusing an object describes the last run only
+            PrettyPrinter.pretty(program, reused);
+            same(fresh, reused, "a reused PrintStats");
+            checks++;
+        }
+
+        checks += event(known, stats);
+        System.out.printf("print stats: %d checks passed%n", checks);
+    }
+
+    /** Compares the stats of KNOWN with counts made by hand. */
+    private static void known(PrintStats s, String text) {
+        // Bodies of functions, ifs and whiles are not Block statements; the bare block is
+        long[] counts = new long[NodeKind.values().length];
+        counts[NodeKind.GLOBAL_VAR_DECL.ordinal()] = 2;
+        counts[NodeKind.FUN_DECL.ordinal()] = 1;
+        counts[NodeKind.FUN_DEF.ordinal()] = 1;
+        counts[NodeKind.BLOCK.ordinal()] = 1;
+        counts[NodeKind.VAR_DEF.ordinal()] = 1;
+        counts[NodeKind.ASSIGN.ordinal()] = 1;
+        counts[NodeKind.IF.ordinal()] = 1;
+        counts[NodeKind.WHILE.ordinal()] = 1;
+        counts[NodeKind.RETURN.ordinal()] = 2;
+        counts[NodeKind.EXPR_STMT.ordinal()] = 1;
+        counts[NodeKind.BINARY.ordinal()] = 9;
+        counts[NodeKind.UNARY.ordinal()] = 1;
+        counts[NodeKind.INT_LIT.ordinal()] = 6;
+        counts[NodeKind.VAR.ordinal()] = 10;
+        counts[NodeKind.CALL.ordinal()] = 2;
+        for (NodeKind k : NodeKind.values()) {
+            if (s.count(k) != counts[k.ordinal()]) {
+                throw new AssertionError(k + " counted " + s.count(k) + " times instead of " + counts[k.ordinal()]);
+            }
+        }
+        expect(s.exprNodes() == 28 && s.stmtNodes() == 9, "node totals", s);
+        // The while body is three levels in; a - b - (a - (b - 1)) nests four expressions deep
+        expect(s.maxBlockDepth() == 3 && s.maxExprDepth() == 4, "depths", s);
+        // (b + 1), (a - (b - 1)) and (b - 1); the parentheses around a - b are dropped
+        expect(s.parensInserted() == 3 && text.contains("c: int = a - b - (a - (b - 1));"), "parentheses", s);
+        expect(s.bytesEmitted() == text.getBytes(StandardCharsets.UTF_8).length, "bytes", s);
+        expect(s.traverseNanos() > 0 && s.totalNanos() >= s.traverseNanos(), "timers", s);
+    }
+
+    /** @return how many expressions of each kind the program holds, indexed like PrintStats counts */
+    private static long[] exprCounts(Ast.Program program) {
+        long[] counts = new long[NodeKind.values().length];
+        Zipper z = Zipper.of(program);
+        while (true) {
+            Object node = z.node();
+            NodeKind kind = node instanceof Expr.Binary ? NodeKind.BINARY
+                : node instanceof Expr.Unary ? NodeKind.UNARY
+                : node instanceof Expr.IntLit ? NodeKind.INT_LIT
+                : node instanceof Expr.BoolLit ? NodeKind.BOOL_LIT
+                : node instanceof Expr.Var ? NodeKind.VAR
+                : node instanceof Expr.Call ? NodeKind.CALL
+                : null;
+            if (kind != null) counts[kind.ordinal()]++;
+            if (!z.hasNext()) return counts;
+            z = z.next();
+        }
+    }
+
+    /**
+     * Prints KNOWN while a recording has madlang.PrettyPrint enabled, with
+     * and without a PrintStats, and compares both events with stats.
+     */
+    private static int event(Ast.Program known, PrintStats stats) throws IOException {
+        Path file = Files.createTempFile("madlang-print-stats", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("madlang.PrettyPrint").withThreshold(Duration.ZERO);
+            recording.start();
+            PrettyPrinter.pretty(known);
+            PrettyPrinter.pretty(known, new PrintStats());
+            recording.stop();
+            recording.dump(file);
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+            events.removeIf(e -> !e.getEventType().getName().equals("madlang.PrettyPrint"));
+            if (events.size() != 2) throw new AssertionError(events.size() + " madlang.PrettyPrint events instead of 2");
+            for (RecordedEvent e : events) {
+                if (e.getLong("exprNodes") != stats.exprNodes() || e.getLong("stmtNodes") != stats.stmtNodes()
+                        || e.getInt("maxBlockDepth") != stats.maxBlockDepth() || e.getInt("maxExprDepth") != stats.maxExprDepth()
+                        || e.getLong("parensInserted") != stats.parensInserted() || e.getLong("bytesEmitted") != stats.bytesEmitted()) {
+                    throw new AssertionError("event " + e + " differs from\n" + stats);
+                }
+            }
+            return events.size();
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /** Checks that two PrintStats describe the same printing, timings aside. */
+    private static void same(PrintStats a, PrintStats b, String what) {
+        for (NodeKind k : NodeKind.values()) {
+            if (a.count(k) != b.count(k)) throw new AssertionError(what + " counts " + k + " " + b.count(k) + " times, not " + a.count(k));
+        }
+        if (a.maxBlockDepth() != b.maxBlockDepth() || a.maxExprDepth() != b.maxExprDepth()
+                || a.parensInserted() != b.parensInserted() || a.bytesEmitted() != b.bytesEmitted()) {
+            throw new AssertionError(what + " holds\n" + b + "instead of\n" + a);
+        }
+    }
+
+    private static void expect(boolean ok, String what, PrintStats s) {
+        if (!ok) throw new AssertionError(what + " wrong in\n" + s);
+    }
+}
@@ -0,0 +1,280 @@
+package madlang.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import madlang.ast.Ast;
+import madlang.ast.Expr;
+import madlang.ast.Stmt;
+
+/**
+ * Random MadLang programs for the checks: well typed, and every run ends
+ * without a runtime error, so that different ways of running one program can
+ * be compared on their output.
+ *
+ * Programs have globals with literal initializers, top-level functions that
+ * call only earlier ones, nested functions that read and write the variables
+ * of their enclosing function, and while loops over a counter nothing else
+ * assigns. Divisors are (e % 7 + 8), never zero. A running estimate of the
+ * work each function does keeps calls in loops from multiplying without
+ * bound. Names are unique in the program, so nothing is shadowed.
+ */
+public final class RandomPrograms {
+
+    // Work one run of a function may do, in expression nodes
+    private static final long BUDGET = 5_000;
+
+    private static final Expr.BinOp[] ARITH = { Expr.BinOp.ADD, Expr.BinOp.SUB, Expr.BinOp.MUL, Expr.BinOp.DIV, Expr.BinOp.MOD };
+    private static final Expr.BinOp[] COMPARE = { Expr.BinOp.LT, Expr.BinOp.LE, Expr.BinOp.GT, Expr.BinOp.GE, Expr.BinOp.EQ, Expr.BinOp.NE };
+
+    private static final class Var {
+        final String name;
+        final Ast.Type type;
+        final boolean counter; // a loop counter, assigned only by its loop
+
+        Var(String name, Ast.Type type, boolean counter) {
+            this.name = name;
+            this.type = type;
+            this.counter = counter;
+        }
+    }
+
+    private static final class Fun {
+        final String name;
+        final List<Ast.Type> params;
+        final Ast.Type result;
+        long cost;
+
+        Fun(String name, List<Ast.Type> params, Ast.Type result) {
+            this.name = name;
+            this.params = params;
+            this.result = result;
+        }
+    }
+
+    private final Random random;
+    private int nextName = 0;
+
+    // What the code being generated can see; scopes end by truncating these
+    private final List<Var> vars = new ArrayList<>();
+    private final List<Fun> funs = new ArrayList<>();
+
+    // Return type and work so far of the function being generated, and how
+    // many times the current statement runs per call of it
+    private Ast.Type result;
+    private long cost;
+    private long times;
+    private int loopDepth;
+    private int funDepth;
+
+    private RandomPrograms(Random random) {
+        this.random = random;
+    }
+
+    /** @return a program whose main() takes no arguments and returns an int */
+    public static Ast.Program generate(Random random) {
+        return new RandomPrograms(random).program();
+    }
+
+    private Ast.Program program() {
+        List<Ast.Decl> decls = new ArrayList<>();
+        int globals = random.nextInt(4);
+        for (int i = 0; i < globals; i++) {
+            Ast.Type type = type();
+            String name = name("g");
+            decls.add(new Ast.GlobalVarDecl(name, type, random.nextInt(4) == 0 ? null : literal(type)));
+            vars.add(new Var(name, type, false));
+        }
+        int functions = 1 + random.nextInt(4);
+        for (int i = 0; i < functions; i++) decls.add(function(name("f"), type()));
+        decls.add(function("main", Ast.Type.INT));
+        return new Ast.Program(decls);
+    }
+
+    private Ast.FunDecl function(String name, Ast.Type result) {
+        List<Ast.Param> params = new ArrayList<>();
+        List<Ast.Type> types = new ArrayList<>();
+        int arity = name.equals("main") ? 0 : random.nextInt(4);
+        int varMark = vars.size();
+        int funMark = funs.size();
+        for (int i = 0; i < arity; i++) {
+            Ast.Type type = type();
+            String p = name("p");
+            params.add(new Ast.Param(p, type));
+            types.add(type);
+            vars.add(new Var(p, type, false));
+        }
+        Fun fun = new Fun(name, types, result);
+
+        Ast.Type outerResult = this.result;
+        long outerCost = cost, outerTimes = times;
+        int outerLoops = loopDepth;
+        this.result = result;
+        cost = 0;
+        times = 1;
+        loopDepth = 0;
+        funDepth++;
+        List<Stmt> body = statements(3 + random.nextInt(5), 0);
+        body.add(new Stmt.Return(expr(result, 3)));
+        funDepth--;
+        fun.cost = cost + 1;
+        this.result = outerResult;
+        cost = outerCost;
+        times = outerTimes;
+        loopDepth = outerLoops;
+
+        truncate(varMark, funMark);
+        // Visible from here on, for later functions; never from its own body
+        funs.add(fun);
+        return new Ast.FunDecl(name, params, result, new Stmt.Block(body));
+    }
+
+    private List<Stmt> statements(int count, int depth) {
+        List<Stmt> out = new ArrayList<>();
+        for (int i = 0; i < count; i++) out.add(statement(depth));
+        return out;
+    }
+
+    private Stmt statement(int depth) {
+        int kind = random.nextInt(depth >= 2 ? 4 : 8);
+        switch (kind) {
+            case 0: {
+                Ast.Type type = type();
+                Expr init = random.nextInt(5) == 0 ? null : expr(type, 3);
+                String name = name("v");
+                vars.add(new Var(name, type, false));
+                return new Stmt.VarDef(name, type, init);
+            }
+            case 1: {
+                List<Var> targets = new ArrayList<>();
+                for (Var v : vars) if (!v.counter) targets.add(v);
+                if (targets.isEmpty()) return output();
+                Var v = targets.get(random.nextInt(targets.size()));
+                return new Stmt.Assign(v.name, expr(v.type, 3));
+            }
+            case 2:
+                return output();
+            case 3:
+                return random.nextInt(3) == 0 ? new Stmt.Return(expr(result, 3)) : output();
+            case 4: case 5:
+                return ifStmt(depth);
+            case 6:
+                return loopDepth < 2 ? whileStmt(depth) : ifStmt(depth);
+            default:
+                return funDepth < 3 ? nestedFunction() : output();
+        }
+    }
+
+    private Stmt output() {
+        return new Stmt.ExprStmt(new Expr.Call("output", List.of(expr(type(), 3))));
+    }
+
+    private Stmt ifStmt(int depth) {
+        Expr cond = expr(Ast.Type.BOOL, 3);
+        Stmt then = block(depth);
+        Stmt otherwise = random.nextBoolean() ? block(depth) : null;
+        return new Stmt.If(cond, then, otherwise);
+    }
+
+    private Stmt whileStmt(int depth) {
+        // i: int = 0; while (i < n [&& cond]) { ...; i = i + 1; }
+        String counter = name("i");
+        int bound = 1 + random.nextInt(4);
+        int varMark = vars.size(), funMark = funs.size();
+        vars.add(new Var(counter, Ast.Type.INT, true));
+        long outerTimes = times;
+        times *= bound + 1;
+        loopDepth++;
+        Expr cond = new Expr.Binary(new Expr.Var(counter), Expr.BinOp.LT, new Expr.IntLit(bound));
+        if (random.nextInt(3) == 0) cond = new Expr.Binary(cond, Expr.BinOp.LAND, expr(Ast.Type.BOOL, 2));
+        List<Stmt> body = statements(1 + random.nextInt(3), depth + 1);
+        body.add(new Stmt.Assign(counter, new Expr.Binary(new Expr.Var(counter), Expr.BinOp.ADD, new Expr.IntLit(1))));
+        truncate(varMark, funMark);
+        loopDepth--;
+        times = outerTimes;
+        return new Stmt.Block(List.of(
+            new Stmt.VarDef(counter, Ast.Type.INT, new Expr.IntLit(0)),
+            new Stmt.While(cond, new Stmt.Block(body))));
+    }
+
+    private Stmt block(int depth) {
+        int varMark = vars.size(), funMark = funs.size();
+        List<Stmt> stmts = statements(random.nextInt(3), depth + 1);
+        truncate(varMark, funMark);
+        return new Stmt.Block(stmts);
+    }
+
+    private Stmt nestedFunction() {
+        return new Stmt.FunDef(function(name("h"), type()));
+    }
+
+    private void truncate(int varMark, int funMark) {
+        vars.subList(varMark, vars.size()).clear();
+        funs.subList(funMark, funs.size()).clear();
+    }
+
+    ///////////////////
+    /// EXPRESSIONS ///
+    ///////////////////
+
+    private Expr expr(Ast.Type type, int depth) {
+        cost += times;
+        int choice = depth <= 0 ? random.nextInt(2) : random.nextInt(8);
+        if (choice == 0) return literal(type);
+        if (choice == 1) {
+            Var v = pick(type);
+            return v == null ? literal(type) : new Expr.Var(v.name);
+        }
+        if (choice == 2) {
+            Expr call = call(type, depth);
+            if (call != null) return call;
+        }
+        if (type == Ast.Type.INT) {
+            if (choice == 3) return new Expr.Unary(Expr.UnOp.NEG, expr(Ast.Type.INT, depth - 1));
+            Expr.BinOp op = ARITH[random.nextInt(ARITH.length)];
+            Expr right = expr(Ast.Type.INT, depth - 1);
+            if (op == Expr.BinOp.DIV || op == Expr.BinOp.MOD) {
+                right = new Expr.Binary(new Expr.Binary(right, Expr.BinOp.MOD, new Expr.IntLit(7)), Expr.BinOp.ADD, new Expr.IntLit(8));
+            }
+            return new Expr.Binary(expr(Ast.Type.INT, depth - 1), op, right);
+        }
+        switch (choice) {
+            case 3: return new Expr.Unary(Expr.UnOp.NOT, expr(Ast.Type.BOOL, depth - 1));
+            case 4: return new Expr.Binary(expr(Ast.Type.BOOL, depth - 1), random.nextBoolean() ? Expr.BinOp.LAND : Expr.BinOp.LOR, expr(Ast.Type.BOOL, depth - 1));
+            case 5: return new Expr.Binary(expr(Ast.Type.BOOL, depth - 1), random.nextBoolean() ? Expr.BinOp.EQ : Expr.BinOp.NE, expr(Ast.Type.BOOL, depth - 1));
+            default: return new Expr.Binary(expr(Ast.Type.INT, depth - 1), COMPARE[random.nextInt(COMPARE.length)], expr(Ast.Type.INT, depth - 1));
+        }
+    }
+
+    /** @return a call of a visible function returning type that stays within the budget, or null */
+    private Expr call(Ast.Type type, int depth) {
+        List<Fun> fits = new ArrayList<>();
+        for (Fun f : funs) if (f.result == type && cost + times * f.cost <= BUDGET) fits.add(f);
+        if (fits.isEmpty()) return null;
+        Fun f = fits.get(random.nextInt(fits.size()));
+        cost += times * f.cost;
+        List<Expr> args = new ArrayList<>();
+        for (Ast.Type p : f.params) args.add(expr(p, depth - 1));
+        return new Expr.Call(f.name, args);
+    }
+
+    private Var pick(Ast.Type type) {
+        List<Var> fits = new ArrayList<>();
+        for (Var v : vars) if (v.type == type) fits.add(v);
+        return fits.isEmpty() ? null : fits.get(random.nextInt(fits.size()));
+    }
+
+    private Expr literal(Ast.Type type) {
+        if (type == Ast.Type.BOOL) return new Expr.BoolLit(random.nextBoolean());
+        return new Expr.IntLit(random.nextInt(4) == 0 ? random.nextInt(Integer.MAX_VALUE) : random.nextInt(10));
+    }
+
+    private Ast.Type type() {
+        return random.nextInt(3) == 0 ? Ast.Type.BOOL : Ast.Type.INT;
+    }
+
+    private String name(String prefix) {
+        return prefix + nextName++;
+    }
+}
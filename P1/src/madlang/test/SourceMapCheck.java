@@ -0,0 +1,115 @@
+package madlang.test;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import madlang.FormatOptions;
+import madlang.PrettyPrinter;
+import madlang.SourceMap;
+import madlang.ast.Ast;
+import madlang.ast.Expr;
+import madlang.ast.Zipper;
+
+/**
+ * Checks SourceMap on the test programs and random ones, in two formats:
+ * every node of the tree has exactly one entry, entries nest inside their
+ * parents in pre-order, an expression's range holds exactly its own text,
+ * and for every output offset entryAt returns the innermost entry that
+ * contains it, found here by a scan of all entries.
+ *
+ * One SourceMap is reused for every program, so each printing must clear
+ * what the last left behind, including after trim().
+ *
+ * Usage: java -cp out madlang.test.SourceMapCheck [programs]
+ */
+public final class SourceMapCheck {
+
+    private static final FormatOptions[] FORMATS = {
+        FormatOptions.DEFAULT,
+        FormatOptions.DEFAULT.withTabs(true).withBraceStyle(FormatOptions.BraceStyle.NEXT_LINE).withElseOnNewLine(false),
+    };
+
+    private SourceMapCheck() {}
+
+    public static void main(String[] args) {
+        int programs = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        SourceMap map = new SourceMap();
+        long offsets = 0, entries = 0;
+        for (int i = -8; i < programs; i++) {
+            Ast.Program program = i < 0 ? TestPrograms.byName("test" + (i + 9)) : RandomPrograms.generate(new Random(i));
+            for (FormatOptions format : FORMATS) {
+                String text = PrettyPrinter.pretty(program, format, null, map);
+                if (!text.equals(PrettyPrinter.pretty(program, format))) throw new AssertionError("a source map changes the text");
+                nodes(program, map);
+                nesting(map, text);
+                lookups(map, text);
+                offsets += text.length() + 2;
+                entries += map.size();
+            }
+        }
+        System.out.printf("source map: %d entries and %d offsets agree with a scan%n", entries, offsets);
+    }
+
+    /** Every node below the program, and nothing else, has one entry. */
+    private static void nodes(Ast.Program program, SourceMap map) {
+        Map<Object, Integer> expected = new IdentityHashMap<>();
+        Zipper z = Zipper.of(program);
+        while (z.hasNext()) {
+            z = z.next();
+            expected.merge(z.node(), 1, Integer::sum);
+        }
+        Map<Object, Integer> actual = new IdentityHashMap<>();
+        for (int e = 0; e < map.size(); e++) actual.merge(map.node(e), 1, Integer::sum);
+        if (!actual.equals(expected)) {
+            throw new AssertionError(map.size() + " entries for the " + expected.size() + " nodes of\n" + PrettyPrinter.pretty(program));
+        }
+        try {
+            map.node(map.size());
+            throw new AssertionError("an entry past the end is readable");
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+
+    /** Entries come in pre-order, inside their parents, and an expression's range is its text. */
+    private static void nesting(SourceMap map, String text) {
+        for (int e = 0; e < map.size(); e++) {
+            int p = map.parent(e), start = map.start(e), end = map.end(e);
+            if (start > end || end > text.length()) throw new AssertionError("entry " + e + " spans [" + start + ", " + end + ")");
+            if (e > 0 && start < map.start(e - 1)) throw new AssertionError("entry " + e + " starts before the one before it");
+            if (p >= e || (p >= 0 && (start < map.start(p) || end > map.end(p)))) {
+                throw new AssertionError("entry " + e + " is not inside its parent " + p);
+            }
+            if (map.node(e) instanceof Expr x && !text.substring(start, end).equals(alone(x))) {
+                throw new AssertionError("entry " + e + " covers '" + text.substring(start, end) + "' instead of '" + alone(x) + "'");
+            }
+        }
+    }
+
+    /** entryAt agrees with the deepest entry containing each offset, and is -1 outside all of them. */
+    private static void lookups(SourceMap map, String text) {
+        int n = map.size();
+        int[] depth = new int[n];
+        for (int e = 0; e < n; e++) depth[e] = map.parent(e) < 0 ? 0 : depth[map.parent(e)] + 1;
+        for (int offset = -1; offset <= text.length(); offset++) {
+            int expected = -1;
+            for (int e = 0; e < n; e++) {
+                if (map.start(e) <= offset && offset < map.end(e) && (expected < 0 || depth[e] > depth[expected])) expected = e;
+            }
+            int actual = map.entryAt(offset);
+            if (actual != expected) {
+                throw new AssertionError("entryAt(" + offset + ") is " + actual + " instead of " + expected + " in\n" + text);
+            }
+            Object node = map.nodeAt(offset);
+            if (node != (expected < 0 ? null : map.node(expected))) throw new AssertionError("nodeAt(" + offset + ") differs");
+        }
+    }
+
+    /** @return the expression printed on its own */
+    private static String alone(Expr x) {
+        String decl = PrettyPrinter.pretty(new Ast.Program(List.of(new Ast.GlobalVarDecl("x", Ast.Type.INT, x))));
+        return decl.substring("x: int = ".length(), decl.length() - ";\n".length());
+    }
+}
@@ -0,0 +1,124 @@
+package madlang.test;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import madlang.PrettyPrinter;
+import madlang.ast.Ast;
+import madlang.interp.Interpreter;
+import madlang.interp.MemorySink;
+import madlang.interp.RuntimeError;
+import madlang.opt.PartialEvaluator;
+import madlang.parse.Parser;
+
+/**
+ * Checks that PartialEvaluator does not change what a program prints, under
+ * budgets from none at all to the default, on programs written around the
+ * budget and around division by zero, and on the test and random programs.
+ * Specializing must leave its input as it was.
+ *
+ * Usage: java -cp out madlang.test.SpecializeCheck [programs]
+ */
+public final class SpecializeCheck {
+
+    private static final int[] BUDGETS = { 0, 1, 5, 40, PartialEvaluator.DEFAULT_BUDGET };
+
+    // Recursion, loops and clone chains that run into the budget or stay just below it
+    private static final String[] BUDGET = {
+        // A clone per value of n, each of which comes down to a literal
+        "fn fact(n: int): int { if (n < 2) { return 1; } return n * fact(n - 1); }"
+            + " fn main(): int { output(fact(12)); output(fact(5)); return fact(3); }",
+        // A chain too long for any budget, next to specializations that fit from budgets 1 and 5 on
+        "fn count(n: int, acc: int): int { if (n == 0) { return acc; } return count(n - 1, acc + n); }"
+            + " fn sq(x: int): int { return x * x; }"
+            + " fn main(): int { output(count(1000, 0)); output(sq(9)); return count(3, 1); }",
+        // Loops of exactly UNROLL_LIMIT iterations and one more
+        "fn main(): int { s: int = 0; i: int = 0; while (i < 32) { s = s + i; i = i + 1; } output(s);"
+            + " j: int = 0; while (j < 33) { s = s + j; j = j + 1; } return s; }",
+        // An unrolled body too large for MAX_UNROLLED, and nested loops
+        "fn main(): int { s: int = 0; i: int = 0; while (i < 30) {"
+            + " s = s + i; s = s * 3; s = s - i; s = s + 7; s = s % 1000; s = s + 1; s = s * 2; s = s - 5; s = s + i * i; i = i + 1; }"
+            + " output(s); a: int = 0; while (a < 4) { b: int = 0; while (b < 4) { s = s + a * b; b = b + 1; } a = a + 1; } return s; }",
+        // Mutual recursion on constants, and a clone reached from two call sites
+        "fn even(n: int): bool { if (n == 0) { return true; } return odd(n - 1); }"
+            + " fn odd(n: int): bool { if (n == 0) { return false; } return even(n - 1); }"
+            + " fn main(): int { output(even(10)); output(odd(7)); output(even(10)); return 0; }",
+        // Clones that capture nothing but call a nested function
+        "fn outer(k: int, x: int): int { fn inner(y: int): int { return y + k; } return inner(x) * k; }"
+            + " fn main(): int { output(outer(3, input())); output(outer(3, 4)); return outer(0, 0); }",
+        // Initializers that call see globals before theirs run, and writes through a call
+        "a: int = f(); b: int = 5; fn f(): int { return b; }"
+            + " fn main(): int { output(a); output(f()); return 0; }",
+        "g: int = 1; fn bump(k: int): int { g = g + k; return g; }"
+            + " fn main(): int { output(bump(2)); output(bump(2)); output(g); return 0; }",
+    };
+
+    // Divisions by zero that must still fail, and ones that must not run at all
+    private static final String[] DIVISION = {
+        "fn main(): int { output(1); return 1 / 0; }",
+        "fn main(): int { output(2); return 7 % (3 - 3); }",
+        "fn div(a: int, b: int): int { return a / b; } fn main(): int { output(div(7, 2)); return div(1, 0); }",
+        "fn pure(n: int): int { return 10 / n; } fn main(): int { output(pure(5)); x: int = pure(0); return 0; }",
+        "fn main(): int { x: int = 0; y: int = 5 / x; output(3); return 0; }",
+        "fn main(): int { output(false && 1 / 0 == 0); output(true || 1 % 0 == 0); return 0; }",
+        "fn main(): int { if (false) { output(1 / 0); } i: int = 0; while (i < 3) { i = i + 1; } return 8 / (i - 3); }",
+        "fn main(): int { x: int = input(); output((-2147483647 - 1) / -1); output((-2147483647 - 1) % -1); return 1 / (x - 7); }",
+    };
+
+    private SpecializeCheck() {}
+
+    public static void main(String[] args) {
+        int programs = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        List<Ast.Program> all = new ArrayList<>();
+        for (String source : BUDGET) all.add(Parser.parse(source));
+        for (String source : DIVISION) all.add(Parser.parse(source));
+        for (int t = 1; t <= 8; t++) all.add(TestPrograms.byName("test" + t));
+        for (int i = 0; i < programs; i++) all.add(RandomPrograms.generate(new Random(i)));
+
+        int runs = 0, changed = 0, errors = 0;
+        for (Ast.Program program : all) {
+            String expected = run(program);
+            String source = PrettyPrinter.pretty(program);
+            boolean differs = false;
+            for (int budget : BUDGETS) {
+                Ast.Program specialized = PartialEvaluator.specialize(program, budget);
+                if (!PrettyPrinter.pretty(program).equals(source)) throw new AssertionError("specializing changed\n" + source);
+                String text = PrettyPrinter.pretty(specialized);
+                differs |= !text.equals(source);
+                String actual = run(specialized);
+                if (!actual.equals(expected)) {
+                    throw new AssertionError("specialized with budget " + budget + ", program prints\n" + actual
+                                             + "instead of\n" + expected + source + "\nafter specializing:\n" + text);
+                }
+                runs++;
+            }
+            if (differs) changed++;
+            if (expected.endsWith("error\n")) errors++;
+        }
+        try {
+            PartialEvaluator.specialize(all.get(0), -1);
+            throw new AssertionError("a negative budget is accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        System.out.printf("specialize: %d programs, %d changed, %d failing; %d runs print the same%n",
+                          all.size(), changed, errors, runs);
+    }
+
+    /** @return output lines and main's result, or the output before a runtime error and "error"; "" without main */
+    private static String run(Ast.Program program) {
+        boolean hasMain = false;
+        for (Ast.Decl d : program.decls) hasMain |= d instanceof Ast.FunDecl f && f.name.equals("main");
+        if (!hasMain) return "";
+        MemorySink sink = new MemorySink();
+        try {
+            int result = Interpreter.compile(program).run(sink, new BufferedReader(new StringReader("7\n-3\n12\n")));
+            return sink + "return " + result + "\n";
+        } catch (RuntimeError e) {
+            return sink + "error\n";
+        }
+    }
+}
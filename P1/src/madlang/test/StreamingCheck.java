@@ -0,0 +1,132 @@
+package madlang.test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.UnaryOperator;
+
+import madlang.FormatOptions;
+import madlang.PrettyPrinter;
+import madlang.StreamingPipeline;
+import madlang.ast.Ast;
+import madlang.ast.Expr;
+import madlang.ast.Rewriter;
+import madlang.parse.ParseException;
+import madlang.parse.Parser;
+
+/**
+ * Checks StreamingPipeline against parsing the whole text and printing it.
+ * The test programs and random ones, printed in each format, must stream to
+ * what pretty(parse(text)) gives, through queues of one declaration and of
+ * the default capacity, and with a folding pass what the same Rewriter gives
+ * on the whole program. So must files whose declarations are larger than
+ * DeclReader's first read, and than several of them together.
+ *
+ * A syntax error late in the input, in a declaration, inside one larger than
+ * a read, at the end of input without a final line break, and after lines
+ * ending in \r\n and \r, must be thrown with the line and column a whole
+ * parse reports and the ones written here; what was printed before it must
+ * be the start of the declarations before the error.
+ *
+ * Usage: java -cp out madlang.test.StreamingCheck [programs]
+ */
+public final class StreamingCheck {
+
+    private static final FormatOptions[] FORMATS = {
+        FormatOptions.DEFAULT,
+        FormatOptions.DEFAULT.withTabs(true).withBraceStyle(FormatOptions.BraceStyle.NEXT_LINE).withElseOnNewLine(false),
+    };
+
+    // Folds + and * of two literals, as a per-declaration pass
+    private static final Rewriter FOLD = Rewriter.EMPTY.withExprRule(Expr.Binary.class, StreamingCheck::fold);
+
+    private StreamingCheck() {}
+
+    public static void main(String[] args) throws IOException {
+        int programs = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        List<String> texts = new ArrayList<>();
+        for (int t = 1; t <= 8; t++) texts.add(PrettyPrinter.pretty(TestPrograms.byName("test" + t)));
+        for (int i = 0; i < programs; i++) texts.add(PrettyPrinter.pretty(RandomPrograms.generate(new Random(i))));
+        // One function of about 5, 8 and 60 KB, between globals, and 2,000 short declarations
+        for (int n : new int[] { 250, 400, 3_000 }) texts.add("x: int = 1;\n" + function("big", n, "") + "y: int = x + 2 * 3;\n");
+        StringBuilder globals = new StringBuilder();
+        for (int g = 0; g < 2_000; g++) globals.append("g").append(g).append(": int = ").append(g).append(" + 1;\n");
+        texts.add(globals.toString());
+
+        int runs = 0;
+        for (String source : texts) {
+            for (FormatOptions format : FORMATS) {
+                String text = PrettyPrinter.pretty(Parser.parse(source), format);
+                Ast.Program program = Parser.parse(text);
+                String plain = PrettyPrinter.pretty(program, format), folded = PrettyPrinter.pretty(FOLD.rewrite(program), format);
+                for (int capacity : new int[] { 1, StreamingPipeline.DEFAULT_CAPACITY }) {
+                    same(text, List.of(), format, capacity, plain);
+                    same(text, List.of(FOLD::rewrite), format, capacity, folded);
+                    runs += 2;
+                }
+            }
+        }
+
+        // A valid program, a broken declaration after it, and the line and column of the error
+        String prefix = globals.toString(), big = prefix + function("big", 3_000, "");
+        String[][] broken = {
+            { prefix, "fn f(): int {\n    return 1 + ;\n}\n", "2002:16" },
+            { prefix, function("big", 3_000, "    a = a * ;\n") + "z: int;\n", "5002:13" },
+            { big, "z: int = ", "5004:10" },
+            { big + "z: int;\r\n", "fn f(): int {\r" + "    x: int = 1;\r\n".repeat(3_000), "8005:1" },
+        };
+        for (String[] b : broken) {
+            error(b[0], b[1], b[2]);
+            runs++;
+        }
+        System.out.printf("streaming: %d runs print what a whole parse prints, or fail where it fails%n", runs);
+    }
+
+    /** @return fn name(a: int): int with n statements of 17 characters, then extra, then a return */
+    private static String function(String name, int n, String extra) {
+        return "fn " + name + "(a: int): int {\n" + "    a = a * 3 + 1;\n".repeat(n) + extra + "    return a;\n}\n";
+    }
+
+    private static Expr fold(Expr.Binary b) {
+        if (!(b.left instanceof Expr.IntLit l) || !(b.right instanceof Expr.IntLit r)) return b;
+        if (b.op == Expr.BinOp.ADD) return new Expr.IntLit(l.value + r.value, b.span);
+        if (b.op == Expr.BinOp.MUL) return new Expr.IntLit(l.value * r.value, b.span);
+        return b;
+    }
+
+    private static void same(String text, List<UnaryOperator<Ast.Decl>> passes, FormatOptions format, int capacity,
+                             String expected) throws IOException {
+        StringBuilder out = new StringBuilder();
+        StreamingPipeline.run(new StringReader(text), passes, format, out, capacity);
+        if (!out.toString().equals(expected)) {
+            throw new AssertionError("streaming " + passes.size() + " passes through " + capacity + " gives\n" + out
+                                     + "\ninstead of\n" + expected);
+        }
+    }
+
+    /** Streams prefix followed by tail, which has a syntax error at position line:col. */
+    private static void error(String prefix, String tail, String position) throws IOException {
+        String text = prefix + tail, whole;
+        try {
+            Parser.parse(text);
+            throw new AssertionError("a broken program parses");
+        } catch (ParseException e) {
+            whole = e.line + ":" + e.col;
+        }
+        if (!whole.equals(position)) throw new AssertionError("a whole parse fails at " + whole + " instead of " + position);
+        StringBuilder out = new StringBuilder();
+        try {
+            StreamingPipeline.run(new StringReader(text), out);
+            throw new AssertionError("a broken program streams");
+        } catch (ParseException e) {
+            if (!(e.line + ":" + e.col).equals(position)) {
+                throw new AssertionError("streaming fails at " + e.line + ":" + e.col + " instead of " + position);
+            }
+        }
+        if (!PrettyPrinter.pretty(Parser.parse(prefix)).startsWith(out.toString())) {
+            throw new AssertionError("streaming printed more than the declarations before the error");
+        }
+    }
+}
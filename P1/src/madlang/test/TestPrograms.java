@@ -36,6 +36,24 @@ public final class TestPrograms {
     System.out.print(PrettyPrinter.pretty(test8()));
   }
 
+  /**
+   * @param name test1 ... test8
+   * @return that test program, or null if there is none by that name
+   */
+  public static Ast.Program byName(String name) {
+    switch (name) {
+      case "test1": return test1();
+      case "test2": return test2();
+      case "test3": return test3();
+      case "test4": return test4();
+      case "test5": return test5();
+      case "test6": return test6();
+      case "test7": return test7();
+      case "test8": return test8();
+      default: return null;
+    }
+  }
+
   /**
    * x: int = 123;
    *
@@ -0,0 +1,200 @@
+package madlang.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import madlang.PrettyPrinter;
+import madlang.analysis.Resolver;
+import madlang.analysis.Symbol;
+import madlang.analysis.XrefIndex;
+import madlang.ast.Ast;
+import madlang.ast.Expr;
+import madlang.ast.Stmt;
+import madlang.ast.Zipper;
+import madlang.parse.SourceFile;
+
+/**
+ * Checks that an XrefIndex kept up to date with update() and replace()
+ * agrees with one built afresh, on the test programs, random ones and one
+ * that defines top-level names twice, edited through SourceFile.
+ *
+ * Each edit takes a declaration out, puts one taken out before back in,
+ * copies one elsewhere (so that its name is defined twice), or adds one that
+ * uses names of the program, some of them undefined; now and then a
+ * declaration is given to replace() in place of itself. After every step,
+ * every use and definition in the program, and every name it ever had, must
+ * have the same entry in both indexes: same kind, definition and symbol, and
+ * the same uses.
+ *
+ * Usage: java -cp out madlang.test.XrefCheck [programs]
+ */
+public final class XrefCheck {
+
+    // Globals and functions declared twice, with uses before, between and after
+    private static final String DUPLICATES =
+        "g: int = f(1);\n"
+        + "fn f(a: int): int { g = a; return f(a) + h; }\n"
+        + "g: int = h + 2;\n"
+        + "h: int = g;\n"
+        + "fn f(b: int): int { return g + b + missing; }\n"
+        + "fn main(): int { output(f(g)); return h; }\n"
+        + "fn f(): int { fn f(c: int): int { return c; } return f(3); }\n";
+
+    private static final int EDITS = 30;
+
+    private XrefCheck() {}
+
+    public static void main(String[] args) {
+        int programs = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        List<String> sources = new ArrayList<>();
+        sources.add(DUPLICATES);
+        for (int t = 1; t <= 8; t++) sources.add(PrettyPrinter.pretty(TestPrograms.byName("test" + t)));
+        for (int i = 0; i < programs; i++) sources.add(PrettyPrinter.pretty(RandomPrograms.generate(new Random(i))));
+
+        int steps = 0, duplicated = 0;
+        for (int s = 0; s < sources.size(); s++) {
+            Random random = new Random(s);
+            SourceFile file = SourceFile.parse(sources.get(s));
+            XrefIndex index = XrefIndex.build(Resolver.resolve(file.program()));
+            Set<String> names = new LinkedHashSet<>();
+            List<String> removed = new ArrayList<>();
+            compare(index, file.program(), names, sources.get(s));
+            for (int e = 0; e < EDITS; e++) {
+                List<Ast.Decl> decls = file.program().decls;
+                int n = decls.size();
+                int op = n == 0 ? 3 : random.nextInt(5);
+                String what;
+                if (op == 4) {
+                    int d = random.nextInt(n);
+                    index.replace(d, d + 1, List.of(decls.get(d)));
+                    what = "declaration " + d + " re-indexed";
+                } else {
+                    String text = file.text().toString();
+                    int at = n == 0 ? text.length() : random.nextInt(n + 1);
+                    int offset = at == n ? text.length() : file.start(at);
+                    if (op == 0) {
+                        int d = random.nextInt(n);
+                        int end = file.end(d) < text.length() && text.charAt(file.end(d)) == '\n' ? file.end(d) + 1 : file.end(d);
+                        removed.add(text.substring(file.start(d), end));
+                        file = file.edit(file.start(d), end - file.start(d), "");
+                        what = "declaration " + d + " taken out";
+                    } else if (op == 1 && !removed.isEmpty()) {
+                        file = file.edit(offset, 0, removed.remove(random.nextInt(removed.size())) + "\n");
+                        what = "a declaration put back at " + at;
+                    } else if (op == 2) {
+                        int d = random.nextInt(n);
+                        file = file.edit(offset, 0, text.substring(file.start(d), file.end(d)) + "\n");
+                        what = "declaration " + d + " copied to " + at;
+                    } else {
+                        file = file.edit(offset, 0, declaration(random, names));
+                        what = "a declaration added at " + at;
+                    }
+                    if (file.error() != null) throw new AssertionError(what + " breaks\n" + text);
+                    index.update(file.program());
+                }
+                try {
+                    compare(index, file.program(), names, file.text().toString());
+                } catch (AssertionError x) {
+                    throw new AssertionError("after " + e + " edits, the last with " + what + ": " + x.getMessage(), x);
+                }
+                steps++;
+            }
+            if (hasDuplicates(file.program())) duplicated++;
+        }
+        System.out.printf("xref: %d programs, %d with names defined twice at the end; %d updates agree with a new index%n",
+                          sources.size(), duplicated, steps);
+    }
+
+    /** @return a global or function using some of names, and some that are defined nowhere */
+    private static String declaration(Random random, Set<String> names) {
+        List<String> pool = new ArrayList<>(names);
+        Collections.addAll(pool, "fresh", "nowhere", "f", "g");
+        String name = pool.get(random.nextInt(pool.size()));
+        String var = pool.get(random.nextInt(pool.size()));
+        String fun = pool.get(random.nextInt(pool.size()));
+        if (random.nextBoolean()) return name + ": int = " + var + " + " + fun + "(1);\n";
+        return "fn " + name + "(a: int): int { " + var + " = a + " + var + "; return " + fun + "(a); }\n";
+    }
+
+    private static boolean hasDuplicates(Ast.Program program) {
+        Set<String> seen = new LinkedHashSet<>();
+        for (Ast.Decl d : program.decls) {
+            String name = d instanceof Ast.FunDecl f ? "fn " + f.name : ((Ast.GlobalVarDecl) d).name;
+            if (!seen.add(name)) return true;
+        }
+        return false;
+    }
+
+    /** Compares index with a new one for program, at every node and at every name in names, to which it adds. */
+    private static void compare(XrefIndex index, Ast.Program program, Set<String> names, String source) {
+        XrefIndex fresh = XrefIndex.build(Resolver.resolve(program));
+        if (index.decls().size() != program.decls.size()) {
+            throw new AssertionError(index.decls().size() + " declarations indexed of " + program.decls.size() + " in\n" + source);
+        }
+        for (int d = 0; d < program.decls.size(); d++) {
+            if (index.decls().get(d) != program.decls.get(d)) throw new AssertionError("declaration " + d + " differs in\n" + source);
+        }
+        if (!program.decls.isEmpty()) {
+            Zipper z = Zipper.of(program);
+            while (true) {
+                Object node = z.node();
+                String name = node instanceof Expr.Var v ? v.name
+                    : node instanceof Expr.Call c ? c.callee
+                    : node instanceof Stmt.Assign a ? a.name
+                    : node instanceof Ast.GlobalVarDecl g ? g.name
+                    : node instanceof Ast.FunDecl f ? f.name : null;
+                if (name != null) names.add(name);
+                same(index.at(node), fresh.at(node), "at " + (name == null ? node : name), index, source);
+                if (!z.hasNext()) break;
+                z = z.next();
+            }
+        }
+        for (String name : names) {
+            same(index.global(name), fresh.global(name), "global " + name, index, source);
+            same(index.function(name), fresh.function(name), "function " + name, index, source);
+        }
+    }
+
+    private static void same(XrefIndex.Entry actual, XrefIndex.Entry expected, String where, XrefIndex index, String source) {
+        if (actual == null && expected == null) return;
+        if (actual == null || expected == null) {
+            throw new AssertionError(where + " the index has " + actual + " instead of " + expected + " in\n" + source);
+        }
+        Symbol a = actual.symbol(), e = expected.symbol();
+        boolean symbols = a == null ? e == null : e != null && a.kind == e.kind && a.name.equals(e.name);
+        if (!actual.name().equals(expected.name()) || actual.isFunction() != expected.isFunction()
+                || actual.definition() != expected.definition() || !symbols) {
+            throw new AssertionError(where + " the index has " + actual + " defined by " + describe(actual.definition(), index)
+                                     + " instead of " + expected + " defined by " + describe(expected.definition(), index)
+                                     + " in\n" + source);
+        }
+        if (a != null && index.entry(a) != actual) throw new AssertionError(where + " the symbol of " + actual + " has another entry");
+        for (XrefIndex.Use kind : XrefIndex.Use.values()) {
+            List<Object> uses = actual.uses(kind);
+            Set<Object> want = Collections.newSetFromMap(new IdentityHashMap<>());
+            want.addAll(expected.uses(kind));
+            if (uses.size() != want.size() || !want.containsAll(identities(uses))) {
+                throw new AssertionError(where + " the index has " + uses.size() + " " + kind + " uses of " + actual
+                                         + " instead of " + want.size() + " in\n" + source);
+            }
+        }
+    }
+
+    /** @return which declaration def is, if it is one */
+    private static String describe(Object def, XrefIndex index) {
+        for (int d = 0; d < index.decls().size(); d++) if (index.decls().get(d) == def) return "declaration " + d;
+        return def == null ? "nothing" : def.getClass().getSimpleName();
+    }
+
+    private static Set<Object> identities(List<Object> nodes) {
+        Set<Object> set = Collections.newSetFromMap(new IdentityHashMap<>());
+        set.addAll(nodes);
+        if (set.size() != nodes.size()) throw new AssertionError("a use is listed twice");
+        return set;
+    }
+}
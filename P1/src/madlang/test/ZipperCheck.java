@@ -0,0 +1,209 @@
+package madlang.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import madlang.PrettyPrinter;
+import madlang.ast.Ast;
+import madlang.ast.Expr;
+import madlang.ast.Rewriter;
+import madlang.ast.Stmt;
+import madlang.ast.Zipper;
+
+/**
+ * Checks Zipper: a walk that replaces every int literal gives the program
+ * Rewriter gives, cursors stay valid after later edits, the Children builders
+ * the edited nodes are made from are spent once a node has taken them, edits
+ * one at a time and in runs to a program and a block with thousands of
+ * children give what the same edits to an array give, and walking a program
+ * with many top-level declarations takes time linear in their number.
+ *
+ * Usage: java -cp out madlang.test.ZipperCheck [programs]
+ */
+public final class ZipperCheck {
+
+    private ZipperCheck() {}
+
+    public static void main(String[] args) {
+        int programs = args.length > 0 ? Integer.parseInt(args[0]) : 1_000;
+        Rewriter increment = Rewriter.EMPTY.withExprRule(Expr.IntLit.class, i -> new Expr.IntLit(i.value + 1, i.span));
+        List<Ast.Program> all = new ArrayList<>();
+        for (int t = 1; t <= 8; t++) all.add(TestPrograms.byName("test" + t));
+        for (int i = 0; i < programs; i++) all.add(RandomPrograms.generate(new Random(i)));
+        for (Ast.Program program : all) {
+            String expected = PrettyPrinter.pretty(increment.rewriteOnce(program));
+            String actual = PrettyPrinter.pretty(incrementAll(program));
+            if (!actual.equals(expected)) {
+                throw new AssertionError("walk gives\n" + actual + "\ninstead of\n" + expected);
+            }
+        }
+
+        persistence();
+        builders();
+        int wide = wide();
+        double ratio = linearity();
+        System.out.printf("zipper: %d programs walked, edits persistent, %d edits to wide nodes,"
+                          + " 8x the declarations walked in %.1fx the time%n", all.size(), wide, ratio);
+    }
+
+    /** @return the program with 1 added to every int literal, by a walk in preorder */
+    private static Ast.Program incrementAll(Ast.Program program) {
+        Zipper z = Zipper.of(program);
+        while (true) {
+            if (z.node() instanceof Expr.IntLit i) z = z.replace(new Expr.IntLit(i.value + 1, i.span));
+            if (!z.hasNext()) break;
+            z = z.next();
+        }
+        return z.root();
+    }
+
+    /** Replaced siblings survive moving back and forth, and older cursors never see newer edits. */
+    private static void persistence() {
+        Ast.Program program = globals(6);
+        Zipper first = Zipper.of(program).down(0).down(0);
+        Zipper a = first.replace(new Expr.IntLit(100)).up();                     // g0 = 100
+        Zipper b = a.right().right().down(0).replace(new Expr.IntLit(102)).up(); // g2 = 102
+        Zipper c = b.left().left().down(0).replace(new Expr.IntLit(200)).up();   // g0 = 200
+        Zipper d = c.right().right().right();                                    // at g3, g2 pending on the left
+        expect(a.root(), "100 1 2 3 4 5");
+        expect(b.root(), "100 1 102 3 4 5");
+        expect(c.root(), "200 1 102 3 4 5");
+        expect(d.left().root(), "200 1 102 3 4 5");
+        expect(d.left().down(0).replace(new Expr.IntLit(7)).root(), "200 1 7 3 4 5");
+        expect(d.root(), "200 1 102 3 4 5");
+        expect(first.root(), "0 1 2 3 4 5");
+        if (!(d.left().node() instanceof Ast.GlobalVarDecl g) || ((Expr.IntLit) g.initOrNull).value != 102) {
+            throw new AssertionError("moving left onto a replaced sibling does not show the replacement");
+        }
+    }
+
+    /** A Children builder gives its array to one node and then refuses any use that could change it. */
+    private static void builders() {
+        Ast.Children<Expr> args = new Ast.Children<Expr>(1).add(new Expr.IntLit(1)).add(new Expr.IntLit(2));
+        Expr.Call call = Expr.Call.of("f", args);
+        Runnable[] uses = {
+            () -> args.add(new Expr.IntLit(3)),
+            () -> args.set(0, new Expr.IntLit(3)),
+            () -> Expr.Call.of("g", args),
+        };
+        for (Runnable use : uses) {
+            try {
+                use.run();
+                throw new AssertionError("a spent Children builder can still be used");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+        }
+        if (call.args.size() != 2 || ((Expr.IntLit) call.args.get(0)).value != 1) throw new AssertionError("call args changed");
+        try {
+            call.args.set(0, new Expr.IntLit(3));
+            throw new AssertionError("a node's children are modifiable");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Replaces the literals of 5,000 globals, and of a block of 2,000
+     * assignments, at random places one at a time and now and then in a run
+     * of up to 300 siblings either way, then compares the result with an
+     * array edited alike and the first program with what it was.
+     *
+     * @return how many literals were replaced
+     */
+    private static int wide() {
+        Random random = new Random(42);
+        int globals = 5_000, stmts = 2_000, edits = 0;
+        List<Stmt> body = new ArrayList<>(stmts);
+        for (int i = 0; i < stmts; i++) body.add(new Stmt.Assign("x", new Expr.IntLit(i)));
+        List<Ast.Decl> decls = new ArrayList<>(globals(globals).decls);
+        decls.add(new Ast.FunDecl("f", List.of(), Ast.Type.INT, new Stmt.Block(body)));
+        Ast.Program first = new Ast.Program(decls), program = first;
+        int[] expected = new int[globals + stmts];
+        for (int i = 0; i < expected.length; i++) expected[i] = i < globals ? i : i - globals;
+
+        for (int round = 0; round < 1_000; round++) {
+            int at = random.nextInt(expected.length);
+            // Runs go right and left, so that replaced siblings wait on either side
+            int step = random.nextBoolean() ? 1 : -1;
+            int end = step > 0 ? (at < globals ? globals : expected.length) - at : at - (at < globals ? 0 : globals) + 1;
+            int run = round % 10 == 0 ? Math.min(1 + random.nextInt(round % 20 == 0 ? 300 : 4), end) : 1;
+            Zipper z = Zipper.of(program).down(Math.min(at, globals));
+            if (at >= globals) z = z.down(0).down(at - globals);
+            for (int k = 0; ; k++) {
+                int value = -1 - edits++;
+                z = z.down(0).replace(new Expr.IntLit(value)).up();
+                expected[at + step * k] = value;
+                if (k + 1 == run) break;
+                z = step > 0 ? z.right() : z.left();
+            }
+            program = z.root();
+        }
+        if (!Arrays.equals(literals(program), expected)) throw new AssertionError("edits to wide nodes went astray");
+        if (!Arrays.equals(literals(first), literals(new Ast.Program(decls)))) throw new AssertionError("edits changed the first program");
+        return edits;
+    }
+
+    /** @return the literals of the globals, then those of the assignments in f, of a program built by wide */
+    private static int[] literals(Ast.Program program) {
+        List<Stmt> body = ((Ast.FunDecl) program.decls.get(program.decls.size() - 1)).body.stmts;
+        int[] values = new int[program.decls.size() - 1 + body.size()];
+        int i = 0;
+        for (Ast.Decl d : program.decls) {
+            if (d instanceof Ast.GlobalVarDecl g) values[i++] = ((Expr.IntLit) g.initOrNull).value;
+        }
+        for (Stmt s : body) values[i++] = ((Expr.IntLit) ((Stmt.Assign) s).rhs).value;
+        return values;
+    }
+
+    /**
+     * Times the increment walk over 10,000 and 80,000 globals. Linear time makes
+     * the second 8-20 times as long as the first (which fits in the caches
+     * better); quadratic time, 64 times or more.
+     *
+     * @return how many times as long the larger walk takes
+     */
+    private static double linearity() {
+        Ast.Program small = globals(10_000), large = globals(80_000);
+        for (int i = 0; i < 5; i++) incrementAll(small);
+        incrementAll(large);
+        long smallNanos = fastest(small), largeNanos = fastest(large);
+        double ratio = (double) largeNanos / smallNanos;
+        if (ratio > 32) {
+            throw new AssertionError(String.format("walking 8x the globals takes %.1fx as long (%.1f ms vs %.1f ms)",
+                                                   ratio, largeNanos / 1e6, smallNanos / 1e6));
+        }
+        return ratio;
+    }
+
+    private static long fastest(Ast.Program program) {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc(); // so that no run pays for the garbage of the one before
+            long start = System.nanoTime();
+            Ast.Program result = incrementAll(program);
+            best = Math.min(best, System.nanoTime() - start);
+            if (result.decls.size() != program.decls.size()) throw new AssertionError("walk lost declarations");
+        }
+        return best;
+    }
+
+    /** @return gI: int = I; for I below n */
+    private static Ast.Program globals(int n) {
+        List<Ast.Decl> decls = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) decls.add(new Ast.GlobalVarDecl("g" + i, Ast.Type.INT, new Expr.IntLit(i)));
+        return new Ast.Program(decls);
+    }
+
+    /** Checks the initializers of a program built by globals. */
+    private static void expect(Ast.Program program, String inits) {
+        StringBuilder actual = new StringBuilder();
+        for (Ast.Decl d : program.decls) {
+            if (actual.length() > 0) actual.append(' ');
+            actual.append(((Expr.IntLit) ((Ast.GlobalVarDecl) d).initOrNull).value);
+        }
+        if (!actual.toString().equals(inits)) throw new AssertionError("initializers " + actual + " instead of " + inits);
+    }
+}